@@ -0,0 +1,51 @@
+package com.noname.plugin.ao;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+import net.java.ao.schema.Unique;
+
+/**
+ * Общее тело письма, хранимое один раз на каждое уникальное содержимое.
+ * <p>
+ * Большие тела (одна и та же рассылка Jira, отправленная многим наблюдателям) не копируются в каждую строку
+ * {@link MailItemContentEntity}: строка содержимого хранит только хеш в {@code BODY_HASH}, а текст лежит здесь.
+ * Записи без ссылок удаляет фоновая очистка ({@code MailItemBodySweeper}).
+ */
+@Table("MAIL_ITEM_BODY")
+public interface MailItemBodyEntity extends Entity {
+
+    /**
+     * SHA-256 тела в шестнадцатеричном виде (см. {@link MailItemContentCodec#hash}). Уникален: одновременное
+     * сохранение одного тела двумя письмами не создаёт вторую строку.
+     */
+    @Indexed
+    @Unique
+    @StringLength(64)
+    String getHash();
+    void setHash(String hash);
+
+    /** Алгоритм сжатия {@code BODY_COMPRESSED}; {@code null} — тело хранится в {@code BODY} как есть. */
+    @StringLength(16)
+    String getCodec();
+    void setCodec(String codec);
+
+    /** Тело письма в формате HTML. */
+    @StringLength(StringLength.UNLIMITED)
+    String getBody();
+    void setBody(String body);
+
+    /** Сжатое тело письма; если заполнено, {@code BODY} пуст. */
+    @StringLength(StringLength.UNLIMITED)
+    String getBodyCompressed();
+    void setBodyCompressed(String bodyCompressed);
+
+    /**
+     * Когда тело последний раз сохранялось или на него ссылалось новое письмо — Unix timestamp в миллисекундах.
+     * Очистка не трогает недавно использованные тела, чтобы не удалить тело, на которое прямо сейчас ссылается новое письмо.
+     */
+    @Indexed
+    Long getLastUsedAt();
+    void setLastUsedAt(Long lastUsedAt);
+}
@@ -0,0 +1,115 @@
+package com.noname.plugin.ao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Формат хранения содержимого в {@code MAIL_ITEM_CONTENT}: сжатие тела и сырых заголовков.
+ * <p>
+ * Значение не короче порога записывается в колонку {@code BODY_COMPRESSED} / {@code RAW_HEADERS_COMPRESSED}
+ * как deflate в base64, а в {@code CODEC} отмечается алгоритм. Короткие значения и все строки,
+ * сохранённые до появления сжатия, лежат в {@code BODY} / {@code RAW_HEADERS} как есть — чтение
+ * через {@link #body} и {@link #rawHeaders} понимает оба варианта.
+ * <p>
+ * Сжатие выключено по умолчанию: поиск {@code searchMode=substring} сравнивает {@code BODY} в SQL
+ * и сжатые тела не видит. Порог в символах задаётся системным свойством {@value #THRESHOLD_PROPERTY};
+ * {@code 0} или отсутствие свойства — не сжимать.
+ */
+public final class MailItemContentCodec {
+
+    /** Значение колонки {@code CODEC} для содержимого, сжатого deflate и закодированного в base64. */
+    public static final String DEFLATE = "deflate";
+
+    public static final String THRESHOLD_PROPERTY = "mailcatcher.compression.threshold";
+
+    private final int threshold;
+
+    /**
+     * @param threshold минимальная длина значения в символах, начиная с которой оно сжимается; {@code 0} — не сжимать
+     */
+    public MailItemContentCodec(int threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("Compression threshold cannot be negative");
+        this.threshold = threshold;
+    }
+
+    /** Кодек с порогом из системного свойства {@value #THRESHOLD_PROPERTY}. */
+    public static MailItemContentCodec fromSystemProperties() {
+        return new MailItemContentCodec(Integer.getInteger(THRESHOLD_PROPERTY, 0));
+    }
+
+    /** Нужно ли сжимать значение при записи. */
+    public boolean shouldCompress(String value) {
+        return threshold > 0 && value != null && value.length() >= threshold;
+    }
+
+    /** Возвращает тело письма, распаковывая его при необходимости. */
+    public static String body(MailItemContentEntity content) {
+        String compressed = content.getBodyCompressed();
+        return compressed != null ? decompress(content.getCodec(), compressed) : content.getBody();
+    }
+
+    /** Возвращает общее тело письма, распаковывая его при необходимости. */
+    public static String body(MailItemBodyEntity body) {
+        String compressed = body.getBodyCompressed();
+        return compressed != null ? decompress(body.getCodec(), compressed) : body.getBody();
+    }
+
+    /** Возвращает сырые заголовки письма, распаковывая их при необходимости. */
+    public static String rawHeaders(MailItemContentEntity content) {
+        String compressed = content.getRawHeadersCompressed();
+        return compressed != null ? decompress(content.getCodec(), compressed) : content.getRawHeaders();
+    }
+
+    /**
+     * Хеш содержимого для дедупликации тел: SHA-256 от UTF-8 байтов в шестнадцатеричном виде (64 символа).
+     * Одинаковые тела дают одинаковый хеш независимо от того, сжаты ли они при хранении.
+     */
+    public static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 обязан поддерживаться любой JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Сжимает строку deflate и кодирует результат в base64 для хранения в текстовой колонке. */
+    public static String compress(String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() / 4 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            // Переданный извне Deflater поток не освобождает — нативная память держится до GC
+            deflater.end();
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Восстанавливает строку, сжатую {@link #compress}.
+     *
+     * @throws IllegalStateException если кодек неизвестен или данные повреждены
+     */
+    public static String decompress(String codec, String value) {
+        if (!DEFLATE.equals(codec)) throw new IllegalStateException("Unknown mail content codec: " + codec);
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(value)))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("Corrupted compressed mail content", e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.noname.plugin.ao;
+
+import net.java.ao.Entity;
+import net.java.ao.Preload;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Тяжёлое содержимое письма: HTML-тело и сырые заголовки.
+ * <p>
+ * Вынесено из {@link MailItemEntity}, чтобы списочные запросы не тянули CLOB-колонки для каждой строки страницы.
+ * На каждую запись {@code MAIL_ITEM_TABLE} приходится ровно одна запись этой таблицы; связь — по {@code MAIL_ITEM_ID}.
+ * Большие значения могут храниться сжатыми — формат описан в {@link MailItemContentCodec}.
+ */
+@Preload
+@Table("MAIL_ITEM_CONTENT")
+public interface MailItemContentEntity extends Entity {
+
+    /** Автоинкрементный ID записи {@link MailItemEntity}, которой принадлежит содержимое. */
+    @Indexed
+    Long getMailItemId();
+    void setMailItemId(Long mailItemId);
+
+    /**
+     * Тело письма в формате HTML.
+     * {@code UNLIMITED} — снимает ограничение VARCHAR(255) для хранения писем произвольного размера.
+     */
+    @StringLength(StringLength.UNLIMITED)
+    String getBody();
+    void setBody(String body);
+
+    /**
+     * Текст тела без HTML-разметки, извлечённый при сохранении письма; по нему ищут теги и его отдаёт
+     * {@code getEmailBodyText}. Хранится несжатым и в каждой строке, даже если само тело общее.
+     * {@code null} — у письма нет тела или оно сохранено до появления колонки и ещё не обработано
+     * {@code MailItemSearchBackfill}.
+     */
+    @StringLength(StringLength.UNLIMITED)
+    String getBodyText();
+    void setBodyText(String bodyText);
+
+    /**
+     * Сырые заголовки письма (RFC 2822).
+     * {@code UNLIMITED} — аналогично полю body, заголовки могут быть большими.
+     */
+    @StringLength(StringLength.UNLIMITED)
+    String getRawHeaders();
+    void setRawHeaders(String rawHeaders);
+
+    /**
+     * SHA-256 тела письма (см. {@link MailItemContentCodec#hash}); {@code null} у писем, сохранённых до появления колонки.
+     * Если {@code BODY} и {@code BODY_COMPRESSED} пусты, тело хранится в {@link MailItemBodyEntity} с этим хешем.
+     */
+    @Indexed
+    @StringLength(64)
+    String getBodyHash();
+    void setBodyHash(String bodyHash);
+
+    /**
+     * Алгоритм сжатия колонок {@code *_COMPRESSED} (см. {@link MailItemContentCodec}).
+     * {@code null} — содержимое хранится только в открытом виде.
+     */
+    @StringLength(16)
+    String getCodec();
+    void setCodec(String codec);
+
+    /** Сжатое тело письма; если заполнено, {@code BODY} пуст. Читать через {@link MailItemContentCodec#body}. */
+    @StringLength(StringLength.UNLIMITED)
+    String getBodyCompressed();
+    void setBodyCompressed(String bodyCompressed);
+
+    /** Сжатые сырые заголовки; если заполнены, {@code RAW_HEADERS} пуст. */
+    @StringLength(StringLength.UNLIMITED)
+    String getRawHeadersCompressed();
+    void setRawHeadersCompressed(String rawHeadersCompressed);
+}
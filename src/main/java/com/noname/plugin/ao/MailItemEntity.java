@@ -12,6 +12,9 @@ import net.java.ao.schema.Table;
  * {@code @Preload} — все поля загружаются одним запросом при первом обращении к объекту.
  * {@code @Table} — явно задаёт имя таблицы в БД, чтобы избежать конфликтов имён.
  * Геттеры и сеттеры реализуются фреймворком автоматически.
+ * <p>
+ * Тело и сырые заголовки хранятся отдельно в {@link MailItemContentEntity}: здесь остаются только поля,
+ * нужные списку писем, поэтому предзагрузка не тянет CLOB-содержимое.
  */
 @Preload
 @Table("MAIL_ITEM_TABLE")
@@ -47,28 +50,45 @@ public interface MailItemEntity extends Entity {
     String getSubject();
     void setSubject(String subject);
 
-    /**
-     * Тело письма в формате HTML.
-     * {@code UNLIMITED} — снимает ограничение VARCHAR(255) для хранения писем произвольного размера.
-     */
-    @StringLength(StringLength.UNLIMITED)
-    String getBody();
-    void setBody(String body);
-
     /** Имена вложений через запятую. */
     @StringLength(StringLength.UNLIMITED)
     String getAttachmentsName();
     void setAttachmentsName(String attachmentsName);
 
     /**
-     * Сырые заголовки письма (RFC 2822).
-     * {@code UNLIMITED} — аналогично полю body, заголовки могут быть большими.
+     * Начало текста тела без HTML-разметки — превью для списка писем.
+     * Заполняется при создании, чтобы список не читал тела; {@code null} у писем, сохранённых до появления колонки.
      */
-    @StringLength(StringLength.UNLIMITED)
-    String getRawHeaders();
-    void setRawHeaders(String rawHeaders);
+    String getPreview();
+    void setPreview(String preview);
 
     /** Время создания письма — Unix timestamp в миллисекундах. */
     Long getCreatedAt();
     void setCreatedAt(Long createdAt);
+
+    /**
+     * Слова письма записаны в {@link MailItemTokenEntity}. {@code null} у писем, сохранённых до появления индекса:
+     * их индексирует фоновая задача {@code MailItemSearchBackfill}.
+     */
+    Boolean getTokensIndexed();
+    void setTokensIndexed(Boolean tokensIndexed);
+
+    // --- Нормализованные копии для поиска ---
+    // Нижний регистр, без пробелов по краям, не длиннее 255 символов: ограниченный VARCHAR можно индексировать
+    // и сравнивать без LOWER() над CLOB, который на Oracle и SQL Server не работает или не использует индексы.
+
+    /** Отправитель в нижнем регистре. */
+    @Indexed
+    String getFromLc();
+    void setFromLc(String fromLc);
+
+    /** Получатель («Кому») в нижнем регистре. */
+    @Indexed
+    String getToLc();
+    void setToLc(String toLc);
+
+    /** Тема в нижнем регистре. */
+    @Indexed
+    String getSubjectLc();
+    void setSubjectLc(String subjectLc);
 }
@@ -0,0 +1,26 @@
+package com.noname.plugin.ao;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Колонки {@code BODY} и {@code RAW_HEADERS} таблицы {@code MAIL_ITEM_TABLE}, в которых содержимое писем хранилось
+ * до появления {@link MailItemContentEntity}.
+ * <p>
+ * Колонки создаёт {@link com.noname.plugin.ao.upgrade.MailItemContentUpgradeTask}; старые письма переносит из них
+ * фоновая задача {@code MailItemSearchBackfill}, после чего колонки обнуляются. Пока перенос не закончен,
+ * содержимое таких писем читается отсюда. Интерфейс не регистрируется в {@code <ao>}: вторая сущность той же таблицы
+ * участвовала бы в миграции схемы наравне с {@link MailItemEntity}.
+ */
+@Table("MAIL_ITEM_TABLE")
+public interface MailItemLegacyContentEntity extends Entity {
+
+    @StringLength(StringLength.UNLIMITED)
+    String getBody();
+    void setBody(String body);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getRawHeaders();
+    void setRawHeaders(String rawHeaders);
+}
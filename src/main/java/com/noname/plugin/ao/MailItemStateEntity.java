@@ -0,0 +1,21 @@
+package com.noname.plugin.ao;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Общее для всех узлов кластера состояние хранилища писем. Таблица содержит одну строку,
+ * её создаёт {@link com.noname.plugin.ao.upgrade.MailItemStateUpgradeTask}.
+ */
+@Table("MAIL_ITEM_STATE")
+public interface MailItemStateEntity extends Entity {
+
+    /**
+     * Версия содержимого хранилища: случайный UUID, который заменяет каждая транзакция сохранения и удаления писем.
+     * Пока значение не изменилось, письма в таблицах те же — на этом построен {@code ETag} ответа {@code /data}.
+     */
+    @StringLength(36)
+    String getVersion();
+    void setVersion(String version);
+}
@@ -0,0 +1,27 @@
+package com.noname.plugin.ao;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Запись инвертированного индекса поиска: одно слово одного письма.
+ * <p>
+ * Заполняется при создании письма из полей from, to, subject и текста тела (см. {@code MailItemTokenizer}).
+ * Поиск по тегам выбирает ID писем по индексу {@code TOKEN} вместо сканирования всей таблицы через {@code LIKE '%tag%'}.
+ */
+@Table("MAIL_ITEM_TOKEN")
+public interface MailItemTokenEntity extends Entity {
+
+    /** Слово в нижнем регистре длиной не больше {@code MailItemTokenizer.MAX_TOKEN_LENGTH}. */
+    @Indexed
+    @StringLength(64)
+    String getToken();
+    void setToken(String token);
+
+    /** Автоинкрементный ID записи {@link MailItemEntity}, в которой встречается слово. */
+    @Indexed
+    Long getMailItemId();
+    void setMailItemId(Long mailItemId);
+}
@@ -0,0 +1,51 @@
+package com.noname.plugin.ao.upgrade;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.activeobjects.external.ActiveObjectsUpgradeTask;
+import com.atlassian.activeobjects.external.ModelVersion;
+import com.noname.plugin.ao.upgrade.v2.MailItemBodyEntity;
+import net.java.ao.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Делает {@code HASH} в {@code MAIL_ITEM_BODY} уникальным.
+ * <p>
+ * До этой версии два письма с одинаковым телом, сохранённые одновременно, могли создать две строки с одним хешем.
+ * Строки содержимого ссылаются на тело по хешу, а не по ID, поэтому из каждой группы дублей остаётся строка
+ * с наименьшим ID, а остальные удаляются, после чего создаётся ограничение уникальности.
+ */
+public class MailItemBodyHashUpgradeTask implements ActiveObjectsUpgradeTask {
+
+    private static final Logger log = LoggerFactory.getLogger(MailItemBodyHashUpgradeTask.class);
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    @Override
+    public ModelVersion getModelVersion() {
+        return ModelVersion.valueOf("3");
+    }
+
+    @Override
+    public void upgrade(ModelVersion currentVersion, ActiveObjects ao) {
+        ao.migrate(MailItemBodyEntity.class);
+
+        List<Integer> duplicates = new ArrayList<>();
+        String[] previousHash = {null};
+        ao.stream(MailItemBodyEntity.class, Query.select("ID, HASH").order("HASH ASC, ID ASC"), body -> {
+            if (body.getHash() != null && body.getHash().equals(previousHash[0])) duplicates.add(body.getID());
+            previousHash[0] = body.getHash();
+        });
+        for (int i = 0; i < duplicates.size(); i += DELETE_CHUNK_SIZE) {
+            List<Integer> chunk = duplicates.subList(i, Math.min(i + DELETE_CHUNK_SIZE, duplicates.size()));
+            ao.deleteWithSQL(MailItemBodyEntity.class,
+                    "ID IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")", chunk.toArray());
+        }
+
+        ao.migrate(com.noname.plugin.ao.upgrade.v3.MailItemBodyEntity.class);
+        log.info("Removed {} duplicate shared mail bodies, HASH is now unique", duplicates.size());
+    }
+}
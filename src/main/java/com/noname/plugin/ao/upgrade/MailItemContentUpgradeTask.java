@@ -0,0 +1,34 @@
+package com.noname.plugin.ao.upgrade;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.activeobjects.external.ActiveObjectsUpgradeTask;
+import com.atlassian.activeobjects.external.ModelVersion;
+import com.noname.plugin.ao.upgrade.v1.MailItemContentEntity;
+import com.noname.plugin.ao.upgrade.v1.MailItemEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Создаёт таблицу содержимого писем {@code MAIL_ITEM_CONTENT}.
+ * <p>
+ * {@code BODY} и {@code RAW_HEADERS} писем, сохранённых до её появления, переносит из {@code MAIL_ITEM_TABLE}
+ * фоновая задача {@link com.noname.plugin.service.MailItemSearchBackfill} после включения плагина: копирование
+ * всей таблицы внутри {@code upgrade} задерживало бы включение плагина на время обхода. До окончания переноса
+ * содержимое таких писем читается из старых колонок. Сами колонки не удаляются: {@code migrate} в Active Objects
+ * не деструктивен.
+ */
+public class MailItemContentUpgradeTask implements ActiveObjectsUpgradeTask {
+
+    private static final Logger log = LoggerFactory.getLogger(MailItemContentUpgradeTask.class);
+
+    @Override
+    public ModelVersion getModelVersion() {
+        return ModelVersion.valueOf("1");
+    }
+
+    @Override
+    public void upgrade(ModelVersion currentVersion, ActiveObjects ao) {
+        ao.migrate(MailItemEntity.class, MailItemContentEntity.class);
+        log.info("Created MAIL_ITEM_CONTENT; content of existing mail items is moved in the background");
+    }
+}
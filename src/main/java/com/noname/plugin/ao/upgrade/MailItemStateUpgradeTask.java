@@ -0,0 +1,37 @@
+package com.noname.plugin.ao.upgrade;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.activeobjects.external.ActiveObjectsUpgradeTask;
+import com.atlassian.activeobjects.external.ModelVersion;
+import com.noname.plugin.ao.upgrade.v4.MailItemStateEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+
+/**
+ * Создаёт таблицу {@code MAIL_ITEM_STATE} и её единственную строку с начальной версией хранилища.
+ * <p>
+ * Задача выполняется один раз на весь кластер, поэтому строка создаётся здесь, а не при первой записи письма:
+ * два узла, создающие её одновременно, получили бы две строки с разными версиями.
+ */
+public class MailItemStateUpgradeTask implements ActiveObjectsUpgradeTask {
+
+    private static final Logger log = LoggerFactory.getLogger(MailItemStateUpgradeTask.class);
+
+    @Override
+    public ModelVersion getModelVersion() {
+        return ModelVersion.valueOf("4");
+    }
+
+    @Override
+    public void upgrade(ModelVersion currentVersion, ActiveObjects ao) {
+        ao.migrate(MailItemStateEntity.class);
+        if (ao.count(MailItemStateEntity.class) == 0) {
+            MailItemStateEntity state = ao.create(MailItemStateEntity.class);
+            state.setVersion(UUID.randomUUID().toString());
+            state.save();
+        }
+        log.info("Created MAIL_ITEM_STATE");
+    }
+}
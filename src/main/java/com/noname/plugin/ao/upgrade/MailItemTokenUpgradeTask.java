@@ -0,0 +1,31 @@
+package com.noname.plugin.ao.upgrade;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.activeobjects.external.ActiveObjectsUpgradeTask;
+import com.atlassian.activeobjects.external.ModelVersion;
+import com.noname.plugin.ao.upgrade.v2.MailItemTokenEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Создаёт таблицу индекса слов {@code MAIL_ITEM_TOKEN}.
+ * <p>
+ * Сам индекс для писем, сохранённых до её появления, строит фоновая задача
+ * {@link com.noname.plugin.service.MailItemSearchBackfill} после включения плагина: построение по всей таблице
+ * писем внутри {@code upgrade} задерживало бы включение плагина на время обхода.
+ */
+public class MailItemTokenUpgradeTask implements ActiveObjectsUpgradeTask {
+
+    private static final Logger log = LoggerFactory.getLogger(MailItemTokenUpgradeTask.class);
+
+    @Override
+    public ModelVersion getModelVersion() {
+        return ModelVersion.valueOf("2");
+    }
+
+    @Override
+    public void upgrade(ModelVersion currentVersion, ActiveObjects ao) {
+        ao.migrate(MailItemTokenEntity.class);
+        log.info("Created MAIL_ITEM_TOKEN; existing mail items are indexed in the background");
+    }
+}
@@ -0,0 +1,27 @@
+package com.noname.plugin.ao.upgrade.v1;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Схема {@code MAIL_ITEM_CONTENT} модели версии 1: только колонки, с которыми таблица появилась.
+ * Используется только в {@link com.noname.plugin.ao.upgrade.MailItemContentUpgradeTask}, чтобы задача создавала
+ * одну и ту же таблицу независимо от последующих изменений {@link com.noname.plugin.ao.MailItemContentEntity}.
+ */
+@Table("MAIL_ITEM_CONTENT")
+public interface MailItemContentEntity extends Entity {
+
+    @Indexed
+    Long getMailItemId();
+    void setMailItemId(Long mailItemId);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getBody();
+    void setBody(String body);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getRawHeaders();
+    void setRawHeaders(String rawHeaders);
+}
@@ -0,0 +1,23 @@
+package com.noname.plugin.ao.upgrade.v1;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Схема {@code MAIL_ITEM_TABLE} до выноса содержимого в {@link com.noname.plugin.ao.MailItemContentEntity}.
+ * Используется только в {@link com.noname.plugin.ao.upgrade.MailItemContentUpgradeTask}: задача гарантирует, что старые
+ * колонки {@code BODY} и {@code RAW_HEADERS} существуют. Читает и обнуляет их
+ * {@link com.noname.plugin.ao.MailItemLegacyContentEntity}.
+ */
+@Table("MAIL_ITEM_TABLE")
+public interface MailItemEntity extends Entity {
+
+    @StringLength(StringLength.UNLIMITED)
+    String getBody();
+    void setBody(String body);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getRawHeaders();
+    void setRawHeaders(String rawHeaders);
+}
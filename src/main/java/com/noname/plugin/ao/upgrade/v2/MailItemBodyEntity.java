@@ -0,0 +1,36 @@
+package com.noname.plugin.ao.upgrade.v2;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Схема {@code MAIL_ITEM_BODY} до ограничения уникальности {@code HASH} (модель версии 2).
+ * Используется только в {@link com.noname.plugin.ao.upgrade.MailItemBodyHashUpgradeTask}: по ней читаются
+ * и удаляются дубли тел, пока ограничение ещё не создано.
+ */
+@Table("MAIL_ITEM_BODY")
+public interface MailItemBodyEntity extends Entity {
+
+    @Indexed
+    @StringLength(64)
+    String getHash();
+    void setHash(String hash);
+
+    @StringLength(16)
+    String getCodec();
+    void setCodec(String codec);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getBody();
+    void setBody(String body);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getBodyCompressed();
+    void setBodyCompressed(String bodyCompressed);
+
+    @Indexed
+    Long getLastUsedAt();
+    void setLastUsedAt(Long lastUsedAt);
+}
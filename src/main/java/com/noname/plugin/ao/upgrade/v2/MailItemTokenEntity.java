@@ -0,0 +1,24 @@
+package com.noname.plugin.ao.upgrade.v2;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Схема {@code MAIL_ITEM_TOKEN} на момент её появления (модель версии 2).
+ * Используется только в {@link com.noname.plugin.ao.upgrade.MailItemTokenUpgradeTask}, чтобы задача создавала
+ * одну и ту же таблицу независимо от последующих изменений {@link com.noname.plugin.ao.MailItemTokenEntity}.
+ */
+@Table("MAIL_ITEM_TOKEN")
+public interface MailItemTokenEntity extends Entity {
+
+    @Indexed
+    @StringLength(64)
+    String getToken();
+    void setToken(String token);
+
+    @Indexed
+    Long getMailItemId();
+    void setMailItemId(Long mailItemId);
+}
@@ -0,0 +1,38 @@
+package com.noname.plugin.ao.upgrade.v3;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+import net.java.ao.schema.Unique;
+
+/**
+ * Схема {@code MAIL_ITEM_BODY} с уникальным {@code HASH} (модель версии 3).
+ * Используется только в {@link com.noname.plugin.ao.upgrade.MailItemBodyHashUpgradeTask}, чтобы задача создавала
+ * одно и то же ограничение независимо от последующих изменений {@link com.noname.plugin.ao.MailItemBodyEntity}.
+ */
+@Table("MAIL_ITEM_BODY")
+public interface MailItemBodyEntity extends Entity {
+
+    @Indexed
+    @Unique
+    @StringLength(64)
+    String getHash();
+    void setHash(String hash);
+
+    @StringLength(16)
+    String getCodec();
+    void setCodec(String codec);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getBody();
+    void setBody(String body);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getBodyCompressed();
+    void setBodyCompressed(String bodyCompressed);
+
+    @Indexed
+    Long getLastUsedAt();
+    void setLastUsedAt(Long lastUsedAt);
+}
@@ -0,0 +1,18 @@
+package com.noname.plugin.ao.upgrade.v4;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Схема {@code MAIL_ITEM_STATE} модели версии 4.
+ * Используется только в {@link com.noname.plugin.ao.upgrade.MailItemStateUpgradeTask}, чтобы задача создавала
+ * одну и ту же таблицу независимо от последующих изменений {@link com.noname.plugin.ao.MailItemStateEntity}.
+ */
+@Table("MAIL_ITEM_STATE")
+public interface MailItemStateEntity extends Entity {
+
+    @StringLength(36)
+    String getVersion();
+    void setVersion(String version);
+}
@@ -0,0 +1,35 @@
+package com.noname.plugin.api;
+
+/**
+ * Письмо целиком из {@link MailItemApiService#getEmail}: все поля сводки, тело и сырые заголовки,
+ * прочитанные за один вызов. Неизменяемый снимок на момент чтения.
+ */
+public class EmailSnapshot extends EmailSummary {
+
+    private final String bodyHtml;
+    private final String bodyText;
+    private final String rawHeaders;
+
+    public EmailSnapshot(String id, String from, String to, String cc, String bcc, String subject,
+                         String attachmentsName, Long createdAt, String bodyHtml, String bodyText, String rawHeaders) {
+        super(id, from, to, cc, bcc, subject, attachmentsName, createdAt);
+        this.bodyHtml = bodyHtml;
+        this.bodyText = bodyText;
+        this.rawHeaders = rawHeaders;
+    }
+
+    /** HTML-тело в исходном виде, как {@link MailItemApiService#getEmailBodyHtml}. */
+    public String getBodyHtml() {
+        return bodyHtml;
+    }
+
+    /** Текст тела без HTML-разметки, как {@link MailItemApiService#getEmailBodyText}. */
+    public String getBodyText() {
+        return bodyText;
+    }
+
+    /** Сырые заголовки в формате RFC 2822; {@code null}, если письмо создано вручную. */
+    public String getRawHeaders() {
+        return rawHeaders;
+    }
+}
@@ -0,0 +1,70 @@
+package com.noname.plugin.api;
+
+/**
+ * Сводка письма из {@link MailItemApiService#findEmails}: адреса, тема и время сохранения без тела.
+ * Неизменяемый снимок на момент чтения — последующее удаление письма его не меняет.
+ */
+public class EmailSummary {
+
+    private final String id;
+    private final String from;
+    private final String to;
+    private final String cc;
+    private final String bcc;
+    private final String subject;
+    private final String attachmentsName;
+    private final Long createdAt;
+
+    public EmailSummary(String id, String from, String to, String cc, String bcc, String subject,
+                        String attachmentsName, Long createdAt) {
+        this.id = id;
+        this.from = from;
+        this.to = to;
+        this.cc = cc;
+        this.bcc = bcc;
+        this.subject = subject;
+        this.attachmentsName = attachmentsName;
+        this.createdAt = createdAt;
+    }
+
+    /** UUID письма — тот же, что возвращает {@code addEmail}. */
+    public String getId() {
+        return id;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getCc() {
+        return cc;
+    }
+
+    public String getBcc() {
+        return bcc;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    /** Имена вложений через запятую; {@code null}, если вложений нет. */
+    public String getAttachmentsName() {
+        return attachmentsName;
+    }
+
+    /** Время сохранения письма, Unix timestamp в миллисекундах. */
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{id=" + id + ", from=" + from + ", to=" + to + ", subject=" + subject
+                + ", createdAt=" + createdAt + "}";
+    }
+}
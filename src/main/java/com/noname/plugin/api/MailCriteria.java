@@ -0,0 +1,80 @@
+package com.noname.plugin.api;
+
+/**
+ * Критерии отбора письма для {@link MailItemApiService#waitForEmail}.
+ * <p>
+ * Неизменяемый объект: каждый метод возвращает копию с добавленным условием. Строковые условия —
+ * подстрока без учёта регистра; незаданное условие не ограничивает отбор.
+ * <pre>
+ *   api.waitForEmail(MailCriteria.any()
+ *           .recipient("user@example.com")
+ *           .subjectContains("создана задача")
+ *           .createdAfter(startedAt), Duration.ofSeconds(10))
+ * </pre>
+ */
+public final class MailCriteria {
+
+    private static final MailCriteria ANY = new MailCriteria(null, null, null, 0);
+
+    private final String sender;
+    private final String recipient;
+    private final String subjectPart;
+    private final long createdAfter;
+
+    private MailCriteria(String sender, String recipient, String subjectPart, long createdAfter) {
+        this.sender = sender;
+        this.recipient = recipient;
+        this.subjectPart = subjectPart;
+        this.createdAfter = createdAfter;
+    }
+
+    /** Критерии без условий: подходит любое письмо. */
+    public static MailCriteria any() {
+        return ANY;
+    }
+
+    /** Адрес отправителя содержит {@code sender}. */
+    public MailCriteria sender(String sender) {
+        return new MailCriteria(sender, recipient, subjectPart, createdAfter);
+    }
+
+    /** Один из адресов {@code To}, {@code Cc} или {@code Bcc} содержит {@code recipient}. */
+    public MailCriteria recipient(String recipient) {
+        return new MailCriteria(sender, recipient, subjectPart, createdAfter);
+    }
+
+    /** Тема содержит {@code subjectPart}. */
+    public MailCriteria subjectContains(String subjectPart) {
+        return new MailCriteria(sender, recipient, subjectPart, createdAfter);
+    }
+
+    /**
+     * Письмо сохранено не раньше {@code epochMillis} (Unix timestamp в миллисекундах).
+     * Граница включительная: письмо, сохранённое в ту же миллисекунду, что и отметка теста, не теряется.
+     */
+    public MailCriteria createdAfter(long epochMillis) {
+        return new MailCriteria(sender, recipient, subjectPart, epochMillis);
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public String getSubjectPart() {
+        return subjectPart;
+    }
+
+    public long getCreatedAfter() {
+        return createdAfter;
+    }
+
+    @Override
+    public String toString() {
+        return "MailCriteria{sender=" + sender + ", recipient=" + recipient + ", subjectPart=" + subjectPart
+                + ", createdAfter=" + createdAfter + "}";
+    }
+}
@@ -2,6 +2,10 @@ package com.noname.plugin.api;
 
 import com.atlassian.jira.mail.Email;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Публичный OSGi-контракт плагина для работы с письмами.
  * Используется из внешних скриптов (ScriptRunner, Spock-тесты) через {@code @PluginModule}.
@@ -23,15 +27,53 @@ import com.atlassian.jira.mail.Email;
  */
 public interface MailItemApiService {
 
-    /** Сохраняет письмо и возвращает UUID созданной записи. */
+    /**
+     * Сохраняет письмо и возвращает UUID созданной записи.
+     *
+     * @return UUID письма или {@code null}, если включён режим write-behind с политикой {@code drop},
+     *         очередь заполнена и письмо отброшено — такое письмо не будет сохранено
+     */
     String addEmail(Email email);
 
-    /** Сохраняет письмо и возвращает UUID созданной записи. */
+    /** Сохраняет письмо и возвращает UUID созданной записи; {@code null} — как в {@link #addEmail(Email)}. */
     String addEmail(String from, String to, String subject, String body);
 
-    /** Сохраняет письмо и возвращает UUID созданной записи. */
+    /** Сохраняет письмо и возвращает UUID созданной записи; {@code null} — как в {@link #addEmail(Email)}. */
     String addEmail(String from, String to, String cc, String bcc, String subject, String body);
 
+    /**
+     * Сохраняет набор писем пакетно — многострочными INSERT, одна транзакция на батч.
+     * Значительно быстрее цикла по {@link #addEmail(Email)} при загрузке тысяч писем.
+     *
+     * @return UUID созданных записей в порядке обхода коллекции
+     */
+    List<String> addEmails(Collection<? extends Email> emails);
+
+    /**
+     * Дожидается записи писем, принятых {@code addEmail} в очередь отложенной записи.
+     * Вызывайте перед чтением только что добавленных писем, если включён режим write-behind;
+     * без него метод возвращается сразу.
+     *
+     * @throws IllegalStateException если письма не записаны за минуту, фоновый поток записи остановлен
+     *                               или часть писем из очереди записать не удалось — их нет в базе
+     */
+    void flush();
+
+    /**
+     * Ждёт письмо, подходящее под критерии, и возвращает его UUID — вместо {@code sleep} и опроса {@link #getEmailCount()}.
+     * <p>
+     * Если подходящее письмо уже сохранено, возвращается сразу (самое раннее из них); иначе — как только
+     * такое письмо будет записано в базу на этом узле. Ожидание не опрашивает базу: метод будит уведомление
+     * сервиса о сохранении. Письма, ещё стоящие в очереди write-behind, становятся видны после их записи.
+     * Без {@link MailCriteria#createdAfter} подойдёт и письмо, оставшееся от предыдущих тестов.
+     *
+     * @param criteria критерии отбора
+     * @param timeout  сколько ждать
+     * @return UUID письма или {@code null}, если за {@code timeout} подходящее письмо не появилось
+     * @throws IllegalArgumentException если {@code criteria} или {@code timeout} равны {@code null} или таймаут отрицательный
+     */
+    String waitForEmail(MailCriteria criteria, Duration timeout);
+
     /** Возвращает общее количество сохранённых писем. */
     int getEmailCount();
 
@@ -44,6 +86,24 @@ public interface MailItemApiService {
     /** Создаёт набор тестовых писем в базе данных. */
     void loadTestData();
 
+    /**
+     * Ищет письма по адресам, теме и времени сохранения одним запросом и возвращает их сводки без тела.
+     * Заменяет обход всех писем с чтением полей по одному, когда нужно найти «письмо, отправленное X».
+     *
+     * @param query условия, порядок и ограничение числа писем
+     * @return сводки писем в порядке {@code query}; пустой список, если ничего не найдено
+     * @throws IllegalArgumentException если {@code query} равен {@code null}
+     */
+    List<EmailSummary> findEmails(MailQuery query);
+
+    /**
+     * Возвращает письмо со всеми полями за один вызов — вместо отдельных {@code getEmailFrom},
+     * {@code getEmailSubject}, {@code getEmailBodyHtml} и т. д., каждый из которых читает письмо заново.
+     *
+     * @throws IllegalArgumentException если письмо с указанным UUID не найдено
+     */
+    EmailSnapshot getEmail(String id);
+
     /** Возвращает адрес отправителя письма с указанным UUID. */
     String getEmailFrom(String id);
 
@@ -67,7 +127,14 @@ public interface MailItemApiService {
 
     /**
      * Возвращает тело письма в виде plain text.
-     * HTML-разметка удаляется через Jsoup; результат содержит только текстовое содержимое.
+     * Текст извлекается из HTML (Jsoup) один раз при сохранении письма и читается из колонки {@code BODY_TEXT};
+     * результат содержит только текстовое содержимое.
      */
     String getEmailBodyText(String id);
+
+    /**
+     * Возвращает SHA-256 тела письма в шестнадцатеричном виде без загрузки самого тела.
+     * Совпадение хешей двух писем означает побайтно одинаковые тела.
+     */
+    String getEmailBodyHash(String id);
 }
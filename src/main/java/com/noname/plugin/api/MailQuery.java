@@ -0,0 +1,125 @@
+package com.noname.plugin.api;
+
+/**
+ * Запрос поиска писем для {@link MailItemApiService#findEmails}.
+ * <p>
+ * Неизменяемый объект: каждый метод возвращает копию с добавленным условием. Строковые условия —
+ * подстрока без учёта регистра; незаданное условие не ограничивает отбор. По умолчанию возвращается
+ * до {@value #DEFAULT_LIMIT} писем, сначала новые.
+ * <pre>
+ *   api.findEmails(MailQuery.all()
+ *           .recipient("user@example.com")
+ *           .createdAfter(startedAt)
+ *           .oldestFirst())
+ * </pre>
+ */
+public final class MailQuery {
+
+    public static final int DEFAULT_LIMIT = 100;
+
+    private static final MailQuery ALL = new MailQuery(null, null, null, 0, 0, DEFAULT_LIMIT, false);
+
+    private final String sender;
+    private final String recipient;
+    private final String subjectPart;
+    private final long createdAfter;
+    private final long createdBefore;
+    private final int limit;
+    private final boolean oldestFirst;
+
+    private MailQuery(String sender, String recipient, String subjectPart, long createdAfter, long createdBefore,
+                      int limit, boolean oldestFirst) {
+        this.sender = sender;
+        this.recipient = recipient;
+        this.subjectPart = subjectPart;
+        this.createdAfter = createdAfter;
+        this.createdBefore = createdBefore;
+        this.limit = limit;
+        this.oldestFirst = oldestFirst;
+    }
+
+    /** Запрос без условий: последние {@value #DEFAULT_LIMIT} писем, сначала новые. */
+    public static MailQuery all() {
+        return ALL;
+    }
+
+    /** Адрес отправителя содержит {@code sender}. */
+    public MailQuery sender(String sender) {
+        return new MailQuery(sender, recipient, subjectPart, createdAfter, createdBefore, limit, oldestFirst);
+    }
+
+    /** Один из адресов {@code To}, {@code Cc} или {@code Bcc} содержит {@code recipient}. */
+    public MailQuery recipient(String recipient) {
+        return new MailQuery(sender, recipient, subjectPart, createdAfter, createdBefore, limit, oldestFirst);
+    }
+
+    /** Тема содержит {@code subjectPart}. */
+    public MailQuery subjectContains(String subjectPart) {
+        return new MailQuery(sender, recipient, subjectPart, createdAfter, createdBefore, limit, oldestFirst);
+    }
+
+    /** Письмо сохранено не раньше {@code epochMillis} (Unix timestamp в миллисекундах, включительно). */
+    public MailQuery createdAfter(long epochMillis) {
+        return new MailQuery(sender, recipient, subjectPart, epochMillis, createdBefore, limit, oldestFirst);
+    }
+
+    /** Письмо сохранено строго раньше {@code epochMillis} (Unix timestamp в миллисекундах). */
+    public MailQuery createdBefore(long epochMillis) {
+        return new MailQuery(sender, recipient, subjectPart, createdAfter, epochMillis, limit, oldestFirst);
+    }
+
+    /**
+     * Максимальное число писем в ответе; сервер ограничивает его тысячей.
+     *
+     * @throws IllegalArgumentException если {@code limit} не положительный
+     */
+    public MailQuery limit(int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Limit must be positive");
+        return new MailQuery(sender, recipient, subjectPart, createdAfter, createdBefore, limit, oldestFirst);
+    }
+
+    /** Сначала старые письма — в порядке сохранения. */
+    public MailQuery oldestFirst() {
+        return new MailQuery(sender, recipient, subjectPart, createdAfter, createdBefore, limit, true);
+    }
+
+    /** Сначала новые письма (по умолчанию). */
+    public MailQuery newestFirst() {
+        return new MailQuery(sender, recipient, subjectPart, createdAfter, createdBefore, limit, false);
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public String getSubjectPart() {
+        return subjectPart;
+    }
+
+    public long getCreatedAfter() {
+        return createdAfter;
+    }
+
+    public long getCreatedBefore() {
+        return createdBefore;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isOldestFirst() {
+        return oldestFirst;
+    }
+
+    @Override
+    public String toString() {
+        return "MailQuery{sender=" + sender + ", recipient=" + recipient + ", subjectPart=" + subjectPart
+                + ", createdAfter=" + createdAfter + ", createdBefore=" + createdBefore
+                + ", limit=" + limit + ", oldestFirst=" + oldestFirst + "}";
+    }
+}
@@ -17,9 +17,21 @@ public final class MailViewerConstants {
     /** Путь JSON-эндпоинта для получения всех писем. */
     public static final String MAIL_ITEMS_DATA = "/mail-items/data";
 
+    /** Long-poll: ответ {@link #MAIL_ITEMS_DATA} откладывается до появления новых писем. */
+    public static final String MAIL_ITEMS_DATA_WAIT = "/mail-items/data/wait";
+
     /** Альтернативный путь для отображения таблицы писем. */
     public static final String MAIL_ITEMS_TABLE = "/mail-items/table";
 
+    /** Путь потоковой выгрузки всех писем в формате NDJSON. */
+    public static final String MAIL_ITEMS_EXPORT = "/mail-items/export.ndjson";
+
+    /** Поток Server-Sent Events о сохранении и удалении писем. */
+    public static final String MAIL_ITEMS_EVENTS = "/mail-items/events";
+
+    /** Ход удаления всех писем, запущенного через {@link #DELETE_ALL_ENDPOINT}. */
+    public static final String MAIL_ITEMS_DELETE_ALL_STATUS = "/mail-items/delete-all/status";
+
     // --- POST-эндпоинты (pathInfo) ---
 
     /** Эндпоинт удаления всех писем. Требует прав системного администратора. */
@@ -31,16 +43,18 @@ public final class MailViewerConstants {
     /** Эндпоинт добавления письма через тело JSON-запроса. */
     public static final String ADD_EMAIL_ENDPOINT = "/add-email";
 
-    // --- Пути CSS-файлов в URL ---
+    // --- Пути статических файлов в URL ---
 
     public static final String CSS_MAIN_PATH = "/css/mail-main.css";
     public static final String CSS_TABLE_PATH = "/css/mail-table.css";
+    public static final String JS_TABLE_PATH = "/js/mail-table.js";
 
     // --- Пути ресурсов в classpath ---
 
     public static final String TABLE_TEMPLATE_PATH = "templates/mail-table-clean.vm";
     public static final String CSS_MAIN_RESOURCE  = "css/mail-main.css";
     public static final String CSS_TABLE_RESOURCE = "css/mail-table.css";
+    public static final String JS_TABLE_RESOURCE  = "js/mail-table.js";
 
     // --- Ключи WebResource ---
 
@@ -52,13 +66,16 @@ public final class MailViewerConstants {
     public static final String HTML_CONTENT_TYPE = "text/html; charset=UTF-8";
     public static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
     public static final String CSS_CONTENT_TYPE  = "text/css; charset=UTF-8";
+    public static final String JS_CONTENT_TYPE   = "application/javascript; charset=UTF-8";
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson; charset=UTF-8";
+    public static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream; charset=UTF-8";
 
     // --- Сообщения об ошибках ---
 
     public static final String ACCESS_DENIED_MESSAGE      = "Access denied: Admin rights required";
     public static final String ENDPOINT_NOT_FOUND_MESSAGE = "Endpoint not found";
     public static final String INTERNAL_ERROR_MESSAGE     = "Internal server error";
-    public static final String CSS_NOT_FOUND_MESSAGE      = "CSS file not found";
+    public static final String STATIC_NOT_FOUND_MESSAGE   = "Static file not found";
 
     // --- Сообщения об успехе ---
 
@@ -74,6 +91,9 @@ public final class MailViewerConstants {
 
     // --- Ограничения ---
 
+    /** Срок кэширования статического файла по ссылке с версией ({@code ?v=}): год, в секундах. */
+    public static final int STATIC_MAX_AGE_SECONDS = 365 * 24 * 60 * 60;
+
     /** Максимально допустимый размер тела запроса: 1 МБ. */
     public static final int MAX_REQUEST_BODY_BYTES = 1024 * 1024;
 
@@ -2,13 +2,24 @@ package com.noname.plugin.impl;
 
 import com.atlassian.jira.mail.Email;
 import com.atlassian.plugin.spring.scanner.annotation.export.ExportAsService;
+import com.noname.plugin.api.EmailSnapshot;
+import com.noname.plugin.api.EmailSummary;
+import com.noname.plugin.api.MailCriteria;
 import com.noname.plugin.api.MailItemApiService;
+import com.noname.plugin.api.MailQuery;
 import com.noname.plugin.model.MailItem;
 import com.noname.plugin.service.MailItemService;
+import com.noname.plugin.service.MailItemWriteBehindQueue;
 import org.jsoup.Jsoup;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 /**
  * Реализация {@link MailItemApiService}.
@@ -19,10 +30,12 @@ import javax.inject.Inject;
 public class MailItemApiServiceImpl implements MailItemApiService {
 
     private final MailItemService mailItemService;
+    private final MailItemWriteBehindQueue writeBehindQueue;
 
     @Inject
-    public MailItemApiServiceImpl(MailItemService mailItemService) {
+    public MailItemApiServiceImpl(MailItemService mailItemService, MailItemWriteBehindQueue writeBehindQueue) {
         this.mailItemService = mailItemService;
+        this.writeBehindQueue = writeBehindQueue;
     }
 
     @Override
@@ -30,7 +43,7 @@ public class MailItemApiServiceImpl implements MailItemApiService {
         if (email == null) {
             throw new IllegalArgumentException("Email object cannot be null");
         }
-        return mailItemService.createMailItem(email);
+        return writeBehindQueue.add(email);
     }
 
     @Override
@@ -51,6 +64,38 @@ public class MailItemApiServiceImpl implements MailItemApiService {
         return addEmail(email);
     }
 
+    @Override
+    public List<String> addEmails(Collection<? extends Email> emails) {
+        if (emails == null) {
+            throw new IllegalArgumentException("Emails collection cannot be null");
+        }
+        return mailItemService.createMailItems(emails);
+    }
+
+    @Override
+    public void flush() {
+        if (!writeBehindQueue.flush() && !Thread.currentThread().isInterrupted()) {
+            throw new IllegalStateException("Queued emails were not written: write-behind writer stopped, timed out or failed to store some of them");
+        }
+    }
+
+    @Override
+    public String waitForEmail(MailCriteria criteria, Duration timeout) {
+        if (criteria == null) throw new IllegalArgumentException("Criteria cannot be null");
+        if (timeout == null || timeout.isNegative()) throw new IllegalArgumentException("Timeout must not be negative");
+        CompletableFuture<String> match = mailItemService.awaitMailItem(criteria.getSender(), criteria.getRecipient(),
+                criteria.getSubjectPart(), criteria.getCreatedAfter(), timeout.toMillis());
+        try {
+            return match.get();
+        } catch (InterruptedException e) {
+            match.cancel(false);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to wait for email " + criteria, e.getCause());
+        }
+    }
+
     @Override
     public int getEmailCount() {
         return mailItemService.countMailItems();
@@ -71,6 +116,25 @@ public class MailItemApiServiceImpl implements MailItemApiService {
         mailItemService.loadTestData();
     }
 
+    @Override
+    public List<EmailSummary> findEmails(MailQuery query) {
+        if (query == null) throw new IllegalArgumentException("Query cannot be null");
+        return mailItemService.findMailItems(query.getSender(), query.getRecipient(), query.getSubjectPart(),
+                        query.getCreatedAfter(), query.getCreatedBefore(), query.getLimit(), query.isOldestFirst())
+                .stream()
+                .map(item -> new EmailSummary(item.getId(), item.getFrom(), item.getTo(), item.getCc(), item.getBcc(),
+                        item.getSubject(), item.getAttachmentsName(), item.getCreatedAt()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public EmailSnapshot getEmail(String id) {
+        MailItem item = getOrThrow(id);
+        return new EmailSnapshot(item.getId(), item.getFrom(), item.getTo(), item.getCc(), item.getBcc(),
+                item.getSubject(), item.getAttachmentsName(), item.getCreatedAt(), item.getBody(), bodyText(item),
+                item.getRawHeaders());
+    }
+
     @Override
     public String getEmailFrom(String id) {
         return getOrThrow(id).getFrom();
@@ -103,9 +167,19 @@ public class MailItemApiServiceImpl implements MailItemApiService {
 
     @Override
     public String getEmailBodyText(String id) {
-        String html = getOrThrow(id).getBody();
+        return bodyText(getOrThrow(id));
+    }
+
+    /** Текст тела, извлечённый при сохранении; HTML разбирается только у писем, сохранённых до колонки {@code BODY_TEXT}. */
+    private static String bodyText(MailItem item) {
+        String html = item.getBody();
         if (html == null) return null;
-        return Jsoup.parse(html).text();
+        return item.getBodyText() != null ? item.getBodyText() : Jsoup.parse(html).text();
+    }
+
+    @Override
+    public String getEmailBodyHash(String id) {
+        return mailItemService.getBodyHash(id);
     }
 
     private MailItem getOrThrow(String id) {
@@ -1,24 +1,55 @@
 package com.noname.plugin.mapper;
 
+import com.noname.plugin.ao.MailItemBodyEntity;
+import com.noname.plugin.ao.MailItemContentCodec;
+import com.noname.plugin.ao.MailItemContentEntity;
 import com.noname.plugin.ao.MailItemEntity;
 import com.noname.plugin.model.MailItem;
 
 /**
- * Маппер между {@link MailItemEntity} (слой БД) и {@link MailItem} (доменная модель).
+ * Маппер между {@link MailItemEntity} / {@link MailItemContentEntity} (слой БД) и {@link MailItem} (доменная модель).
  * Все методы статические — класс не хранит состояния.
  */
 public class MailItemMapper {
 
     /**
-     * Преобразует сущность в полную доменную модель со всеми полями, включая вложения.
+     * Преобразует запись и её содержимое в полную доменную модель со всеми полями, включая тело и заголовки.
+     * Сжатое содержимое распаковывается.
+     *
+     * @param entity  сущность из базы данных
+     * @param content содержимое письма; {@code null}, если строка содержимого отсутствует
+     * @return {@link MailItem} со всеми заполненными полями
+     */
+    public static MailItem toDtoFull(MailItemEntity entity, MailItemContentEntity content) {
+        return toDtoFull(entity, content, null);
+    }
+
+    /**
+     * Как {@link #toDtoFull(MailItemEntity, MailItemContentEntity)}, но тело берётся из общей записи
+     * {@link MailItemBodyEntity}, если она передана.
+     *
+     * @param sharedBody общее тело, на которое ссылается {@code content.getBodyHash()}; {@code null}, если тело хранится в строке содержимого
+     */
+    public static MailItem toDtoFull(MailItemEntity entity, MailItemContentEntity content, MailItemBodyEntity sharedBody) {
+        MailItem mailItem = toDtoSummary(entity);
+        if (content != null) {
+            mailItem.setBody(sharedBody != null ? MailItemContentCodec.body(sharedBody) : MailItemContentCodec.body(content));
+            mailItem.setRawHeaders(MailItemContentCodec.rawHeaders(content));
+            mailItem.setBodyText(content.getBodyText());
+        }
+        return mailItem;
+    }
+
+    /**
+     * Преобразует запись в доменную модель без тела и сырых заголовков — содержимое не загружается.
      * <p>
      * Если все поля получателя (to, cc, bcc) пустые — подставляет заглушку {@code unknown@example.com},
      * так как конструктор {@link MailItem} требует хотя бы одного получателя.
      *
      * @param entity сущность из базы данных
-     * @return {@link MailItem} со всеми заполненными полями
+     * @return {@link MailItem} с заголовочными полями и вложениями; {@code body} и {@code rawHeaders} равны {@code null}
      */
-    public static MailItem toDtoFull(MailItemEntity entity) {
+    public static MailItem toDtoSummary(MailItemEntity entity) {
         String to = entity.getTo();
         String cc = entity.getCc();
         String bcc = entity.getBcc();
@@ -31,10 +62,25 @@ public class MailItemMapper {
         mailItem.setId(entity.getUuid());
         mailItem.setFrom(entity.getFrom());
         mailItem.setSubject(entity.getSubject());
-        mailItem.setBody(entity.getBody());
-        mailItem.setRawHeaders(entity.getRawHeaders());
         mailItem.setCreatedAt(entity.getCreatedAt());
         return mailItem;
     }
 
+    /**
+     * Копия письма с теми же полями, что заполняет {@link #toDtoFull}: изменения копии не затрагивают исходник.
+     *
+     * @param source письмо, полученное из {@link #toDtoFull} или {@link #toDtoSummary}
+     */
+    public static MailItem copy(MailItem source) {
+        MailItem mailItem = new MailItem(source.getTo(), source.getCc(), source.getBcc(), source.getAttachmentsName(),
+                source.getRawHeaders());
+        mailItem.setId(source.getId());
+        mailItem.setFrom(source.getFrom());
+        mailItem.setSubject(source.getSubject());
+        mailItem.setCreatedAt(source.getCreatedAt());
+        mailItem.setBody(source.getBody());
+        mailItem.setBodyText(source.getBodyText());
+        return mailItem;
+    }
+
 }
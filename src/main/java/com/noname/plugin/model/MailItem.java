@@ -27,6 +27,12 @@ public class MailItem extends Email {
     /** Полные заголовки письма в формате RFC 2822. {@code null}, если письмо создано вручную. */
     private String rawHeaders;
 
+    /**
+     * Текст тела без HTML-разметки, извлечённый при сохранении письма.
+     * {@code null}, если тела нет или письмо сохранено до появления колонки {@code BODY_TEXT}.
+     */
+    private String bodyText;
+
     /** Время создания письма — Unix timestamp в миллисекундах. */
     private Long createdAt;
 
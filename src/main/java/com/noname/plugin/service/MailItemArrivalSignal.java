@@ -0,0 +1,54 @@
+package com.noname.plugin.service;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Оповещение ожидающих запросов о новых письмах.
+ * <p>
+ * Запрос регистрирует ожидание через {@link #await} и получает future, которое завершается {@code true},
+ * как только {@link #signal} сообщит о письме с ID больше ожидаемого, или {@code false} по таймауту.
+ * Состояние только в памяти узла: письма, сохранённые на другом узле кластера, ожидание не завершают —
+ * их увидит следующий запрос, который проверяет базу перед ожиданием.
+ */
+final class MailItemArrivalSignal {
+
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Регистрирует ожидание письма с ID строго больше {@code sinceId}.
+     *
+     * @param timeoutMs сколько ждать, мс
+     * @return future: {@code true} — письмо появилось, {@code false} — истёк таймаут
+     */
+    CompletableFuture<Boolean> await(long sinceId, long timeoutMs) {
+        Waiter waiter = new Waiter(sinceId);
+        waiters.add(waiter);
+        waiter.future.whenComplete((arrived, error) -> waiters.remove(waiter));
+        waiter.future.completeOnTimeout(false, timeoutMs, TimeUnit.MILLISECONDS);
+        return waiter.future;
+    }
+
+    /** Сообщает о сохранённых письмах: завершает ожидания, для которых {@code maxId} новее. */
+    void signal(long maxId) {
+        for (Waiter waiter : waiters) {
+            if (maxId > waiter.sinceId) waiter.future.complete(true);
+        }
+    }
+
+    /** Сколько запросов сейчас ожидает. */
+    int waiting() {
+        return waiters.size();
+    }
+
+    private static final class Waiter {
+        final long sinceId;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        Waiter(long sinceId) {
+            this.sinceId = sinceId;
+        }
+    }
+}
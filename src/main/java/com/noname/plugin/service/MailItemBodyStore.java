@@ -0,0 +1,241 @@
+package com.noname.plugin.service;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.activeobjects.tx.Transactional;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.noname.plugin.ao.MailItemBodyEntity;
+import com.noname.plugin.ao.MailItemContentCodec;
+import com.noname.plugin.ao.MailItemContentEntity;
+import net.java.ao.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.noname.plugin.service.MailItemService.chunks;
+import static com.noname.plugin.service.MailItemService.placeholders;
+
+/**
+ * Общие тела писем {@code MAIL_ITEM_BODY}: тело от {@value #MIN_LENGTH} символов хранится один раз по SHA-256,
+ * а строки {@code MAIL_ITEM_CONTENT} ссылаются на него через {@code BODY_HASH}.
+ * <p>
+ * {@link MailItemService} сохраняет тела через {@link #store} до транзакции письма и читает их через {@link #load};
+ * {@link MailItemBodySweeper} удаляет тела без ссылок через {@link #sweepOrphans}.
+ */
+@Component
+public class MailItemBodyStore {
+    private static final Logger log = LoggerFactory.getLogger(MailItemBodyStore.class);
+
+    /**
+     * Тела от этой длины (в символах) хранятся один раз в {@code MAIL_ITEM_BODY} и разделяются письмами по хешу.
+     * Короткие тела дешевле хранить в строке содержимого, чем платить за лишний поиск по хешу.
+     */
+    static final int MIN_LENGTH = 1024;
+
+    /**
+     * Сколько хешей общих тел подставляется в условие поиска по HTML старых писем (до заполнения {@code BODY_TEXT}).
+     * Один {@code IN (...)} этого размера укладывается в лимиты параметров всех поддерживаемых СУБД.
+     */
+    static final int SEARCH_MAX_HASHES = MailItemService.IN_CHUNK_SIZE;
+
+    /**
+     * Как часто обновляется {@code LAST_USED_AT} общего тела, на которое ссылаются новые письма.
+     * Должно быть заметно меньше периода, после которого очистка считает тело неиспользуемым.
+     */
+    private static final long TOUCH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    @ComponentImport
+    private final ActiveObjects ao;
+    private final MailItemContentCodec contentCodec;
+
+    @Inject
+    public MailItemBodyStore(ActiveObjects ao) {
+        this(ao, MailItemContentCodec.fromSystemProperties());
+    }
+
+    /** Создаёт хранилище с явно заданным форматом хранения тел. */
+    public MailItemBodyStore(ActiveObjects ao, MailItemContentCodec contentCodec) {
+        this.ao = ao;
+        this.contentCodec = contentCodec;
+    }
+
+    /** Хранится ли тело в {@code MAIL_ITEM_BODY}, а не в строке содержимого. */
+    static boolean isShared(String body) {
+        return body != null && body.length() >= MIN_LENGTH;
+    }
+
+    /**
+     * Сохраняет общие тела из {@code bodies}, которых ещё нет в {@code MAIL_ITEM_BODY}, одним многострочным INSERT.
+     * Короткие тела и {@code null} пропускаются. У уже существующих тел обновляется {@code LAST_USED_AT},
+     * чтобы очистка не удалила их из-под новых писем.
+     * <p>
+     * {@code HASH} уникален: если то же тело между проверкой и вставкой сохранил другой поток или узел,
+     * INSERT отклоняется целиком. Тогда тела вставляются по одному, и отказ по телу, которое уже есть в таблице,
+     * считается успехом. Вызывается вне транзакции письма — на части СУБД ошибка запроса делает транзакцию
+     * непригодной для продолжения.
+     *
+     * @param bodies тела сохраняемых писем
+     */
+    void store(Collection<String> bodies) {
+        Map<String, String> shared = new HashMap<>();
+        for (String body : bodies) {
+            if (isShared(body)) shared.put(MailItemContentCodec.hash(body), body);
+        }
+        if (shared.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        Map<String, String> missing = new HashMap<>(shared);
+        for (List<Object> hashes : chunks(new ArrayList<>(shared.keySet()))) {
+            Query query = Query.select("ID, HASH, LAST_USED_AT").where("HASH IN (" + placeholders(hashes.size()) + ")", hashes.toArray());
+            for (MailItemBodyEntity existing : ao.find(MailItemBodyEntity.class, query)) {
+                missing.remove(existing.getHash());
+                Long lastUsedAt = existing.getLastUsedAt();
+                if (lastUsedAt == null || now - lastUsedAt >= TOUCH_INTERVAL_MS) {
+                    existing.setLastUsedAt(now);
+                    existing.save();
+                }
+            }
+        }
+        if (missing.isEmpty()) return;
+
+        List<Map<String, Object>> rows = new ArrayList<>(missing.size());
+        for (Map.Entry<String, String> body : missing.entrySet()) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("HASH", body.getKey());
+            row.put("LAST_USED_AT", now);
+            if (contentCodec.shouldCompress(body.getValue())) {
+                row.put("CODEC", MailItemContentCodec.DEFLATE);
+                row.put("BODY_COMPRESSED", MailItemContentCodec.compress(body.getValue()));
+            } else {
+                row.put("BODY", body.getValue());
+            }
+            rows.add(row);
+        }
+        try {
+            ao.create(MailItemBodyEntity.class, rows);
+        } catch (RuntimeException e) {
+            log.debug("Batch insert of {} shared mail bodies rejected, inserting one by one", rows.size(), e);
+            for (Map<String, Object> row : rows) {
+                try {
+                    ao.create(MailItemBodyEntity.class, List.of(row));
+                } catch (RuntimeException rowFailure) {
+                    // Нарушение уникальности: тело уже сохранено — строка содержимого сошлётся на него по хешу
+                    if (ao.count(MailItemBodyEntity.class, Query.select().where("HASH = ?", row.get("HASH"))) == 0) {
+                        throw rowFailure;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Загружает общие тела для строк содержимого, у которых тело не хранится в самой строке.
+     *
+     * @return тела по хешу; строки с телом внутри в карту не попадают. Карта допускает {@code get(null)}:
+     *         у строк без тела {@code BODY_HASH} пуст
+     */
+    Map<String, MailItemBodyEntity> load(Collection<MailItemContentEntity> contents) {
+        List<String> hashes = new ArrayList<>();
+        for (MailItemContentEntity content : contents) {
+            if (content.getBodyHash() != null && content.getBody() == null && content.getBodyCompressed() == null) {
+                hashes.add(content.getBodyHash());
+            }
+        }
+        // Не Map.of(): её get(null) и containsKey(null) бросают NullPointerException
+        if (hashes.isEmpty()) return Collections.emptyMap();
+
+        Map<String, MailItemBodyEntity> result = new HashMap<>();
+        for (List<Object> chunk : chunks(hashes.stream().distinct().collect(Collectors.toList()))) {
+            Query query = Query.select("ID, HASH, CODEC, BODY, BODY_COMPRESSED").where("HASH IN (" + placeholders(chunk.size()) + ")", chunk.toArray());
+            for (MailItemBodyEntity body : ao.find(MailItemBodyEntity.class, query)) {
+                result.put(body.getHash(), body);
+            }
+        }
+        return result;
+    }
+
+    /** Тело письма из строки содержимого или из общего тела, загруженного {@link #load}. */
+    static String resolve(MailItemContentEntity content, Map<String, MailItemBodyEntity> shared) {
+        // У писем, сохранённых до колонки BODY_HASH, хеша нет — тело только в строке
+        MailItemBodyEntity sharedBody = content.getBodyHash() != null ? shared.get(content.getBodyHash()) : null;
+        return sharedBody != null ? MailItemContentCodec.body(sharedBody) : MailItemContentCodec.body(content);
+    }
+
+    /**
+     * Хеши общих тел, содержащих подстроку (поиск {@code searchMode=substring}).
+     * Сжатые тела в SQL не просматриваются — как и сжатые тела в {@code MAIL_ITEM_CONTENT}.
+     * Читается не больше {@value #SEARCH_MAX_HASHES} самых старых тел: без {@code BODY_TEXT} остались
+     * только письма, сохранённые до его появления, и ссылаются они на ранние тела.
+     *
+     * @param pattern шаблон {@code LIKE} в нижнем регистре
+     */
+    List<String> findHashes(String pattern) {
+        Query query = Query.select("ID, HASH").where("LOWER(BODY) LIKE ?", pattern)
+                .order("ID ASC")
+                .limit(SEARCH_MAX_HASHES);
+        List<String> hashes = new ArrayList<>();
+        for (MailItemBodyEntity body : ao.find(MailItemBodyEntity.class, query)) {
+            hashes.add(body.getHash());
+        }
+        if (hashes.size() == SEARCH_MAX_HASHES) {
+            log.debug("Body search matched at least {} shared bodies; newer ones are searched only via BODY_TEXT", hashes.size());
+        }
+        return hashes;
+    }
+
+    /**
+     * Удаляет общие тела {@code MAIL_ITEM_BODY}, на которые не ссылается ни одно письмо, в одном батче.
+     * Вызывается фоновой задачей {@link MailItemBodySweeper} в цикле после удаления писем.
+     * <p>
+     * Тела, использованные позже {@code unusedBefore}, не трогаются: на них может ссылаться письмо,
+     * которое сохраняется прямо сейчас. То же условие повторяется в {@code DELETE}, поэтому тело,
+     * понадобившееся новому письму между проверкой ссылок и удалением, остаётся на месте.
+     *
+     * @param afterId      обработать тела с ID строго больше этого значения
+     * @param unusedBefore удалять только тела с {@code LAST_USED_AT} раньше этого момента (Unix time, мс)
+     * @param batchSize    максимальное число тел в батче
+     * @return ID последнего просмотренного тела; {@code afterId}, если кандидатов не осталось
+     */
+    @Transactional
+    public long sweepOrphans(long afterId, long unusedBefore, int batchSize) {
+        MailItemBodyEntity[] batch = ao.find(MailItemBodyEntity.class, Query.select("ID, HASH")
+                .where("ID > ? AND LAST_USED_AT < ?", afterId, unusedBefore)
+                .order("ID ASC")
+                .limit(batchSize));
+        if (batch.length == 0) return afterId;
+
+        List<Object> hashes = new ArrayList<>(batch.length);
+        for (MailItemBodyEntity body : batch) hashes.add(body.getHash());
+        Set<String> referenced = new HashSet<>();
+        for (List<Object> chunk : chunks(hashes)) {
+            Query query = Query.select("ID, BODY_HASH").where("BODY_HASH IN (" + placeholders(chunk.size()) + ")", chunk.toArray());
+            for (MailItemContentEntity content : ao.find(MailItemContentEntity.class, query)) {
+                referenced.add(content.getBodyHash());
+            }
+        }
+
+        List<Object> orphanIds = new ArrayList<>();
+        for (MailItemBodyEntity body : batch) {
+            if (!referenced.contains(body.getHash())) orphanIds.add((long) body.getID());
+        }
+        for (List<Object> chunk : chunks(orphanIds)) {
+            List<Object> params = new ArrayList<>(chunk);
+            params.add(unusedBefore);
+            int removed = ao.deleteWithSQL(MailItemBodyEntity.class,
+                    "ID IN (" + placeholders(chunk.size()) + ") AND LAST_USED_AT < ?", params.toArray());
+            log.debug("Removed {} unreferenced shared mail bodies", removed);
+        }
+        return batch[batch.length - 1].getID();
+    }
+}
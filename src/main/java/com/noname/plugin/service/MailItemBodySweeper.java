@@ -0,0 +1,66 @@
+package com.noname.plugin.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодическая очистка общих тел {@code MAIL_ITEM_BODY}, на которые больше не ссылается ни одно письмо.
+ * <p>
+ * Удаление писем ({@code deleteMailItemById}, {@code deleteAllMailItemsSafe}) общие тела не трогает — счётчик ссылок
+ * пришлось бы обновлять в каждой транзакции. Вместо этого раз в {@value #INTERVAL_MINUTES} минут таблица обходится
+ * батчами через {@link MailItemBodyStore#sweepOrphans}; тела, использованные за последние
+ * {@value #INTERVAL_MINUTES} минут, пропускаются.
+ */
+@Component
+public class MailItemBodySweeper implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(MailItemBodySweeper.class);
+
+    private static final int BATCH_SIZE = 500;
+    private static final long INTERVAL_MINUTES = 10;
+
+    private final MailItemBodyStore bodyStore;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mail-catcher-body-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Inject
+    public MailItemBodySweeper(MailItemBodyStore bodyStore) {
+        this.bodyStore = bodyStore;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executor.scheduleWithFixedDelay(this::run, INTERVAL_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /** Обходит общие тела батчами, пока они не закончатся или поток не будет прерван. */
+    void run() {
+        long unusedBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(INTERVAL_MINUTES);
+        long lastId = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long next = bodyStore.sweepOrphans(lastId, unusedBefore, BATCH_SIZE);
+                if (next == lastId) break;
+                lastId = next;
+            }
+        } catch (Exception e) {
+            // Исключение не должно отменить следующие запуски по расписанию
+            log.warn("Shared mail body sweep stopped at body ID {}", lastId, e);
+        }
+    }
+}
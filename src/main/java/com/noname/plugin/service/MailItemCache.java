@@ -0,0 +1,173 @@
+package com.noname.plugin.service;
+
+import com.noname.plugin.mapper.MailItemMapper;
+import com.noname.plugin.model.MailItem;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-кэш писем, прочитанных через {@link MailItemService#getMailItemById}, с ограничением по числу писем
+ * и по суммарному размеру строковых полей.
+ * <p>
+ * {@link MailItem} изменяемый, поэтому в кэш кладётся копия и наружу отдаётся копия. Все операции
+ * выполняются под одной блокировкой: критическая секция — поиск в {@link LinkedHashMap} и копирование полей.
+ * <p>
+ * Письмо, прочитанное до удаления, не должно попасть в кэш после него. Поэтому каждое удаление увеличивает
+ * поколение кэша, а {@link #put} принимает поколение, снятое до чтения из базы, и при несовпадении ничего не кладёт.
+ * Состояние только в памяти узла: удаление на другом узле кластера этот кэш не сбрасывает.
+ */
+public final class MailItemCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxEntries максимальное число писем в кэше
+     * @param maxBytes   максимальный суммарный размер писем, байт; письмо крупнее не кэшируется
+     */
+    MailItemCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Возвращает копию письма из кэша или {@code null}; учитывает попадание или промах. */
+    synchronized MailItem get(String uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return MailItemMapper.copy(entry.mailItem);
+    }
+
+    /** Текущее поколение; снимается до чтения письма из базы и передаётся в {@link #put}. */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Кладёт копию письма, если с момента {@link #generation()} не было удалений, и вытесняет
+     * давно не читанные письма сверх лимитов.
+     */
+    synchronized void put(String uuid, MailItem mailItem, long readGeneration) {
+        if (readGeneration != generation) return;
+        long size = sizeOf(mailItem);
+        if (size > maxBytes) return;
+        Entry previous = entries.put(uuid, new Entry(MailItemMapper.copy(mailItem), size));
+        if (previous != null) bytes -= previous.size;
+        bytes += size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /** Убирает письмо из кэша и отменяет его загрузки, начатые до удаления. */
+    synchronized void invalidate(String uuid) {
+        generation++;
+        Entry removed = entries.remove(uuid);
+        if (removed != null) bytes -= removed.size;
+    }
+
+    /** Очищает кэш и отменяет загрузки, начатые до очистки. */
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    /** Снимок счётчиков кэша. */
+    synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), bytes);
+    }
+
+    /** Оценка занимаемой памяти: два байта на символ строковых полей письма. */
+    private static long sizeOf(MailItem mailItem) {
+        long chars = 0;
+        for (String value : new String[]{mailItem.getId(), mailItem.getFrom(), mailItem.getTo(), mailItem.getCc(),
+                mailItem.getBcc(), mailItem.getSubject(), mailItem.getAttachmentsName(), mailItem.getBody(),
+                mailItem.getBodyText(), mailItem.getRawHeaders()}) {
+            if (value != null) chars += value.length();
+        }
+        return chars * 2;
+    }
+
+    private static final class Entry {
+        final MailItem mailItem;
+        final long size;
+
+        Entry(MailItem mailItem, long size) {
+            this.mailItem = mailItem;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Счётчики кэша на момент вызова {@link MailItemService#getMailItemCacheStats} или
+     * {@link MailItemService#getQueryCacheStats}.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+        private final long bytes;
+
+        Stats(long hits, long misses, long evictions, int size, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.bytes = bytes;
+        }
+
+        /** Сколько чтений обошлись без базы. */
+        public long getHits() {
+            return hits;
+        }
+
+        /** Сколько чтений ушли в базу. */
+        public long getMisses() {
+            return misses;
+        }
+
+        /** Сколько записей вытеснено по лимиту числа или размера. */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /** Число записей в кэше. */
+        public int getSize() {
+            return size;
+        }
+
+        /** Оценка размера записей в кэше, байт. */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** Доля попаданий от 0 до 1; {@code 0}, если чтений ещё не было. */
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                    + ", size=" + size + ", bytes=" + bytes + "}";
+        }
+    }
+}
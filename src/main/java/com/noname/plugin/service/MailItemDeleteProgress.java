@@ -0,0 +1,71 @@
+package com.noname.plugin.service;
+
+/**
+ * Снимок хода удаления всех писем ({@link MailItemService#deleteAllMailItems}) на момент вызова
+ * {@link MailItemService#getDeleteProgress}. Обновляется после каждого диапазона ID, уже зафиксированного в базе.
+ */
+public final class MailItemDeleteProgress {
+
+    public enum State {
+        /** Диапазоны ещё удаляются. */
+        RUNNING,
+        /** Все письма до {@link #getMaxId()} удалены. */
+        DONE,
+        /** Удаление прервано ошибкой; удалённые до неё диапазоны остаются удалёнными. */
+        FAILED
+    }
+
+    private final State state;
+    private final long deleted;
+    private final long lastId;
+    private final long maxId;
+    private final long startedAt;
+    private final long finishedAt;
+
+    private MailItemDeleteProgress(State state, long deleted, long lastId, long maxId, long startedAt, long finishedAt) {
+        this.state = state;
+        this.deleted = deleted;
+        this.lastId = lastId;
+        this.maxId = maxId;
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+    }
+
+    static MailItemDeleteProgress running(long deleted, long lastId, long maxId, long startedAt) {
+        return new MailItemDeleteProgress(State.RUNNING, deleted, lastId, maxId, startedAt, 0);
+    }
+
+    /** Завершённое удаление с теми же счётчиками и отметкой времени окончания. */
+    MailItemDeleteProgress finish(State state) {
+        return new MailItemDeleteProgress(state, deleted, lastId, maxId, startedAt, System.currentTimeMillis());
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** Сколько писем уже удалено. */
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /** ID, до которого включительно письма удалены; {@code 0} — ни один диапазон ещё не удалён. */
+    public long getLastId() {
+        return lastId;
+    }
+
+    /** Верхняя граница ID, зафиксированная в начале удаления; {@code 0} — удалять было нечего. */
+    public long getMaxId() {
+        return maxId;
+    }
+
+    /** Время начала удаления — Unix timestamp в миллисекундах. */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /** Время окончания — Unix timestamp в миллисекундах; {@code 0}, пока удаление идёт. */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+}
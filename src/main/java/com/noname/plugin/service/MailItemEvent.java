@@ -0,0 +1,102 @@
+package com.noname.plugin.service;
+
+/**
+ * Событие изменения писем, публикуемое {@link MailItemService} после записи в базу.
+ * <p>
+ * Содержит только сводку письма (без тела и заголовков, с коротким {@code preview}), чтобы рассылка
+ * подписчикам не требовала чтения содержимого. Для {@link Type#DELETED} заполнены только {@link #getSeq()}
+ * и {@link #getId()}, для {@link Type#CLEARED} — только {@link #getSeq()}: максимальный ID удалённых писем.
+ */
+public final class MailItemEvent {
+
+    public enum Type {
+        /** Письмо сохранено. */
+        CREATED,
+        /** Письмо удалено по UUID. */
+        DELETED,
+        /** Удалены все письма с ID не больше {@link #getSeq()}. */
+        CLEARED
+    }
+
+    private final Type type;
+    private final long seq;
+    private final String id;
+    private final String from;
+    private final String to;
+    private final String cc;
+    private final String bcc;
+    private final String subject;
+    private final String preview;
+    private final long createdAt;
+
+    private MailItemEvent(Type type, long seq, String id, String from, String to, String cc, String bcc, String subject,
+                          String preview, long createdAt) {
+        this.type = type;
+        this.seq = seq;
+        this.id = id;
+        this.from = from;
+        this.to = to;
+        this.cc = cc;
+        this.bcc = bcc;
+        this.subject = subject;
+        this.preview = preview;
+        this.createdAt = createdAt;
+    }
+
+    public static MailItemEvent created(long seq, String id, String from, String to, String cc, String bcc,
+                                        String subject, String preview, long createdAt) {
+        return new MailItemEvent(Type.CREATED, seq, id, from, to, cc, bcc, subject, preview, createdAt);
+    }
+
+    public static MailItemEvent deleted(long seq, String id) {
+        return new MailItemEvent(Type.DELETED, seq, id, null, null, null, null, null, null, 0);
+    }
+
+    public static MailItemEvent cleared(long maxId) {
+        return new MailItemEvent(Type.CLEARED, maxId, null, null, null, null, null, null, null, 0);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** Числовой ID письма в {@code MAIL_ITEM_TABLE} — тот же, что {@code maxId} в ответе {@code /data}. */
+    public long getSeq() {
+        return seq;
+    }
+
+    /** UUID письма. */
+    public String getId() {
+        return id;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getCc() {
+        return cc;
+    }
+
+    public String getBcc() {
+        return bcc;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    /** Начало текста тела, как {@code preview} в ответе {@code /data}; {@code null} для письма без тела. */
+    public String getPreview() {
+        return preview;
+    }
+
+    /** Время сохранения письма, Unix timestamp в миллисекундах. */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
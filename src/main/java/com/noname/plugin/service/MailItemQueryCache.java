@@ -0,0 +1,108 @@
+package com.noname.plugin.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU-кэш готовых JSON-ответов {@link MailItemService#writeAllMailItemsJson} с ограничением по суммарному размеру.
+ * <p>
+ * Ответ действителен, пока не изменилась {@link MailItemService#getChangeVersion версия кэша}: кэш хранит
+ * ответы одной версии и очищается при первом обращении с более новой. Версия кэша только растёт: запрос,
+ * снявший версию до записи и пришедший после запроса с новой, получает промах и не откатывает кэш назад.
+ * {@link #put} принимает версию, снятую до чтения из базы, поэтому ответ, прочитанный до записи, не отдаётся после неё.
+ * <p>
+ * Версия кэша — в памяти узла: записи на других узлах кластера меняют её только при чтении
+ * {@link MailItemService#getStoreVersion общей версии хранилища}, поэтому ответ дополнительно
+ * живёт не дольше {@code maxAgeMs}. Все операции выполняются под одной блокировкой.
+ */
+public final class MailItemQueryCache {
+
+    private final long maxBytes;
+    private final long maxAgeMs;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long version;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes максимальный суммарный размер ответов и ключей, байт; ответ крупнее не кэшируется
+     * @param maxAgeMs сколько миллисекунд ответ отдаётся из кэша при неизменной версии
+     */
+    MailItemQueryCache(long maxBytes, long maxAgeMs) {
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Возвращает ответ на запрос {@code key} при версии хранилища {@code version} или {@code null};
+     * учитывает попадание или промах. Более новая версия удаляет ответы прежней, устаревший ответ тоже удаляется;
+     * версия старше текущей — всегда промах без изменения кэша.
+     */
+    synchronized String get(String key, long version) {
+        if (version < this.version) {
+            misses++;
+            return null;
+        }
+        if (version > this.version) {
+            this.version = version;
+            entries.clear();
+            bytes = 0;
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.storedAt >= maxAgeMs) {
+            entries.remove(key);
+            bytes -= entry.size;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.json;
+    }
+
+    /**
+     * Кладёт ответ, прочитанный при версии {@code readVersion}, если кэш хранит именно эту версию,
+     * и вытесняет давно не запрашивавшиеся ответы сверх лимита.
+     */
+    synchronized void put(String key, String json, long readVersion) {
+        if (readVersion != version) return;
+        long size = sizeOf(key, json);
+        if (size > maxBytes) return;
+        Entry previous = entries.put(key, new Entry(json, size, System.currentTimeMillis()));
+        if (previous != null) bytes -= previous.size;
+        bytes += size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /** Снимок счётчиков кэша. */
+    synchronized MailItemCache.Stats stats() {
+        return new MailItemCache.Stats(hits, misses, evictions, entries.size(), bytes);
+    }
+
+    /** Оценка занимаемой памяти: два байта на символ ключа и ответа. */
+    private static long sizeOf(String key, String json) {
+        return 2L * (key.length() + json.length());
+    }
+
+    private static final class Entry {
+        final String json;
+        final long size;
+        final long storedAt;
+
+        Entry(String json, long size, long storedAt) {
+            this.json = json;
+            this.size = size;
+            this.storedAt = storedAt;
+        }
+    }
+}
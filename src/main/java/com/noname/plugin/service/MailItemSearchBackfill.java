@@ -0,0 +1,106 @@
+package com.noname.plugin.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Фоновое заполнение таблиц и колонок для писем, сохранённых до их появления: перенос тела и заголовков
+ * в {@code MAIL_ITEM_CONTENT}, колонки поиска {@code FROM_LC}, {@code TO_LC}, {@code SUBJECT_LC} в {@code MAIL_ITEM_TABLE},
+ * {@code BODY_TEXT} в {@code MAIL_ITEM_CONTENT} и индекс слов {@code MAIL_ITEM_TOKEN}.
+ * <p>
+ * Запускается при включении плагина в отдельном потоке и обходит таблицы батчами через
+ * {@link MailItemService#backfillContent}, {@link MailItemService#backfillSearchColumns},
+ * {@link MailItemService#backfillBodyText} и {@link MailItemTokenIndex#backfill}. Когда содержимое перенесено,
+ * чтение перестаёт смотреть старые колонки ({@link MailItemService#markContentBackfilled}); когда текст тел
+ * заполнен до конца, поиск по телу перестаёт смотреть HTML ({@link MailItemService#markBodyTextBackfilled});
+ * когда проиндексированы все письма, поиск по словам начинает читать индекс
+ * ({@link MailItemTokenIndex#markBackfilled}).
+ * При отключении плагина поток прерывается; незаполненные записи будут обработаны при следующем включении.
+ */
+@Component
+public class MailItemSearchBackfill implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(MailItemSearchBackfill.class);
+
+    private static final int BATCH_SIZE = 200;
+
+    private final MailItemService mailItemService;
+    private final MailItemTokenIndex tokenIndex;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "mail-catcher-search-backfill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Inject
+    public MailItemSearchBackfill(MailItemService mailItemService, MailItemTokenIndex tokenIndex) {
+        this.mailItemService = mailItemService;
+        this.tokenIndex = tokenIndex;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executor.submit(this::run);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Переносит содержимое, затем заполняет колонки писем, текст тел и индекс слов — он читает уже заполненный текст тел.
+     * Ошибка одного обхода не отменяет другие, кроме индекса слов: без перенесённого содержимого письма были бы
+     * проиндексированы без слов тела и больше не попали бы в обход.
+     */
+    void run() {
+        boolean contentMoved = backfill("Content", mailItemService::backfillContent);
+        if (contentMoved) {
+            mailItemService.markContentBackfilled();
+        }
+        backfill("Search columns", mailItemService::backfillSearchColumns);
+        if (backfill("Body text", mailItemService::backfillBodyText)) {
+            mailItemService.markBodyTextBackfilled();
+        }
+        if (!contentMoved) {
+            log.warn("Token index backfill skipped: content of old mail items is not moved yet");
+            return;
+        }
+        if (backfill("Token index", tokenIndex::backfill)) {
+            tokenIndex.markBackfilled();
+        }
+    }
+
+    /**
+     * Обрабатывает батчи, пока они не закончатся или поток не будет прерван.
+     *
+     * @return {@code true}, если обойдены все батчи
+     */
+    private boolean backfill(String name, BatchStep step) {
+        long lastId = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long next = step.process(lastId, BATCH_SIZE);
+                if (next == lastId) {
+                    log.info("{} backfill finished at ID {}", name, lastId);
+                    return true;
+                }
+                lastId = next;
+            }
+        } catch (Exception e) {
+            log.warn("{} backfill stopped at ID {}", name, lastId, e);
+        }
+        return false;
+    }
+
+    /** Один батч заполнения: возвращает ID последней обработанной записи или {@code afterId}, если записей нет. */
+    private interface BatchStep {
+        long process(long afterId, int batchSize);
+    }
+}
@@ -3,49 +3,249 @@ package com.noname.plugin.service;
 import com.atlassian.activeobjects.external.ActiveObjects;
 import com.atlassian.activeobjects.tx.Transactional;
 import com.atlassian.jira.mail.Email;
-import com.atlassian.jira.util.json.JSONArray;
 import com.atlassian.jira.util.json.JSONException;
 import com.atlassian.jira.util.json.JSONObject;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.noname.plugin.ao.MailItemBodyEntity;
+import com.noname.plugin.ao.MailItemContentCodec;
+import com.noname.plugin.ao.MailItemContentEntity;
 import com.noname.plugin.ao.MailItemEntity;
+import com.noname.plugin.ao.MailItemLegacyContentEntity;
 import com.noname.plugin.mapper.MailItemMapper;
 import com.noname.plugin.model.MailItem;
 import net.java.ao.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 /**
  * Сервис для операций с письмами: создание, чтение, удаление и загрузка тестовых данных.
- * Единственная точка доступа к {@code MAIL_ITEM_TABLE} через Active Objects.
+ * Единственная точка доступа к {@code MAIL_ITEM_TABLE} и {@code MAIL_ITEM_CONTENT} через Active Objects.
+ * Содержимое письма (тело, сырые заголовки) читается отдельным запросом и только там, где оно действительно нужно.
+ * Общие тела {@code MAIL_ITEM_BODY} и индекс слов {@code MAIL_ITEM_TOKEN} ведут {@link MailItemBodyStore}
+ * и {@link MailItemTokenIndex}.
  */
 @Component
 public class MailItemService {
+    private static final Logger log = LoggerFactory.getLogger(MailItemService.class);
+
+    /** Режим поиска по умолчанию: теги сопоставляются с началом слов через индекс {@code MAIL_ITEM_TOKEN}. */
+    public static final String SEARCH_MODE_TOKENS = "tokens";
+
+    /** Режим поиска подстрокой: {@code LOWER(...) LIKE '%tag%'} по from, to, subject и body без индекса. */
+    public static final String SEARCH_MODE_SUBSTRING = "substring";
+
+    /**
+     * Режим поиска по началу значения: тег сравнивается с началом from, to или subject
+     * через индексированные колонки {@code FROM_LC}, {@code TO_LC}, {@code SUBJECT_LC}. Тело не просматривается.
+     */
+    public static final String SEARCH_MODE_PREFIX = "prefix";
+
+    /** Режим точного совпадения тега с from, to или subject целиком (без учёта регистра) по тем же колонкам. */
+    public static final String SEARCH_MODE_EXACT = "exact";
+
+    /**
+     * Тег с квалификатором поля: {@code from:}, {@code to:}, {@code subject:} или {@code body:}.
+     * Такой тег сравнивается только с указанным полем; квалификатор без значения считается обычным текстом.
+     */
+    private static final Pattern FIELD_TAG = Pattern.compile("^(from|to|subject|body):\\s*(\\S.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /** Квалификатор тега тела письма: тело хранится в {@code MAIL_ITEM_CONTENT} и не индексируется. */
+    private static final String BODY_QUALIFIER = "body";
+
+    /** Колонки {@code MAIL_ITEM_TABLE} для квалификаторов полей: исходная и нормализованная {@code *_LC}. */
+    private static final Map<String, String[]> FIELD_TAG_COLUMNS = Map.of(
+            "from", new String[]{"\"FROM\"", "FROM_LC"},
+            "to", new String[]{"\"TO\"", "TO_LC"},
+            "subject", new String[]{"\"SUBJECT\"", "SUBJECT_LC"});
+
+    /** Длина нормализованных колонок {@code *_LC}: стандартный VARCHAR(255) Active Objects. */
+    private static final int SEARCH_COLUMN_LENGTH = 255;
+
+    /** Максимальное число плейсхолдеров в одном {@code IN (...)}: держимся ниже лимитов Oracle (1000) и SQL Server. */
+    static final int IN_CHUNK_SIZE = 500;
+
+    /** Сколько писем записывается одной транзакцией в {@link #createMailItems}. */
+    private static final int INSERT_BATCH_SIZE = 200;
+
+    /** Сколько писем читается одним запросом при выгрузке в NDJSON. */
+    private static final int EXPORT_BATCH_SIZE = 500;
+
+    /** Максимальное число писем в ответе {@link #findMailItems}. */
+    public static final int MAX_FIND_LIMIT = 1000;
+
+    /**
+     * Сколько ID писем, подходящих под SQL-фильтр, читается одним проходом для страницы с {@code total}.
+     * Если подходящих писем больше, страница берётся из прочитанных ID, а total считается отдельным {@code COUNT(*)};
+     * страница глубже этого числа писем читается своим запросом рядом с {@code COUNT(*)}, без прохода по ID.
+     */
+    static final int SINGLE_PASS_MAX_MATCHES = 5000;
+
+    /** Сколько писем удаляется одной транзакцией при полной очистке. */
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    /** Сколько писем списка сериализуется за одно чтение тел из {@code MAIL_ITEM_CONTENT}. */
+    private static final int WRITE_CHUNK_SIZE = 50;
+
+    /** Длина превью тела в списке писем, символов. */
+    static final int PREVIEW_LENGTH = 120;
+
+    /** Поле элемента списка с телом письма; читается из {@code MAIL_ITEM_CONTENT}, а не из {@code MAIL_ITEM_TABLE}. */
+    public static final String BODY_FIELD = "body";
+
+    /** Поля элемента списка и их колонки в {@code MAIL_ITEM_TABLE}. */
+    private static final Map<String, String> LIST_FIELD_COLUMNS = listFieldColumns();
+
+    /** Все поля элемента списка, которые можно запросить через {@code fields}. */
+    public static final Set<String> LIST_FIELDS = listFields(true);
+
+    /** Поля списка по умолчанию: сводка письма без тела. */
+    public static final Set<String> SUMMARY_FIELDS = listFields(false);
+
+    /** Колонки {@code MAIL_ITEM_CONTENT}, нужные для полного письма: открытое и сжатое содержимое. */
+    static final String CONTENT_FIELDS = "ID, MAIL_ITEM_ID, BODY_HASH, CODEC, BODY, RAW_HEADERS, BODY_COMPRESSED, RAW_HEADERS_COMPRESSED";
+
+    /** Максимальное число писем в кэше {@link #getMailItemById}. */
+    private static final int MAIL_ITEM_CACHE_MAX_ENTRIES = 500;
+
+    /** Максимальный размер кэша {@link #getMailItemById}, байт: тела уведомлений Jira — десятки килобайт. */
+    private static final long MAIL_ITEM_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+
+    /** Максимальный размер кэша ответов {@link #writeAllMailItemsJson}, байт. */
+    private static final long QUERY_CACHE_MAX_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * Сколько ответ живёт в кэше при неизменной версии: записи на других узлах кластера меняют её,
+     * только когда {@link #getStoreVersion} прочитает новую версию хранилища.
+     */
+    private static final long QUERY_CACHE_MAX_AGE_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /** Страницы длиннее не кэшируются: частые запросы — первые страницы по 10–100 писем. */
+    private static final int QUERY_CACHE_MAX_LIMIT = 100;
+
+    /** Формат UUID письма в запросах по идентификатору. */
+    private static final Pattern UUID_FORMAT = Pattern.compile("[0-9a-fA-F-]{36}");
+
+    /** Как часто счётчик писем сверяется с таблицей через {@code COUNT(*)}. */
+    private static final long COUNT_RECONCILE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
 
     @ComponentImport
     private final ActiveObjects ao;
+    private final MailItemContentCodec contentCodec;
+    private final MailItemStoreVersion storeVersion;
+    private final MailItemBodyStore bodyStore;
+    private final MailItemTokenIndex tokenIndex;
+
+    /** Счётчик записей {@code MAIL_ITEM_TABLE}; {@code -1} — ещё не загружен. */
+    private final AtomicLong cachedCount = new AtomicLong(-1);
+
+    /**
+     * Версия кэша ответов этого узла, см. {@link #getChangeVersion}. Начинается с времени запуска,
+     * чтобы версии после перезапуска не совпадали с выданными раньше.
+     */
+    private final AtomicLong changeVersion = new AtomicLong(System.currentTimeMillis());
+
+    /** Версия хранилища, прочитанная последней {@link #getStoreVersion}; её смена сбрасывает кэш ответов. */
+    private final AtomicReference<String> observedStoreVersion = new AtomicReference<>();
+
+    /** Готовые ответы частых запросов списка; действительны, пока не изменилась {@link #changeVersion}. */
+    private final MailItemQueryCache queryCache = new MailItemQueryCache(QUERY_CACHE_MAX_BYTES, QUERY_CACHE_MAX_AGE_MS);
+
+    /** Ожидающие запросы {@code /data/wait}; будятся при сохранении писем. */
+    private final MailItemArrivalSignal arrivals = new MailItemArrivalSignal();
+
+    /** Письма, прочитанные по UUID; сбрасывается при удалении. */
+    private final MailItemCache mailItemCache = new MailItemCache(MAIL_ITEM_CACHE_MAX_ENTRIES, MAIL_ITEM_CACHE_MAX_BYTES);
+
+    /**
+     * Содержимое всех писем перенесено из старых колонок {@code MAIL_ITEM_TABLE} в {@code MAIL_ITEM_CONTENT}.
+     * До этого письма без строки содержимого читаются из старых колонок; см. {@link #markContentBackfilled}.
+     */
+    private volatile boolean contentBackfilled;
+
+    /**
+     * {@code BODY_TEXT} заполнен у всех писем с телом. До этого поиск по телу дополнительно смотрит HTML
+     * писем, сохранённых до появления колонки; см. {@link #markBodyTextBackfilled}.
+     */
+    private volatile boolean bodyTextBackfilled;
+
+    /** Ход последнего удаления всех писем на этом узле; {@code null} — удаление не запускалось. */
+    private volatile MailItemDeleteProgress deleteProgress;
+
+    /** Подписчики событий изменения писем, см. {@link #subscribe}. */
+    private final List<Consumer<MailItemEvent>> listeners = new CopyOnWriteArrayList<>();
+    private volatile long countReconciledAt;
 
     @Inject
-    public MailItemService(ActiveObjects ao) {
+    public MailItemService(ActiveObjects ao, MailItemStoreVersion storeVersion, MailItemBodyStore bodyStore,
+                           MailItemTokenIndex tokenIndex) {
+        this(ao, storeVersion, bodyStore, tokenIndex, MailItemContentCodec.fromSystemProperties());
+    }
+
+    /** Создаёт сервис с явно заданным форматом хранения содержимого. */
+    public MailItemService(ActiveObjects ao, MailItemStoreVersion storeVersion, MailItemBodyStore bodyStore,
+                           MailItemTokenIndex tokenIndex, MailItemContentCodec contentCodec) {
         this.ao = ao;
+        this.storeVersion = storeVersion;
+        this.bodyStore = bodyStore;
+        this.tokenIndex = tokenIndex;
+        this.contentCodec = contentCodec;
     }
 
     /**
      * Сохраняет письмо в базе данных и возвращает его UUID.
      * Если передан {@link MailItem}, дополнительно сохраняет вложения и сырые заголовки.
+     * Письмо, его содержимое и слова индекса пишутся в одной транзакции; событие публикуется после её фиксации.
      *
      * @param email сохраняемое письмо
      * @return UUID созданной записи
      * @throws IllegalArgumentException если {@code email} равен {@code null}
      */
-    @Transactional
     public String createMailItem(Email email) {
         if (email == null) throw new IllegalArgumentException("Email cannot be null");
+        bodyStore.store(Collections.singletonList(email.getBody()));
+        MailItemEvent created = ao.executeInTransaction(() -> insertMailItem(email));
+        adjustCount(1);
+        publish(List.of(created));
+        return created.getId();
+    }
+
+    /** Записывает одно письмо; вызывается внутри транзакции {@link #createMailItem}. */
+    private MailItemEvent insertMailItem(Email email) {
         String uuid = UUID.randomUUID().toString();
         MailItemEntity entity = ao.create(MailItemEntity.class);
         entity.setUuid(uuid);
@@ -54,14 +254,72 @@ public class MailItemService {
         entity.setCc(email.getCc());
         entity.setBcc(email.getBcc());
         entity.setSubject(email.getSubject());
-        entity.setBody(email.getBody());
+        fillSearchColumns(entity, email.getFrom(), email.getTo(), email.getSubject());
+        String rawHeaders = null;
         if (email instanceof MailItem mailItem) {
             entity.setAttachmentsName(mailItem.getAttachmentsName());
-            entity.setRawHeaders(mailItem.getRawHeaders());
+            rawHeaders = mailItem.getRawHeaders();
         }
-        entity.setCreatedAt(System.currentTimeMillis());
+        String bodyText = MailItemTokenizer.bodyText(email.getBody());
+        String preview = preview(bodyText);
+        entity.setPreview(preview);
+        long createdAt = System.currentTimeMillis();
+        entity.setCreatedAt(createdAt);
+        entity.setTokensIndexed(true);
         entity.save();
-        return uuid;
+        saveContent(entity, email.getBody(), bodyText, rawHeaders);
+        tokenIndex.index(Map.of((long) entity.getID(),
+                MailItemTokenizer.tokenizeText(email.getFrom(), email.getTo(), email.getSubject(), bodyText)));
+        storeVersion.bump();
+        return MailItemEvent.created(entity.getID(), uuid, email.getFrom(), email.getTo(), email.getCc(),
+                email.getBcc(), email.getSubject(), preview, createdAt);
+    }
+
+    /**
+     * Сохраняет набор писем пакетно и возвращает их UUID в порядке входной коллекции.
+     * <p>
+     * Письма записываются батчами по {@value #INSERT_BATCH_SIZE}; каждый батч — одна транзакция из четырёх запросов:
+     * многострочный INSERT писем, выборка их автоинкрементных ID по UUID, многострочные INSERT содержимого
+     * и слов индекса. Для {@link MailItem} дополнительно сохраняются вложения и сырые заголовки.
+     * Общие тела батча ({@code MAIL_ITEM_BODY}) записываются перед его транзакцией.
+     * Если батч завершился ошибкой, предыдущие батчи остаются сохранёнными.
+     *
+     * @param emails сохраняемые письма
+     * @return UUID созданных записей в порядке обхода {@code emails}
+     * @throws IllegalArgumentException если коллекция или одно из писем равно {@code null}
+     */
+    public List<String> createMailItems(Collection<? extends Email> emails) {
+        if (emails == null) throw new IllegalArgumentException("Emails cannot be null");
+        Map<String, Email> byUuid = new LinkedHashMap<>();
+        for (Email email : emails) {
+            if (email == null) throw new IllegalArgumentException("Email cannot be null");
+            byUuid.put(UUID.randomUUID().toString(), email);
+        }
+        createMailItems(byUuid);
+        return new ArrayList<>(byUuid.keySet());
+    }
+
+    /**
+     * Сохраняет письма с заранее выданными UUID тем же пакетным путём, что и {@link #createMailItems(Collection)}.
+     * Используется очередью отложенной записи, которая возвращает UUID вызывающему до записи в базу.
+     *
+     * @param emailsByUuid письма по их UUID; порядок обхода сохраняется порядком вставки
+     * @throws IllegalArgumentException если одно из писем равно {@code null}
+     */
+    public void createMailItems(Map<String, ? extends Email> emailsByUuid) {
+        List<Map.Entry<String, ? extends Email>> all = new ArrayList<>(emailsByUuid.entrySet());
+        for (Map.Entry<String, ? extends Email> entry : all) {
+            if (entry.getValue() == null) throw new IllegalArgumentException("Email cannot be null");
+        }
+        for (int i = 0; i < all.size(); i += INSERT_BATCH_SIZE) {
+            List<Map.Entry<String, ? extends Email>> batch = all.subList(i, Math.min(i + INSERT_BATCH_SIZE, all.size()));
+            // Общие тела пишутся до транзакции батча: конфликт уникального HASH не откатывает письма батча
+            bodyStore.store(batch.stream().map(entry -> entry.getValue().getBody()).collect(Collectors.toList()));
+            List<MailItemEvent> created = ao.executeInTransaction(() -> insertBatch(batch));
+            adjustCount(batch.size());
+            // События после фиксации транзакции батча — разбуженный запрос уже увидит эти письма
+            publish(created);
+        }
     }
 
     /**
@@ -96,37 +354,309 @@ public class MailItemService {
 
     /**
      * Возвращает письмо по UUID.
+     * <p>
+     * Письма кэшируются в памяти (LRU, до {@value #MAIL_ITEM_CACHE_MAX_ENTRIES} писем и 16 МБ): повторные чтения
+     * одного письма не обращаются к базе. Сохранённое письмо не меняется, поэтому кэш сбрасывается только
+     * {@link #deleteMailItemById} и {@link #deleteAllMailItems}. Каждый вызов возвращает новый экземпляр.
      *
      * @param uuid идентификатор письма
      * @return {@link MailItem} или {@code null}, если письмо не найдено
+     * @see #getMailItemCacheStats()
      */
     public MailItem getMailItemById(String uuid) {
-        if (uuid == null || !uuid.matches("[0-9a-fA-F-]{36}")) return null;
+        if (uuid == null) return null;
+        MailItem cached = mailItemCache.get(uuid);
+        if (cached != null) return cached;
+        if (!UUID_FORMAT.matcher(uuid).matches()) return null;
+
+        long generation = mailItemCache.generation();
         MailItemEntity[] results = ao.find(MailItemEntity.class, Query.select().where("UUID = ?", uuid));
         if (results.length == 0) return null;
-        return MailItemMapper.toDtoFull(results[0]);
+        MailItemContentEntity[] content = ao.find(MailItemContentEntity.class,
+                Query.select().where("MAIL_ITEM_ID = ?", (long) results[0].getID()));
+        MailItem mailItem;
+        if (content.length == 0) {
+            mailItem = withLegacyContent(MailItemMapper.toDtoFull(results[0], null),
+                    loadLegacyContent(List.of(results[0]), Map.of()).get((long) results[0].getID()));
+        } else {
+            Map<String, MailItemBodyEntity> shared = bodyStore.load(Arrays.asList(content));
+            mailItem = MailItemMapper.toDtoFull(results[0], content[0], shared.get(content[0].getBodyHash()));
+        }
+        mailItemCache.put(uuid, mailItem, generation);
+        return mailItem;
+    }
+
+    /** Счётчики кэша {@link #getMailItemById}: попадания, промахи, вытеснения и текущий размер. */
+    public MailItemCache.Stats getMailItemCacheStats() {
+        return mailItemCache.stats();
+    }
+
+    /** Счётчики кэша ответов {@link #writeAllMailItemsJson}. */
+    public MailItemCache.Stats getQueryCacheStats() {
+        return queryCache.stats();
+    }
+
+    /**
+     * Версия кэша ответов этого узла: увеличивается после каждого сохранения и удаления писем на нём,
+     * когда изменение уже зафиксировано, а также когда {@link #getStoreVersion} видит запись другого узла.
+     */
+    public long getChangeVersion() {
+        return changeVersion.get();
+    }
+
+    /**
+     * Версия содержимого хранилища, общая для всех узлов кластера (см. {@link MailItemStoreVersion}):
+     * меняется в каждой транзакции сохранения и удаления писем. Пока версия не изменилась, ответ на тот же запрос
+     * списка не меняется — на этом построен {@code ETag} ответа {@code /data}. Если версия отличается от прочитанной
+     * в прошлый раз, кэш ответов {@link #writeAllMailItemsJson} этого узла сбрасывается, поэтому страница, отданная
+     * после вызова, не старше возвращённой версии.
+     *
+     * @return версия или {@code null}, если таблица {@code MAIL_ITEM_STATE} ещё не заполнена
+     */
+    public String getStoreVersion() {
+        String version = storeVersion.current();
+        if (!Objects.equals(observedStoreVersion.getAndSet(version), version)) changeVersion.incrementAndGet();
+        return version;
+    }
+
+    /**
+     * Возвращает SHA-256 тела письма (64 шестнадцатеричных символа) без загрузки самого тела.
+     * Одинаковые тела дают одинаковый хеш — так тесты сравнивают письма, не передавая содержимое.
+     * Для писем, сохранённых до появления колонки {@code BODY_HASH}, хеш вычисляется по телу.
+     *
+     * @param uuid идентификатор письма
+     * @return хеш тела; {@code null}, если у письма нет тела
+     * @throws IllegalArgumentException если письмо не найдено
+     */
+    public String getBodyHash(String uuid) {
+        if (uuid == null || !UUID_FORMAT.matcher(uuid).matches()) throw new IllegalArgumentException("Email not found");
+        MailItemEntity[] results = ao.find(MailItemEntity.class, Query.select("ID").where("UUID = ?", uuid));
+        if (results.length == 0) throw new IllegalArgumentException("Email not found");
+        MailItemContentEntity[] content = ao.find(MailItemContentEntity.class,
+                Query.select("ID, MAIL_ITEM_ID, BODY_HASH").where("MAIL_ITEM_ID = ?", (long) results[0].getID()));
+        if (content.length == 0) {
+            MailItemLegacyContentEntity legacy = loadLegacyContent(List.of(results[0]), Map.of()).get((long) results[0].getID());
+            return legacy != null && legacy.getBody() != null ? MailItemContentCodec.hash(legacy.getBody()) : null;
+        }
+        if (content[0].getBodyHash() != null) return content[0].getBodyHash();
+
+        MailItemContentEntity[] legacy = ao.find(MailItemContentEntity.class,
+                Query.select("ID, MAIL_ITEM_ID, CODEC, BODY, BODY_COMPRESSED").where("MAIL_ITEM_ID = ?", (long) results[0].getID()));
+        String body = MailItemContentCodec.body(legacy[0]);
+        return body != null ? MailItemContentCodec.hash(body) : null;
     }
 
     /**
      * Возвращает все письма из базы данных в виде доменных объектов.
      *
      * @return список всех писем; пустой список, если записей нет
-     * @deprecated Загружает все записи без ограничения. Используйте {@link #getAllMailItemsAsJson} с пагинацией.
+     * @deprecated Загружает все записи без ограничения. Используйте {@link #getAllMailItemsAsJson} с пагинацией
+     *             или {@link #exportMailItemsNdjson} для выгрузки всей базы.
      */
     @Deprecated
     public List<MailItem> getAllMailItems() {
-        return Arrays.stream(ao.find(MailItemEntity.class))
-                .map(MailItemMapper::toDtoFull)
+        MailItemEntity[] entities = ao.find(MailItemEntity.class);
+        Map<Long, MailItemContentEntity> content = loadContent(Arrays.asList(entities), CONTENT_FIELDS);
+        Map<String, MailItemBodyEntity> shared = bodyStore.load(content.values());
+        Map<Long, MailItemLegacyContentEntity> legacy = loadLegacyContent(Arrays.asList(entities), content);
+        return Arrays.stream(entities)
+                .map(e -> toDtoFull(e, content, shared, legacy))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Ищет письма по адресам, теме и времени сохранения одним запросом к {@code MAIL_ITEM_TABLE}.
+     * Строковые критерии — подстрока без учёта регистра, {@code null} или пустая строка — без ограничения;
+     * {@code recipient} ищется в {@code to}, {@code cc} и {@code bcc}. Содержимое писем не читается.
+     *
+     * @param sender      подстрока адреса отправителя
+     * @param recipient   подстрока адреса получателя
+     * @param subjectPart подстрока темы
+     * @param createdFrom письма, сохранённые не раньше этого момента (мс); 0 — без ограничения
+     * @param createdTo   письма, сохранённые строго раньше этого момента (мс); 0 — без ограничения
+     * @param limit       максимальное число писем; не больше {@value #MAX_FIND_LIMIT}
+     * @param ascending   {@code true} — сначала старые, {@code false} — сначала новые
+     * @return сводки писем без {@code body} и {@code rawHeaders}
+     * @throws IllegalArgumentException если {@code limit} не положительный
+     */
+    public List<MailItem> findMailItems(String sender, String recipient, String subjectPart, long createdFrom,
+                                        long createdTo, int limit, boolean ascending) {
+        if (limit <= 0) throw new IllegalArgumentException("Limit must be positive");
+        StringBuilder where = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        appendCriteria(where, params, sender, recipient, subjectPart, createdFrom);
+        if (createdTo > 0) {
+            if (!where.isEmpty()) where.append(" AND ");
+            where.append("m.CREATED_AT < ?");
+            params.add(createdTo);
+        }
+        Query query = listQuery(false, listColumns(SUMMARY_FIELDS))
+                .order(ascending ? "m.ID ASC" : "m.ID DESC")
+                .limit(Math.min(limit, MAX_FIND_LIMIT));
+        if (!where.isEmpty()) query = query.where(where.toString(), params.toArray());
+        return Arrays.stream(ao.find(MailItemEntity.class, query))
+                .map(MailItemMapper::toDtoSummary)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Подписывает слушателя на события изменения писем: сохранение, удаление по UUID и удаление всех писем.
+     * <p>
+     * События публикуются на этом узле после фиксации транзакции, в которой письма сохранены или удалены
+     * (для пакетной записи — транзакции батча, для удаления всех писем — после последнего диапазона),
+     * и вызываются синхронно в потоке, который сохранял или удалял письма. Слушатель не должен блокироваться:
+     * долгую работу (например, запись в сетевое соединение) следует передавать своему потоку.
+     *
+     * @param listener получатель событий
+     * @return действие отписки
+     */
+    public Runnable subscribe(Consumer<MailItemEvent> listener) {
+        if (listener == null) throw new IllegalArgumentException("Listener cannot be null");
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    /**
+     * Ждёт появления писем с ID больше {@code sinceId} без опроса базы.
+     * <p>
+     * Ожидание регистрируется до проверки базы, поэтому письмо, сохранённое между ними, не теряется.
+     * Если новые письма уже есть, future завершается сразу; иначе — при сохранении письма на этом узле
+     * или по таймауту. Проверка — один запрос первого ID по индексу, без {@code COUNT}.
+     *
+     * @param sinceId   максимальный ID, который клиент уже видел
+     * @param timeoutMs сколько ждать, мс
+     * @return future: {@code true} — есть письма новее {@code sinceId}, {@code false} — истёк таймаут
+     */
+    public CompletableFuture<Boolean> awaitMailItemsAfter(long sinceId, long timeoutMs) {
+        CompletableFuture<Boolean> arrival = arrivals.await(sinceId, timeoutMs);
+        MailItemEntity[] newer = ao.find(MailItemEntity.class, Query.select("ID").where("ID > ?", sinceId).limit(1));
+        if (newer.length > 0) arrival.complete(true);
+        return arrival;
+    }
+
+    /**
+     * Ждёт письмо, подходящее под критерии, без опроса базы.
+     * <p>
+     * Сначала регистрируется подписка на события сохранения, затем одним запросом проверяется, нет ли
+     * подходящего письма в базе — письмо, сохранённое между ними, не теряется. Дальше future завершается
+     * событием {@link MailItemEvent.Type#CREATED} первого подходящего письма, сохранённого на этом узле,
+     * или значением {@code null} по таймауту.
+     * <p>
+     * Строковые критерии сравниваются подстрокой без учёта регистра; {@code null} или пустая строка —
+     * без ограничения. {@code recipient} ищется в {@code to}, {@code cc} и {@code bcc}.
+     *
+     * @param sender      подстрока адреса отправителя
+     * @param recipient   подстрока адреса получателя
+     * @param subjectPart подстрока темы
+     * @param createdFrom письмо сохранено не раньше этого момента (мс); 0 — без ограничения
+     * @param timeoutMs   сколько ждать, мс
+     * @return future с UUID письма; из базы берётся самое раннее подходящее; {@code null} — истёк таймаут
+     */
+    public CompletableFuture<String> awaitMailItem(String sender, String recipient, String subjectPart, long createdFrom,
+                                                   long timeoutMs) {
+        CompletableFuture<String> match = new CompletableFuture<>();
+        Runnable unsubscribe = subscribe(event -> {
+            if (event.getType() == MailItemEvent.Type.CREATED && matches(event, sender, recipient, subjectPart, createdFrom)) {
+                match.complete(event.getId());
+            }
+        });
+        match.whenComplete((uuid, error) -> unsubscribe.run());
+        match.completeOnTimeout(null, timeoutMs, TimeUnit.MILLISECONDS);
+
+        StringBuilder where = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        appendCriteria(where, params, sender, recipient, subjectPart, createdFrom);
+        Query query = listQuery(false, "m.ID, m.UUID").order("m.ID ASC").limit(1);
+        if (!where.isEmpty()) query = query.where(where.toString(), params.toArray());
+        MailItemEntity[] existing = ao.find(MailItemEntity.class, query);
+        if (existing.length > 0) match.complete(existing[0].getUuid());
+        return match;
+    }
+
+    /**
+     * Выгружает письма в {@code out} в формате NDJSON: по одному JSON-объекту на строку, по возрастанию ID.
+     * Записи читаются keyset-батчами по {@value #EXPORT_BATCH_SIZE} ({@code m.ID > последний ID}) вместе с содержимым,
+     * после каждого батча поток сбрасывается — память не зависит от размера таблицы.
+     * <p>
+     * Строка содержит все поля письма, включая {@code body} и {@code rawHeaders}, и числовой {@code seq}:
+     * прерванную выгрузку можно продолжить, передав последний полученный {@code seq} в {@code afterId}.
+     * Теги фильтруются в SQL-режимах: {@link #SEARCH_MODE_PREFIX} и {@link #SEARCH_MODE_EXACT} как в списке,
+     * остальные значения — как {@link #SEARCH_MODE_SUBSTRING}; индекс слов при выгрузке не используется,
+     * чтобы не держать в памяти все подходящие ID.
+     *
+     * @param tags        теги поиска или {@code null}
+     * @param searchMode  режим поиска тегов
+     * @param createdFrom выгрузить письма с {@code createdAt} не раньше этого момента (мс); 0 — без ограничения
+     * @param createdTo   выгрузить письма с {@code createdAt} строго раньше этого момента (мс); 0 — без ограничения
+     * @param afterId     выгрузить письма с ID строго больше этого значения; 0 — с начала
+     * @param out         поток ответа; не закрывается
+     * @return число выгруженных писем
+     * @throws IOException если запись в {@code out} завершилась ошибкой
+     */
+    public long exportMailItemsNdjson(String[] tags, String searchMode, long createdFrom, long createdTo, long afterId,
+                                      Writer out) throws JSONException, IOException {
+        boolean sqlMode = SEARCH_MODE_PREFIX.equalsIgnoreCase(searchMode) || SEARCH_MODE_EXACT.equalsIgnoreCase(searchMode);
+        StringBuilder filter = new StringBuilder();
+        List<Object> filterParams = new ArrayList<>();
+        boolean searchesContent = appendFilter(filter, filterParams, tags, 0, sqlMode ? searchMode : SEARCH_MODE_SUBSTRING);
+        if (createdFrom > 0) {
+            if (!filter.isEmpty()) filter.append(" AND ");
+            filter.append("m.CREATED_AT >= ?");
+            filterParams.add(createdFrom);
+        }
+        if (createdTo > 0) {
+            if (!filter.isEmpty()) filter.append(" AND ");
+            filter.append("m.CREATED_AT < ?");
+            filterParams.add(createdTo);
+        }
+
+        long lastId = Math.max(0, afterId);
+        long exported = 0;
+        while (true) {
+            List<Object> params = new ArrayList<>(filterParams);
+            params.add(lastId);
+            String where = filter.isEmpty() ? "m.ID > ?" : filter + " AND m.ID > ?";
+            MailItemEntity[] batch = ao.find(MailItemEntity.class, listQuery(searchesContent)
+                    .where(where, params.toArray()).order("m.ID ASC").limit(EXPORT_BATCH_SIZE));
+            if (batch.length == 0) break;
+
+            Map<Long, MailItemContentEntity> content = loadContent(Arrays.asList(batch), CONTENT_FIELDS);
+            Map<String, MailItemBodyEntity> shared = bodyStore.load(content.values());
+            Map<Long, MailItemLegacyContentEntity> legacy = loadLegacyContent(Arrays.asList(batch), content);
+            for (MailItemEntity entity : batch) {
+                MailItem item = toDtoFull(entity, content, shared, legacy);
+                out.write(toExportJson(entity.getID(), item).toString());
+                out.write('\n');
+            }
+            out.flush();
+
+            exported += batch.length;
+            lastId = batch[batch.length - 1].getID();
+            if (batch.length < EXPORT_BATCH_SIZE) break;
+        }
+        return exported;
+    }
+
     /**
      * Возвращает количество писем в базе данных без загрузки всех записей в память.
+     * <p>
+     * Значение берётся из счётчика, который поддерживают пути создания и удаления; {@code COUNT(*)}
+     * выполняется только при первом обращении и затем не чаще раза в {@link #COUNT_RECONCILE_INTERVAL_MS} —
+     * так расхождения (откат транзакции, записи с другого узла кластера) со временем исправляются.
      *
      * @return количество записей
      */
     public int countMailItems() {
-        return ao.count(MailItemEntity.class);
+        long now = System.currentTimeMillis();
+        long count = cachedCount.get();
+        if (count < 0 || now - countReconciledAt >= COUNT_RECONCILE_INTERVAL_MS) {
+            count = ao.count(MailItemEntity.class);
+            long previous = cachedCount.getAndSet(count);
+            // Расхождение счётчика с таблицей меняет total в ответах — как и запись писем
+            if (previous >= 0 && previous != count) changeVersion.incrementAndGet();
+            countReconciledAt = now;
+        }
+        return (int) count;
     }
 
     /**
@@ -134,93 +664,268 @@ public class MailItemService {
      * Каждый тег должен совпадать хотя бы с одним полем письма (from, to, subject, body) —
      * семантика AND: письмо включается только если соответствует всем переданным тегам.
      * Если {@code sinceId > 0}, возвращаются только записи с ID > sinceId (режим обновления).
+     * <p>
+     * В режиме {@link #SEARCH_MODE_TOKENS} каждое слово тега должно быть началом какого-либо слова письма,
+     * ответ строится по индексу {@code MAIL_ITEM_TOKEN}. Если в теге нет слов длиной от
+     * {@value MailItemTokenizer#MIN_TOKEN_LENGTH} символов, весь запрос выполняется в режиме {@link #SEARCH_MODE_SUBSTRING}.
+     * Режимы {@link #SEARCH_MODE_PREFIX} и {@link #SEARCH_MODE_EXACT} сравнивают тег с from, to и subject целиком
+     * по индексированным колонкам {@code *_LC}.
+     * <p>
+     * Тег вида {@code from:значение}, {@code to:значение}, {@code subject:значение} или {@code body:значение}
+     * сравнивается только с указанным полем: в режимах prefix и exact — по колонке {@code *_LC} этого поля,
+     * в остальных — подстрокой; тело просматривается только для {@code body:}. Запрос с таким тегом выполняется
+     * SQL-поиском, теги без квалификатора в нём ищутся подстрокой.
+     * <p>
+     * С фильтром и {@code withTotal} SQL-условие выполняется один раз: читаются ID подходящих писем, из них берутся
+     * {@code total} и ID страницы, а письма страницы загружаются по первичному ключу. Если подходящих писем больше
+     * {@value #SINGLE_PASS_MAX_MATCHES}, страница берётся из первых прочитанных ID, а total считается {@code COUNT(*)}.
+     * Страница, которая заканчивается дальше {@value #SINGLE_PASS_MAX_MATCHES}-го письма, и {@code limit=0} читаются
+     * прежней парой {@code COUNT(*)} + страничный запрос: фильтр никогда не выполняется трижды.
+     * <p>
+     * Ответ дополнительно содержит {@code nextCursor}/{@code prevCursor}, чтобы клиент мог перейти
+     * на соседнюю страницу через {@link #getMailItemsPageAsJson} без OFFSET.
      *
      * @param tags      массив тегов поиска или {@code null} для возврата всех писем
      * @param offset    нулевой индекс первого элемента страницы
      * @param limit     максимальное количество элементов на странице (0 — вернуть все)
      * @param sinceId   курсор: вернуть только записи с ID строго больше этого значения; 0 — без фильтра
      * @param sortOrder направление сортировки: {@code "asc"} — сначала старые, {@code "desc"} — сначала новые (по умолчанию)
-     * @return JSON-объект с полями {@code items}, {@code total}, {@code offset}, {@code limit}, {@code maxId}
+     * @param searchMode {@link #SEARCH_MODE_TOKENS} (по умолчанию, также при {@code null} и неизвестном значении),
+     *                   {@link #SEARCH_MODE_SUBSTRING}, {@link #SEARCH_MODE_PREFIX} или {@link #SEARCH_MODE_EXACT}
+     * @param withTotal  {@code false} — не считать {@code total}: выбирается {@code limit + 1} запись,
+     *                   и наличие следующей страницы определяется по лишней записи
+     * @param fields    поля элементов списка из {@link #LIST_FIELDS}; из базы читаются только их колонки.
+     *                   По умолчанию ({@link #SUMMARY_FIELDS}) отдаётся сводка с {@code preview}, а тело
+     *                   ({@link #BODY_FIELD}) читается по одному письму
+     * @return JSON-объект с полями {@code items}, {@code total} (только при {@code withTotal}), {@code hasMore},
+     *         {@code offset}, {@code limit}, {@code maxId} и необязательными {@code nextCursor}, {@code prevCursor}
      * @throws JSONException если построение JSON-ответа завершилось ошибкой
      */
     @Transactional
-    public String getAllMailItemsAsJson(String[] tags, int offset, int limit, long sinceId, String sortOrder) throws JSONException {
-        // Строим WHERE-условие на уровне SQL: каждый тег AND-группа по четырём полям
+    public String getAllMailItemsAsJson(String[] tags, int offset, int limit, long sinceId, String sortOrder,
+                                        String searchMode, boolean withTotal, Set<String> fields) throws JSONException {
+        StringWriter out = new StringWriter();
+        try {
+            writeAllMailItemsJson(tags, offset, limit, sinceId, sortOrder, searchMode, withTotal, fields, out);
+        } catch (IOException e) {
+            // StringWriter не бросает IOException
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * То же, что {@link #getAllMailItemsAsJson}, но ответ пишется в {@code out} по мере обхода страницы:
+     * в памяти одновременно находится JSON одного письма, а тела читаются порциями по {@value #WRITE_CHUNK_SIZE}.
+     * Ошибки параметров (например, {@link IllegalArgumentException}) возникают до записи первого символа.
+     * <p>
+     * Ответы страниц до {@value #QUERY_CACHE_MAX_LIMIT} писем без тел кэшируются целиком до следующего
+     * изменения {@link #getChangeVersion версии кэша}: повторный запрос той же страницы не обращается к базе.
+     *
+     * @param out поток ответа; не закрывается
+     * @throws IOException если запись в {@code out} завершилась ошибкой
+     */
+    @Transactional
+    public void writeAllMailItemsJson(String[] tags, int offset, int limit, long sinceId, String sortOrder,
+                                      String searchMode, boolean withTotal, Set<String> fields, Writer out)
+            throws JSONException, IOException {
+        if (limit <= 0 || limit > QUERY_CACHE_MAX_LIMIT || fields.contains(BODY_FIELD)) {
+            writeMailItemsFromDb(tags, offset, limit, sinceId, sortOrder, searchMode, withTotal, fields, out);
+            return;
+        }
+        String key = queryCacheKey(tags, offset, limit, sinceId, sortOrder, searchMode, withTotal, fields);
+        // Версия снимается до чтения: ответ, прочитанный во время записи, не переживёт её
+        long version = changeVersion.get();
+        String json = queryCache.get(key, version);
+        if (json == null) {
+            StringWriter buffer = new StringWriter();
+            writeMailItemsFromDb(tags, offset, limit, sinceId, sortOrder, searchMode, withTotal, fields, buffer);
+            json = buffer.toString();
+            queryCache.put(key, json, version);
+        }
+        out.write(json);
+    }
+
+    /** Строит страницу {@link #writeAllMailItemsJson} запросами к базе, без кэша ответов. */
+    private void writeMailItemsFromDb(String[] tags, int offset, int limit, long sinceId, String sortOrder,
+                                      String searchMode, boolean withTotal, Set<String> fields, Writer out)
+            throws JSONException, IOException {
+        int safeOffset = Math.max(0, offset);
+        boolean ascending = "asc".equalsIgnoreCase(sortOrder);
+
+        int total;
+        boolean moreAfter;
+        List<MailItemEntity> page;
         StringBuilder where = new StringBuilder();
         List<Object> params = new ArrayList<>();
-
-        if (tags != null) {
-            for (String tag : tags) {
-                if (tag == null || tag.trim().isEmpty()) continue;
-                String t = "%" + tag.toLowerCase().trim() + "%";
-                if (!where.isEmpty()) where.append(" AND ");
-                // Двойные кавычки обязательны: FROM и TO — зарезервированные SQL-слова; ANSI-синтаксис поддерживается всеми СУБД JIRA
-                where.append("(LOWER(\"FROM\") LIKE ? OR LOWER(\"TO\") LIKE ? OR LOWER(\"SUBJECT\") LIKE ? OR LOWER(\"BODY\") LIKE ?)");
-                params.add(t);
-                params.add(t);
-                params.add(t);
-                params.add(t);
+        boolean searchesContent = false;
+        boolean partial = false;
+        long[] matches = findTokenMatches(tags, sinceId, searchMode);
+        if (matches == null) {
+            searchesContent = appendFilter(where, params, tags, sinceId, searchMode);
+            if (withTotal && !where.isEmpty() && limit > 0 && (long) safeOffset + limit <= SINGLE_PASS_MAX_MATCHES) {
+                matches = findFilteredIds(searchesContent, where.toString(), params, ascending);
+                partial = matches.length > SINGLE_PASS_MAX_MATCHES;
             }
         }
+        if (matches != null) {
+            // Подходящие ID известны от начала сортировки до конца страницы: страница вырезается из отсортированного
+            // массива, total — их число или, если прочитаны не все, отдельный COUNT(*)
+            total = partial ? countFiltered(searchesContent, where, params) : matches.length;
+            int end = (limit <= 0) ? total : (int) Math.min((long) safeOffset + limit, matches.length);
+            page = findByIds(slice(matches, ascending, safeOffset, end), listColumns(fields));
+            moreAfter = end < total;
+        } else {
+            // Направление сортировки: asc — от старых к новым, desc (по умолчанию) — от новых к старым
+            Query pageQuery = listQuery(searchesContent, listColumns(fields)).order(ascending ? "m.ID ASC" : "m.ID DESC").offset(safeOffset);
 
-        // Курсор: фильтруем записи новее sinceId
-        if (sinceId > 0) {
-            if (!where.isEmpty()) where.append(" AND ");
-            where.append("ID > ?");
-            params.add(sinceId);
-        }
+            if (!where.isEmpty()) {
+                pageQuery = pageQuery.where(where.toString(), params.toArray(new Object[0]));
+            }
 
-        int safeOffset = Math.max(0, offset);
+            if (withTotal) {
+                // Без фильтра total берётся из поддерживаемого счётчика, а не из COUNT(*) по всей таблице
+                total = where.isEmpty() ? countMailItems() : countFiltered(searchesContent, where, params);
+                if (total == 0) {
+                    page = List.of();
+                } else {
+                    int effectiveLimit = (limit <= 0) ? total : limit;
+                    pageQuery = pageQuery.limit(effectiveLimit);
+                    page = Arrays.asList(ao.find(MailItemEntity.class, pageQuery));
+                }
+                moreAfter = safeOffset + page.size() < total;
+            } else {
+                // Лишняя запись говорит, есть ли следующая страница, без COUNT
+                total = -1;
+                if (limit > 0) pageQuery = pageQuery.limit(limit + 1);
+                page = Arrays.asList(ao.find(MailItemEntity.class, pageQuery));
+                moreAfter = limit > 0 && page.size() > limit;
+                if (moreAfter) page = page.subList(0, limit);
+            }
+        }
 
-        // Направление сортировки: asc — от старых к новым, desc (по умолчанию) — от новых к старым
-        String order = "asc".equalsIgnoreCase(sortOrder) ? "ID ASC" : "ID DESC";
-        Query pageQuery = Query.select().order(order).offset(safeOffset);
-        Query countQuery = Query.select();
+        int effectiveLimitForResponse = (limit > 0) ? limit : (withTotal ? total : page.size());
+        JSONObject meta = new JSONObject();
+        meta.put("maxId", maxId(page, sinceId));
+        if (withTotal) meta.put("total", total);
+        meta.put("hasMore", moreAfter);
+        meta.put("offset", offset);
+        meta.put("limit", effectiveLimitForResponse);
+        boolean moreBefore = safeOffset > 0;
+        putCursors(meta, page, ascending, moreBefore, moreAfter);
+        writePage(out, page, fields, meta);
+    }
 
-        if (!where.isEmpty()) {
-            pageQuery = pageQuery.where(where.toString(), params.toArray(new Object[0]));
-            countQuery = countQuery.where(where.toString(), params.toArray(new Object[0]));
+    /**
+     * Возвращает страницу писем в режиме keyset-пагинации: вместо OFFSET страница отсекается условием
+     * по ID относительно курсора, поэтому стоимость запроса не зависит от номера страницы.
+     * Фильтры {@code tags}, {@code sinceId} и режим поиска работают так же, как в {@link #getAllMailItemsAsJson}.
+     *
+     * @param tags      массив тегов поиска или {@code null} для возврата всех писем
+     * @param cursor    непрозрачный курсор из {@code nextCursor}/{@code prevCursor} предыдущего ответа;
+     *                  {@code null} — первая страница
+     * @param limit     максимальное количество элементов на странице (0 — вернуть все)
+     * @param sinceId   вернуть только записи с ID строго больше этого значения; 0 — без фильтра
+     * @param sortOrder направление сортировки: {@code "asc"} или {@code "desc"} (по умолчанию)
+     * @param searchMode режим поиска, см. {@link #getAllMailItemsAsJson}
+     * @param withTotal  {@code false} — не считать {@code total}; страница и так выбирается с лишней записью
+     * @param fields    поля элементов списка, см. {@link #getAllMailItemsAsJson}
+     * @return JSON-объект с полями {@code items}, {@code total} (только при {@code withTotal}), {@code hasMore},
+     *         {@code limit}, {@code maxId} и необязательными {@code nextCursor}, {@code prevCursor}
+     * @throws JSONException            если построение JSON-ответа завершилось ошибкой
+     * @throws IllegalArgumentException если курсор повреждён или не был выдан этим сервисом
+     */
+    @Transactional
+    public String getMailItemsPageAsJson(String[] tags, String cursor, int limit, long sinceId, String sortOrder,
+                                         String searchMode, boolean withTotal, Set<String> fields) throws JSONException {
+        StringWriter out = new StringWriter();
+        try {
+            writeMailItemsPageJson(tags, cursor, limit, sinceId, sortOrder, searchMode, withTotal, fields, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return out.toString();
+    }
 
-        int total = ao.count(MailItemEntity.class, countQuery);
+    /**
+     * То же, что {@link #getMailItemsPageAsJson}, но с потоковой записью ответа, см. {@link #writeAllMailItemsJson}.
+     *
+     * @param out поток ответа; не закрывается
+     * @throws IOException              если запись в {@code out} завершилась ошибкой
+     * @throws IllegalArgumentException если курсор повреждён; бросается до записи первого символа
+     */
+    @Transactional
+    public void writeMailItemsPageJson(String[] tags, String cursor, int limit, long sinceId, String sortOrder,
+                                       String searchMode, boolean withTotal, Set<String> fields, Writer out)
+            throws JSONException, IOException {
+        boolean ascending = "asc".equalsIgnoreCase(sortOrder);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+
+        // Выборка идёт от курсора «наружу»: after — по возрастанию ID, before — по убыванию.
+        // Если это направление не совпадает с sortOrder, клиент листает назад и страницу нужно развернуть.
+        boolean fetchAscending = pageCursor != null ? pageCursor.after : ascending;
+        boolean forward = fetchAscending == ascending;
 
+        int total;
         List<MailItemEntity> page;
-        if (total == 0) {
-            page = List.of();
-        } else {
-            int effectiveLimit = (limit <= 0) ? total : limit;
-            pageQuery = pageQuery.limit(effectiveLimit);
-            page = Arrays.asList(ao.find(MailItemEntity.class, pageQuery));
+        StringBuilder where = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        boolean searchesContent = false;
+        boolean partial = false;
+        long[] matches = findTokenMatches(tags, sinceId, searchMode);
+        if (matches == null) {
+            searchesContent = appendFilter(where, params, tags, sinceId, searchMode);
+            // Положение курсора среди подходящих писем заранее неизвестно: страница за курсором может не попасть
+            // в прочитанные ID, поэтому проход по ID делается только для первой страницы
+            if (withTotal && !where.isEmpty() && pageCursor == null && limit > 0 && limit < SINGLE_PASS_MAX_MATCHES) {
+                matches = findFilteredIds(searchesContent, where.toString(), params, fetchAscending);
+                partial = matches.length > SINGLE_PASS_MAX_MATCHES;
+            }
         }
+        if (matches != null) {
+            total = partial ? countFiltered(searchesContent, where, params) : matches.length;
+            long[] remaining = pageCursor == null ? matches : Arrays.stream(matches)
+                    .filter(id -> pageCursor.after ? id > pageCursor.id : id < pageCursor.id)
+                    .toArray();
+            int end = limit > 0 ? Math.min(limit + 1, remaining.length) : remaining.length;
+            page = new ArrayList<>(findByIds(slice(remaining, fetchAscending, 0, end), listColumns(fields)));
+        } else {
+            if (!withTotal) {
+                total = -1;
+            } else if (where.isEmpty()) {
+                total = countMailItems();
+            } else {
+                total = countFiltered(searchesContent, where, params);
+            }
 
-        JSONArray array = new JSONArray();
-        long maxId = sinceId; // если страница пустая — курсор не регрессирует
-        for (MailItemEntity entity : page) {
-            JSONObject obj = new JSONObject();
-            obj.put("id", entity.getUuid());
-            obj.put("from", entity.getFrom());
-            obj.put("to", entity.getTo());
-            obj.put("cc", entity.getCc());
-            obj.put("bcc", entity.getBcc());
-            obj.put("subject", entity.getSubject());
-            obj.put("body", entity.getBody());
-            obj.put("attachmentsName", entity.getAttachmentsName());
-            if (entity.getCreatedAt() != null) {
-                obj.put("createdAt", (long) entity.getCreatedAt());
+            if (pageCursor != null) {
+                if (!where.isEmpty()) where.append(" AND ");
+                where.append(pageCursor.after ? "m.ID > ?" : "m.ID < ?");
+                params.add(pageCursor.id);
             }
-            // Обновляем максимальный ID среди элементов текущей страницы
-            if (entity.getID() > maxId) maxId = entity.getID();
-            array.put(obj);
+
+            Query pageQuery = listQuery(searchesContent, listColumns(fields)).order(fetchAscending ? "m.ID ASC" : "m.ID DESC");
+            if (!where.isEmpty()) {
+                pageQuery = pageQuery.where(where.toString(), params.toArray(new Object[0]));
+            }
+            // Лишняя запись говорит, есть ли что-то за границей страницы, без отдельного COUNT
+            if (limit > 0) pageQuery = pageQuery.limit(limit + 1);
+
+            page = new ArrayList<>(Arrays.asList(ao.find(MailItemEntity.class, pageQuery)));
         }
+        boolean hasExtra = limit > 0 && page.size() > limit;
+        if (hasExtra) page = page.subList(0, limit);
+        if (!forward) Collections.reverse(page);
 
-        int effectiveLimitForResponse = (limit <= 0) ? total : limit;
-        JSONObject result = new JSONObject();
-        result.put("items", array);
-        result.put("total", total);
-        result.put("offset", offset);
-        result.put("limit", effectiveLimitForResponse);
-        result.put("maxId", maxId);
-        return result.toString();
+        boolean moreAfter = forward ? hasExtra : pageCursor != null;
+        boolean moreBefore = forward ? pageCursor != null : hasExtra;
+        JSONObject meta = new JSONObject();
+        meta.put("maxId", maxId(page, sinceId));
+        if (withTotal) meta.put("total", total);
+        meta.put("hasMore", moreAfter);
+        meta.put("limit", limit <= 0 ? page.size() : limit);
+        putCursors(meta, page, ascending, moreBefore, moreAfter);
+        writePage(out, page, fields, meta);
     }
 
     /**
@@ -228,73 +933,150 @@ public class MailItemService {
      *
      * @return {@code true} если удалена хотя бы одна запись; {@code false} если таблица была пустой
      * @throws RuntimeException если удаление завершилось ошибкой
+     * @see #deleteAllMailItems(LongConsumer)
      */
-    @Transactional
     public boolean deleteAllMailItemsSafe() {
-        // Батчевое удаление: по 200 записей за итерацию, offset не нужен — после удаления записи сдвигаются
+        return deleteAllMailItems(deleted -> {}) > 0;
+    }
+
+    /**
+     * Удаляет все письма, существовавшие на момент вызова, set-based запросами по диапазонам ID.
+     * <p>
+     * Верхняя граница ID фиксируется в начале, поэтому письма, пришедшие во время удаления, не затрагиваются.
+     * Каждый диапазон из {@value #DELETE_CHUNK_SIZE} писем удаляется тремя {@code DELETE ... WHERE ID BETWEEN}
+     * (содержимое, индекс слов, письма) в отдельной транзакции: блокировки и undo-лог ограничены размером диапазона,
+     * а приём писем не ждёт окончания всей очистки. При сбое уже удалённые диапазоны остаются удалёнными.
+     * <p>
+     * {@code TRUNCATE} не используется: Active Objects не даёт выполнить его переносимо,
+     * а на большинстве СУБД он требует эксклюзивной блокировки таблицы и удалил бы письма, пришедшие во время очистки.
+     * <p>
+     * После каждого диапазона ход удаления пишется в лог на уровне INFO и доступен через {@link #getDeleteProgress}.
+     *
+     * @param onProgress получает общее число удалённых писем после каждого диапазона
+     * @return количество удалённых писем
+     * @throws RuntimeException если удаление завершилось ошибкой
+     */
+    public long deleteAllMailItems(LongConsumer onProgress) {
+        long startedAt = System.currentTimeMillis();
+        deleteProgress = MailItemDeleteProgress.running(0, 0, 0, startedAt);
         try {
-            boolean deletedAny = false;
+            MailItemEntity[] newest = ao.find(MailItemEntity.class, Query.select("ID").order("ID DESC").limit(1));
+            if (newest.length == 0) {
+                deleteProgress = deleteProgress.finish(MailItemDeleteProgress.State.DONE);
+                return 0;
+            }
+            long maxId = newest[0].getID();
+
+            long lastId = 0;
+            long deleted = 0;
+            deleteProgress = MailItemDeleteProgress.running(0, 0, maxId, startedAt);
             while (true) {
-                MailItemEntity[] batch = ao.find(MailItemEntity.class, Query.select().limit(200));
-                if (batch.length == 0) break;
-                ao.delete(batch);
-                deletedAny = true;
+                MailItemEntity[] chunk = ao.find(MailItemEntity.class, Query.select("ID")
+                        .where("ID > ? AND ID <= ?", lastId, maxId)
+                        .order("ID ASC")
+                        .limit(DELETE_CHUNK_SIZE));
+                if (chunk.length == 0) break;
+
+                long firstId = chunk[0].getID();
+                lastId = chunk[chunk.length - 1].getID();
+                int rows = deleteRange(firstId, lastId);
+                // Диапазон уже зафиксирован: счётчик и кэш меняются только после фиксации, как при создании писем
+                adjustCount(-rows);
+                mailItemCache.clear();
+                changeVersion.incrementAndGet();
+                deleted += rows;
+                deleteProgress = MailItemDeleteProgress.running(deleted, lastId, maxId, startedAt);
+                onProgress.accept(deleted);
+                log.info("Deleted {} mail items so far (up to ID {} of {})", deleted, lastId, maxId);
             }
-            return deletedAny;
+            deleteProgress = deleteProgress.finish(MailItemDeleteProgress.State.DONE);
+            publish(List.of(MailItemEvent.cleared(maxId)));
+            log.info("Deleted {} mail items", deleted);
+            return deleted;
         } catch (Exception e) {
+            deleteProgress = deleteProgress.finish(MailItemDeleteProgress.State.FAILED);
             throw new RuntimeException("Failed to delete all mail items", e);
         }
     }
 
+    /**
+     * Ход последнего удаления всех писем, запущенного на этом узле: его можно опрашивать,
+     * пока запрос {@code /delete-all} ещё выполняется.
+     *
+     * @return снимок хода удаления или {@code null}, если удаление на этом узле не запускалось
+     */
+    public MailItemDeleteProgress getDeleteProgress() {
+        return deleteProgress;
+    }
+
     /**
      * Удаляет письмо по UUID.
      *
      * @param uuid идентификатор письма
      * @return {@code true} если письмо найдено и удалено; {@code false} если не найдено
      */
-    @Transactional
     public boolean deleteMailItemById(String uuid) {
-        if (uuid == null || !uuid.matches("[0-9a-fA-F-]{36}")) return false;
-        MailItemEntity[] results = ao.find(MailItemEntity.class, Query.select().where("UUID = ?", uuid));
-        if (results.length == 0) return false;
-        ao.delete(results[0]);
+        if (uuid == null || !UUID_FORMAT.matcher(uuid).matches()) return false;
+        Long mailItemId = ao.executeInTransaction(() -> {
+            MailItemEntity[] results = ao.find(MailItemEntity.class, Query.select().where("UUID = ?", uuid));
+            if (results.length == 0) return null;
+            deleteContent(List.of(results[0]));
+            ao.delete(results[0]);
+            storeVersion.bump();
+            return (long) results[0].getID();
+        });
+        if (mailItemId == null) return false;
+        // Кэш и подписчики узнают об удалении после фиксации — повторное чтение уже не найдёт письмо
+        mailItemCache.invalidate(uuid);
+        adjustCount(-1);
+        publish(List.of(MailItemEvent.deleted(mailItemId, uuid)));
         return true;
     }
 
     /**
-     * Создаёт 5 тестовых писем с HTML-содержимым.
+     * Создаёт 5 тестовых писем с HTML-содержимым одной транзакцией; события публикуются после её фиксации.
      * Нумерация начинается с {@code (текущее количество + 1)} во избежание конфликтов с существующими записями.
      *
      * @return {@code true} при успешном выполнении
      * @throws RuntimeException если создание записей завершилось ошибкой
      */
-    @Transactional
     public boolean loadTestData() {
         try {
             int startIndex = countMailItems() + 1;
+            List<String> bodies = new ArrayList<>();
+            for (int i = startIndex; i < startIndex + 5; i++) bodies.add(testBody(i));
+            bodyStore.store(bodies);
 
-            for (int i = startIndex; i < startIndex + 5; i++) {
-                MailItemEntity entity = ao.create(MailItemEntity.class);
-                entity.setUuid(UUID.randomUUID().toString());
-                entity.setFrom("sender" + i + "@example.com");
-                entity.setTo("recipient" + i + "@example.com");
-                entity.setSubject("Тестовое письмо #" + i);
-                entity.setBody(
-                    "<h2>Тестовое письмо №" + i + "</h2>" +
-                    "<p>Lorem ipsum dolor sit amet, <strong>consectetur adipiscing elit</strong>. " +
-                    "Sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.</p>" +
-                    "<ul>" +
-                    "<li>Пункт первый — <em>важная информация</em></li>" +
-                    "<li>Пункт второй — <a href=\"#\">ссылка на ресурс</a></li>" +
-                    "<li>Пункт третий — обычный текст</li>" +
-                    "</ul>" +
-                    "<p>Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris. " +
-                    "Duis aute irure dolor in <code>reprehenderit</code> in voluptate velit esse.</p>" +
-                    "<blockquote>Цитата: excepteur sint occaecat cupidatat non proident.</blockquote>"
-                );
-                entity.setCreatedAt(System.currentTimeMillis());
-                entity.save();
-            }
+            List<MailItemEvent> created = ao.executeInTransaction(() -> {
+                List<MailItemEvent> events = new ArrayList<>();
+                for (int i = startIndex; i < startIndex + 5; i++) {
+                    MailItemEntity entity = ao.create(MailItemEntity.class);
+                    String uuid = UUID.randomUUID().toString();
+                    entity.setUuid(uuid);
+                    entity.setFrom("sender" + i + "@example.com");
+                    entity.setTo("recipient" + i + "@example.com");
+                    entity.setSubject("Тестовое письмо #" + i);
+                    fillSearchColumns(entity, "sender" + i + "@example.com", "recipient" + i + "@example.com", "Тестовое письмо #" + i);
+                    String body = bodies.get(i - startIndex);
+                    String bodyText = MailItemTokenizer.bodyText(body);
+                    String preview = preview(bodyText);
+                    entity.setPreview(preview);
+                    long createdAt = System.currentTimeMillis();
+                    entity.setCreatedAt(createdAt);
+                    entity.setTokensIndexed(true);
+                    entity.save();
+                    saveContent(entity, body, bodyText, null);
+                    tokenIndex.index(Map.of((long) entity.getID(), MailItemTokenizer.tokenizeText(
+                            "sender" + i + "@example.com", "recipient" + i + "@example.com", "Тестовое письмо #" + i, bodyText)));
+                    events.add(MailItemEvent.created(entity.getID(), uuid,
+                            "sender" + i + "@example.com", "recipient" + i + "@example.com", null, null,
+                            "Тестовое письмо #" + i, preview, createdAt));
+                }
+                storeVersion.bump();
+                return events;
+            });
+            adjustCount(created.size());
+            publish(created);
 
             return true;
         } catch (Exception e) {
@@ -302,4 +1084,871 @@ public class MailItemService {
         }
     }
 
+    /** HTML-тело тестового письма номер {@code i}. */
+    private static String testBody(int i) {
+        return "<h2>Тестовое письмо №" + i + "</h2>" +
+            "<p>Lorem ipsum dolor sit amet, <strong>consectetur adipiscing elit</strong>. " +
+            "Sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.</p>" +
+            "<ul>" +
+            "<li>Пункт первый — <em>важная информация</em></li>" +
+            "<li>Пункт второй — <a href=\"#\">ссылка на ресурс</a></li>" +
+            "<li>Пункт третий — обычный текст</li>" +
+            "</ul>" +
+            "<p>Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris. " +
+            "Duis aute irure dolor in <code>reprehenderit</code> in voluptate velit esse.</p>" +
+            "<blockquote>Цитата: excepteur sint occaecat cupidatat non proident.</blockquote>";
+    }
+
+    /**
+     * Заполняет колонки {@code FROM_LC}, {@code TO_LC}, {@code SUBJECT_LC} у одного батча записей,
+     * созданных до их появления. Вызывается фоновой задачей {@link MailItemSearchBackfill} в цикле,
+     * каждый батч — отдельная транзакция, поэтому приём писем не блокируется на время заполнения.
+     *
+     * @param afterId   обработать записи с ID строго больше этого значения
+     * @param batchSize максимальное число записей в батче
+     * @return ID последней обработанной записи; {@code afterId}, если незаполненных записей не осталось
+     */
+    @Transactional
+    public long backfillSearchColumns(long afterId, int batchSize) {
+        MailItemEntity[] batch = ao.find(MailItemEntity.class, Query.select()
+                .where("ID > ? AND FROM_LC IS NULL AND TO_LC IS NULL AND SUBJECT_LC IS NULL", afterId)
+                .order("ID ASC")
+                .limit(batchSize));
+        long lastId = afterId;
+        for (MailItemEntity entity : batch) {
+            fillSearchColumns(entity, entity.getFrom(), entity.getTo(), entity.getSubject());
+            entity.save();
+            lastId = entity.getID();
+        }
+        return lastId;
+    }
+
+    /**
+     * Переносит тело и сырые заголовки одного батча писем, сохранённых до появления {@code MAIL_ITEM_CONTENT},
+     * из старых колонок {@code MAIL_ITEM_TABLE} в строки содержимого и обнуляет старые колонки.
+     * Вызывается фоновой задачей {@link MailItemSearchBackfill} в цикле, каждый батч — отдельная транзакция.
+     * Содержимое раскладывается так же, как у новых писем: сжатие, общие тела, {@code BODY_TEXT}.
+     * Письмо, у которого строка содержимого уже есть, только теряет старые колонки — повторный запуск после сбоя
+     * не создаёт дублей.
+     *
+     * @param afterId   обработать письма с ID строго больше этого значения
+     * @param batchSize максимальное число писем в батче
+     * @return ID последнего обработанного письма; {@code afterId}, если неперенесённых писем не осталось
+     */
+    public long backfillContent(long afterId, int batchSize) {
+        MailItemLegacyContentEntity[] batch = ao.find(MailItemLegacyContentEntity.class, Query.select("ID, BODY, RAW_HEADERS")
+                .where("ID > ? AND (BODY IS NOT NULL OR RAW_HEADERS IS NOT NULL)", afterId)
+                .order("ID ASC")
+                .limit(batchSize));
+        if (batch.length == 0) return afterId;
+
+        // Общие тела пишутся до транзакции батча, как при сохранении писем
+        bodyStore.store(Arrays.stream(batch).map(MailItemLegacyContentEntity::getBody).collect(Collectors.toList()));
+        ao.executeInTransaction(() -> {
+            List<Long> ids = new ArrayList<>(batch.length);
+            for (MailItemLegacyContentEntity legacy : batch) ids.add((long) legacy.getID());
+            Set<Long> existing = new HashSet<>();
+            for (List<Object> chunk : chunks(ids)) {
+                Query query = Query.select("ID, MAIL_ITEM_ID").where("MAIL_ITEM_ID IN (" + placeholders(chunk.size()) + ")", chunk.toArray());
+                for (MailItemContentEntity content : ao.find(MailItemContentEntity.class, query)) existing.add(content.getMailItemId());
+            }
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (MailItemLegacyContentEntity legacy : batch) {
+                if (!existing.contains((long) legacy.getID())) {
+                    Map<String, Object> columns = new HashMap<>();
+                    columns.put("MAIL_ITEM_ID", (long) legacy.getID());
+                    putContentColumns(columns, legacy.getBody(), MailItemTokenizer.bodyText(legacy.getBody()), legacy.getRawHeaders());
+                    rows.add(columns);
+                }
+                legacy.setBody(null);
+                legacy.setRawHeaders(null);
+                legacy.save();
+            }
+            if (!rows.isEmpty()) ao.create(MailItemContentEntity.class, rows);
+            return null;
+        });
+        return batch[batch.length - 1].getID();
+    }
+
+    /**
+     * Сообщает, что {@link #backfillContent} перенёс содержимое всех писем: чтение перестаёт обращаться
+     * к старым колонкам {@code MAIL_ITEM_TABLE}.
+     */
+    void markContentBackfilled() {
+        contentBackfilled = true;
+    }
+
+    /**
+     * Заполняет {@code BODY_TEXT} у одного батча строк содержимого с телом, сохранённых до появления колонки.
+     * Вызывается фоновой задачей {@link MailItemSearchBackfill} в цикле, каждый батч — отдельная транзакция.
+     * Тело без текста получает пустую строку, чтобы не попадать в следующие батчи.
+     *
+     * @param afterId   обработать строки {@code MAIL_ITEM_CONTENT} с ID строго больше этого значения
+     * @param batchSize максимальное число строк в батче
+     * @return ID последней обработанной строки; {@code afterId}, если незаполненных строк не осталось
+     */
+    @Transactional
+    public long backfillBodyText(long afterId, int batchSize) {
+        MailItemContentEntity[] batch = ao.find(MailItemContentEntity.class, Query.select(CONTENT_FIELDS)
+                .where("ID > ? AND BODY_TEXT IS NULL AND (BODY IS NOT NULL OR BODY_COMPRESSED IS NOT NULL OR BODY_HASH IS NOT NULL)", afterId)
+                .order("ID ASC")
+                .limit(batchSize));
+        Map<String, MailItemBodyEntity> shared = bodyStore.load(Arrays.asList(batch));
+        long lastId = afterId;
+        for (MailItemContentEntity content : batch) {
+            String text = MailItemTokenizer.bodyText(MailItemBodyStore.resolve(content, shared));
+            content.setBodyText(text != null ? text : "");
+            content.save();
+            lastId = content.getID();
+        }
+        return lastId;
+    }
+
+    /**
+     * Сообщает, что {@link #backfillBodyText} обошёл все строки содержимого: поиск по телу перестаёт
+     * проверять HTML старых писем и читает только {@code BODY_TEXT}. Новые письма получают текст при сохранении.
+     */
+    void markBodyTextBackfilled() {
+        bodyTextBackfilled = true;
+    }
+
+    // ===== Вспомогательные методы =====
+
+    /**
+     * Записывает один батч писем многострочными INSERT; вызывается внутри транзакции.
+     *
+     * @return события {@link MailItemEvent.Type#CREATED} в порядке батча — публикуются после фиксации
+     */
+    private List<MailItemEvent> insertBatch(List<Map.Entry<String, ? extends Email>> batch) {
+        long now = System.currentTimeMillis();
+        List<String> uuids = new ArrayList<>(batch.size());
+        List<Map<String, Object>> mailRows = new ArrayList<>(batch.size());
+        // Текст тела нужен и для превью, и для индекса слов — HTML разбирается один раз
+        List<String> bodyTexts = new ArrayList<>(batch.size());
+        for (Map.Entry<String, ? extends Email> entry : batch) {
+            Email email = entry.getValue();
+            String uuid = entry.getKey();
+            String bodyText = MailItemTokenizer.bodyText(email.getBody());
+            uuids.add(uuid);
+            bodyTexts.add(bodyText);
+            // HashMap, а не Map.of: значения полей письма могут быть null
+            Map<String, Object> row = new HashMap<>();
+            row.put("UUID", uuid);
+            row.put("FROM", email.getFrom());
+            row.put("TO", email.getTo());
+            row.put("CC", email.getCc());
+            row.put("BCC", email.getBcc());
+            row.put("SUBJECT", email.getSubject());
+            row.put("ATTACHMENTS_NAME", email instanceof MailItem mailItem ? mailItem.getAttachmentsName() : null);
+            row.put("PREVIEW", preview(bodyText));
+            row.put("CREATED_AT", now);
+            row.put("FROM_LC", normalizeForSearch(email.getFrom()));
+            row.put("TO_LC", normalizeForSearch(email.getTo()));
+            row.put("SUBJECT_LC", normalizeForSearch(email.getSubject()));
+            // Слова пишутся в той же транзакции батча
+            row.put("TOKENS_INDEXED", true);
+            mailRows.add(row);
+        }
+        ao.create(MailItemEntity.class, mailRows);
+
+        // Многострочный INSERT не возвращает сгенерированные ID — читаем их обратно по UUID
+        Map<String, Long> idByUuid = new HashMap<>();
+        Query idQuery = Query.select("ID, UUID").where("UUID IN (" + placeholders(uuids.size()) + ")", uuids.toArray());
+        for (MailItemEntity entity : ao.find(MailItemEntity.class, idQuery)) {
+            idByUuid.put(entity.getUuid(), (long) entity.getID());
+        }
+
+        List<Map<String, Object>> contentRows = new ArrayList<>(batch.size());
+        Map<Long, Set<String>> tokens = new LinkedHashMap<>();
+        List<MailItemEvent> created = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Email email = batch.get(i).getValue();
+            Long mailItemId = idByUuid.get(uuids.get(i));
+            if (mailItemId == null) throw new IllegalStateException("Inserted mail item not found: " + uuids.get(i));
+            created.add(MailItemEvent.created(mailItemId, uuids.get(i), email.getFrom(), email.getTo(), email.getCc(),
+                    email.getBcc(), email.getSubject(), (String) mailRows.get(i).get("PREVIEW"), now));
+
+            Map<String, Object> content = new HashMap<>();
+            content.put("MAIL_ITEM_ID", mailItemId);
+            putContentColumns(content, email.getBody(), bodyTexts.get(i),
+                    email instanceof MailItem mailItem ? mailItem.getRawHeaders() : null);
+            contentRows.add(content);
+
+            tokens.put(mailItemId, MailItemTokenizer.tokenizeText(email.getFrom(), email.getTo(), email.getSubject(), bodyTexts.get(i)));
+        }
+        ao.create(MailItemContentEntity.class, contentRows);
+        tokenIndex.index(tokens);
+        storeVersion.bump();
+        return created;
+    }
+
+    /**
+     * Рассылает события после фиксации записи: увеличивает {@link #getChangeVersion версию}, будит ожидающие запросы
+     * {@code /data/wait} и вызывает подписчиков.
+     * Ошибка подписчика логируется и не прерывает ни рассылку, ни операцию, которая её вызвала.
+     */
+    private void publish(List<MailItemEvent> events) {
+        changeVersion.incrementAndGet();
+        long maxCreatedId = 0;
+        for (MailItemEvent event : events) {
+            if (event.getType() == MailItemEvent.Type.CREATED) maxCreatedId = Math.max(maxCreatedId, event.getSeq());
+        }
+        if (maxCreatedId > 0) arrivals.signal(maxCreatedId);
+        for (Consumer<MailItemEvent> listener : listeners) {
+            for (MailItemEvent event : events) {
+                try {
+                    listener.accept(event);
+                } catch (Exception e) {
+                    log.warn("Mail item event listener failed on {} {}", event.getType(), event.getSeq(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ключ кэша ответов: параметры запроса после нормализации. Теги записываются с длиной,
+     * чтобы разные наборы тегов не давали одинаковую строку.
+     */
+    private static String queryCacheKey(String[] tags, int offset, int limit, long sinceId, String sortOrder,
+                                        String searchMode, boolean withTotal, Set<String> fields) {
+        StringBuilder key = new StringBuilder();
+        if (tags != null) {
+            for (String tag : tags) {
+                if (tag == null) continue;
+                key.append(tag.length()).append(':').append(tag).append('|');
+            }
+        }
+        return key.append(Math.max(0, offset)).append('|')
+                .append(limit).append('|')
+                .append(sinceId).append('|')
+                .append("asc".equalsIgnoreCase(sortOrder) ? "asc" : "desc").append('|')
+                .append(searchMode == null ? "" : searchMode.toLowerCase(Locale.ROOT)).append('|')
+                .append(withTotal).append('|')
+                .append(String.join(",", fields))
+                .toString();
+    }
+
+    /**
+     * Удаляет письма с ID из {@code [firstId, lastId]} вместе с содержимым и словами индекса одной транзакцией.
+     *
+     * @return количество удалённых писем
+     */
+    private int deleteRange(long firstId, long lastId) {
+        return ao.executeInTransaction(() -> {
+            ao.deleteWithSQL(MailItemContentEntity.class, "MAIL_ITEM_ID >= ? AND MAIL_ITEM_ID <= ?", firstId, lastId);
+            tokenIndex.delete("MAIL_ITEM_ID >= ? AND MAIL_ITEM_ID <= ?", firstId, lastId);
+            int rows = ao.deleteWithSQL(MailItemEntity.class, "ID >= ? AND ID <= ?", firstId, lastId);
+            storeVersion.bump();
+            return rows;
+        });
+    }
+
+    /**
+     * Добавляет к WHERE-условию фильтры по тегам и по {@code sinceId}.
+     * Каждый тег — AND-группа по полям письма; параметры дописываются в {@code params} в порядке плейсхолдеров.
+     * Колонки квалифицируются алиасами {@link #listQuery}: {@code m} — письмо, {@code c} — его содержимое.
+     * В режимах {@link #SEARCH_MODE_PREFIX} и {@link #SEARCH_MODE_EXACT} условие строится по колонкам {@code *_LC};
+     * в остальных — подстрокой по четырём полям, включая тело. Тег с квалификатором поля
+     * ({@code from:}, {@code to:}, {@code subject:}, {@code body:}) проверяет только это поле — см. {@link #appendFieldFilter}.
+     *
+     * @return {@code true}, если условие обращается к содержимому и запросу нужен JOIN с {@code MAIL_ITEM_CONTENT}
+     */
+    private boolean appendFilter(StringBuilder where, List<Object> params, String[] tags, long sinceId,
+                                 String searchMode) {
+        boolean searchesContent = false;
+        boolean prefix = SEARCH_MODE_PREFIX.equalsIgnoreCase(searchMode);
+        boolean exact = SEARCH_MODE_EXACT.equalsIgnoreCase(searchMode);
+        if (tags != null) {
+            for (String tag : tags) {
+                if (tag == null || tag.trim().isEmpty()) continue;
+                if (!where.isEmpty()) where.append(" AND ");
+                Matcher field = FIELD_TAG.matcher(tag.trim());
+                if (field.matches()) {
+                    searchesContent |= appendFieldFilter(where, params, field.group(1).toLowerCase(Locale.ROOT),
+                            field.group(2), prefix, exact);
+                    continue;
+                }
+                if (prefix || exact) {
+                    // Нормализуем тег так же, как значения колонок, — иначе совпадение по обрезанной строке невозможно
+                    String t = exact ? normalizeForSearch(tag) : normalizeForSearch(tag) + "%";
+                    String op = exact ? " = ?" : " LIKE ?";
+                    where.append("(m.FROM_LC").append(op).append(" OR m.TO_LC").append(op)
+                            .append(" OR m.SUBJECT_LC").append(op).append(")");
+                    params.add(t);
+                    params.add(t);
+                    params.add(t);
+                    continue;
+                }
+                String t = "%" + tag.toLowerCase().trim() + "%";
+                // Двойные кавычки обязательны: FROM и TO — зарезервированные SQL-слова; ANSI-синтаксис поддерживается всеми СУБД JIRA
+                where.append("(LOWER(m.\"FROM\") LIKE ? OR LOWER(m.\"TO\") LIKE ? OR LOWER(m.\"SUBJECT\") LIKE ? OR ");
+                params.add(t);
+                params.add(t);
+                params.add(t);
+                appendBodyMatch(where, params, t);
+                where.append(")");
+                searchesContent = true;
+            }
+        }
+
+        // Курсор обновления: фильтруем записи новее sinceId
+        if (sinceId > 0) {
+            if (!where.isEmpty()) where.append(" AND ");
+            where.append("m.ID > ?");
+            params.add(sinceId);
+        }
+        return searchesContent;
+    }
+
+    /**
+     * Условие для тега с квалификатором поля. {@code from:}, {@code to:} и {@code subject:} проверяют одну колонку
+     * {@code MAIL_ITEM_TABLE}: в режимах {@link #SEARCH_MODE_PREFIX} и {@link #SEARCH_MODE_EXACT} — индексированную
+     * {@code *_LC}, в остальных — подстрокой по исходной колонке. {@code body:} всегда ищет подстроку в теле.
+     *
+     * @return {@code true}, если условие обращается к {@code MAIL_ITEM_CONTENT} (только {@code body:})
+     */
+    private boolean appendFieldFilter(StringBuilder where, List<Object> params, String field, String value,
+                                      boolean prefix, boolean exact) {
+        if (BODY_QUALIFIER.equals(field)) {
+            where.append("(");
+            appendBodyMatch(where, params, "%" + value.toLowerCase().trim() + "%");
+            where.append(")");
+            return true;
+        }
+        String[] columns = FIELD_TAG_COLUMNS.get(field);
+        if (prefix || exact) {
+            where.append("m.").append(columns[1]).append(exact ? " = ?" : " LIKE ?");
+            params.add(exact ? normalizeForSearch(value) : normalizeForSearch(value) + "%");
+        } else {
+            where.append("LOWER(m.").append(columns[0]).append(") LIKE ?");
+            params.add("%" + value.toLowerCase().trim() + "%");
+        }
+        return false;
+    }
+
+    /**
+     * Подстрока в тексте тела письма ({@code BODY_TEXT}), без HTML-разметки: теги вроде {@code div} или
+     * {@code style} не находятся. Пока {@link MailItemSearchBackfill} не заполнил колонку у старых писем,
+     * для строк без текста проверяется HTML — собственное тело или общее из {@code MAIL_ITEM_BODY}:
+     * общие тела лежат в другой таблице, поэтому сначала ищем подходящие хеши, затем письма, которые на них ссылаются.
+     * Имя таблицы в Active Objects получает префикс плагина, поэтому вместо подзапроса хеши подставляются
+     * параметрами, не больше {@value MailItemBodyStore#SEARCH_MAX_HASHES}.
+     */
+    private void appendBodyMatch(StringBuilder where, List<Object> params, String pattern) {
+        where.append("LOWER(c.BODY_TEXT) LIKE ?");
+        params.add(pattern);
+        if (bodyTextBackfilled) return;
+        where.append(" OR (c.BODY_TEXT IS NULL AND (LOWER(c.\"BODY\") LIKE ?");
+        params.add(pattern);
+        List<String> hashes = bodyStore.findHashes(pattern);
+        if (!hashes.isEmpty()) {
+            where.append(" OR c.BODY_HASH IN (").append(placeholders(hashes.size())).append(")");
+            params.addAll(hashes);
+        }
+        where.append("))");
+    }
+
+    /**
+     * Добавляет к условию отбор по адресам, теме и времени сохранения — те же правила, что у {@link #matches}:
+     * подстрока без учёта регистра, пустой критерий не ограничивает.
+     */
+    private static void appendCriteria(StringBuilder where, List<Object> params, String sender, String recipient,
+                                       String subjectPart, long createdFrom) {
+        if (!isBlank(sender)) {
+            if (!where.isEmpty()) where.append(" AND ");
+            where.append("LOWER(m.\"FROM\") LIKE ?");
+            params.add(likeContains(sender));
+        }
+        if (!isBlank(recipient)) {
+            if (!where.isEmpty()) where.append(" AND ");
+            where.append("(LOWER(m.\"TO\") LIKE ? OR LOWER(m.CC) LIKE ? OR LOWER(m.BCC) LIKE ?)");
+            String t = likeContains(recipient);
+            params.add(t);
+            params.add(t);
+            params.add(t);
+        }
+        if (!isBlank(subjectPart)) {
+            if (!where.isEmpty()) where.append(" AND ");
+            where.append("LOWER(m.\"SUBJECT\") LIKE ?");
+            params.add(likeContains(subjectPart));
+        }
+        if (createdFrom > 0) {
+            if (!where.isEmpty()) where.append(" AND ");
+            where.append("m.CREATED_AT >= ?");
+            params.add(createdFrom);
+        }
+    }
+
+    /** Проверяет событие сохранения по тем же правилам, что {@link #appendCriteria} — условие SQL. */
+    private static boolean matches(MailItemEvent event, String sender, String recipient, String subjectPart,
+                                   long createdFrom) {
+        if (!isBlank(sender) && !containsIgnoreCase(event.getFrom(), sender)) return false;
+        if (!isBlank(recipient) && !containsIgnoreCase(event.getTo(), recipient)
+                && !containsIgnoreCase(event.getCc(), recipient) && !containsIgnoreCase(event.getBcc(), recipient)) {
+            return false;
+        }
+        if (!isBlank(subjectPart) && !containsIgnoreCase(event.getSubject(), subjectPart)) return false;
+        return createdFrom <= 0 || event.getCreatedAt() >= createdFrom;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private static boolean containsIgnoreCase(String value, String part) {
+        return value != null && value.toLowerCase(Locale.ROOT).contains(part.trim().toLowerCase(Locale.ROOT));
+    }
+
+    private static String likeContains(String part) {
+        return "%" + part.trim().toLowerCase(Locale.ROOT) + "%";
+    }
+
+    /**
+     * Базовый запрос списка писем с алиасом {@code m}. Если фильтр обращается к телу письма,
+     * присоединяет {@code MAIL_ITEM_CONTENT} с алиасом {@code c}; без поиска CLOB-таблица не затрагивается.
+     */
+    private static Query listQuery(boolean joinContent) {
+        return listQuery(joinContent, "*");
+    }
+
+    /** То же, что {@link #listQuery(boolean)}, но с выборкой только перечисленных колонок письма. */
+    private static Query listQuery(boolean joinContent, String columns) {
+        Query query = Query.select(columns).alias(MailItemEntity.class, "m");
+        if (joinContent) {
+            query = query.alias(MailItemContentEntity.class, "c")
+                    .join(MailItemContentEntity.class, "c.MAIL_ITEM_ID = m.ID");
+        }
+        return query;
+    }
+
+    /**
+     * Отбирает ID писем, подходящих под SQL-фильтр, одним запросом: условие с {@code LIKE} выполняется один раз,
+     * а total и страница получаются из найденных ID — страница затем читается по первичному ключу.
+     * Active Objects не позволяет прочитать {@code COUNT(*) OVER()} рядом с колонками сущности, поэтому
+     * один проход по фильтру заменяет пару {@code COUNT(*)} + страничный запрос.
+     * <p>
+     * ID читаются в порядке страницы, не больше {@value #SINGLE_PASS_MAX_MATCHES} + 1: если их больше
+     * {@value #SINGLE_PASS_MAX_MATCHES}, массив содержит не все подходящие ID, а только ближайшие к началу сортировки —
+     * страница в их пределах по-прежнему вырезается из массива, а total нужно посчитать {@link #countFiltered}.
+     *
+     * @param ascending порядок страницы: {@code true} — читаются наименьшие ID, {@code false} — наибольшие
+     * @return отсортированные по возрастанию ID
+     */
+    private long[] findFilteredIds(boolean searchesContent, String where, List<Object> params, boolean ascending) {
+        Query query = listQuery(searchesContent, "ID").where(where, params.toArray(new Object[0]))
+                .order(ascending ? "m.ID ASC" : "m.ID DESC")
+                .limit(SINGLE_PASS_MAX_MATCHES + 1);
+        LongStream.Builder ids = LongStream.builder();
+        ao.stream(MailItemEntity.class, query, row -> ids.add(row.getID()));
+        return ids.build().sorted().distinct().toArray();
+    }
+
+    /** Число писем, подходящих под SQL-фильтр: {@code COUNT(*)} с тем же условием и JOIN. */
+    private int countFiltered(boolean searchesContent, CharSequence where, List<Object> params) {
+        return ao.count(MailItemEntity.class, listQuery(searchesContent).where(where.toString(), params.toArray(new Object[0])));
+    }
+
+    /**
+     * Отбирает ID писем, подходящих под все теги, по индексу {@code MAIL_ITEM_TOKEN}.
+     * Каждое слово тега сопоставляется с началом слов письма ({@code TOKEN LIKE 'слово%'}), множества ID пересекаются.
+     * Слова короче {@value MailItemTokenIndex#PREFIX_MIN_LENGTH} символов должны совпасть со словом письма целиком.
+     * Слова читаются от длинных к коротким: длинное слово отсекает больше, и пустое пересечение завершает поиск раньше.
+     *
+     * @return отсортированные по возрастанию ID; {@code null}, если запрос нужно выполнить SQL-поиском:
+     *         тегов нет, выбран SQL-режим ({@link #SEARCH_MODE_SUBSTRING}, {@link #SEARCH_MODE_PREFIX},
+     *         {@link #SEARCH_MODE_EXACT}), индекс ещё заполняется фоновой задачей, какой-то тег содержит
+     *         квалификатор поля, в нём нет индексируемых слов или слово встречается в индексе чаще
+     *         {@value MailItemTokenIndex#SCAN_MAX_ROWS} раз
+     */
+    private long[] findTokenMatches(String[] tags, long sinceId, String searchMode) {
+        if (tags == null
+                || !tokenIndex.isBackfilled()
+                || SEARCH_MODE_SUBSTRING.equalsIgnoreCase(searchMode)
+                || SEARCH_MODE_PREFIX.equalsIgnoreCase(searchMode)
+                || SEARCH_MODE_EXACT.equalsIgnoreCase(searchMode)) {
+            return null;
+        }
+        Set<String> allTokens = new LinkedHashSet<>();
+        for (String tag : tags) {
+            if (tag == null || tag.trim().isEmpty()) continue;
+            // Индекс слов не знает, из какого поля слово: тег с квалификатором проверяется SQL-условием по полю
+            if (FIELD_TAG.matcher(tag.trim()).matches()) return null;
+            Set<String> tokens = MailItemTokenizer.tokenize(tag);
+            if (tokens.isEmpty()) return null;
+            allTokens.addAll(tokens);
+        }
+        if (allTokens.isEmpty()) return null;
+        return tokenIndex.findMailItemIds(allTokens, sinceId);
+    }
+
+    /**
+     * Вырезает элементы с позиции {@code from} по {@code to} (не включая) из массива, отсортированного по возрастанию,
+     * в порядке {@code ascending}: при убывании позиции отсчитываются с конца массива.
+     */
+    private static long[] slice(long[] sortedAscending, boolean ascending, int from, int to) {
+        if (from >= to) return new long[0];
+        long[] out = new long[to - from];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = ascending ? sortedAscending[from + i] : sortedAscending[sortedAscending.length - 1 - from - i];
+        }
+        return out;
+    }
+
+    /**
+     * Загружает письма по ID запросами {@code ID IN (...)} и возвращает их в порядке переданного массива.
+     *
+     * @param columns колонки {@code MAIL_ITEM_TABLE} для выборки; {@code ID} обязателен
+     */
+    private List<MailItemEntity> findByIds(long[] ids, String columns) {
+        if (ids.length == 0) return List.of();
+        Map<Long, MailItemEntity> byId = new HashMap<>();
+        for (List<Object> chunk : chunks(Arrays.stream(ids).boxed().collect(Collectors.toList()))) {
+            Query query = Query.select(columns).where("ID IN (" + placeholders(chunk.size()) + ")", chunk.toArray());
+            for (MailItemEntity entity : ao.find(MailItemEntity.class, query)) {
+                byId.put((long) entity.getID(), entity);
+            }
+        }
+        List<MailItemEntity> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            MailItemEntity entity = byId.get(id);
+            // Письмо могли удалить между чтением индекса и загрузкой страницы
+            if (entity != null) result.add(entity);
+        }
+        return result;
+    }
+
+    /** Сдвигает счётчик писем, если он уже загружен; незагруженный счётчик прочитает актуальное значение сам. */
+    private void adjustCount(long delta) {
+        cachedCount.getAndUpdate(count -> count < 0 ? count : Math.max(0, count + delta));
+    }
+
+    /** Заполняет нормализованные колонки {@code FROM_LC}, {@code TO_LC}, {@code SUBJECT_LC}. */
+    private static void fillSearchColumns(MailItemEntity entity, String from, String to, String subject) {
+        entity.setFromLc(normalizeForSearch(from));
+        entity.setToLc(normalizeForSearch(to));
+        entity.setSubjectLc(normalizeForSearch(subject));
+    }
+
+    /** Нижний регистр без пробелов по краям, обрезка до {@value #SEARCH_COLUMN_LENGTH} символов; {@code null} сохраняется. */
+    private static String normalizeForSearch(String value) {
+        if (value == null) return null;
+        String normalized = value.trim().toLowerCase(Locale.ROOT);
+        return normalized.length() > SEARCH_COLUMN_LENGTH ? normalized.substring(0, SEARCH_COLUMN_LENGTH) : normalized;
+    }
+
+    /**
+     * Список колонок {@code MAIL_ITEM_TABLE} для запрошенных полей списка. {@code ID} выбирается всегда:
+     * по нему строятся {@code maxId} и курсоры.
+     */
+    private static String listColumns(Set<String> fields) {
+        StringBuilder columns = new StringBuilder("ID");
+        LIST_FIELD_COLUMNS.forEach((field, column) -> {
+            if (fields.contains(field)) columns.append(", ").append(column);
+        });
+        return columns.toString();
+    }
+
+    private static Map<String, String> listFieldColumns() {
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("id", "UUID");
+        columns.put("from", "FROM");
+        columns.put("to", "TO");
+        columns.put("cc", "CC");
+        columns.put("bcc", "BCC");
+        columns.put("subject", "SUBJECT");
+        columns.put("preview", "PREVIEW");
+        columns.put("attachmentsName", "ATTACHMENTS_NAME");
+        columns.put("createdAt", "CREATED_AT");
+        return Collections.unmodifiableMap(columns);
+    }
+
+    private static Set<String> listFields(boolean withBody) {
+        Set<String> fields = new LinkedHashSet<>(LIST_FIELD_COLUMNS.keySet());
+        if (withBody) fields.add(BODY_FIELD);
+        return Collections.unmodifiableSet(fields);
+    }
+
+    /** Первые {@value #PREVIEW_LENGTH} символов текста тела для списка писем; {@code null} сохраняется. */
+    private static String preview(String bodyText) {
+        if (bodyText == null) return null;
+        return bodyText.length() > PREVIEW_LENGTH ? bodyText.substring(0, PREVIEW_LENGTH) : bodyText;
+    }
+
+    /**
+     * Создаёт строку содержимого для только что сохранённой записи письма.
+     * Общее тело вызывающий сохраняет заранее через {@link MailItemBodyStore#store}, вне транзакции письма.
+     */
+    private void saveContent(MailItemEntity entity, String body, String bodyText, String rawHeaders) {
+        Map<String, Object> columns = new HashMap<>();
+        putContentColumns(columns, body, bodyText, rawHeaders);
+        MailItemContentEntity content = ao.create(MailItemContentEntity.class);
+        content.setMailItemId((long) entity.getID());
+        content.setBodyHash((String) columns.get("BODY_HASH"));
+        content.setBody((String) columns.get("BODY"));
+        content.setBodyText((String) columns.get("BODY_TEXT"));
+        content.setRawHeaders((String) columns.get("RAW_HEADERS"));
+        if (columns.containsKey("CODEC")) {
+            content.setCodec((String) columns.get("CODEC"));
+            content.setBodyCompressed((String) columns.get("BODY_COMPRESSED"));
+            content.setRawHeadersCompressed((String) columns.get("RAW_HEADERS_COMPRESSED"));
+        }
+        content.save();
+    }
+
+    /**
+     * Раскладывает тело и заголовки по колонкам {@code MAIL_ITEM_CONTENT}: значения не короче порога
+     * {@link MailItemContentCodec} пишутся сжатыми в {@code *_COMPRESSED}, остальные — как есть.
+     * Тело не короче {@value MailItemBodyStore#MIN_LENGTH} символов в строку не пишется — остаётся только
+     * его хеш, а само тело сохраняет {@link MailItemBodyStore#store}.
+     * Текст тела ({@code BODY_TEXT}) всегда пишется в строку несжатым — по нему идёт поиск.
+     */
+    private void putContentColumns(Map<String, Object> columns, String body, String bodyText, String rawHeaders) {
+        columns.put("BODY_HASH", body != null ? MailItemContentCodec.hash(body) : null);
+        columns.put("BODY_TEXT", bodyText);
+        if (MailItemBodyStore.isShared(body)) body = null;
+        boolean compressBody = contentCodec.shouldCompress(body);
+        boolean compressHeaders = contentCodec.shouldCompress(rawHeaders);
+        columns.put("BODY", compressBody ? null : body);
+        columns.put("RAW_HEADERS", compressHeaders ? null : rawHeaders);
+        if (compressBody || compressHeaders) {
+            columns.put("CODEC", MailItemContentCodec.DEFLATE);
+            columns.put("BODY_COMPRESSED", compressBody ? MailItemContentCodec.compress(body) : null);
+            columns.put("RAW_HEADERS_COMPRESSED", compressHeaders ? MailItemContentCodec.compress(rawHeaders) : null);
+        }
+    }
+
+    /**
+     * Загружает содержимое для набора писем запросами {@code MAIL_ITEM_ID IN (...)} по {@value #IN_CHUNK_SIZE} ID.
+     *
+     * @param fields список колонок для выборки; {@code ID} и {@code MAIL_ITEM_ID} обязательны
+     * @return содержимое по ID письма; письма без строки содержимого в карте отсутствуют
+     */
+    private Map<Long, MailItemContentEntity> loadContent(List<MailItemEntity> entities, String fields) {
+        Map<Long, MailItemContentEntity> result = new HashMap<>();
+        for (List<Object> ids : chunks(idsOf(entities))) {
+            Query query = Query.select(fields).where("MAIL_ITEM_ID IN (" + placeholders(ids.size()) + ")", ids.toArray());
+            for (MailItemContentEntity content : ao.find(MailItemContentEntity.class, query)) {
+                result.put(content.getMailItemId(), content);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Загружает старое содержимое писем без строки {@code MAIL_ITEM_CONTENT}: пока {@link #backfillContent}
+     * не перенёс все письма, их тело и заголовки лежат в колонках {@code MAIL_ITEM_TABLE}.
+     * После переноса возвращает пустую карту без запросов.
+     *
+     * @param entities письма, для которых нужно содержимое
+     * @param content  уже загруженные строки содержимого по ID письма
+     * @return старое содержимое по ID письма
+     */
+    private Map<Long, MailItemLegacyContentEntity> loadLegacyContent(List<MailItemEntity> entities,
+                                                                     Map<Long, MailItemContentEntity> content) {
+        if (contentBackfilled) return Collections.emptyMap();
+        List<MailItemEntity> missing = entities.stream()
+                .filter(entity -> !content.containsKey((long) entity.getID()))
+                .collect(Collectors.toList());
+        Map<Long, MailItemLegacyContentEntity> result = new HashMap<>();
+        for (List<Object> ids : chunks(idsOf(missing))) {
+            Query query = Query.select("ID, BODY, RAW_HEADERS").where("ID IN (" + placeholders(ids.size()) + ")", ids.toArray());
+            for (MailItemLegacyContentEntity legacy : ao.find(MailItemLegacyContentEntity.class, query)) {
+                result.put((long) legacy.getID(), legacy);
+            }
+        }
+        return result;
+    }
+
+    /** Полная модель письма: содержимое из строки {@code MAIL_ITEM_CONTENT}, а если её нет — из старых колонок. */
+    private static MailItem toDtoFull(MailItemEntity entity, Map<Long, MailItemContentEntity> content,
+                                      Map<String, MailItemBodyEntity> shared,
+                                      Map<Long, MailItemLegacyContentEntity> legacy) {
+        MailItemContentEntity itemContent = content.get((long) entity.getID());
+        if (itemContent != null) {
+            return MailItemMapper.toDtoFull(entity, itemContent, shared.get(itemContent.getBodyHash()));
+        }
+        return withLegacyContent(MailItemMapper.toDtoFull(entity, null), legacy.get((long) entity.getID()));
+    }
+
+    /** Заполняет тело и сырые заголовки письма из старых колонок; {@code legacy == null} — оставляет пустыми. */
+    private static MailItem withLegacyContent(MailItem mailItem, MailItemLegacyContentEntity legacy) {
+        if (legacy != null) {
+            mailItem.setBody(legacy.getBody());
+            mailItem.setRawHeaders(legacy.getRawHeaders());
+        }
+        return mailItem;
+    }
+
+    /**
+     * Удаляет строки содержимого и слова индекса переданных писем:
+     * по одному {@code DELETE} на таблицу на каждые {@value #IN_CHUNK_SIZE} ID.
+     */
+    private void deleteContent(List<MailItemEntity> entities) {
+        for (List<Object> ids : chunks(idsOf(entities))) {
+            String criteria = "MAIL_ITEM_ID IN (" + placeholders(ids.size()) + ")";
+            ao.deleteWithSQL(MailItemContentEntity.class, criteria, ids.toArray());
+            tokenIndex.delete(criteria, ids.toArray());
+        }
+    }
+
+    private static List<Long> idsOf(List<MailItemEntity> entities) {
+        List<Long> ids = new ArrayList<>(entities.size());
+        for (MailItemEntity entity : entities) ids.add((long) entity.getID());
+        return ids;
+    }
+
+    static List<List<Object>> chunks(List<?> values) {
+        List<List<Object>> chunks = new ArrayList<>();
+        for (int i = 0; i < values.size(); i += IN_CHUNK_SIZE) {
+            chunks.add(new ArrayList<>(values.subList(i, Math.min(i + IN_CHUNK_SIZE, values.size()))));
+        }
+        return chunks;
+    }
+
+    static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Пишет страницу в {@code out} как JSON-объект: массив {@code items}, затем поля {@code meta}.
+     * Элементы сериализуются по одному, поэтому размер ответа не держится в памяти целиком.
+     * <p>
+     * В элементы попадают только запрошенные {@code fields}; сводка без тела берётся из {@code MAIL_ITEM_TABLE},
+     * и {@code MAIL_ITEM_CONTENT} не читается. Тела подгружаются порциями по {@value #WRITE_CHUNK_SIZE} писем,
+     * только если запрошено поле {@link #BODY_FIELD} или превью, которого нет у части писем (записи, созданные
+     * до его появления). Сырые заголовки списку не нужны и не читаются.
+     *
+     * @param meta непустые поля ответа помимо {@code items}
+     */
+    private void writePage(Writer out, List<MailItemEntity> page, Set<String> fields, JSONObject meta)
+            throws JSONException, IOException {
+        boolean includeBody = fields.contains(BODY_FIELD);
+        boolean includePreview = fields.contains("preview");
+        out.write("{\"items\":[");
+        for (int from = 0; from < page.size(); from += WRITE_CHUNK_SIZE) {
+            List<MailItemEntity> chunk = page.subList(from, Math.min(from + WRITE_CHUNK_SIZE, page.size()));
+            List<MailItemEntity> needContent = includeBody ? chunk
+                    : !includePreview ? List.of()
+                    : chunk.stream().filter(entity -> entity.getPreview() == null).collect(Collectors.toList());
+            Map<Long, MailItemContentEntity> content = needContent.isEmpty() ? Map.of()
+                    : loadContent(needContent, "ID, MAIL_ITEM_ID, BODY_HASH, CODEC, BODY, BODY_COMPRESSED");
+            Map<String, MailItemBodyEntity> shared = bodyStore.load(content.values());
+            Map<Long, MailItemLegacyContentEntity> legacy = loadLegacyContent(needContent, content);
+            for (int i = 0; i < chunk.size(); i++) {
+                MailItemEntity entity = chunk.get(i);
+                MailItemContentEntity itemContent = content.get((long) entity.getID());
+                MailItemLegacyContentEntity legacyContent = legacy.get((long) entity.getID());
+                String body = itemContent == null ? (legacyContent != null ? legacyContent.getBody() : null)
+                        : shared.containsKey(itemContent.getBodyHash()) ? MailItemContentCodec.body(shared.get(itemContent.getBodyHash()))
+                        : MailItemContentCodec.body(itemContent);
+                if (from + i > 0) out.write(',');
+                out.write(toItemJson(entity, body, fields).toString());
+            }
+        }
+        // meta.toString() — "{...}": открывающая скобка заменяется запятой после items, закрывающая завершает ответ
+        String tail = meta.toString();
+        out.write("],");
+        out.write(tail, 1, tail.length() - 1);
+    }
+
+    /** JSON одного элемента списка с запрошенными полями. */
+    private static JSONObject toItemJson(MailItemEntity entity, String body, Set<String> fields) throws JSONException {
+        JSONObject obj = new JSONObject();
+        if (fields.contains("id")) obj.put("id", entity.getUuid());
+        if (fields.contains("from")) obj.put("from", entity.getFrom());
+        if (fields.contains("to")) obj.put("to", entity.getTo());
+        if (fields.contains("cc")) obj.put("cc", entity.getCc());
+        if (fields.contains("bcc")) obj.put("bcc", entity.getBcc());
+        if (fields.contains("subject")) obj.put("subject", entity.getSubject());
+        if (fields.contains("preview")) {
+            obj.put("preview", entity.getPreview() != null ? entity.getPreview() : preview(MailItemTokenizer.bodyText(body)));
+        }
+        if (fields.contains(BODY_FIELD)) obj.put(BODY_FIELD, body);
+        if (fields.contains("attachmentsName")) obj.put("attachmentsName", entity.getAttachmentsName());
+        if (fields.contains("createdAt") && entity.getCreatedAt() != null) {
+            obj.put("createdAt", (long) entity.getCreatedAt());
+        }
+        return obj;
+    }
+
+    /** Строка выгрузки NDJSON: все поля письма и числовой {@code seq} для продолжения выгрузки. */
+    private static JSONObject toExportJson(long seq, MailItem item) throws JSONException {
+        JSONObject obj = new JSONObject()
+                .put("seq", seq)
+                .put("id", item.getId())
+                .put("from", item.getFrom())
+                .put("to", item.getTo())
+                .put("cc", item.getCc())
+                .put("bcc", item.getBcc())
+                .put("subject", item.getSubject())
+                .put("body", item.getBody())
+                .put("rawHeaders", item.getRawHeaders())
+                .put("attachmentsName", item.getAttachmentsName());
+        if (item.getCreatedAt() != null) obj.put("createdAt", (long) item.getCreatedAt());
+        return obj;
+    }
+
+    /** Наибольший ID страницы; для пустой страницы — {@code sinceId}, чтобы курсор обновления не регрессировал. */
+    private static long maxId(List<MailItemEntity> page, long sinceId) {
+        long maxId = sinceId;
+        for (MailItemEntity entity : page) {
+            if (entity.getID() > maxId) maxId = entity.getID();
+        }
+        return maxId;
+    }
+
+    /**
+     * Добавляет в ответ курсоры соседних страниц. Страница передаётся в порядке отображения:
+     * {@code nextCursor} строится от последней записи, {@code prevCursor} — от первой.
+     */
+    private static void putCursors(JSONObject result, List<MailItemEntity> page, boolean ascending,
+                                   boolean moreBefore, boolean moreAfter) throws JSONException {
+        if (page.isEmpty()) return;
+        if (moreAfter) {
+            long lastId = page.get(page.size() - 1).getID();
+            result.put("nextCursor", new PageCursor(ascending, lastId).encode());
+        }
+        if (moreBefore) {
+            long firstId = page.get(0).getID();
+            result.put("prevCursor", new PageCursor(!ascending, firstId).encode());
+        }
+    }
+
+    /**
+     * Позиция keyset-пагинации: записи строго после ({@code after}) или строго до указанного ID.
+     * Клиенту передаётся в виде непрозрачной base64url-строки, чтобы формат можно было менять без правки UI.
+     */
+    private static final class PageCursor {
+
+        private final boolean after;
+        private final long id;
+
+        private PageCursor(boolean after, long id) {
+            this.after = after;
+            this.id = id;
+        }
+
+        private String encode() {
+            String raw = (after ? "a:" : "b:") + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @return разобранный курсор или {@code null}, если курсор не передан
+         * @throws IllegalArgumentException если строка не является курсором этого сервиса
+         */
+        private static PageCursor decode(String cursor) {
+            if (cursor == null || cursor.isEmpty()) return null;
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                if (raw.length() > 2 && raw.charAt(1) == ':' && (raw.charAt(0) == 'a' || raw.charAt(0) == 'b')) {
+                    long id = Long.parseLong(raw.substring(2));
+                    if (id >= 0) return new PageCursor(raw.charAt(0) == 'a', id);
+                }
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException и ошибки base64 — тоже IllegalArgumentException; ниже единое сообщение
+            }
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
 }
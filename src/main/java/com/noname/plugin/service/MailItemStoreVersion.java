@@ -0,0 +1,54 @@
+package com.noname.plugin.service;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.noname.plugin.ao.MailItemStateEntity;
+import net.java.ao.Query;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.UUID;
+
+/**
+ * Версия содержимого хранилища, общая для всех узлов кластера и переживающая перезапуск:
+ * строка {@code MAIL_ITEM_STATE} (см. {@link MailItemStateEntity}).
+ * <p>
+ * {@link MailItemService} вызывает {@link #bump} внутри каждой транзакции, которая сохраняет или удаляет письма,
+ * поэтому новая версия становится видна вместе с изменением. Версия — случайный UUID, а не счётчик:
+ * Active Objects не умеет атомарный {@code UPDATE ... SET VERSION = VERSION + 1}, а чтение и запись счётчика
+ * из параллельных транзакций теряли бы увеличения. Значение, записанное последней транзакцией,
+ * отличается от любого прочитанного до неё — этого достаточно для {@code ETag}.
+ */
+@Component
+public class MailItemStoreVersion {
+
+    @ComponentImport
+    private final ActiveObjects ao;
+
+    @Inject
+    public MailItemStoreVersion(ActiveObjects ao) {
+        this.ao = ao;
+    }
+
+    /**
+     * Текущая версия хранилища или {@code null}, если строки {@code MAIL_ITEM_STATE} нет
+     * (задача обновления ещё не выполнялась) — тогда ответы не помечаются версией.
+     */
+    String current() {
+        MailItemStateEntity state = find();
+        return state == null ? null : state.getVersion();
+    }
+
+    /** Записывает новую версию; вызывается внутри транзакции, которая меняет письма. */
+    void bump() {
+        MailItemStateEntity state = find();
+        if (state == null) return;
+        state.setVersion(UUID.randomUUID().toString());
+        state.save();
+    }
+
+    private MailItemStateEntity find() {
+        MailItemStateEntity[] rows = ao.find(MailItemStateEntity.class, Query.select().order("ID ASC").limit(1));
+        return rows.length == 0 ? null : rows[0];
+    }
+}
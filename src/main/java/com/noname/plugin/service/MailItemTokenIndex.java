@@ -0,0 +1,203 @@
+package com.noname.plugin.service;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.activeobjects.tx.Transactional;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.noname.plugin.ao.MailItemBodyEntity;
+import com.noname.plugin.ao.MailItemContentEntity;
+import com.noname.plugin.ao.MailItemEntity;
+import com.noname.plugin.ao.MailItemTokenEntity;
+import net.java.ao.Query;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static com.noname.plugin.service.MailItemService.CONTENT_FIELDS;
+import static com.noname.plugin.service.MailItemService.placeholders;
+
+/**
+ * Инвертированный индекс слов {@code MAIL_ITEM_TOKEN}: запись слов новых писем, фоновая индексация
+ * писем, сохранённых до появления индекса, и поиск ID писем по словам тегов.
+ * Слова выделяет {@link MailItemTokenizer}; какие запросы идут через индекс, решает {@link MailItemService}.
+ */
+@Component
+public class MailItemTokenIndex {
+
+    /**
+     * Сколько строк {@code MAIL_ITEM_TOKEN} читается в память по одному слову тега. Если слово встречается чаще,
+     * оно почти ничего не отсекает, и запрос выполняется SQL-поиском по колонкам вместо пересечения ID.
+     */
+    static final int SCAN_MAX_ROWS = 20_000;
+
+    /**
+     * Слова тега короче этой длины сравниваются со словами письма целиком, а не как префикс:
+     * префикс из двух букв подходит к слишком большой части индекса.
+     */
+    static final int PREFIX_MIN_LENGTH = 3;
+
+    @ComponentImport
+    private final ActiveObjects ao;
+    private final MailItemBodyStore bodyStore;
+
+    /**
+     * Все письма проиндексированы. До этого поиск по словам выполняется SQL-условием,
+     * чтобы не терять письма, сохранённые до появления индекса; см. {@link #markBackfilled}.
+     */
+    private volatile boolean backfilled;
+
+    @Inject
+    public MailItemTokenIndex(ActiveObjects ao, MailItemBodyStore bodyStore) {
+        this.ao = ao;
+        this.bodyStore = bodyStore;
+    }
+
+    /**
+     * Записывает слова писем одним многострочным INSERT; вызывается внутри транзакции, сохраняющей письма.
+     *
+     * @param tokensByMailItem слова по ID письма
+     */
+    void index(Map<Long, ? extends Collection<String>> tokensByMailItem) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Map.Entry<Long, ? extends Collection<String>> mailItem : tokensByMailItem.entrySet()) {
+            for (String token : mailItem.getValue()) {
+                rows.add(Map.of("TOKEN", token, "MAIL_ITEM_ID", mailItem.getKey()));
+            }
+        }
+        if (!rows.isEmpty()) ao.create(MailItemTokenEntity.class, rows);
+    }
+
+    /**
+     * Удаляет слова писем, выбранных условием по {@code MAIL_ITEM_ID}.
+     *
+     * @param criteria условие {@code WHERE} по колонке {@code MAIL_ITEM_ID}
+     * @param params   параметры условия
+     */
+    void delete(String criteria, Object... params) {
+        ao.deleteWithSQL(MailItemTokenEntity.class, criteria, params);
+    }
+
+    /**
+     * Записывает в индекс слова одного батча писем, сохранённых до появления индекса.
+     * Вызывается фоновой задачей {@link MailItemSearchBackfill} в цикле, каждый батч — отдельная транзакция.
+     * Перед вставкой слова писем батча удаляются, поэтому повторный проход после сбоя не создаёт дублей.
+     *
+     * @param afterId   обработать письма с ID строго больше этого значения
+     * @param batchSize максимальное число писем в батче
+     * @return ID последнего обработанного письма; {@code afterId}, если непроиндексированных писем не осталось
+     */
+    @Transactional
+    public long backfill(long afterId, int batchSize) {
+        MailItemEntity[] batch = ao.find(MailItemEntity.class, Query.select()
+                .where("ID > ? AND TOKENS_INDEXED IS NULL", afterId)
+                .order("ID ASC")
+                .limit(batchSize));
+        if (batch.length == 0) return afterId;
+
+        List<Object> ids = new ArrayList<>(batch.length);
+        for (MailItemEntity entity : batch) ids.add((long) entity.getID());
+        String idList = "MAIL_ITEM_ID IN (" + placeholders(ids.size()) + ")";
+        MailItemContentEntity[] contents = ao.find(MailItemContentEntity.class,
+                Query.select(CONTENT_FIELDS + ", BODY_TEXT").where(idList, ids.toArray()));
+        Map<String, MailItemBodyEntity> shared = bodyStore.load(Arrays.asList(contents));
+        Map<Long, String> texts = new HashMap<>();
+        for (MailItemContentEntity content : contents) {
+            // BODY_TEXT заполняется раньше этого прохода; тело разбирается, только если текста ещё нет
+            String text = content.getBodyText() != null
+                    ? content.getBodyText()
+                    : MailItemTokenizer.bodyText(MailItemBodyStore.resolve(content, shared));
+            texts.put(content.getMailItemId(), text);
+        }
+
+        delete(idList, ids.toArray());
+        Map<Long, Set<String>> tokens = new LinkedHashMap<>();
+        for (MailItemEntity entity : batch) {
+            long mailItemId = entity.getID();
+            tokens.put(mailItemId, MailItemTokenizer.tokenizeText(entity.getFrom(), entity.getTo(), entity.getSubject(),
+                    texts.get(mailItemId)));
+        }
+        index(tokens);
+        for (MailItemEntity entity : batch) {
+            entity.setTokensIndexed(true);
+            entity.save();
+        }
+        return batch[batch.length - 1].getID();
+    }
+
+    /** Сообщает, что {@link #backfill} проиндексировал все письма: поиск по словам начинает использовать индекс. */
+    void markBackfilled() {
+        backfilled = true;
+    }
+
+    /** Проиндексированы ли все письма, см. {@link #markBackfilled}. */
+    boolean isBackfilled() {
+        return backfilled;
+    }
+
+    /**
+     * Возвращает ID писем, содержащих все слова: пересечение выборок по каждому слову, начиная с самого длинного —
+     * оно обычно отсекает больше всего.
+     *
+     * @param tokens  слова тегов, не пустой набор
+     * @param sinceId учитывать только письма с ID строго больше; {@code 0} — все
+     * @return отсортированные по возрастанию ID; {@code null}, если какое-то слово встречается в индексе
+     *         чаще {@value #SCAN_MAX_ROWS} раз
+     */
+    long[] findMailItemIds(Collection<String> tokens, long sinceId) {
+        List<String> ordered = new ArrayList<>(tokens);
+        ordered.sort(Comparator.comparingInt(String::length).reversed());
+        long[] result = null;
+        for (String token : ordered) {
+            long[] ids = findIdsByToken(token, sinceId);
+            if (ids == null) return null;
+            result = (result == null) ? ids : intersect(result, ids);
+            if (result.length == 0) return result;
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает уникальные ID писем со словом, начинающимся с {@code token} (короткое слово — равным ему),
+     * по возрастанию; {@code null}, если строк индекса больше {@value #SCAN_MAX_ROWS}.
+     */
+    private long[] findIdsByToken(String token, long sinceId) {
+        // Токены состоят только из букв и цифр — экранировать % и _ в шаблоне не нужно
+        boolean prefix = token.length() >= PREFIX_MIN_LENGTH;
+        String tokenClause = prefix ? "TOKEN LIKE ?" : "TOKEN = ?";
+        String pattern = prefix ? token + "%" : token;
+        Query query = (sinceId > 0
+                ? Query.select("ID, MAIL_ITEM_ID").where(tokenClause + " AND MAIL_ITEM_ID > ?", pattern, sinceId)
+                : Query.select("ID, MAIL_ITEM_ID").where(tokenClause, pattern))
+                .limit(SCAN_MAX_ROWS + 1);
+        LongStream.Builder ids = LongStream.builder();
+        AtomicInteger rows = new AtomicInteger();
+        ao.stream(MailItemTokenEntity.class, query, row -> {
+            rows.incrementAndGet();
+            ids.add(row.getMailItemId());
+        });
+        if (rows.get() > SCAN_MAX_ROWS) return null;
+        return ids.build().sorted().distinct().toArray();
+    }
+
+    /** Пересечение двух отсортированных по возрастанию массивов без повторов. */
+    private static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[n++] = a[i]; i++; j++; }
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,87 @@
+package com.noname.plugin.service;
+
+import org.jsoup.Jsoup;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Разбивает текст письма на слова для инвертированного индекса {@code MAIL_ITEM_TOKEN}.
+ * Одни и те же правила применяются при индексации письма и при разборе тегов поиска.
+ * Все методы статические — класс не хранит состояния.
+ */
+public final class MailItemTokenizer {
+
+    /** Слова короче не индексируются: однобуквенные токены совпадают почти с каждым письмом. */
+    public static final int MIN_TOKEN_LENGTH = 2;
+
+    /** Более длинные слова обрезаются — совпадает с длиной колонки {@code TOKEN}. */
+    public static final int MAX_TOKEN_LENGTH = 64;
+
+    /** Разделитель — всё, что не буква и не цифра: пробелы, пунктуация, {@code @}, точки в адресах. */
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private MailItemTokenizer() {}
+
+    /**
+     * Возвращает набор слов письма: адреса, тема и текст тела без HTML-разметки.
+     *
+     * @param from    отправитель или {@code null}
+     * @param to      получатели или {@code null}
+     * @param subject тема или {@code null}
+     * @param body    HTML-тело или {@code null}
+     * @return уникальные слова в нижнем регистре
+     */
+    public static Set<String> tokenizeMail(String from, String to, String subject, String body) {
+        return tokenizeText(from, to, subject, bodyText(body));
+    }
+
+    /**
+     * То же, что {@link #tokenizeMail}, но для тела, из которого текст уже извлечён через {@link #bodyText}, —
+     * чтобы не разбирать HTML повторно.
+     *
+     * @param bodyText текст тела без разметки или {@code null}
+     * @return уникальные слова в нижнем регистре
+     */
+    public static Set<String> tokenizeText(String from, String to, String subject, String bodyText) {
+        Set<String> tokens = new LinkedHashSet<>();
+        addTokens(tokens, from);
+        addTokens(tokens, to);
+        addTokens(tokens, subject);
+        addTokens(tokens, bodyText);
+        return tokens;
+    }
+
+    /**
+     * Извлекает текст из HTML-тела письма.
+     *
+     * @param body HTML-тело или {@code null}
+     * @return текст без разметки; {@code null}, если тело пустое
+     */
+    public static String bodyText(String body) {
+        if (body == null || body.isEmpty()) return null;
+        return Jsoup.parse(body).text();
+    }
+
+    /**
+     * Разбивает произвольный текст (например, тег поиска) на слова по тем же правилам, что и письмо.
+     *
+     * @param text исходный текст или {@code null}
+     * @return уникальные слова в нижнем регистре; пустой набор, если подходящих слов нет
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        addTokens(tokens, text);
+        return tokens;
+    }
+
+    private static void addTokens(Set<String> tokens, String text) {
+        if (text == null || text.isEmpty()) return;
+        for (String word : SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (word.length() < MIN_TOKEN_LENGTH) continue;
+            tokens.add(word.length() > MAX_TOKEN_LENGTH ? word.substring(0, MAX_TOKEN_LENGTH) : word);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.noname.plugin.service;
+
+import com.atlassian.jira.mail.Email;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Отложенная (write-behind) запись писем.
+ * <p>
+ * В этом режиме {@link #add(Email)} сразу выдаёт UUID и кладёт письмо в ограниченную очередь в памяти,
+ * а фоновый поток забирает накопившиеся письма и записывает их батчами через
+ * {@link MailItemService#createMailItems(Map)}. Так массовые рассылки Jira (bulk edit, массовые переходы)
+ * не ждут INSERT на каждое уведомление.
+ * <p>
+ * Режим выключен по умолчанию — письма пишутся синхронно, как раньше. Настраивается системными свойствами JVM:
+ * <ul>
+ *   <li>{@value #ENABLED_PROPERTY} — {@code true} включает очередь;</li>
+ *   <li>{@value #CAPACITY_PROPERTY} — ёмкость очереди, по умолчанию {@value #DEFAULT_CAPACITY};</li>
+ *   <li>{@value #OVERFLOW_PROPERTY} — поведение при заполненной очереди: {@code block} (по умолчанию,
+ *       также при неизвестном значении) или {@code drop}, см. {@link OverflowPolicy}.</li>
+ * </ul>
+ * Письма, ещё не записанные в базу, не видны при чтении; {@link #flush()} дожидается их записи.
+ * При отключении плагина очередь дописывается синхронно. Если фоновый поток завершился аварийно,
+ * новые письма пишутся синхронно, а {@link #flush()} не ждёт письма, которые уже некому записать.
+ */
+@Component
+public class MailItemWriteBehindQueue implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(MailItemWriteBehindQueue.class);
+
+    public static final String ENABLED_PROPERTY = "mailcatcher.writeBehind.enabled";
+    public static final String CAPACITY_PROPERTY = "mailcatcher.writeBehind.capacity";
+    public static final String OVERFLOW_PROPERTY = "mailcatcher.writeBehind.overflow";
+
+    static final int DEFAULT_CAPACITY = 10_000;
+
+    /** Сколько писем фоновый поток забирает из очереди за одну запись. */
+    private static final int BATCH_SIZE = 200;
+
+    /** Сколько ждать завершения фонового потока при отключении плагина. */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    /** Сколько {@link #flush()} ждёт записи очереди, прежде чем сдаться. */
+    static final long FLUSH_TIMEOUT_MS = 60_000;
+
+    /** Как часто {@link #flush()} проверяет, жив ли фоновый поток. */
+    private static final long WRITER_CHECK_INTERVAL_MS = 100;
+
+    /** Сколько фоновый поток ждёт письмо, прежде чем проверить, не отключается ли плагин. */
+    private static final long POLL_INTERVAL_MS = 100;
+
+    /** Поведение {@link #add(Email)} при заполненной очереди. */
+    public enum OverflowPolicy {
+        /** Вызывающий поток ждёт освобождения места — давление передаётся отправителю. */
+        BLOCK,
+        /** Письмо отбрасывается с предупреждением в логе; {@link #add(Email)} возвращает {@code null}. */
+        DROP
+    }
+
+    private final MailItemService mailItemService;
+    private final boolean enabled;
+    private final OverflowPolicy overflowPolicy;
+    private final BlockingQueue<Pending> queue;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "mail-catcher-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Сколько писем принято в очередь и сколько из них уже обработано (записано или потеряно при ошибке). */
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    /** Сколько обработанных писем записать не удалось; {@link #flush()} сообщает о тех, что появились после прошлого вызова. */
+    private final AtomicLong failed = new AtomicLong();
+    private final Object completionLock = new Object();
+    /** Значение {@link #failed}, о котором {@link #flush()} уже сообщил; меняется под {@link #completionLock}. */
+    private long failedReported;
+    private volatile boolean closed;
+    /** Задача фонового потока; {@code null}, пока очередь не запущена. */
+    private volatile Future<?> writer;
+
+    @Inject
+    public MailItemWriteBehindQueue(MailItemService mailItemService) {
+        this(mailItemService,
+                Boolean.getBoolean(ENABLED_PROPERTY),
+                Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY),
+                parseOverflowPolicy(System.getProperty(OVERFLOW_PROPERTY)));
+    }
+
+    /** Создаёт очередь с явными настройками вместо системных свойств. */
+    public MailItemWriteBehindQueue(MailItemService mailItemService, boolean enabled, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) throw new IllegalArgumentException("Write-behind capacity must be positive");
+        this.mailItemService = mailItemService;
+        this.enabled = enabled;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Разбирает значение {@value #OVERFLOW_PROPERTY} без учёта регистра. Опечатка в системном свойстве
+     * не должна мешать включению плагина: неизвестное значение логируется, и используется {@link OverflowPolicy#BLOCK}.
+     */
+    static OverflowPolicy parseOverflowPolicy(String value) {
+        if (value == null || value.trim().isEmpty()) return OverflowPolicy.BLOCK;
+        try {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown {} value '{}', falling back to block", OVERFLOW_PROPERTY, value);
+            return OverflowPolicy.BLOCK;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) return;
+        writer = executor.submit(this::run);
+        log.info("Write-behind mail queue started: capacity {}, overflow {}", queue.remainingCapacity(), overflowPolicy);
+    }
+
+    /**
+     * Останавливает фоновый поток и синхронно дописывает всё, что осталось в очереди.
+     * Поток не прерывается: батч, который он уже забрал из очереди, записывается им до конца, и только затем
+     * остаток очереди дописывается в вызывающем потоке.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        closed = true;
+        executor.shutdown();
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            log.warn("Write-behind writer did not finish its batch within {} s", SHUTDOWN_TIMEOUT_SECONDS);
+        }
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (int i = 0; i < rest.size(); i += BATCH_SIZE) {
+            write(rest.subList(i, Math.min(i + BATCH_SIZE, rest.size())));
+        }
+        if (!rest.isEmpty()) log.info("Flushed {} queued mail items on shutdown", rest.size());
+    }
+
+    /** Включена ли отложенная запись. */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Сохраняет письмо: в режиме write-behind — через очередь, иначе — синхронно через {@link MailItemService#createMailItem}.
+     *
+     * @param email сохраняемое письмо
+     * @return UUID письма; в режиме write-behind запись появится в базе после обработки очереди.
+     *         {@code null}, если очередь заполнена и политика {@link OverflowPolicy#DROP} отбросила письмо
+     * @throws IllegalArgumentException если {@code email} равен {@code null}
+     */
+    public String add(Email email) {
+        if (email == null) throw new IllegalArgumentException("Email cannot be null");
+        if (!enabled || closed || writerDied()) return mailItemService.createMailItem(email);
+
+        Pending pending = new Pending(UUID.randomUUID().toString(), email);
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            if (!queue.offer(pending)) {
+                long total = dropped.incrementAndGet();
+                log.warn("Write-behind mail queue is full, dropped mail item ({} dropped so far)", total);
+                return null;
+            }
+        } else {
+            try {
+                queue.put(pending);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mailItemService.createMailItems(Map.of(pending.uuid, email));
+                return pending.uuid;
+            }
+        }
+        enqueued.incrementAndGet();
+        return pending.uuid;
+    }
+
+    /**
+     * Дожидается записи в базу всех писем, принятых в очередь до вызова метода, но не дольше
+     * {@value #FLUSH_TIMEOUT_MS} мс. Без включённого режима write-behind возвращается сразу.
+     *
+     * @return {@code true}, если все письма записаны; {@code false}, если истёк таймаут, поток прерван,
+     *         фоновый поток не работает и письма в очереди некому записать или часть писем, обработанных
+     *         после прошлого вызова, записать не удалось — их нет в базе
+     */
+    public boolean flush() {
+        return flush(FLUSH_TIMEOUT_MS);
+    }
+
+    boolean flush(long timeoutMs) {
+        long target = enqueued.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (completionLock) {
+            while (completed.get() < target) {
+                if (closed || writer == null || writer.isDone()) {
+                    log.warn("Write-behind writer is not running, {} queued mail items cannot be flushed", queue.size());
+                    return false;
+                }
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    log.warn("Write-behind flush timed out after {} ms, {} mail items still queued", timeoutMs, queue.size());
+                    return false;
+                }
+                try {
+                    // Ждём порциями: если фоновый поток умер, уведомления о записи уже не будет
+                    completionLock.wait(Math.min(remainingMs, WRITER_CHECK_INTERVAL_MS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            long failures = failed.get();
+            long unreported = failures - failedReported;
+            failedReported = failures;
+            if (unreported > 0) {
+                log.warn("{} queued mail items could not be written since the previous flush", unreported);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Сколько писем сейчас ожидает записи. */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /** Сколько писем из очереди не удалось записать в базу с момента включения плагина. */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** Сколько писем отброшено политикой {@link OverflowPolicy#DROP} с момента включения плагина. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** Фоновый поток был запущен и завершился не по {@link #destroy()} — например, из-за {@link Error}. */
+    private boolean writerDied() {
+        Future<?> current = writer;
+        return current != null && current.isDone();
+    }
+
+    /**
+     * Цикл фонового потока: ждёт первое письмо, добирает остальные до размера батча и записывает их.
+     * Завершается после {@link #destroy()}, дописав текущий батч; остаток очереди дописывает {@link #destroy()}.
+     */
+    void run() {
+        List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (!closed) {
+                Pending first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Записывает батч одной пакетной вставкой. Если она не удалась, письма пишутся по одному,
+     * чтобы одно проблемное письмо не уносило с собой весь батч.
+     */
+    private void write(List<Pending> batch) {
+        if (batch.isEmpty()) return;
+        Map<String, Email> byUuid = new LinkedHashMap<>();
+        for (Pending pending : batch) byUuid.put(pending.uuid, pending.email);
+        try {
+            mailItemService.createMailItems(byUuid);
+        } catch (Exception e) {
+            log.warn("Batched write of {} queued mail items failed, retrying one by one", batch.size(), e);
+            for (Pending pending : batch) {
+                try {
+                    mailItemService.createMailItems(Map.of(pending.uuid, pending.email));
+                } catch (Exception itemError) {
+                    failed.incrementAndGet();
+                    log.error("Failed to write queued mail item {}", pending.uuid, itemError);
+                }
+            }
+        }
+        completed.addAndGet(batch.size());
+        synchronized (completionLock) {
+            completionLock.notifyAll();
+        }
+    }
+
+    private static final class Pending {
+        final String uuid;
+        final Email email;
+
+        Pending(String uuid, Email email) {
+            this.uuid = uuid;
+            this.email = email;
+        }
+    }
+}
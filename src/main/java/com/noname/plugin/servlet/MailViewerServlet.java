@@ -2,6 +2,7 @@ package com.noname.plugin.servlet;
 
 import com.atlassian.jira.user.ApplicationUser;
 import com.noname.plugin.security.AuthorizationService;
+import com.noname.plugin.servlet.handler.MailItemEventStream;
 import com.noname.plugin.servlet.handler.MailItemRequestHandler;
 import com.noname.plugin.servlet.renderer.MailItemPageRenderer;
 import com.noname.plugin.servlet.util.TestDataInitializer;
@@ -13,14 +14,17 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.noname.plugin.constants.MailViewerConstants.*;
 
 /**
  * HTTP-точка входа для плагина просмотра почты.
- * Маршрутизирует GET-запросы к {@link MailItemPageRenderer} (HTML/CSS) и
- * к {@link MailItemRequestHandler} (JSON-данные), POST-запросы — к {@link MailItemRequestHandler}.
+ * Маршрутизирует GET-запросы к {@link MailItemPageRenderer} (HTML/CSS/JS) и
+ * к {@link MailItemRequestHandler} (JSON-данные), к {@link MailItemEventStream} (поток событий),
+ * POST-запросы — к {@link MailItemRequestHandler}.
  * Не содержит бизнес-логики — только маршрутизация и проверка прав.
  * <p>Намеренно не аннотирован {@code @Component}: сервлет регистрируется JIRA-контейнером
  * через {@code atlassian-plugin.xml} как {@code <servlet>}-модуль. Добавление {@code @Component}
@@ -29,8 +33,13 @@ import static com.noname.plugin.constants.MailViewerConstants.*;
  * Доступные маршруты:
  * <ul>
  *   <li>GET    {@code /mail-items/}       — таблица писем (HTML)</li>
- *   <li>GET    {@code /mail-items/data}   — все письма в виде JSON</li>
+ *   <li>GET    {@code /mail-items/data}   — сводка писем в виде JSON (без тел)</li>
+ *   <li>GET    {@code /mail-items/data/wait} — то же, но ответ откладывается до появления новых писем (long-poll)</li>
  *   <li>GET    {@code /mail-items/table}  — таблица писем (HTML, альтернативный путь)</li>
+ *   <li>GET    {@code /mail-items/{uuid}} — одно письмо целиком в виде JSON</li>
+ *   <li>GET    {@code /mail-items/export.ndjson} — выгрузка всех писем, по одному JSON на строку</li>
+ *   <li>GET    {@code /mail-items/events} — поток Server-Sent Events о сохранении и удалении писем</li>
+ *   <li>GET    {@code /mail-items/delete-all/status} — ход удаления всех писем</li>
  *   <li>POST   {@code /delete-all}        — удалить все письма</li>
  *   <li>POST   {@code /create-test-data}  — создать тестовые данные</li>
  *   <li>POST   {@code /add-email}         — добавить письмо через JSON-тело запроса</li>
@@ -41,17 +50,23 @@ public class MailViewerServlet extends HttpServlet {
 
     private static final Logger log = LoggerFactory.getLogger(MailViewerServlet.class);
 
+    /** GET {@code /mail-items/{uuid}}: UUID письма — последний сегмент пути. */
+    private static final Pattern MAIL_ITEM_PATH = Pattern.compile(".*/mail-items/([0-9a-fA-F-]{36})$");
+
     private final MailItemRequestHandler requestHandler;
+    private final MailItemEventStream eventStream;
     private final MailItemPageRenderer pageRenderer;
     private final TestDataInitializer testDataInitializer;
     private final AuthorizationService authorizationService;
 
     @Inject
     public MailViewerServlet(MailItemRequestHandler requestHandler,
+                             MailItemEventStream eventStream,
                              MailItemPageRenderer pageRenderer,
                              TestDataInitializer testDataInitializer,
                              AuthorizationService authorizationService) {
         this.requestHandler = checkNotNull(requestHandler);
+        this.eventStream = checkNotNull(eventStream);
         this.pageRenderer = checkNotNull(pageRenderer);
         this.testDataInitializer = checkNotNull(testDataInitializer);
         this.authorizationService = checkNotNull(authorizationService);
@@ -71,8 +86,9 @@ public class MailViewerServlet extends HttpServlet {
                 return;
             }
 
-            if (requestURI.endsWith(CSS_MAIN_PATH) || requestURI.endsWith(CSS_TABLE_PATH)) {
-                pageRenderer.serveCssFile(req, resp);
+            if (requestURI.endsWith(CSS_MAIN_PATH) || requestURI.endsWith(CSS_TABLE_PATH)
+                    || requestURI.endsWith(JS_TABLE_PATH)) {
+                pageRenderer.serveStaticFile(req, resp);
                 return;
             }
 
@@ -81,19 +97,33 @@ public class MailViewerServlet extends HttpServlet {
                 return;
             }
 
+            Matcher mailItemPath = MAIL_ITEM_PATH.matcher(requestURI);
             if (requestURI.endsWith(MAIL_ITEMS_ROOT)) {
                 pageRenderer.renderTablePage(req, resp);
             } else if (requestURI.endsWith(MAIL_ITEMS_DATA)) {
                 requestHandler.handleDataRequest(req, resp);
+            } else if (requestURI.endsWith(MAIL_ITEMS_DATA_WAIT)) {
+                requestHandler.handleWaitRequest(req, resp);
             } else if (requestURI.endsWith(MAIL_ITEMS_TABLE)) {
                 pageRenderer.renderTablePage(req, resp);
+            } else if (requestURI.endsWith(MAIL_ITEMS_EXPORT)) {
+                requestHandler.handleExportRequest(req, resp);
+            } else if (requestURI.endsWith(MAIL_ITEMS_EVENTS)) {
+                eventStream.handleSubscribeRequest(req, resp);
+            } else if (requestURI.endsWith(MAIL_ITEMS_DELETE_ALL_STATUS)) {
+                requestHandler.handleDeleteAllStatusRequest(resp);
+            } else if (mailItemPath.matches()) {
+                requestHandler.handleGetByIdRequest(mailItemPath.group(1), resp);
             } else {
                 resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Page not found");
             }
 
         } catch (Exception e) {
             log.error("Error handling GET request: {}", req.getRequestURI(), e);
-            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal server error");
+            // Потоковый ответ мог уже уйти клиенту — sendError на нём бросил бы IllegalStateException
+            if (!resp.isCommitted()) {
+                resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal server error");
+            }
         }
     }
 
@@ -0,0 +1,273 @@
+package com.noname.plugin.servlet.handler;
+
+import com.atlassian.jira.util.json.JSONException;
+import com.atlassian.jira.util.json.JSONObject;
+import com.noname.plugin.service.MailItemEvent;
+import com.noname.plugin.service.MailItemService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.noname.plugin.constants.MailViewerConstants.EVENT_STREAM_CONTENT_TYPE;
+
+/**
+ * Поток Server-Sent Events о сохранении и удалении писем для страницы просмотра (GET {@code /mail-items/events}).
+ * <p>
+ * Соединение удерживается через {@link AsyncContext}: после подписки поток контейнера возвращается в пул,
+ * и открытая вкладка с таблицей не занимает его, пока писем нет. События {@link MailItemService} и
+ * комментарии-heartbeat кладутся в собственную очередь каждого соединения, а в сеть её пишет отдельная задача
+ * пула: сервис, публикующий событие, не ждёт сети, а медленный клиент задерживает только свой поток записи.
+ * Клиент, у которого накопилось {@value #MAX_PENDING_FRAMES} неотправленных кадров, отключается — браузер
+ * переподключится и дочитает пропущенное обновлением таблицы. Heartbeat раз в {@value #HEARTBEAT_INTERVAL_SECONDS} с
+ * находит закрытые вкладки и не даёт прокси закрыть соединение по простою.
+ * <p>
+ * Формат события: {@code event: created|deleted|cleared}, в {@code data} — JSON со сводкой письма
+ * ({@code seq}, {@code id}, {@code from}, {@code to}, {@code subject}, {@code preview}, {@code createdAt}) без тела.
+ * Если контейнер не поддерживает асинхронную обработку или открыто {@value #MAX_CONNECTIONS} соединений,
+ * запрос отклоняется с кодом 503 — страница в этом случае остаётся с обновлением по кнопке.
+ */
+@Component
+public class MailItemEventStream implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(MailItemEventStream.class);
+
+    static final int MAX_CONNECTIONS = 50;
+
+    /** Сколько кадров может ждать отправки в одно соединение; при переполнении соединение закрывается. */
+    static final int MAX_PENDING_FRAMES = 64;
+    private static final long HEARTBEAT_INTERVAL_SECONDS = 20;
+
+    /** Задержка переподключения браузера после обрыва соединения, мс. */
+    private static final long RETRY_MS = 5_000;
+
+    private final MailItemService mailItemService;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    /** Свободные места для соединений; место занимается до {@code startAsync} и возвращается при закрытии. */
+    private final Semaphore slots = new Semaphore(MAX_CONNECTIONS);
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mail-catcher-events-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Пишет очереди соединений в сеть; одновременно не больше одного потока на соединение. */
+    private final ExecutorService writers;
+    private Runnable unsubscribe;
+
+    @Inject
+    public MailItemEventStream(MailItemService mailItemService) {
+        this(mailItemService, Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "mail-catcher-events-writer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param writers пул, выполняющий запись очередей соединений; потоков в нём нужно не меньше,
+     *                чем одновременно медленных клиентов, иначе они задержат остальных
+     */
+    MailItemEventStream(MailItemService mailItemService, ExecutorService writers) {
+        this.mailItemService = checkNotNull(mailItemService);
+        this.writers = checkNotNull(writers);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // Рассылка только кладёт кадр в очереди соединений и не блокирует поток, сохранивший письмо
+        unsubscribe = mailItemService.subscribe(this::broadcast);
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /** Отписывается от сервиса, останавливает фоновые потоки и закрывает открытые соединения. */
+    @Override
+    public void destroy() {
+        if (unsubscribe != null) unsubscribe.run();
+        heartbeats.shutdownNow();
+        writers.shutdownNow();
+        for (Connection connection : connections) close(connection);
+    }
+
+    /**
+     * Открывает поток событий: отправляет заголовки и задержку переподключения и переводит запрос
+     * в асинхронный режим без таймаута. Соединение закрывается клиентом или при отключении плагина.
+     * Соответствует GET {@code /mail-items/events}.
+     *
+     * @param req  HTTP-запрос
+     * @param resp HTTP-ответ
+     * @throws IOException если запись ответа завершилась ошибкой
+     */
+    public void handleSubscribeRequest(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (!req.isAsyncSupported()) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Event stream requires asynchronous request support");
+            return;
+        }
+        // Место занимается до перехода в async: одновременные запросы не превысят лимит
+        if (!slots.tryAcquire()) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many event stream connections");
+            return;
+        }
+
+        Connection connection;
+        try {
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentType(EVENT_STREAM_CONTENT_TYPE);
+            resp.setHeader("Cache-Control", "no-cache");
+            // Отключает буферизацию ответа в nginx перед Jira
+            resp.setHeader("X-Accel-Buffering", "no");
+
+            AsyncContext async = req.startAsync();
+            async.setTimeout(0);
+            connection = new Connection(async, resp.getWriter());
+        } catch (IOException | RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        // С этого момента место освобождает remove()
+        connections.add(connection);
+        connection.async.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                remove(connection);
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                close(connection);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                close(connection);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        // Первый кадр идёт через очередь: в соединение пишет только его поток записи
+        connection.frames.add("retry: " + RETRY_MS + "\n\n");
+        scheduleDrain(connection);
+    }
+
+    /** Сколько соединений сейчас открыто. */
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    /** Ставит событие в очередь каждого открытого соединения. */
+    void broadcast(MailItemEvent event) {
+        try {
+            send("event: " + event.getType().name().toLowerCase(Locale.ROOT) + "\ndata: " + toJson(event) + "\n\n");
+        } catch (JSONException e) {
+            log.error("Error building event stream frame for mail item {}", event.getSeq(), e);
+        }
+    }
+
+    /** Комментарий SSE: браузер его игнорирует, а запись в закрытое соединение выявляет его. */
+    void heartbeat() {
+        send(": ping\n\n");
+    }
+
+    private void send(String frame) {
+        for (Connection connection : connections) {
+            if (!connection.frames.offer(frame)) {
+                log.debug("Closing lagging event stream connection: {} frames pending", MAX_PENDING_FRAMES);
+                close(connection);
+                continue;
+            }
+            scheduleDrain(connection);
+        }
+    }
+
+    /** Запускает запись очереди соединения, если она ещё не выполняется. */
+    private void scheduleDrain(Connection connection) {
+        if (!connection.draining.compareAndSet(false, true)) return;
+        try {
+            writers.execute(() -> drain(connection));
+        } catch (RejectedExecutionException e) {
+            // Плагин отключается: соединение закроет destroy()
+            connection.draining.set(false);
+        }
+    }
+
+    /** Пишет накопленные кадры соединения; блокируется только на его сокете. */
+    private void drain(Connection connection) {
+        String frame;
+        while ((frame = connection.frames.poll()) != null) {
+            connection.writer.write(frame);
+            connection.writer.flush();
+            // PrintWriter не бросает IOException — обрыв соединения виден только по флагу ошибки
+            if (connection.writer.checkError()) {
+                close(connection);
+                return;
+            }
+        }
+        connection.draining.set(false);
+        // Кадр мог попасть в очередь после последнего poll, но до сброса флага
+        if (!connection.frames.isEmpty()) scheduleDrain(connection);
+    }
+
+    /** Убирает соединение из рассылки и освобождает его место; повторный вызов ничего не делает. */
+    private void remove(Connection connection) {
+        if (connections.remove(connection)) slots.release();
+    }
+
+    private void close(Connection connection) {
+        remove(connection);
+        try {
+            connection.async.complete();
+        } catch (IllegalStateException e) {
+            // Запрос уже завершён контейнером
+        }
+    }
+
+    private static JSONObject toJson(MailItemEvent event) throws JSONException {
+        JSONObject json = new JSONObject().put("seq", event.getSeq());
+        if (event.getId() != null) json.put("id", event.getId());
+        if (event.getType() == MailItemEvent.Type.CREATED) {
+            json.put("from", event.getFrom());
+            json.put("to", event.getTo());
+            json.put("subject", event.getSubject());
+            json.put("preview", event.getPreview());
+            json.put("createdAt", event.getCreatedAt());
+        }
+        return json;
+    }
+
+    private static final class Connection {
+        final AsyncContext async;
+        final PrintWriter writer;
+        final BlockingQueue<String> frames = new ArrayBlockingQueue<>(MAX_PENDING_FRAMES);
+        final AtomicBoolean draining = new AtomicBoolean();
+
+        Connection(AsyncContext async, PrintWriter writer) {
+            this.async = async;
+            this.writer = writer;
+        }
+    }
+}
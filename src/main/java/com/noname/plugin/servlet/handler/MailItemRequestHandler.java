@@ -1,19 +1,32 @@
 package com.noname.plugin.servlet.handler;
 
+import com.atlassian.jira.util.json.JSONArray;
 import com.atlassian.jira.util.json.JSONException;
 import com.atlassian.jira.util.json.JSONObject;
+import com.noname.plugin.model.MailItem;
+import com.noname.plugin.service.MailItemDeleteProgress;
 import com.noname.plugin.service.MailItemService;
+import com.noname.plugin.servlet.util.ETags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.core.MediaType;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.noname.plugin.constants.MailViewerConstants.*;
@@ -30,6 +43,8 @@ public class MailItemRequestHandler {
     private static final int DEFAULT_PAGE_SIZE = 10;
     private static final int MAX_TAGS_COUNT = 10;
     private static final int MAX_LIMIT = 1000;
+    private static final long DEFAULT_WAIT_TIMEOUT_MS = 25_000;
+    private static final long MAX_WAIT_TIMEOUT_MS = 60_000;
 
     private final MailItemService mailItemService;
 
@@ -40,7 +55,15 @@ public class MailItemRequestHandler {
 
     /**
      * Возвращает письма в виде JSON с поддержкой поиска и пагинации.
-     * Принимает параметры запроса: {@code tag}, {@code offset}, {@code limit}, {@code sinceId}, {@code sortOrder}.
+     * Принимает параметры запроса: {@code tag}, {@code offset}, {@code limit}, {@code sinceId}, {@code sortOrder}, {@code cursor},
+     * {@code searchMode}, {@code withTotal}, {@code includeBody}, {@code fields}.
+     * Элементы списка — сводка с {@code preview} без тела; {@code includeBody=true} возвращает и {@code body}.
+     * {@code fields} — список полей элемента через запятую; неизвестное поле отклоняется с кодом 400.
+     * Если передан {@code cursor}, страница выбирается keyset-пагинацией и {@code offset} игнорируется.
+     * <p>
+     * Ответ помечается {@code ETag} из {@link MailItemService#getStoreVersion версии хранилища} и параметров запроса.
+     * Если {@code If-None-Match} совпадает с ним, возвращается 304 без чтения писем. Версия общая для узлов кластера
+     * и хранится в базе, поэтому тег, выданный одним узлом, другой узел сравнивает с актуальным состоянием.
      * Соответствует GET {@code /mail-items/data}.
      *
      * @param req  HTTP-запрос (используется для чтения параметров)
@@ -48,6 +71,16 @@ public class MailItemRequestHandler {
      * @throws IOException если запись ответа завершилась ошибкой
      */
     public void handleDataRequest(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        writeDataResponse(req, resp, true);
+    }
+
+    /**
+     * Страница писем по параметрам запроса, см. {@link #handleDataRequest}.
+     *
+     * @param conditional учитывать ли {@code If-None-Match}; long-poll после прихода письма отвечает страницей всегда
+     */
+    private void writeDataResponse(HttpServletRequest req, HttpServletResponse resp, boolean conditional)
+            throws IOException {
         setJsonResponseHeaders(resp);
 
         try {
@@ -67,12 +100,201 @@ public class MailItemRequestHandler {
                 sortOrder = "desc";
             }
 
-            String jsonData = mailItemService.getAllMailItemsAsJson(tags, offset, limit, sinceId, sortOrder);
+            // Непрозрачный курсор из nextCursor/prevCursor предыдущего ответа — keyset-пагинация без OFFSET
+            String cursor = req.getParameter("cursor");
+            // Режим поиска: "substring" — прежний LIKE '%tag%'; иначе — поиск по индексу слов
+            String searchMode = req.getParameter("searchMode");
+            // withTotal=false — не считать total, наличие следующей страницы определяется по hasMore
+            boolean withTotal = !"false".equalsIgnoreCase(req.getParameter("withTotal"));
+            // includeBody=true — вернуть тела писем в списке; по умолчанию тело читается через GET /mail-items/{uuid}
+            boolean includeBody = "true".equalsIgnoreCase(req.getParameter("includeBody"));
+            // fields=id,subject,to — вернуть и прочитать из базы только эти поля
+            Set<String> fields = parseFields(req.getParameter("fields"), includeBody);
+
+            // Версия читается до запроса к базе: изменение во время чтения даст следующему запросу новый ETag
+            String version = mailItemService.getStoreVersion();
+            // Кэшировать можно, но перед использованием — всегда переспрашивать сервер
+            resp.setHeader("Cache-Control", "no-cache");
+            // Без версии хранилища (MAIL_ITEM_STATE ещё не создана) тег не выдаётся и 304 не бывает
+            if (version != null) {
+                String etag = dataETag(version, tags, cursor, offset, limit, sinceId, sortOrder, searchMode, withTotal,
+                        fields);
+                resp.setHeader("ETag", etag);
+                if (conditional && ETags.matches(req.getHeader("If-None-Match"), etag)) {
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+
+            // Ответ пишется сервисом напрямую в поток по одному письму; ошибки параметров возникают до первого символа
             resp.setStatus(HttpServletResponse.SC_OK);
-            resp.getWriter().write(jsonData);
+            PrintWriter out = resp.getWriter();
+            if (cursor != null && !cursor.isEmpty()) {
+                mailItemService.writeMailItemsPageJson(tags, cursor, limit, sinceId, sortOrder, searchMode, withTotal, fields, out);
+            } else {
+                mailItemService.writeAllMailItemsJson(tags, offset, limit, sinceId, sortOrder, searchMode, withTotal, fields, out);
+            }
         } catch (JSONException e) {
             log.error("Error converting mail items to JSON", e);
             handleInternalError(resp, e);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid data request: {}", e.getMessage());
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write(err(e.getMessage()).toString());
+        }
+    }
+
+    /**
+     * Long-poll для новых писем: держит запрос, пока не появится письмо с ID больше {@code sinceId}
+     * или не истечёт {@code timeout} (мс, по умолчанию {@value #DEFAULT_WAIT_TIMEOUT_MS}, не больше
+     * {@value #MAX_WAIT_TIMEOUT_MS}). Когда письма есть, ответ совпадает с {@link #handleDataRequest} для тех же
+     * параметров, но {@code If-None-Match} не учитывается: клиент ждал новых писем и всегда получает страницу, а не 304.
+     * По таймауту возвращается пустая страница {@code {"items":[],"hasMore":false,"maxId":sinceId}}
+     * без обращения к базе. Соответствует GET {@code /mail-items/data/wait}.
+     * <p>
+     * Если контейнер поддерживает асинхронные запросы, ожидание не занимает поток контейнера
+     * ({@link AsyncContext}); иначе поток блокируется на время ожидания.
+     *
+     * @param req  HTTP-запрос (используется для чтения параметров)
+     * @param resp HTTP-ответ
+     * @throws IOException если запись ответа завершилась ошибкой
+     */
+    public void handleWaitRequest(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        long sinceId = parseLongParam(req.getParameter("sinceId"));
+        String timeoutParam = req.getParameter("timeout");
+        long timeout = timeoutParam == null ? DEFAULT_WAIT_TIMEOUT_MS
+                : Math.min(parseLongParam(timeoutParam), MAX_WAIT_TIMEOUT_MS);
+
+        CompletableFuture<Boolean> arrival;
+        try {
+            arrival = mailItemService.awaitMailItemsAfter(sinceId, timeout);
+        } catch (Exception e) {
+            log.error("Error waiting for mail items after ID {}", sinceId, e);
+            handleInternalError(resp, e);
+            return;
+        }
+
+        if (arrival.isDone() || !req.isAsyncSupported()) {
+            writeWaitResult(req, resp, sinceId, arrival.join());
+            return;
+        }
+
+        AsyncContext async = req.startAsync();
+        // Таймаут ожидания соблюдает сам future; таймаут контейнера — с запасом на формирование ответа
+        async.setTimeout(timeout + 10_000);
+        arrival.whenComplete((arrived, error) -> async.start(() -> {
+            try {
+                writeWaitResult((HttpServletRequest) async.getRequest(), (HttpServletResponse) async.getResponse(),
+                        sinceId, Boolean.TRUE.equals(arrived));
+            } catch (Exception e) {
+                log.error("Error completing wait request after ID {}", sinceId, e);
+            } finally {
+                async.complete();
+            }
+        }));
+    }
+
+    /** Ответ long-poll: страница новых писем, если они есть, иначе пустая страница без запроса к базе. */
+    private void writeWaitResult(HttpServletRequest req, HttpServletResponse resp, long sinceId, boolean arrived)
+            throws IOException {
+        if (arrived) {
+            writeDataResponse(req, resp, false);
+            return;
+        }
+        setJsonResponseHeaders(resp);
+        try {
+            JSONObject empty = new JSONObject()
+                    .put("items", new JSONArray())
+                    .put("hasMore", false)
+                    .put("maxId", sinceId);
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.getWriter().write(empty.toString());
+        } catch (JSONException e) {
+            log.error("Error building empty wait response", e);
+            handleInternalError(resp, e);
+        }
+    }
+
+    /**
+     * Выгружает письма в формате NDJSON — по одному JSON-объекту на строку, по возрастанию ID.
+     * Принимает параметры запроса: {@code tag}, {@code searchMode}, {@code createdFrom}, {@code createdTo}
+     * (Unix timestamp в миллисекундах) и {@code afterId} — {@code seq} последней полученной строки для продолжения.
+     * Ошибка до отправки первых строк возвращается статусом 500; после — логируется, и поток завершается
+     * на последней целой строке.
+     * Соответствует GET {@code /mail-items/export.ndjson}.
+     *
+     * @param req  HTTP-запрос (используется для чтения параметров)
+     * @param resp HTTP-ответ
+     * @throws IOException если запись ответа завершилась ошибкой
+     */
+    public void handleExportRequest(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String[] tags = req.getParameterValues("tag");
+        if (tags != null && tags.length > MAX_TAGS_COUNT) {
+            setJsonResponseHeaders(resp);
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write(err("Too many tags: maximum " + MAX_TAGS_COUNT + " allowed").toString());
+            return;
+        }
+        long createdFrom = parseLongParam(req.getParameter("createdFrom"));
+        long createdTo = parseLongParam(req.getParameter("createdTo"));
+        long afterId = parseLongParam(req.getParameter("afterId"));
+
+        resp.setContentType(NDJSON_CONTENT_TYPE);
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resp.setHeader("X-Content-Type-Options", "nosniff");
+        resp.setHeader("Content-Disposition", "attachment; filename=\"mail-items.ndjson\"");
+        resp.setStatus(HttpServletResponse.SC_OK);
+        try {
+            long exported = mailItemService.exportMailItemsNdjson(tags, req.getParameter("searchMode"),
+                    createdFrom, createdTo, afterId, resp.getWriter());
+            log.info("Exported {} mail items as NDJSON after ID {}", exported, afterId);
+        } catch (JSONException | RuntimeException e) {
+            if (!resp.isCommitted()) {
+                // Клиенту ещё ничего не отправлено — ошибка возвращается статусом, а не пустой выгрузкой
+                log.error("Error exporting mail items", e);
+                resp.reset();
+                handleInternalError(resp, e);
+                return;
+            }
+            // Часть строк уже отправлена — статус не изменить: выгрузка обрывается, клиент продолжит её с последнего seq
+            log.error("Export of mail items aborted after ID {}: response already committed", afterId, e);
+        }
+    }
+
+    /**
+     * Возвращает одно письмо целиком: поля списка, {@code body}, {@code rawHeaders} и {@code attachmentsName}.
+     * Соответствует GET {@code /mail-items/{uuid}}.
+     *
+     * @param uuid UUID письма
+     * @param resp HTTP-ответ
+     * @throws IOException если запись ответа завершилась ошибкой
+     */
+    public void handleGetByIdRequest(String uuid, HttpServletResponse resp) throws IOException {
+        setJsonResponseHeaders(resp);
+
+        try {
+            MailItem item = mailItemService.getMailItemById(uuid);
+            if (item == null) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                resp.getWriter().write(err(EMAIL_NOT_FOUND_MESSAGE).toString());
+                return;
+            }
+            JSONObject json = new JSONObject()
+                    .put("id", item.getId())
+                    .put("from", item.getFrom())
+                    .put("to", item.getTo())
+                    .put("cc", item.getCc())
+                    .put("bcc", item.getBcc())
+                    .put("subject", item.getSubject())
+                    .put("body", item.getBody())
+                    .put("rawHeaders", item.getRawHeaders())
+                    .put("attachmentsName", item.getAttachmentsName());
+            if (item.getCreatedAt() != null) json.put("createdAt", (long) item.getCreatedAt());
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.getWriter().write(json.toString());
+        } catch (Exception e) {
+            log.error("Error reading mail item: {}", uuid, e);
+            handleInternalError(resp, e);
         }
     }
 
@@ -97,6 +319,40 @@ public class MailItemRequestHandler {
         }
     }
 
+    /**
+     * Возвращает ход удаления всех писем: {@code state} ({@code idle}, {@code running}, {@code done}, {@code failed}),
+     * {@code deleted}, {@code lastId}, {@code maxId}, {@code startedAt}, {@code finishedAt}.
+     * Запрос {@code /delete-all} отвечает только по окончании удаления — этот эндпоинт можно опрашивать, пока он идёт.
+     * Ход виден на узле кластера, который выполняет удаление; {@code idle} — удаление на этом узле не запускалось.
+     * Соответствует GET {@code /mail-items/delete-all/status}.
+     *
+     * @param resp HTTP-ответ
+     * @throws IOException если запись ответа завершилась ошибкой
+     */
+    public void handleDeleteAllStatusRequest(HttpServletResponse resp) throws IOException {
+        setJsonResponseHeaders(resp);
+
+        try {
+            MailItemDeleteProgress progress = mailItemService.getDeleteProgress();
+            JSONObject json = new JSONObject();
+            if (progress == null) {
+                json.put("state", "idle");
+            } else {
+                json.put("state", progress.getState().name().toLowerCase(Locale.ROOT))
+                        .put("deleted", progress.getDeleted())
+                        .put("lastId", progress.getLastId())
+                        .put("maxId", progress.getMaxId())
+                        .put("startedAt", progress.getStartedAt())
+                        .put("finishedAt", progress.getFinishedAt());
+            }
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.getWriter().write(json.toString());
+        } catch (JSONException e) {
+            log.error("Error converting delete progress to JSON", e);
+            handleInternalError(resp, e);
+        }
+    }
+
     /**
      * Удаляет письмо по UUID.
      * Соответствует DELETE {@code /mail-items/{uuid}}.
@@ -264,6 +520,33 @@ public class MailItemRequestHandler {
         resp.setHeader("Referrer-Policy", "no-referrer");
     }
 
+    /**
+     * {@code ETag} ответа {@code /data}: версия хранилища и хэш разобранных параметров.
+     * Параметры берутся после нормализации, поэтому равнозначные запросы ({@code limit=abc} и без {@code limit})
+     * получают одинаковый тег.
+     */
+    private static String dataETag(String version, String[] tags, String cursor, int offset, int limit, long sinceId,
+                                   String sortOrder, String searchMode, boolean withTotal, Set<String> fields) {
+        StringBuilder key = new StringBuilder();
+        if (tags != null) {
+            for (String tag : tags) key.append("tag=").append(tag).append('\n');
+        }
+        key.append("cursor=").append(cursor == null || cursor.isEmpty() ? "" : cursor).append('\n')
+                .append("offset=").append(offset).append('\n')
+                .append("limit=").append(limit).append('\n')
+                .append("sinceId=").append(sinceId).append('\n')
+                .append("sortOrder=").append(sortOrder).append('\n')
+                .append("searchMode=").append(searchMode == null ? "" : searchMode).append('\n')
+                .append("withTotal=").append(withTotal).append('\n')
+                .append("fields=").append(String.join(",", fields));
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            return "\"" + version + "-" + HexFormat.of().formatHex(digest, 0, 8) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
     private static int parseIntParam(String value, int defaultValue) {
         if (value == null) return defaultValue;
         try {
@@ -274,6 +557,31 @@ public class MailItemRequestHandler {
         }
     }
 
+    /**
+     * Разбирает параметр {@code fields}: имена полей через запятую из {@link MailItemService#LIST_FIELDS}.
+     * Без параметра возвращает {@link MailItemService#SUMMARY_FIELDS}; {@code includeBody} добавляет тело к любому набору.
+     *
+     * @throws IllegalArgumentException если поле неизвестно или список пуст
+     */
+    private static Set<String> parseFields(String value, boolean includeBody) {
+        Set<String> fields = new LinkedHashSet<>();
+        if (value == null) {
+            fields.addAll(MailItemService.SUMMARY_FIELDS);
+        } else {
+            for (String name : value.split(",")) {
+                String field = name.trim();
+                if (field.isEmpty()) continue;
+                if (!MailItemService.LIST_FIELDS.contains(field)) {
+                    throw new IllegalArgumentException("Unknown field: " + field);
+                }
+                fields.add(field);
+            }
+            if (fields.isEmpty()) throw new IllegalArgumentException("fields must not be empty");
+        }
+        if (includeBody) fields.add(MailItemService.BODY_FIELD);
+        return fields;
+    }
+
     private static long parseLongParam(String value) {
         if (value == null) return 0L;
         try {
@@ -5,6 +5,7 @@ import com.atlassian.templaterenderer.TemplateRenderer;
 import com.atlassian.webresource.api.assembler.PageBuilderService;
 import com.atlassian.webresource.api.assembler.RequiredResources;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.noname.plugin.servlet.util.ETags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -13,7 +14,6 @@ import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -22,11 +22,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.noname.plugin.constants.MailViewerConstants.*;
 
 /**
- * Отвечает за генерацию HTML-ответов и раздачу статических ресурсов (CSS).
+ * Отвечает за генерацию HTML-ответов и раздачу статических ресурсов (CSS и JS).
  * <p>
  * Шаблоны рендерятся через {@link TemplateRenderer} (Velocity-движок Atlassian).
- * CSS-файлы раздаются напрямую из classpath, минуя стандартный механизм WebResource,
- * что позволяет использовать их без полной декорации страницы JIRA.
+ * Статические файлы читаются из classpath один раз при создании компонента и раздаются из памяти,
+ * минуя стандартный механизм WebResource, что позволяет использовать их без полной декорации страницы JIRA.
  */
 @Component
 public class MailItemPageRenderer {
@@ -37,6 +37,9 @@ public class MailItemPageRenderer {
     private final ApplicationProperties applicationProperties;
     private final TemplateRenderer templateRenderer;
 
+    /** Статические файлы по пути в URL; отсутствующих в classpath файлов здесь нет. */
+    private final Map<String, StaticAsset> assets = new HashMap<>();
+
     @Inject
     public MailItemPageRenderer(@ComponentImport PageBuilderService pageBuilderService,
                                 @ComponentImport ApplicationProperties applicationProperties,
@@ -44,6 +47,9 @@ public class MailItemPageRenderer {
         this.pageBuilderService = checkNotNull(pageBuilderService);
         this.applicationProperties = checkNotNull(applicationProperties);
         this.templateRenderer = checkNotNull(templateRenderer);
+        loadAsset(CSS_MAIN_PATH, CSS_MAIN_RESOURCE, CSS_CONTENT_TYPE);
+        loadAsset(CSS_TABLE_PATH, CSS_TABLE_RESOURCE, CSS_CONTENT_TYPE);
+        loadAsset(JS_TABLE_PATH, JS_TABLE_RESOURCE, JS_CONTENT_TYPE);
     }
 
     /**
@@ -68,6 +74,9 @@ public class MailItemPageRenderer {
             Map<String, Object> context = new HashMap<>();
             context.put("contextPath", req.getContextPath());
             context.put("baseUrl", buildBaseUrl(req));
+            // Версии в ссылках на CSS и JS: новая сборка плагина меняет ссылку, и браузер не берёт старый файл из кэша
+            context.put("tableCssVersion", assetVersion(CSS_TABLE_PATH));
+            context.put("tableJsVersion", assetVersion(JS_TABLE_PATH));
 
             templateRenderer.render(TABLE_TEMPLATE_PATH, context, resp.getWriter());
         } catch (Exception e) {
@@ -77,34 +86,43 @@ public class MailItemPageRenderer {
     }
 
     /**
-     * Раздаёт CSS-файл из classpath по URI запроса.
+     * Раздаёт статический файл (CSS или JS) по URI запроса из памяти.
+     * <p>
+     * Ответ помечается {@code ETag} по содержимому; совпавший {@code If-None-Match} получает 304.
+     * Ссылка с параметром {@code v}, равным версии файла, кэшируется браузером на год без проверок —
+     * такие ссылки строит {@link #renderTablePage}. Без версии браузер переспрашивает сервер при каждом использовании.
+     * Клиент с {@code Accept-Encoding: gzip} получает заранее сжатый вариант.
      *
      * @param req  HTTP-запрос (URI используется для определения нужного файла)
      * @param resp HTTP-ответ
      * @throws IOException если запись ответа завершилась ошибкой
      */
-    public void serveCssFile(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        String requestURI = req.getRequestURI();
-        String cssPath = extractCssPath(requestURI);
-
-        if (cssPath == null) {
-            resp.sendError(HttpServletResponse.SC_NOT_FOUND, CSS_NOT_FOUND_MESSAGE);
+    public void serveStaticFile(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        StaticAsset asset = findAsset(req.getRequestURI());
+        if (asset == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, STATIC_NOT_FOUND_MESSAGE);
             return;
         }
 
-        resp.setContentType(CSS_CONTENT_TYPE);
-
-        try (InputStream cssStream = getClass().getClassLoader().getResourceAsStream(cssPath)) {
-            if (cssStream != null) {
-                resp.getWriter().write(new String(cssStream.readAllBytes(), StandardCharsets.UTF_8));
-            } else {
-                log.warn("CSS file not found: {}", cssPath);
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND, CSS_NOT_FOUND_MESSAGE);
-            }
-        } catch (IOException e) {
-            log.error("Error reading CSS file: {}", cssPath, e);
-            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error reading CSS file");
+        boolean gzip = asset.getGzipped() != null && acceptsGzip(req.getHeader("Accept-Encoding"));
+        // Сжатый вариант — другие байты, поэтому и другой тег
+        String etag = gzip ? "\"" + asset.getVersion() + "-gzip\"" : asset.getETag();
+        resp.setContentType(asset.getContentType());
+        resp.setHeader("X-Content-Type-Options", "nosniff");
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Vary", "Accept-Encoding");
+        resp.setHeader("Cache-Control", asset.getVersion().equals(req.getParameter("v"))
+                ? "public, max-age=" + STATIC_MAX_AGE_SECONDS + ", immutable"
+                : "no-cache");
+        if (ETags.matches(req.getHeader("If-None-Match"), etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
         }
+
+        byte[] body = gzip ? asset.getGzipped() : asset.getBytes();
+        if (gzip) resp.setHeader("Content-Encoding", "gzip");
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
     }
 
     // ===== Вспомогательные методы =====
@@ -118,18 +136,51 @@ public class MailItemPageRenderer {
                 req.getServerPort() + req.getContextPath();
     }
 
+    /** Читает файл из classpath в {@link #assets}; отсутствие файла — ошибка сборки, но страница без него работает. */
+    private void loadAsset(String path, String resource, String contentType) {
+        try {
+            StaticAsset asset = StaticAsset.load(getClass().getClassLoader(), resource, contentType);
+            if (asset == null) {
+                log.warn("Static file not found: {}", resource);
+                return;
+            }
+            assets.put(path, asset);
+        } catch (IOException e) {
+            log.error("Error reading static file: {}", resource, e);
+        }
+    }
+
     /**
-     * Сопоставляет URI запроса с путём к CSS-файлу в classpath.
+     * Сопоставляет URI запроса с загруженным статическим файлом.
      *
-     * @return путь в classpath или {@code null}, если URI не соответствует ни одному CSS-файлу
+     * @return файл или {@code null}, если URI не соответствует ни одному файлу
      */
-    private String extractCssPath(String requestURI) {
-        if (requestURI.endsWith(CSS_MAIN_PATH)) {
-            return CSS_MAIN_RESOURCE;
-        } else if (requestURI.endsWith(CSS_TABLE_PATH)) {
-            return CSS_TABLE_RESOURCE;
+    private StaticAsset findAsset(String requestURI) {
+        for (Map.Entry<String, StaticAsset> entry : assets.entrySet()) {
+            if (requestURI.endsWith(entry.getKey())) return entry.getValue();
         }
         return null;
     }
 
+    private String assetVersion(String path) {
+        StaticAsset asset = assets.get(path);
+        return asset == null ? "" : asset.getVersion();
+    }
+
+    /** Клиент принимает gzip: в {@code Accept-Encoding} есть {@code gzip} или {@code *} без {@code q=0}. */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.split(";");
+            String coding = tokens[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) continue;
+            boolean refused = false;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim().replace(" ", "");
+                if (param.matches("q=0(\\.0*)?")) refused = true;
+            }
+            if (!refused) return true;
+        }
+        return false;
+    }
 }
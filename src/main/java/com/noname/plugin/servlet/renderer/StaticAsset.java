@@ -0,0 +1,89 @@
+package com.noname.plugin.servlet.renderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Статический файл плагина, загруженный в память один раз: исходные байты, их gzip-вариант
+ * и версия — начало SHA-256 содержимого. Версия служит {@code ETag} и параметром {@code ?v=} в ссылке на файл.
+ */
+final class StaticAsset {
+
+    private final String contentType;
+    private final byte[] bytes;
+    private final byte[] gzipped;
+    private final String version;
+
+    private StaticAsset(String contentType, byte[] bytes, byte[] gzipped, String version) {
+        this.contentType = contentType;
+        this.bytes = bytes;
+        this.gzipped = gzipped;
+        this.version = version;
+    }
+
+    /**
+     * Читает файл из classpath.
+     *
+     * @return файл или {@code null}, если ресурса нет
+     * @throws IOException если чтение завершилось ошибкой
+     */
+    static StaticAsset load(ClassLoader classLoader, String resource, String contentType) throws IOException {
+        try (InputStream in = classLoader.getResourceAsStream(resource)) {
+            if (in == null) return null;
+            return of(contentType, in.readAllBytes());
+        }
+    }
+
+    static StaticAsset of(String contentType, byte[] bytes) {
+        return new StaticAsset(contentType, bytes, gzip(bytes), hash(bytes));
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /** Сжатый вариант; {@code null}, если сжатие не уменьшает файл. */
+    byte[] getGzipped() {
+        return gzipped;
+    }
+
+    /** Версия содержимого: меняется при любом изменении файла. */
+    String getVersion() {
+        return version;
+    }
+
+    /** {@code ETag} файла: версия в кавычках. */
+    String getETag() {
+        return "\"" + version + "\"";
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            // ByteArrayOutputStream не бросает IOException
+            throw new UncheckedIOException(e);
+        }
+        return out.size() < bytes.length ? out.toByteArray() : null;
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
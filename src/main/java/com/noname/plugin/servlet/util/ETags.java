@@ -0,0 +1,28 @@
+package com.noname.plugin.servlet.util;
+
+/**
+ * Проверка условных запросов по {@code ETag}: общий разбор {@code If-None-Match} для списка писем
+ * и статических файлов.
+ */
+public final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * Проверяет заголовок {@code If-None-Match}: список тегов через запятую, {@code *} или слабый тег {@code W/"..."}.
+     *
+     * @param ifNoneMatch значение заголовка или {@code null}
+     * @param etag        текущий {@code ETag} ответа в кавычках
+     * @return {@code true}, если клиент уже имеет этот ответ и можно вернуть 304
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) value = value.substring(2);
+            if (value.equals("*") || value.equals(etag)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,828 @@
+// Таблица писем: загрузка, поиск, пагинация и действия. Подключается шаблоном mail-table-clean.vm.
+document.addEventListener("DOMContentLoaded", function () {
+	// Адрес Jira передаёт шаблон страницы: файл статический и кэшируется браузером
+	const contextPath = document.getElementById("mail-catcher").dataset.contextPath;
+	const loading = document.getElementById("loading");
+	const loadError = document.getElementById("load-error");
+	const loadErrorMessage = document.getElementById("load-error-message");
+	const content = document.getElementById("mail-items-content");
+	const emptyState = document.getElementById("empty-state");
+	const emptyTitle = document.getElementById("empty-title");
+	const emptyDesc = document.getElementById("empty-desc");
+	const tableBody = document.getElementById("mail-items-body");
+	const stats = document.getElementById("stats");
+	const pagination = document.getElementById("pagination");
+	const prevBtn = document.getElementById("prev-btn");
+	const nextBtn = document.getElementById("next-btn");
+	const pageInfo = document.getElementById("page-info");
+	const tagInput = document.getElementById("tag-input");
+	const tagsList = document.getElementById("tags-list");
+	const tagInputContainer = document.getElementById("tag-input-container");
+	const clearSearchBtn = document.getElementById("clear-search-btn");
+
+	// ===== State =====
+	let PAGE_SIZE = 10;
+	let currentOffset = 0;
+	// Keyset-пагинация: курсор текущей страницы (null — первая) и курсоры соседних страниц из ответа
+	let currentCursor = null;
+	let nextCursor = null;
+	let prevCursor = null;
+	let sortOrder = 'desc';
+	let currentTags = [];
+	let preserveScroll = false;
+	// Курсор обновления: максимальный ID среди всех загруженных писем
+	let lastMaxId = 0;
+	// Флаг активного запроса обновления: защита от двойного клика
+	let refreshing = false;
+	// Лимит записей, запрашиваемых при обновлении
+	const REFRESH_LIMIT = 200;
+	let refreshBadgeTimer = null;
+	// Последнее известное суммарное количество писем (для обновления строки статистики)
+	let lastTotal = 0;
+	let currentLoadController = null;
+	let creatingTestData = false;
+	let renderedCount = 0;
+
+	// ===== Tag input =====
+	// Квалификатор поля ограничивает тег одной колонкой; совпадает с разбором тегов на сервере
+	const FIELD_TAG = /^(from|to|subject|body):\s*(\S.*)$/i;
+
+	function normalizeTag(tag) {
+		const m = FIELD_TAG.exec(tag);
+		return m ? m[1].toLowerCase() + ':' + m[2].trim() : tag;
+	}
+
+	function renderTags() {
+		tagsList.innerHTML = '';
+		currentTags.forEach(function (tag, i) {
+			const chip = document.createElement('span');
+			chip.className = 'tag-chip';
+			chip.title = tag;
+
+			const field = FIELD_TAG.exec(tag);
+			if (field) {
+				const fieldBadge = document.createElement('span');
+				fieldBadge.className = 'tag-chip-field';
+				fieldBadge.textContent = field[1];
+				chip.appendChild(fieldBadge);
+			}
+
+			const label = document.createElement('span');
+			label.className = 'tag-chip-label';
+			label.textContent = field ? field[2] : tag;
+
+			const removeBtn = document.createElement('button');
+			removeBtn.className = 'tag-chip-remove';
+			removeBtn.type = 'button';
+			removeBtn.innerHTML = '&#x2715;';
+			removeBtn.title = 'Убрать';
+			removeBtn.addEventListener('click', function (e) {
+				e.stopPropagation();
+				tagInput.focus();
+				currentTags.splice(i, 1);
+				renderTags();
+				resetPaging();
+				loadData();
+			});
+
+			chip.appendChild(label);
+			chip.appendChild(removeBtn);
+			tagsList.appendChild(chip);
+		});
+
+		clearSearchBtn.style.display = currentTags.length > 0 ? 'inline-flex' : 'none';
+		tagInput.placeholder = currentTags.length > 0 ? 'Добавить ещё...' : 'Введите запрос и нажмите Enter...';
+	}
+
+	tagInputContainer.addEventListener('click', function () { tagInput.focus(); });
+
+	tagInput.addEventListener('keydown', function (e) {
+		if (e.key === 'Enter') {
+			e.preventDefault();
+			var val = normalizeTag(tagInput.value.trim());
+			if (!val) return;
+			if (currentTags.indexOf(val) === -1) currentTags.push(val);
+			tagInput.value = '';
+			renderTags();
+			resetPaging();
+			loadData();
+		} else if (e.key === 'Backspace' && !tagInput.value && currentTags.length > 0) {
+			currentTags.pop();
+			renderTags();
+			resetPaging();
+			loadData();
+		}
+	});
+
+	clearSearchBtn.addEventListener('click', function () {
+		currentTags = [];
+		tagInput.value = '';
+		renderTags();
+		resetPaging();
+		loadData();
+	});
+
+	// ===== Pagination =====
+	function resetPaging() {
+		currentOffset = 0;
+		currentCursor = null;
+	}
+
+	prevBtn.addEventListener('click', function () {
+		currentOffset = Math.max(0, currentOffset - PAGE_SIZE);
+		// На первую страницу возвращаемся без курсора — так она всегда начинается с самого края списка
+		currentCursor = currentOffset === 0 ? null : prevCursor;
+		preserveScroll = true;
+		loadData();
+	});
+
+	nextBtn.addEventListener('click', function () {
+		if (!nextCursor) return;
+		currentOffset += PAGE_SIZE;
+		currentCursor = nextCursor;
+		preserveScroll = true;
+		loadData();
+	});
+
+	// ===== Utilities =====
+	function escapeHtml(text) {
+		if (!text) return '';
+		return String(text)
+			.replace(/&/g, '&amp;')
+			.replace(/</g, '&lt;')
+			.replace(/>/g, '&gt;')
+			.replace(/"/g, '&quot;');
+	}
+
+	function stripHtml(html) {
+		if (!html) return '';
+		return html.replace(/<[^>]*>/g, ' ').replace(/\s+/g, ' ').trim();
+	}
+
+	function timeAgo(ms) {
+		if (!ms) return '';
+		const diff = Math.floor((Date.now() - ms) / 1000);
+		if (diff < 60) return 'только что';
+		if (diff < 3600) { const m = Math.floor(diff / 60); return m + ' мин. назад'; }
+		if (diff < 86400) { const h = Math.floor(diff / 3600); return h + ' ч. назад'; }
+		if (diff < 2592000) { const d = Math.floor(diff / 86400); return d + ' д. назад'; }
+		if (diff < 31536000) { const mo = Math.floor(diff / 2592000); return mo + ' мес. назад'; }
+		const y = Math.floor(diff / 31536000);
+		return y + ' г. назад';
+	}
+
+
+	// ===== Load data =====
+	function loadData() {
+		if (currentLoadController) currentLoadController.abort();
+		currentLoadController = new AbortController();
+		const quiet = preserveScroll;
+		preserveScroll = false;
+		pagination.style.display = "none";
+		emptyState.style.display = "none";
+
+		if (quiet) {
+			content.style.opacity = '0.4';
+			content.style.pointerEvents = 'none';
+		} else {
+			tableBody.innerHTML = '';
+			loading.style.display = "block";
+			loadError.style.display = "none";
+			content.style.display = "none";
+		}
+
+		const params = new URLSearchParams();
+		currentTags.forEach(function (tag) { params.append('tag', tag); });
+		if (currentCursor) {
+			params.set('cursor', currentCursor);
+		} else {
+			params.set('offset', 0);
+		}
+		params.set('limit', PAGE_SIZE);
+		params.set('sortOrder', sortOrder);
+
+		fetch(contextPath + "/plugins/servlet/mail-items/data?" + params.toString(), { signal: currentLoadController.signal })
+			.then(function (response) {
+				if (!response.ok) throw new Error('HTTP error! status: ' + response.status);
+				const ct = response.headers.get("content-type");
+				if (!ct || !ct.includes("application/json")) throw new Error("Response is not JSON");
+				return response.json();
+			})
+			.then(function (data) { processMailItems(data, quiet); })
+			.catch(function (error) {
+				if (error.name === 'AbortError') return;
+				console.error('Error fetching mail items:', error);
+				if (quiet) {
+					content.style.opacity = '';
+					content.style.pointerEvents = '';
+				} else {
+					loading.style.display = 'none';
+					loadErrorMessage.textContent = error.message || 'Please check your connection and try again.';
+					loadError.style.display = 'block';
+				}
+			});
+	}
+
+	function getAtlToken() {
+		var meta = document.querySelector('meta[name="atlassian-token"]');
+		return meta ? meta.getAttribute('content') : '';
+	}
+
+	function setAutoHeight(el) {
+		var prev = el.style.height;
+		el.style.transition = 'none';
+		el.style.height = 'auto';
+		var target = el.offsetHeight;
+		el.style.height = prev;
+		el.offsetHeight; // reflow
+		el.style.transition = '';
+		el.style.height = target + 'px';
+	}
+
+	// ===== Create test data =====
+	function createTestData() {
+		if (creatingTestData) return;
+		const btn = document.getElementById('create-test-data-btn');
+		creatingTestData = true;
+		btn.disabled = true;
+		fetch(contextPath + "/plugins/servlet/mail-items/create-test-data", {
+			method: 'POST',
+			headers: {
+				'Content-Type': 'application/x-www-form-urlencoded',
+				'X-Requested-With': 'XMLHttpRequest'
+			},
+			body: 'atl_token=' + encodeURIComponent(getAtlToken())
+		})
+			.then(function (r) { if (!r.ok) throw new Error('HTTP ' + r.status); return r.json(); })
+			.then(function (result) { if (result.success) { preserveScroll = true; loadData(); } })
+			.catch(function (e) { console.error('Error creating test data:', e); })
+			.finally(function () {
+				creatingTestData = false;
+				btn.disabled = false;
+			});
+	}
+
+	// ===== Delete all =====
+	let deleteConfirmTimer = null;
+
+	function deleteAllMailItems() {
+		const deleteBtn = document.getElementById('delete-all-btn');
+		if (deleteConfirmTimer) {
+			clearTimeout(deleteConfirmTimer);
+			deleteConfirmTimer = null;
+			resetDeleteBtn(deleteBtn);
+			performDeleteAll(deleteBtn);
+		} else {
+			deleteBtn.textContent = '⚠ Click again to confirm';
+			deleteBtn.classList.add('delete-btn-confirming');
+			deleteConfirmTimer = setTimeout(function () { resetDeleteBtn(deleteBtn); }, 3000);
+		}
+	}
+
+	function resetDeleteBtn(btn) {
+		clearTimeout(deleteConfirmTimer);
+		deleteConfirmTimer = null;
+		btn.textContent = '🗑️ Delete All Items';
+		btn.classList.remove('delete-btn-confirming');
+	}
+
+	function performDeleteAll(deleteBtn) {
+		deleteBtn.disabled = true;
+		deleteBtn.textContent = '⏳ Deleting...';
+		fetch(contextPath + "/plugins/servlet/mail-items/delete-all", {
+			method: 'POST',
+			headers: {
+				'Content-Type': 'application/x-www-form-urlencoded',
+				'X-Requested-With': 'XMLHttpRequest'
+			},
+			body: 'atl_token=' + encodeURIComponent(getAtlToken())
+		})
+			.then(function (r) { if (!r.ok) throw new Error('HTTP ' + r.status); return r.json(); })
+			.then(function (result) {
+				if (result.success) { resetPaging(); loadData(); }
+			})
+			.catch(function (e) { console.error('Error deleting:', e); })
+			.finally(function () {
+				deleteBtn.disabled = false;
+				deleteBtn.textContent = '🗑️ Delete All Items';
+			});
+	}
+
+	// ===== Delete single item =====
+	const deleteItemState = new WeakMap();
+
+	function deleteMailItem(id, btn) {
+		const state = deleteItemState.get(btn);
+		if (state && state.confirming) {
+			clearTimeout(state.timer);
+			deleteItemState.delete(btn);
+			btn.disabled = true;
+			btn.textContent = '⏳ Удаление...';
+			fetch(contextPath + "/plugins/servlet/mail-items/" + id, {
+				method: 'DELETE',
+				headers: { 'X-Requested-With': 'XMLHttpRequest' }
+			})
+				.then(function (r) { if (!r.ok) throw new Error('HTTP ' + r.status); return r.json(); })
+				.then(function (result) {
+					if (result.success) {
+						preserveScroll = true;
+						loadData();
+					} else {
+						btn.disabled = false;
+						btn.textContent = 'Удалить';
+						btn.classList.remove('delete-item-btn-confirming');
+					}
+				})
+				.catch(function (e) {
+					console.error('Error deleting item:', e);
+					btn.disabled = false;
+					btn.textContent = 'Удалить';
+					btn.classList.remove('delete-item-btn-confirming');
+				});
+		} else {
+			const timer = setTimeout(function () {
+				deleteItemState.delete(btn);
+				btn.textContent = 'Удалить';
+				btn.classList.remove('delete-item-btn-confirming');
+			}, 3000);
+			deleteItemState.set(btn, { confirming: true, timer: timer });
+			btn.textContent = '⚠ Нажмите ещё раз';
+			btn.classList.add('delete-item-btn-confirming');
+		}
+	}
+
+	// ===== Detail row =====
+	function createDetailRow(item) {
+		const detailRow = document.createElement("tr");
+		detailRow.className = "detail-row";
+
+		const detailCell = document.createElement("td");
+		detailCell.colSpan = 3;
+
+		const wrapper = document.createElement('div');
+		wrapper.className = 'detail-wrapper';
+
+		const emailView = document.createElement('div');
+		emailView.className = 'email-view';
+
+		// Header: From / To / CC / BCC
+		const header = document.createElement('div');
+		header.className = 'email-header';
+
+		function addField(label, value) {
+			const normalized = Array.isArray(value) ? value.join(', ') : value;
+			if (!normalized) return;
+			const field = document.createElement('div');
+			field.className = 'email-field';
+			field.innerHTML =
+				'<span class="email-field-label">' + escapeHtml(label) + '</span>' +
+				'<span class="email-field-value">' + escapeHtml(normalized) + '</span>';
+			header.appendChild(field);
+		}
+
+		addField('От:', item.from);
+		addField('Кому:', item.to);
+		addField('Копия:', item.cc);
+		addField('Скрытая:', item.bcc);
+
+		// Subject
+		const subjectLine = document.createElement('div');
+		subjectLine.className = 'email-subject-line';
+		subjectLine.textContent = item.subject || 'Без темы';
+
+		// Body
+		const bodyContainer = document.createElement('div');
+		bodyContainer.className = 'email-body-container';
+
+		// Shadow DOM изолирует стили письма от страницы JIRA; script через innerHTML не выполняются
+		const htmlView = document.createElement('div');
+		htmlView.className = 'email-body-html';
+		const shadow = htmlView.attachShadow({mode: 'open'});
+
+		const rawView = document.createElement('pre');
+		rawView.className = 'email-body-raw';
+		rawView.style.display = 'none';
+
+		function showBody(body) {
+			shadow.innerHTML = body || '<em style="color:#9ca3af">Пустое сообщение</em>';
+			rawView.textContent = body || 'Пустое сообщение';
+		}
+
+		// Список отдаёт только сводку писем — тело запрашивается при первом раскрытии строки
+		if (item.body !== undefined) {
+			showBody(item.body);
+		} else {
+			shadow.innerHTML = '<em style="color:#9ca3af">Загрузка…</em>';
+			let bodyRequested = false;
+			detailRow.loadBody = function () {
+				if (bodyRequested) return;
+				bodyRequested = true;
+				fetch(contextPath + "/plugins/servlet/mail-items/" + encodeURIComponent(item.id))
+					.then(function (response) {
+						if (!response.ok) throw new Error('HTTP ' + response.status);
+						return response.json();
+					})
+					.then(function (full) {
+						item.body = full.body;
+						showBody(full.body);
+						if (detailRow.classList.contains('expanded')) setAutoHeight(wrapper);
+					})
+					.catch(function (error) {
+						bodyRequested = false;
+						shadow.innerHTML = '<em style="color:#dc2626">Не удалось загрузить письмо</em>';
+						console.error('Error loading mail body:', error);
+					});
+			};
+		}
+
+		const sourceBtn = document.createElement('button');
+		sourceBtn.className = 'source-btn';
+		sourceBtn.textContent = 'Показать исходник';
+
+		let showingRaw = false;
+		function crossFade(hideEl, showEl) {
+			if (!hideEl.isConnected) return;
+			hideEl.style.transition = 'opacity 0.18s ease';
+			hideEl.style.opacity = '0';
+			setTimeout(function () {
+				if (!hideEl.isConnected) return;
+				hideEl.style.display = 'none';
+				hideEl.style.transition = '';
+				hideEl.style.opacity = '';
+				showEl.style.opacity = '0';
+				showEl.style.display = '';
+				showEl.offsetHeight; // reflow
+				showEl.style.transition = 'opacity 0.18s ease';
+				showEl.style.opacity = '1';
+				setTimeout(function () {
+					if (!showEl.isConnected) return;
+					showEl.style.transition = '';
+					showEl.style.opacity = '';
+					if (detailRow.classList.contains('expanded')) {
+						setAutoHeight(wrapper);
+					}
+				}, 180);
+			}, 180);
+		}
+		sourceBtn.addEventListener('click', function (e) {
+			e.stopPropagation();
+			showingRaw = !showingRaw;
+			crossFade(showingRaw ? htmlView : rawView, showingRaw ? rawView : htmlView);
+			sourceBtn.textContent = showingRaw ? 'Показать письмо' : 'Показать исходник';
+			sourceBtn.classList.toggle('source-btn-active', showingRaw);
+		});
+
+		const deleteItemBtn = document.createElement('button');
+		deleteItemBtn.className = 'delete-item-btn';
+		deleteItemBtn.textContent = 'Удалить';
+		deleteItemBtn.addEventListener('click', function (e) {
+			e.stopPropagation();
+			deleteMailItem(item.id, deleteItemBtn);
+		});
+
+		bodyContainer.appendChild(htmlView);
+		bodyContainer.appendChild(rawView);
+		bodyContainer.appendChild(sourceBtn);
+		bodyContainer.appendChild(deleteItemBtn);
+
+		emailView.appendChild(header);
+		emailView.appendChild(subjectLine);
+		emailView.appendChild(bodyContainer);
+		wrapper.appendChild(emailView);
+		detailCell.appendChild(wrapper);
+		detailRow.appendChild(detailCell);
+
+		return detailRow;
+	}
+
+	// ===== Создание пары строк (mail-row + detail-row) для одного письма =====
+	function createMailRowPair(item) {
+		// Основная строка
+		const row = document.createElement("tr");
+		row.className = "mail-row";
+		row.dataset.id = item.id;
+
+		const fromCell = document.createElement("td");
+		fromCell.className = "from-cell";
+
+		const indicator = document.createElement('span');
+		indicator.className = 'expand-indicator';
+		indicator.innerHTML = '&#9656;';
+		indicator.setAttribute('aria-hidden', 'true');
+
+		const fromText = document.createElement('span');
+		fromText.textContent = item.from || 'Неизвестный отправитель';
+
+		fromCell.appendChild(indicator);
+		fromCell.appendChild(fromText);
+
+		const subjectCell = document.createElement("td");
+		subjectCell.className = "subject-col";
+
+		const subjectDiv = document.createElement('div');
+		subjectDiv.className = 'mail-subject';
+		subjectDiv.textContent = item.subject || 'Без темы';
+
+		const previewDiv = document.createElement('div');
+		previewDiv.className = 'mail-preview';
+		const bodyPreview = item.preview != null ? item.preview : stripHtml(item.body || '');
+		previewDiv.textContent = bodyPreview.substring(0, 120) || 'Нет содержимого';
+
+		subjectCell.appendChild(subjectDiv);
+		subjectCell.appendChild(previewDiv);
+
+		const dateCell = document.createElement("td");
+		dateCell.className = "date-cell";
+
+		if (item.createdAt != null && item.createdAt > 0) {
+			const dt = new Date(item.createdAt);
+			const formatted = dt.toLocaleString('ru-RU', {
+				day: '2-digit', month: '2-digit', year: 'numeric',
+				hour: '2-digit', minute: '2-digit'
+			});
+			const ago = timeAgo(item.createdAt);
+
+			const dateMain = document.createElement('div');
+			dateMain.className = 'date-main';
+			dateMain.textContent = formatted;
+
+			const dateRel = document.createElement('div');
+			dateRel.className = 'date-rel';
+			dateRel.textContent = '(' + ago + ')';
+
+			dateCell.appendChild(dateMain);
+			dateCell.appendChild(dateRel);
+		} else {
+			dateCell.textContent = '—';
+		}
+
+		row.appendChild(fromCell);
+		row.appendChild(subjectCell);
+		row.appendChild(dateCell);
+
+		// Строка с деталями
+		const detailRow = createDetailRow(item);
+
+		row.setAttribute('role', 'button');
+		row.setAttribute('aria-expanded', 'false');
+		row.setAttribute('tabindex', '0');
+		row.addEventListener('keydown', function (e) {
+			if (e.key === 'Enter' || e.key === ' ') {
+				e.preventDefault();
+				row.click();
+			}
+		});
+		row.addEventListener('click', function () {
+			const expanding = !detailRow.classList.contains('expanded');
+			detailRow.classList.toggle('expanded');
+			indicator.classList.toggle('expanded', expanding);
+			row.setAttribute('aria-expanded', expanding ? 'true' : 'false');
+			const wrapperEl = detailRow.querySelector('.detail-wrapper');
+			if (expanding && detailRow.loadBody) detailRow.loadBody();
+			if (expanding) { setAutoHeight(wrapperEl); } else { wrapperEl.style.height = '0'; }
+		});
+
+		return { row: row, detailRow: detailRow };
+	}
+
+	// ===== Process items =====
+	function processMailItems(data, quiet) {
+		tableBody.innerHTML = '';
+		if (quiet) {
+			content.style.opacity = '';
+			content.style.pointerEvents = '';
+		} else {
+			loading.style.display = "none";
+		}
+
+		// Обновляем курсор новых писем
+		if (data.maxId && data.maxId > lastMaxId) lastMaxId = data.maxId;
+
+		const items = data.items;
+		const total = data.total;
+		lastTotal = total;
+		// В keyset-режиме сервер не знает номер страницы — позицию ведёт клиент
+		const offset = currentOffset;
+		const limit = data.limit;
+		nextCursor = data.nextCursor || null;
+		prevCursor = data.prevCursor || null;
+
+		if (items.length === 0) {
+			if (currentTags.length > 0) {
+				emptyTitle.textContent = 'Ничего не найдено';
+				emptyDesc.textContent = 'Нет писем, соответствующих всем заданным фильтрам.';
+			} else {
+				emptyTitle.textContent = 'No mail items found';
+				emptyDesc.textContent = 'There are currently no mail items to display.';
+			}
+			content.style.display = "none";
+			stats.textContent = '';
+			emptyState.style.display = "block";
+			return;
+		}
+
+		content.style.display = "block";
+
+		items.forEach(function (item) {
+			const pair = createMailRowPair(item);
+			tableBody.appendChild(pair.row);
+			tableBody.appendChild(pair.detailRow);
+		});
+		renderedCount = items.length;
+
+		// Stats
+		const from = offset + 1;
+		const to = Math.min(offset + items.length, total);
+		stats.textContent = 'Показано ' + from + '–' + to + ' из ' + total + ' писем';
+
+		// Pagination
+		if (total > limit) {
+			pagination.style.display = 'flex';
+			prevBtn.disabled = offset === 0;
+			nextBtn.disabled = !nextCursor;
+			const currentPage = Math.floor(offset / limit) + 1;
+			const totalPages = Math.ceil(total / limit);
+			pageInfo.textContent = 'Страница ' + currentPage + ' из ' + totalPages;
+		}
+
+	}
+
+	// ===== Prepend new items =====
+	function prependNewItems(items) {
+		const firstChild = tableBody.firstChild;
+		// Вставляем пары строк в обратном порядке, чтобы сохранить порядок по ID
+		for (let i = items.length - 1; i >= 0; i--) {
+			const pair = createMailRowPair(items[i]);
+			tableBody.insertBefore(pair.detailRow, firstChild);
+			tableBody.insertBefore(pair.row, pair.detailRow);
+		}
+		// Если таблица была скрыта (пустое состояние) — показываем содержимое
+		if (content.style.display === 'none') {
+			emptyState.style.display = 'none';
+			content.style.display = 'block';
+		}
+	}
+
+	// ===== Refresh badge =====
+	function showRefreshBadge(count, truncated, errorMsg) {
+		clearTimeout(refreshBadgeTimer);
+		var existing = document.getElementById('refresh-badge');
+		if (existing) existing.remove();
+
+		var badge = document.createElement('span');
+		badge.id = 'refresh-badge';
+		badge.className = 'refresh-badge';
+
+		var timeout;
+		if (errorMsg) {
+			badge.className += ' refresh-badge-error';
+			var short = errorMsg.length > 60 ? errorMsg.slice(0, 57) + '...' : errorMsg;
+			badge.textContent = 'Ошибка: ' + short;
+			timeout = 6000;
+		} else if (count === 0) {
+			badge.textContent = 'Новых писем нет';
+			timeout = 2000;
+		} else if (truncated) {
+			badge.textContent = '+' + count + '+ новых';
+			timeout = 2000;
+		} else {
+			badge.textContent = '+' + count + ' новых';
+			timeout = 2000;
+		}
+
+		var btn = document.getElementById('refresh-btn');
+		btn.parentNode.insertBefore(badge, btn.nextSibling);
+
+		refreshBadgeTimer = setTimeout(function () { badge.remove(); }, timeout);
+	}
+
+	// ===== Refresh new items =====
+	function refreshNewItems() {
+		if (refreshing) return;
+		if (lastMaxId === 0) { loadData(); return; }
+
+		refreshing = true;
+		const refreshBtn = document.getElementById('refresh-btn');
+		refreshBtn.disabled = true;
+
+		const params = new URLSearchParams();
+		params.set('sinceId', lastMaxId);
+		params.set('limit', REFRESH_LIMIT);
+		params.set('sortOrder', sortOrder);
+		currentTags.forEach(function (tag) { params.append('tag', tag); });
+
+		fetch(contextPath + "/plugins/servlet/mail-items/data?" + params.toString())
+			.then(function (r) {
+				if (!r.ok) throw new Error('HTTP error: ' + r.status);
+				const ct = r.headers.get("content-type");
+				if (!ct || !ct.includes("application/json")) throw new Error("Response is not JSON");
+				return r.json();
+			})
+			.then(function (data) {
+				if (!data.items || data.items.length === 0) {
+					showRefreshBadge(0, false);
+					return;
+				}
+				// Если пользователь не на первой странице — полная перезагрузка
+				if (currentOffset > 0) {
+					if (data.maxId && data.maxId > lastMaxId) lastMaxId = data.maxId;
+					preserveScroll = true;
+					loadData();
+					return;
+				}
+				const newCount = data.items.length;
+				const truncated = newCount >= REFRESH_LIMIT;
+				// Обновляем курсор только после успешного prepend
+				prependNewItems(data.items);
+				if (data.maxId && data.maxId > lastMaxId) lastMaxId = data.maxId;
+				// Обновляем строку статистики
+				lastTotal += newCount;
+				const shownTo = Math.min(renderedCount + newCount, lastTotal);
+				stats.textContent = 'Показано 1–' + shownTo + ' из ' + lastTotal + ' писем';
+				showRefreshBadge(newCount, truncated);
+			})
+			.catch(function (e) { console.error('Error refreshing:', e); showRefreshBadge(0, false, e.message); })
+			.finally(function () {
+				refreshing = false;
+				document.getElementById('refresh-btn').disabled = false;
+			});
+	}
+
+	// ===== Live events =====
+	// Поток событий сервера: новые письма появляются в таблице без нажатия «Обновить».
+	// Если браузер не поддерживает EventSource или сервер отклонил поток — остаётся обновление по кнопке.
+	let eventsConnected = false;
+	let liveRefreshTimer = null;
+
+	function renderLiveStats() {
+		stats.textContent = 'Показано ' + (currentOffset + 1) + '–' + (currentOffset + renderedCount) + ' из ' + lastTotal + ' писем';
+	}
+
+	function scheduleLiveRefresh() {
+		// Несколько писем подряд — один запрос /data?sinceId
+		clearTimeout(liveRefreshTimer);
+		liveRefreshTimer = setTimeout(refreshNewItems, 300);
+	}
+
+	function onItemCreated(item) {
+		if (item.seq <= lastMaxId) return;
+		// Новые письма попадают в начало только первой страницы при сортировке «сначала новые»;
+		// на других страницах их покажет следующее обновление
+		if (currentOffset > 0 || sortOrder !== 'desc') return;
+		// Фильтры по тегам применяет сервер — догружаем через /data
+		if (currentTags.length > 0) { scheduleLiveRefresh(); return; }
+		prependNewItems([item]);
+		lastMaxId = item.seq;
+		renderedCount += 1;
+		lastTotal += 1;
+		renderLiveStats();
+	}
+
+	function onItemDeleted(item) {
+		const row = tableBody.querySelector('tr.mail-row[data-id="' + item.id + '"]');
+		if (!row) return;
+		row.nextSibling.remove();
+		row.remove();
+		renderedCount -= 1;
+		lastTotal -= 1;
+		if (renderedCount === 0) {
+			preserveScroll = true;
+			loadData();
+		} else {
+			renderLiveStats();
+		}
+	}
+
+	function subscribeToEvents() {
+		if (!window.EventSource) return;
+		const source = new EventSource(contextPath + "/plugins/servlet/mail-items/events");
+		source.addEventListener('open', function () {
+			// После переподключения догружаем письма, пришедшие, пока соединения не было
+			if (eventsConnected && lastMaxId > 0) scheduleLiveRefresh();
+			eventsConnected = true;
+		});
+		source.addEventListener('created', function (e) { onItemCreated(JSON.parse(e.data)); });
+		source.addEventListener('deleted', function (e) { onItemDeleted(JSON.parse(e.data)); });
+		source.addEventListener('cleared', function () {
+			resetPaging();
+			loadData();
+		});
+		source.addEventListener('error', function () {
+			// CLOSED — сервер ответил ошибкой и браузер не будет переподключаться
+			if (source.readyState === EventSource.CLOSED) console.warn('Mail event stream is unavailable, use refresh');
+		});
+	}
+
+	document.getElementById('create-test-data-btn').addEventListener('click', createTestData);
+	document.getElementById('delete-all-btn').addEventListener('click', deleteAllMailItems);
+	document.getElementById('refresh-btn').addEventListener('click', refreshNewItems);
+	document.getElementById('sort-btn').addEventListener('click', function () {
+		sortOrder = sortOrder === 'desc' ? 'asc' : 'desc';
+		this.textContent = sortOrder === 'desc' ? 'Сначала новые ↓' : 'Сначала старые ↑';
+		resetPaging();
+		loadData();
+	});
+
+	loadData();
+	subscribeToEvents();
+});
@@ -0,0 +1,48 @@
+package com.noname.plugin.ao;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("MailItemContentCodec — сжатие содержимого письма")
+class MailItemContentCodecTest {
+
+    @Test
+    @DisplayName("compress/decompress: HTML восстанавливается без потерь и занимает меньше места")
+    void compress_roundTrip() {
+        String html = "<tr><td>Задача JRA-1 обновлена</td></tr>".repeat(500);
+
+        String packed = MailItemContentCodec.compress(html);
+
+        assertTrue(packed.length() < html.length() / 5);
+        assertEquals(html, MailItemContentCodec.decompress(MailItemContentCodec.DEFLATE, packed));
+    }
+
+    @Test
+    @DisplayName("shouldCompress: сжимаются только значения не короче порога; порог 0 выключает сжатие")
+    void shouldCompress_respectsThreshold() {
+        MailItemContentCodec codec = new MailItemContentCodec(4);
+
+        assertFalse(codec.shouldCompress("abc"));
+        assertTrue(codec.shouldCompress("abcd"));
+        assertFalse(codec.shouldCompress(null));
+        assertFalse(new MailItemContentCodec(0).shouldCompress("x".repeat(100_000)));
+    }
+
+    @Test
+    @DisplayName("body: строка без сжатия (в том числе сохранённая до появления кодека) читается из BODY")
+    void body_uncompressedRow_readsPlainColumn() {
+        MailItemContentEntity content = mock(MailItemContentEntity.class);
+        when(content.getBody()).thenReturn("<p>Текст</p>");
+
+        assertEquals("<p>Текст</p>", MailItemContentCodec.body(content));
+    }
+
+    @Test
+    @DisplayName("decompress: неизвестный кодек — IllegalStateException")
+    void decompress_unknownCodec_throws() {
+        assertThrows(IllegalStateException.class, () -> MailItemContentCodec.decompress("zstd", "AAAA"));
+    }
+}
@@ -4,6 +4,7 @@ import com.atlassian.jira.mail.Email;
 import com.noname.plugin.impl.MailItemApiServiceImpl;
 import com.noname.plugin.model.MailItem;
 import com.noname.plugin.service.MailItemService;
+import com.noname.plugin.service.MailItemWriteBehindQueue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -11,6 +12,10 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -25,7 +30,9 @@ class MailItemApiServiceTest {
 
     @BeforeEach
     void setUp() {
-        api = new MailItemApiServiceImpl(mailItemService);
+        // Режим write-behind выключен — addEmail пишет синхронно через сервис
+        api = new MailItemApiServiceImpl(mailItemService,
+                new MailItemWriteBehindQueue(mailItemService, false, 1, MailItemWriteBehindQueue.OverflowPolicy.BLOCK));
     }
 
     // ===== addEmail(Email) =====
@@ -49,6 +56,77 @@ class MailItemApiServiceTest {
         verify(mailItemService).createMailItem(email);
     }
 
+    // ===== addEmails =====
+
+    @Test
+    @DisplayName("addEmails(null) — бросает IllegalArgumentException без обращения к сервису")
+    void addEmails_null_throwsIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> api.addEmails(null));
+        verifyNoInteractions(mailItemService);
+    }
+
+    @Test
+    @DisplayName("addEmails — вызывает createMailItems и возвращает UUID в том же порядке")
+    void addEmails_delegatesToBatchInsert() {
+        List<Email> emails = List.of(mock(Email.class), mock(Email.class));
+        when(mailItemService.createMailItems(emails)).thenReturn(List.of("uuid-1", "uuid-2"));
+
+        assertEquals(List.of("uuid-1", "uuid-2"), api.addEmails(emails));
+        verify(mailItemService, never()).createMailItem(any(Email.class));
+    }
+
+    // ===== waitForEmail =====
+
+    @Test
+    @DisplayName("waitForEmail — передаёт критерии сервису и возвращает UUID найденного письма")
+    void waitForEmail_delegatesCriteriaAndReturnsUuid() {
+        when(mailItemService.awaitMailItem("jira@test.com", "user@test.com", "создана", 1000L, 5000L))
+                .thenReturn(CompletableFuture.completedFuture("uuid-7"));
+
+        String id = api.waitForEmail(MailCriteria.any()
+                .sender("jira@test.com")
+                .recipient("user@test.com")
+                .subjectContains("создана")
+                .createdAfter(1000L), Duration.ofSeconds(5));
+
+        assertEquals("uuid-7", id);
+    }
+
+    @Test
+    @DisplayName("waitForEmail — по таймауту возвращает null")
+    void waitForEmail_timeout_returnsNull() {
+        when(mailItemService.awaitMailItem(null, null, null, 0L, 100L)).thenReturn(CompletableFuture.completedFuture(null));
+
+        assertNull(api.waitForEmail(MailCriteria.any(), Duration.ofMillis(100)));
+    }
+
+    @Test
+    @DisplayName("waitForEmail — null-критерии или отрицательный таймаут отклоняются без обращения к сервису")
+    void waitForEmail_invalidArguments_throwIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> api.waitForEmail(null, Duration.ofSeconds(1)));
+        assertThrows(IllegalArgumentException.class, () -> api.waitForEmail(MailCriteria.any(), Duration.ofSeconds(-1)));
+        verifyNoInteractions(mailItemService);
+    }
+
+    @Test
+    @DisplayName("flush() без write-behind — возвращается сразу, не обращаясь к сервису")
+    void flush_writeBehindDisabled_returnsImmediately() {
+        api.flush();
+
+        verifyNoInteractions(mailItemService);
+    }
+
+    @Test
+    @DisplayName("flush() — письма в очереди некому записать: бросает IllegalStateException вместо вечного ожидания")
+    void flush_writerNotRunning_throwsIllegalState() {
+        // Очередь включена, но фоновый поток не запущен
+        MailItemApiService queued = new MailItemApiServiceImpl(mailItemService,
+                new MailItemWriteBehindQueue(mailItemService, true, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK));
+        queued.addEmail(mock(Email.class));
+
+        assertThrows(IllegalStateException.class, queued::flush);
+    }
+
     // ===== getEmailCount =====
 
     @Test
@@ -109,6 +187,76 @@ class MailItemApiServiceTest {
         verify(mailItemService).loadTestData();
     }
 
+    // ===== findEmails / getEmail =====
+
+    @Test
+    @DisplayName("findEmails — передаёт условия сервису и возвращает сводки писем")
+    void findEmails_delegatesQueryAndMapsSummaries() {
+        MailItem found = new MailItem("user@test.com", "cc@test.com", null, null);
+        found.setId("uuid-3");
+        found.setFrom("jira@test.com");
+        found.setSubject("Задача создана");
+        found.setCreatedAt(1500L);
+        when(mailItemService.findMailItems("jira@test.com", "user@test.com", null, 1000L, 2000L, 5, true))
+                .thenReturn(List.of(found));
+
+        List<EmailSummary> result = api.findEmails(MailQuery.all()
+                .sender("jira@test.com")
+                .recipient("user@test.com")
+                .createdAfter(1000L)
+                .createdBefore(2000L)
+                .limit(5)
+                .oldestFirst());
+
+        assertEquals(1, result.size());
+        EmailSummary summary = result.get(0);
+        assertEquals("uuid-3", summary.getId());
+        assertEquals("jira@test.com", summary.getFrom());
+        assertEquals("user@test.com", summary.getTo());
+        assertEquals("cc@test.com", summary.getCc());
+        assertEquals("Задача создана", summary.getSubject());
+        assertEquals(1500L, summary.getCreatedAt());
+    }
+
+    @Test
+    @DisplayName("findEmails(null) и limit(0) — IllegalArgumentException без обращения к сервису")
+    void findEmails_invalidQuery_throwsIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> api.findEmails(null));
+        assertThrows(IllegalArgumentException.class, () -> MailQuery.all().limit(0));
+        verifyNoInteractions(mailItemService);
+    }
+
+    @Test
+    @DisplayName("getEmail — все поля письма одним чтением через getMailItemById")
+    void getEmail_returnsSnapshotFromSingleLookup() {
+        MailItem item = new MailItem("to@test.com", null, "bcc@test.com", "a.pdf", "X-Mailer: test");
+        item.setId("uuid-9");
+        item.setFrom("from@test.com");
+        item.setSubject("Тема");
+        item.setBody("<p>Текст <b>письма</b></p>");
+        when(mailItemService.getMailItemById("uuid-9")).thenReturn(item);
+
+        EmailSnapshot snapshot = api.getEmail("uuid-9");
+
+        assertEquals("from@test.com", snapshot.getFrom());
+        assertEquals("to@test.com", snapshot.getTo());
+        assertEquals("bcc@test.com", snapshot.getBcc());
+        assertEquals("Тема", snapshot.getSubject());
+        assertEquals("a.pdf", snapshot.getAttachmentsName());
+        assertEquals("<p>Текст <b>письма</b></p>", snapshot.getBodyHtml());
+        assertEquals("Текст письма", snapshot.getBodyText());
+        assertEquals("X-Mailer: test", snapshot.getRawHeaders());
+        verify(mailItemService, times(1)).getMailItemById("uuid-9");
+    }
+
+    @Test
+    @DisplayName("getEmail — письмо не найдено: бросает IllegalArgumentException")
+    void getEmail_notFound_throwsIllegalArgument() {
+        when(mailItemService.getMailItemById("missing")).thenReturn(null);
+
+        assertThrows(IllegalArgumentException.class, () -> api.getEmail("missing"));
+    }
+
     // ===== getEmail* =====
 
     @Test
@@ -198,6 +346,16 @@ class MailItemApiServiceTest {
         assertEquals("Заголовок Абзац с текстом.", api.getEmailBodyText("id-1"));
     }
 
+    @Test
+    @DisplayName("getEmailBodyText() — возвращает текст, сохранённый при записи письма, без разбора HTML")
+    void getEmailBodyText_storedText_returnedAsIs() {
+        when(mailItemService.getMailItemById("id-1")).thenReturn(mockItem);
+        when(mockItem.getBody()).thenReturn("<div style=\"color:red\">Привет</div>");
+        when(mockItem.getBodyText()).thenReturn("Привет");
+
+        assertEquals("Привет", api.getEmailBodyText("id-1"));
+    }
+
     @Test
     @DisplayName("getEmailBodyText() — возвращает null, если тело письма не задано")
     void getEmailBodyText_nullBody_returnsNull() {
@@ -206,4 +364,15 @@ class MailItemApiServiceTest {
 
         assertNull(api.getEmailBodyText("id-1"));
     }
+
+    // ===== getEmailBodyHash =====
+
+    @Test
+    @DisplayName("getEmailBodyHash — возвращает хеш из сервиса без загрузки письма")
+    void getEmailBodyHash_delegatesToService() {
+        when(mailItemService.getBodyHash("id-1")).thenReturn("abc123");
+
+        assertEquals("abc123", api.getEmailBodyHash("id-1"));
+        verify(mailItemService, never()).getMailItemById(anyString());
+    }
 }
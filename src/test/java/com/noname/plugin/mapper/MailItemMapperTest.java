@@ -3,6 +3,8 @@ package com.noname.plugin.mapper;
 import com.atlassian.jira.JiraApplicationContext;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.config.properties.ApplicationProperties;
+import com.noname.plugin.ao.MailItemContentCodec;
+import com.noname.plugin.ao.MailItemContentEntity;
 import com.noname.plugin.ao.MailItemEntity;
 import com.noname.plugin.model.MailItem;
 import org.junit.jupiter.api.DisplayName;
@@ -43,12 +45,10 @@ class MailItemMapperTest {
         when(entity.getUuid()).thenReturn("uuid-1");
         when(entity.getFrom()).thenReturn("from@test.com");
         when(entity.getSubject()).thenReturn("Subject");
-        when(entity.getBody()).thenReturn("<p>Body</p>");
         when(entity.getAttachmentsName()).thenReturn(null);
-        when(entity.getRawHeaders()).thenReturn(null);
 
         withMockedJiraContext(() -> {
-            MailItem result = MailItemMapper.toDtoFull(entity);
+            MailItem result = MailItemMapper.toDtoFull(entity, null);
             assertEquals("unknown@example.com", result.getTo());
         });
     }
@@ -63,13 +63,14 @@ class MailItemMapperTest {
         when(entity.getUuid()).thenReturn("uuid-2");
         when(entity.getFrom()).thenReturn("from@test.com");
         when(entity.getSubject()).thenReturn("Hello");
-        when(entity.getBody()).thenReturn("<p>Hi</p>");
         when(entity.getAttachmentsName()).thenReturn("file.pdf");
-        when(entity.getRawHeaders()).thenReturn("From: from@test.com");
         when(entity.getCreatedAt()).thenReturn(1716000000000L);
+        MailItemContentEntity content = mock(MailItemContentEntity.class);
+        when(content.getBody()).thenReturn("<p>Hi</p>");
+        when(content.getRawHeaders()).thenReturn("From: from@test.com");
 
         withMockedJiraContext(() -> {
-            MailItem result = MailItemMapper.toDtoFull(entity);
+            MailItem result = MailItemMapper.toDtoFull(entity, content);
             assertEquals("uuid-2", result.getId());
             assertEquals("from@test.com", result.getFrom());
             assertEquals("to@test.com", result.getTo());
@@ -82,4 +83,38 @@ class MailItemMapperTest {
             assertEquals(1716000000000L, result.getCreatedAt());
         });
     }
+
+    @Test
+    @DisplayName("toDtoFull: сжатое содержимое распаковывается")
+    void toDtoFull_compressedContent_inflatesBodyAndHeaders() {
+        MailItemEntity entity = mock(MailItemEntity.class);
+        when(entity.getTo()).thenReturn("to@test.com");
+        MailItemContentEntity content = mock(MailItemContentEntity.class);
+        when(content.getCodec()).thenReturn(MailItemContentCodec.DEFLATE);
+        when(content.getBodyCompressed()).thenReturn(MailItemContentCodec.compress("<p>Большое тело</p>"));
+        when(content.getRawHeadersCompressed()).thenReturn(MailItemContentCodec.compress("From: from@test.com"));
+
+        withMockedJiraContext(() -> {
+            MailItem result = MailItemMapper.toDtoFull(entity, content);
+            assertEquals("<p>Большое тело</p>", result.getBody());
+            assertEquals("From: from@test.com", result.getRawHeaders());
+        });
+    }
+
+    @Test
+    @DisplayName("toDtoSummary: тело и сырые заголовки не заполняются")
+    void toDtoSummary_skipsContent() {
+        MailItemEntity entity = mock(MailItemEntity.class);
+        when(entity.getTo()).thenReturn("to@test.com");
+        when(entity.getUuid()).thenReturn("uuid-3");
+        when(entity.getSubject()).thenReturn("Hello");
+
+        withMockedJiraContext(() -> {
+            MailItem result = MailItemMapper.toDtoSummary(entity);
+            assertEquals("uuid-3", result.getId());
+            assertEquals("Hello", result.getSubject());
+            assertNull(result.getBody());
+            assertNull(result.getRawHeaders());
+        });
+    }
 }
@@ -0,0 +1,38 @@
+package com.noname.plugin.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("MailItemArrivalSignal — оповещение ожидающих запросов")
+class MailItemArrivalSignalTest {
+
+    private final MailItemArrivalSignal signal = new MailItemArrivalSignal();
+
+    @Test
+    @DisplayName("signal: будит только ожидания, для которых письмо новее")
+    void signal_completesOnlyOlderWaiters() {
+        CompletableFuture<Boolean> waitingFor5 = signal.await(5, 60_000);
+        CompletableFuture<Boolean> waitingFor10 = signal.await(10, 60_000);
+
+        signal.signal(7);
+
+        assertTrue(waitingFor5.isDone());
+        assertTrue(waitingFor5.join());
+        assertFalse(waitingFor10.isDone());
+        assertEquals(1, signal.waiting());
+    }
+
+    @Test
+    @DisplayName("await: по таймауту future завершается false и ожидание снимается")
+    void await_timeout_completesWithFalse() throws Exception {
+        CompletableFuture<Boolean> arrival = signal.await(0, 10);
+
+        assertFalse(arrival.get(5, TimeUnit.SECONDS));
+        assertEquals(0, signal.waiting());
+    }
+}
@@ -0,0 +1,107 @@
+package com.noname.plugin.service;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.noname.plugin.ao.MailItemBodyEntity;
+import com.noname.plugin.ao.MailItemContentCodec;
+import com.noname.plugin.ao.MailItemContentEntity;
+import net.java.ao.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MailItemBodyStore — общие тела MAIL_ITEM_BODY")
+class MailItemBodyStoreTest {
+
+    @Mock private ActiveObjects ao;
+    @Mock private MailItemBodyEntity sharedBody1;
+    @Mock private MailItemContentEntity content1;
+
+    private MailItemBodyStore bodyStore;
+
+    @BeforeEach
+    void setUp() {
+        bodyStore = new MailItemBodyStore(ao, new MailItemContentCodec(0));
+    }
+
+    // ===== store =====
+
+    @Test
+    @DisplayName("store: короткие тела и null в MAIL_ITEM_BODY не пишутся")
+    void store_shortBodies_skipped() {
+        bodyStore.store(Arrays.asList("<p>Коротко</p>", null));
+
+        verifyNoInteractions(ao);
+    }
+
+    @Test
+    @DisplayName("store: новое длинное тело сохраняется по хешу с отметкой использования")
+    @SuppressWarnings("unchecked")
+    void store_newBody_insertedByHash() {
+        String body = "x".repeat(MailItemBodyStore.MIN_LENGTH);
+        when(ao.find(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(new MailItemBodyEntity[0]);
+
+        bodyStore.store(List.of(body));
+
+        ArgumentCaptor<List<Map<String, Object>>> rows = ArgumentCaptor.forClass(List.class);
+        verify(ao).create(eq(MailItemBodyEntity.class), rows.capture());
+        assertEquals(MailItemContentCodec.hash(body), rows.getValue().get(0).get("HASH"));
+        assertEquals(body, rows.getValue().get(0).get("BODY"));
+        assertNotNull(rows.getValue().get(0).get("LAST_USED_AT"));
+    }
+
+    // ===== load =====
+
+    @Test
+    @DisplayName("load: строки с телом внутри не читают MAIL_ITEM_BODY, карта допускает get(null)")
+    void load_inlineBodies_noQuery() {
+        when(content1.getBodyHash()).thenReturn("hash-1");
+        when(content1.getBody()).thenReturn("<p>Тело</p>");
+
+        Map<String, MailItemBodyEntity> shared = bodyStore.load(List.of(content1));
+
+        assertNull(shared.get(null));
+        verifyNoInteractions(ao);
+    }
+
+    // ===== sweepOrphans =====
+
+    @Test
+    @DisplayName("sweepOrphans: удаляет только тела без ссылок и возвращает ID последнего тела батча")
+    void sweepOrphans_deletesUnreferencedBodies() {
+        MailItemBodyEntity orphan = mock(MailItemBodyEntity.class);
+        when(sharedBody1.getHash()).thenReturn("used");
+        when(orphan.getID()).thenReturn(2);
+        when(orphan.getHash()).thenReturn("orphan");
+        when(ao.find(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(new MailItemBodyEntity[]{sharedBody1, orphan});
+        when(content1.getBodyHash()).thenReturn("used");
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{content1});
+
+        assertEquals(2L, bodyStore.sweepOrphans(0, 1000L, 500));
+
+        // Условие LAST_USED_AT повторяется в DELETE: тело, понадобившееся новому письму, не удаляется
+        verify(ao).deleteWithSQL(MailItemBodyEntity.class, "ID IN (?) AND LAST_USED_AT < ?", 2L, 1000L);
+    }
+
+    @Test
+    @DisplayName("sweepOrphans: кандидатов нет — возвращает afterId без удаления")
+    void sweepOrphans_nothingLeft_returnsAfterId() {
+        when(ao.find(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(new MailItemBodyEntity[0]);
+
+        assertEquals(7L, bodyStore.sweepOrphans(7, 1000L, 500));
+        verify(ao, only()).find(eq(MailItemBodyEntity.class), any(Query.class));
+    }
+}
@@ -0,0 +1,48 @@
+package com.noname.plugin.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MailItemBodySweeper — очистка общих тел без ссылок")
+class MailItemBodySweeperTest {
+
+    @Mock private MailItemBodyStore bodyStore;
+
+    private MailItemBodySweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        sweeper = new MailItemBodySweeper(bodyStore);
+    }
+
+    @Test
+    @DisplayName("run: обходит батчи, пока хранилище сдвигает ID, и останавливается на пустом батче")
+    void run_processesBatchesUntilNoProgress() {
+        when(bodyStore.sweepOrphans(eq(0L), anyLong(), eq(500))).thenReturn(500L);
+        when(bodyStore.sweepOrphans(eq(500L), anyLong(), eq(500))).thenReturn(500L);
+
+        sweeper.run();
+
+        verify(bodyStore, times(2)).sweepOrphans(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    @DisplayName("run: исключение хранилища не выходит за пределы фоновой задачи")
+    void run_serviceThrows_stopsQuietly() {
+        when(bodyStore.sweepOrphans(eq(0L), anyLong(), eq(500))).thenThrow(new RuntimeException("DB failure"));
+
+        sweeper.run();
+
+        verify(bodyStore).sweepOrphans(eq(0L), anyLong(), eq(500));
+    }
+}
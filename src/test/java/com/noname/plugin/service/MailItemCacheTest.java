@@ -0,0 +1,125 @@
+package com.noname.plugin.service;
+
+import com.atlassian.jira.JiraApplicationContext;
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.config.properties.ApplicationProperties;
+import com.noname.plugin.model.MailItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("MailItemCache — LRU-кэш писем по UUID")
+class MailItemCacheTest {
+
+    private MockedStatic<ComponentAccessor> componentAccessor;
+
+    /** Конструктор Email(to) обращается к ComponentAccessor — без JIRA-контейнера нужны заглушки. */
+    @BeforeEach
+    void setUp() {
+        ApplicationProperties props = mock(ApplicationProperties.class);
+        when(props.getMailEncoding()).thenReturn("UTF-8");
+        when(props.getOption(anyString())).thenReturn(false);
+        JiraApplicationContext ctx = mock(JiraApplicationContext.class);
+        when(ctx.getFingerPrint()).thenReturn("test-fingerprint");
+        componentAccessor = mockStatic(ComponentAccessor.class);
+        componentAccessor.when(ComponentAccessor::getApplicationProperties).thenReturn(props);
+        componentAccessor.when(() -> ComponentAccessor.getComponentOfType(JiraApplicationContext.class)).thenReturn(ctx);
+    }
+
+    @AfterEach
+    void tearDown() {
+        componentAccessor.close();
+    }
+
+    @Test
+    @DisplayName("get: возвращает копию — изменения копии не попадают в кэш")
+    void get_returnsIndependentCopy() {
+        MailItemCache cache = new MailItemCache(10, 1024 * 1024);
+        cache.put("a", mail("a", "<p>Тело</p>"), cache.generation());
+
+        MailItem first = cache.get("a");
+        first.setSubject("изменено");
+        MailItem second = cache.get("a");
+
+        assertNotSame(first, second);
+        assertEquals("Тема a", second.getSubject());
+        assertEquals("<p>Тело</p>", second.getBody());
+        assertEquals("From: a@t.com", second.getRawHeaders());
+    }
+
+    @Test
+    @DisplayName("put: сверх лимита числа писем вытесняется давно не читанное")
+    void put_overEntryLimit_evictsLeastRecentlyUsed() {
+        MailItemCache cache = new MailItemCache(2, 1024 * 1024);
+        cache.put("a", mail("a", "x"), cache.generation());
+        cache.put("b", mail("b", "x"), cache.generation());
+        cache.get("a");
+
+        cache.put("c", mail("c", "x"), cache.generation());
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.stats().getEvictions());
+    }
+
+    @Test
+    @DisplayName("put: лимит размера вытесняет старые письма, письмо крупнее лимита не кэшируется")
+    void put_overByteLimit_evictsAndSkipsOversized() {
+        MailItemCache cache = new MailItemCache(100, 1000);
+        cache.put("a", mail("a", "x".repeat(300)), cache.generation());
+        cache.put("b", mail("b", "x".repeat(300)), cache.generation());
+        cache.put("huge", mail("huge", "x".repeat(1000)), cache.generation());
+
+        assertNull(cache.get("huge"));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertTrue(cache.stats().getBytes() <= 1000);
+    }
+
+    @Test
+    @DisplayName("put: письмо, прочитанное до удаления, в кэш не попадает")
+    void put_afterInvalidate_ignoresStaleRead() {
+        MailItemCache cache = new MailItemCache(10, 1024 * 1024);
+        long generation = cache.generation();
+
+        cache.invalidate("a");
+        cache.put("a", mail("a", "x"), generation);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.stats().getSize());
+    }
+
+    @Test
+    @DisplayName("stats: считает попадания и промахи, clear освобождает размер")
+    void stats_countsHitsAndMisses() {
+        MailItemCache cache = new MailItemCache(10, 1024 * 1024);
+        cache.get("a");
+        cache.put("a", mail("a", "x"), cache.generation());
+        cache.get("a");
+        cache.get("a");
+
+        MailItemCache.Stats stats = cache.stats();
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(2.0 / 3, stats.getHitRate(), 1e-9);
+
+        cache.clear();
+        assertEquals(0, cache.stats().getSize());
+        assertEquals(0, cache.stats().getBytes());
+    }
+
+    private static MailItem mail(String id, String body) {
+        MailItem mailItem = new MailItem("x@t.com", null, null, null, "From: " + id + "@t.com");
+        mailItem.setId(id);
+        mailItem.setFrom(id + "@t.com");
+        mailItem.setSubject("Тема " + id);
+        mailItem.setBody(body);
+        return mailItem;
+    }
+}
@@ -0,0 +1,91 @@
+package com.noname.plugin.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("MailItemQueryCache — кэш ответов списка по версии хранилища")
+class MailItemQueryCacheTest {
+
+    private static final long HOUR_MS = 3_600_000;
+
+    @Test
+    @DisplayName("get: ответ той же версии — попадание, счётчики учитывают промах и попадание")
+    void get_sameVersion_hit() {
+        MailItemQueryCache cache = new MailItemQueryCache(1024, HOUR_MS);
+        assertNull(cache.get("q", 1));
+        cache.put("q", "{\"items\":[]}", 1);
+
+        assertEquals("{\"items\":[]}", cache.get("q", 1));
+        assertEquals(0.5, cache.stats().getHitRate());
+    }
+
+    @Test
+    @DisplayName("get: более новая версия — промах, ответы прежней версии удаляются")
+    void get_newVersion_dropsOldEntries() {
+        MailItemQueryCache cache = new MailItemQueryCache(1024, HOUR_MS);
+        cache.get("q", 1);
+        cache.put("q", "{}", 1);
+
+        assertNull(cache.get("q", 2));
+        assertEquals(0, cache.stats().getSize());
+        assertEquals(0, cache.stats().getBytes());
+    }
+
+    @Test
+    @DisplayName("get: версия старше текущей — промах без очистки кэша и отката версии")
+    void get_olderVersion_missWithoutRollback() {
+        MailItemQueryCache cache = new MailItemQueryCache(1024, HOUR_MS);
+        cache.get("q", 2);
+        cache.put("q", "{}", 2);
+
+        assertNull(cache.get("q", 1));
+        cache.put("q", "{\"stale\":true}", 1);
+
+        assertEquals("{}", cache.get("q", 2));
+        assertEquals(1, cache.stats().getSize());
+        assertEquals(1.0 / 3, cache.stats().getHitRate());
+    }
+
+    @Test
+    @DisplayName("put: ответ, прочитанный до изменения версии, не кладётся")
+    void put_staleVersion_ignored() {
+        MailItemQueryCache cache = new MailItemQueryCache(1024, HOUR_MS);
+        cache.get("q", 1);
+        cache.get("other", 2);
+
+        cache.put("q", "{}", 1);
+
+        assertNull(cache.get("q", 2));
+    }
+
+    @Test
+    @DisplayName("put: сверх лимита размера вытесняется давно не запрашивавшийся ответ")
+    void put_overByteLimit_evictsLeastRecentlyUsed() {
+        // Ключ и ответ — 2 байта на символ: каждая запись занимает 2 * (1 + 99) = 200 байт
+        MailItemQueryCache cache = new MailItemQueryCache(500, HOUR_MS);
+        cache.get("a", 1);
+        cache.put("a", "x".repeat(99), 1);
+        cache.put("b", "x".repeat(99), 1);
+        cache.get("a", 1);
+
+        cache.put("c", "x".repeat(99), 1);
+
+        assertNull(cache.get("b", 1));
+        assertNotNull(cache.get("a", 1));
+        assertEquals(1, cache.stats().getEvictions());
+        assertEquals(400, cache.stats().getBytes());
+    }
+
+    @Test
+    @DisplayName("get: ответ старше maxAgeMs не отдаётся даже при той же версии")
+    void get_expiredEntry_miss() {
+        MailItemQueryCache cache = new MailItemQueryCache(1024, 0);
+        cache.get("q", 1);
+        cache.put("q", "{}", 1);
+
+        assertNull(cache.get("q", 1));
+        assertEquals(0, cache.stats().getSize());
+    }
+}
@@ -0,0 +1,118 @@
+package com.noname.plugin.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MailItemSearchBackfill — фоновое заполнение колонок поиска")
+class MailItemSearchBackfillTest {
+
+    @Mock private MailItemService mailItemService;
+    @Mock private MailItemTokenIndex tokenIndex;
+
+    private MailItemSearchBackfill backfill;
+
+    @BeforeEach
+    void setUp() {
+        backfill = new MailItemSearchBackfill(mailItemService, tokenIndex);
+    }
+
+    @Test
+    @DisplayName("run: обходит батчи, пока сервис сдвигает ID, и останавливается на пустом батче")
+    void run_processesBatchesUntilNoProgress() {
+        when(mailItemService.backfillSearchColumns(0, 200)).thenReturn(200L);
+        when(mailItemService.backfillSearchColumns(200, 200)).thenReturn(350L);
+        when(mailItemService.backfillSearchColumns(350, 200)).thenReturn(350L);
+
+        backfill.run();
+
+        verify(mailItemService, times(3)).backfillSearchColumns(anyLong(), anyInt());
+    }
+
+    @Test
+    @DisplayName("run: после переноса содержимого всех писем чтение перестаёт обращаться к старым колонкам")
+    void run_contentCompleted_marksBackfilled() {
+        when(mailItemService.backfillContent(0, 200)).thenReturn(80L);
+        when(mailItemService.backfillContent(80, 200)).thenReturn(80L);
+
+        backfill.run();
+
+        verify(mailItemService, times(2)).backfillContent(anyLong(), anyInt());
+        verify(mailItemService).markContentBackfilled();
+    }
+
+    @Test
+    @DisplayName("run: сбой переноса содержимого — индекс слов не строится, остальные колонки заполняются")
+    void run_contentFails_skipsTokenIndex() {
+        when(mailItemService.backfillContent(0, 200)).thenThrow(new RuntimeException("DB failure"));
+
+        backfill.run();
+
+        verify(mailItemService, never()).markContentBackfilled();
+        verify(mailItemService).backfillBodyText(0, 200);
+        verify(tokenIndex, never()).backfill(anyLong(), anyInt());
+        verify(tokenIndex, never()).markBackfilled();
+    }
+
+    @Test
+    @DisplayName("run: после обхода всех строк содержимого поиск переключается на BODY_TEXT")
+    void run_bodyTextCompleted_marksBackfilled() {
+        when(mailItemService.backfillBodyText(0, 200)).thenReturn(120L);
+        when(mailItemService.backfillBodyText(120, 200)).thenReturn(120L);
+
+        backfill.run();
+
+        verify(mailItemService, times(2)).backfillBodyText(anyLong(), anyInt());
+        verify(mailItemService).markBodyTextBackfilled();
+    }
+
+    @Test
+    @DisplayName("run: сбой заполнения текста тел — поиск продолжает проверять HTML старых писем")
+    void run_bodyTextFails_notMarked() {
+        when(mailItemService.backfillBodyText(0, 200)).thenThrow(new RuntimeException("DB failure"));
+
+        backfill.run();
+
+        verify(mailItemService, never()).markBodyTextBackfilled();
+    }
+
+    @Test
+    @DisplayName("run: после индексации всех писем поиск по словам переключается на индекс")
+    void run_tokensCompleted_marksBackfilled() {
+        when(tokenIndex.backfill(0, 200)).thenReturn(90L);
+        when(tokenIndex.backfill(90, 200)).thenReturn(90L);
+
+        backfill.run();
+
+        verify(tokenIndex, times(2)).backfill(anyLong(), anyInt());
+        verify(tokenIndex).markBackfilled();
+    }
+
+    @Test
+    @DisplayName("run: сбой индексации — поиск по словам остаётся на SQL-условии")
+    void run_tokensFail_notMarked() {
+        when(tokenIndex.backfill(0, 200)).thenThrow(new RuntimeException("DB failure"));
+
+        backfill.run();
+
+        verify(tokenIndex, never()).markBackfilled();
+    }
+
+    @Test
+    @DisplayName("run: исключение сервиса не выходит за пределы фоновой задачи")
+    void run_serviceThrows_stopsQuietly() {
+        when(mailItemService.backfillSearchColumns(0, 200)).thenThrow(new RuntimeException("DB failure"));
+
+        backfill.run();
+
+        verify(mailItemService).backfillSearchColumns(0, 200);
+    }
+}
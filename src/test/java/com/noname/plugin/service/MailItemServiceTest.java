@@ -7,18 +7,38 @@ import com.atlassian.jira.config.properties.ApplicationProperties;
 import com.atlassian.jira.mail.Email;
 import com.atlassian.jira.util.json.JSONException;
 import com.atlassian.jira.util.json.JSONObject;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.noname.plugin.ao.MailItemBodyEntity;
+import com.noname.plugin.ao.MailItemContentCodec;
+import com.noname.plugin.ao.MailItemContentEntity;
 import com.noname.plugin.ao.MailItemEntity;
+import com.noname.plugin.ao.MailItemLegacyContentEntity;
+import com.noname.plugin.ao.MailItemTokenEntity;
 import com.noname.plugin.model.MailItem;
+import net.java.ao.EntityStreamCallback;
 import net.java.ao.Query;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -33,12 +53,26 @@ class MailItemServiceTest {
     @Mock private MailItemEntity entity1;
     @Mock private MailItemEntity entity2;
     @Mock private MailItemEntity entity3;
+    @Mock private MailItemContentEntity content1;
+    @Mock private MailItemBodyEntity sharedBody1;
+    @Mock private MailItemStoreVersion storeVersion;
 
+    private MailItemTokenIndex tokenIndex;
     private MailItemService service;
 
     @BeforeEach
     void setUp() {
-        service = new MailItemService(ao);
+        MailItemBodyStore bodyStore = new MailItemBodyStore(ao);
+        tokenIndex = new MailItemTokenIndex(ao, bodyStore);
+        service = new MailItemService(ao, storeVersion, bodyStore, tokenIndex);
+        // По умолчанию у писем нет строк содержимого — тесты списка проверяют только метаданные
+        lenient().when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[0]);
+        // Старых колонок содержимого по умолчанию нет — у писем без строки содержимого тело пустое
+        lenient().when(ao.find(eq(MailItemLegacyContentEntity.class), any(Query.class))).thenReturn(new MailItemLegacyContentEntity[0]);
+        // Общих тел по умолчанию нет
+        lenient().when(ao.find(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(new MailItemBodyEntity[0]);
+        // Транзакция выполняет колбэк сразу
+        lenient().when(ao.executeInTransaction(any())).thenAnswer(inv -> ((TransactionCallback<?>) inv.getArgument(0)).doInTransaction());
     }
 
     // ===== countMailItems =====
@@ -60,6 +94,33 @@ class MailItemServiceTest {
         assertEquals(0, service.countMailItems());
     }
 
+    @Test
+    @DisplayName("countMailItems() — повторный вызов берёт значение из счётчика без COUNT(*)")
+    void countMailItems_secondCall_usesCounter() {
+        when(ao.count(MailItemEntity.class)).thenReturn(5);
+
+        service.countMailItems();
+        assertEquals(5, service.countMailItems());
+        verify(ao, times(1)).count(MailItemEntity.class);
+    }
+
+    @Test
+    @DisplayName("countMailItems() — счётчик учитывает созданные и удалённые письма")
+    void countMailItems_followsCreateAndDelete() {
+        when(ao.count(MailItemEntity.class)).thenReturn(5);
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity2});
+        service.countMailItems();
+
+        service.createMailItem(mock(Email.class));
+        service.createMailItem(mock(Email.class));
+        service.deleteMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+        assertEquals(6, service.countMailItems());
+        verify(ao, times(1)).count(MailItemEntity.class);
+    }
+
     // ===== createMailItem =====
 
     @Test
@@ -80,6 +141,8 @@ class MailItemServiceTest {
         when(email.getSubject()).thenReturn("Тема");
         when(email.getBody()).thenReturn("<p>Текст</p>");
         when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(entity1.getID()).thenReturn(7);
 
         String uuid = service.createMailItem(email);
 
@@ -89,8 +152,97 @@ class MailItemServiceTest {
         verify(entity1).setFrom("from@test.com");
         verify(entity1).setTo("to@test.com");
         verify(entity1).setSubject("Тема");
-        verify(entity1).setBody("<p>Текст</p>");
         verify(entity1).save();
+        // Тело хранится в отдельной таблице содержимого, привязанной к ID письма
+        verify(content1).setMailItemId(7L);
+        verify(content1).setBody("<p>Текст</p>");
+        // Текст тела извлекается один раз при сохранении — для поиска и getEmailBodyText
+        verify(content1).setBodyText("Текст");
+        verify(content1).save();
+        // Превью для списка — текст тела без разметки
+        verify(entity1).setPreview("Текст");
+    }
+
+    @Test
+    @DisplayName("createMailItem: тело не короче порога сжатия пишется в BODY_COMPRESSED, BODY остаётся пустым")
+    void createMailItem_largeBody_storedCompressed() {
+        MailItemContentCodec codec = new MailItemContentCodec(16);
+        MailItemBodyStore bodyStore = new MailItemBodyStore(ao, codec);
+        service = new MailItemService(ao, storeVersion, bodyStore, new MailItemTokenIndex(ao, bodyStore), codec);
+        String body = "<p>Повторяющийся текст уведомления</p>".repeat(20);
+        Email email = mock(Email.class);
+        when(email.getBody()).thenReturn(body);
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+
+        service.createMailItem(email);
+
+        ArgumentCaptor<String> packed = ArgumentCaptor.forClass(String.class);
+        verify(content1).setBody(null);
+        verify(content1).setCodec(MailItemContentCodec.DEFLATE);
+        verify(content1).setBodyCompressed(packed.capture());
+        assertEquals(body, MailItemContentCodec.decompress(MailItemContentCodec.DEFLATE, packed.getValue()));
+        verify(content1).setRawHeadersCompressed(null);
+    }
+
+    // ===== createMailItems — пакетная вставка =====
+
+    @Test
+    @DisplayName("createMailItems: null среди писем — бросает IllegalArgumentException до записи в базу")
+    void createMailItems_nullElement_throwsIllegalArgument() {
+        List<Email> emails = new ArrayList<>();
+        emails.add(mock(Email.class));
+        emails.add(null);
+
+        assertThrows(IllegalArgumentException.class, () -> service.createMailItems(emails));
+        verifyNoInteractions(ao);
+    }
+
+    @Test
+    @DisplayName("createMailItems: многострочные INSERT в одной транзакции, UUID в порядке входа")
+    @SuppressWarnings("unchecked")
+    void createMailItems_insertsRowsInOneTransaction() {
+        Email first = mock(Email.class);
+        when(first.getFrom()).thenReturn("Alice@Test.com");
+        when(first.getSubject()).thenReturn("Отчёт");
+        when(first.getBody()).thenReturn("<p>Первое</p>");
+        Email second = mock(Email.class);
+        when(second.getFrom()).thenReturn("bob@test.com");
+        when(second.getSubject()).thenReturn("Счёт");
+        when(second.getBody()).thenReturn("Второе");
+        // Выборка ID по UUID: второй вставленной строке достаётся ID 11, первой — 10
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenAnswer(inv -> {
+            Object[] uuids = ((Query) inv.getArgument(1)).getWhereParams();
+            MailItemEntity[] rows = new MailItemEntity[uuids.length];
+            for (int i = 0; i < uuids.length; i++) {
+                rows[i] = mock(MailItemEntity.class);
+                when(rows[i].getUuid()).thenReturn((String) uuids[i]);
+                when(rows[i].getID()).thenReturn(10 + i);
+            }
+            return rows;
+        });
+
+        List<String> uuids = service.createMailItems(List.of(first, second));
+
+        ArgumentCaptor<List<Map<String, Object>>> mails = ArgumentCaptor.forClass(List.class);
+        verify(ao).create(eq(MailItemEntity.class), mails.capture());
+        assertEquals(2, mails.getValue().size());
+        assertEquals(uuids, mails.getValue().stream().map(row -> row.get("UUID")).collect(Collectors.toList()));
+        assertEquals("alice@test.com", mails.getValue().get(0).get("FROM_LC"));
+
+        ArgumentCaptor<List<Map<String, Object>>> contents = ArgumentCaptor.forClass(List.class);
+        verify(ao).create(eq(MailItemContentEntity.class), contents.capture());
+        assertEquals(10L, contents.getValue().get(0).get("MAIL_ITEM_ID"));
+        assertEquals("<p>Первое</p>", contents.getValue().get(0).get("BODY"));
+        assertEquals("Первое", contents.getValue().get(0).get("BODY_TEXT"));
+        assertEquals(11L, contents.getValue().get(1).get("MAIL_ITEM_ID"));
+
+        ArgumentCaptor<List<Map<String, Object>>> tokens = ArgumentCaptor.forClass(List.class);
+        verify(ao).create(eq(MailItemTokenEntity.class), tokens.capture());
+        assertTrue(tokens.getValue().contains(Map.of("TOKEN", "счёт", "MAIL_ITEM_ID", 11L)));
+
+        verify(ao, times(1)).executeInTransaction(any());
+        verify(ao, never()).create(MailItemEntity.class);
     }
 
     // ===== getAllMailItemsAsJson — базовые случаи =====
@@ -99,9 +251,9 @@ class MailItemServiceTest {
     @DisplayName("getAllMailItemsAsJson: пустая база — возвращает пустые items и total=0")
     void getAllMailItemsAsJson_emptyDb_returnsEmptyItems() throws JSONException {
         // Без тегов WHERE-условия нет; ao.count вызывается с Query без WHERE
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(0);
+        when(ao.count(MailItemEntity.class)).thenReturn(0);
 
-        String json = service.getAllMailItemsAsJson((String[]) null, 0, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson((String[]) null, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(0, result.getJSONArray("items").length());
@@ -111,14 +263,14 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: без тегов — возвращает все записи")
     void getAllMailItemsAsJson_noTags_returnsAll() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@test.com", "x@test.com", "Тема 1", "<p>1</p>");
-        stubEntity(entity2, "uuid-2", "b@test.com", "y@test.com", "Тема 2", "<p>2</p>");
-        stubEntity(entity3, "uuid-3", "c@test.com", "z@test.com", "Тема 3", "<p>3</p>");
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(3);
+        stubEntity(entity1, "uuid-1", "a@test.com", "x@test.com", "Тема 1");
+        stubEntity(entity2, "uuid-2", "b@test.com", "y@test.com", "Тема 2");
+        stubEntity(entity3, "uuid-3", "c@test.com", "z@test.com", "Тема 3");
+        when(ao.count(MailItemEntity.class)).thenReturn(3);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1, entity2, entity3});
 
-        String json = service.getAllMailItemsAsJson((String[]) null, 0, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson((String[]) null, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(3, result.getInt("total"));
@@ -129,9 +281,9 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: ответ содержит поля items, total, offset, limit")
     void getAllMailItemsAsJson_responseContainsRequiredFields() throws JSONException {
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(0);
+        when(ao.count(MailItemEntity.class)).thenReturn(0);
 
-        String json = service.getAllMailItemsAsJson((String[]) null, 5, 20, 0, "desc");
+        String json = service.getAllMailItemsAsJson((String[]) null, 5, 20, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertTrue(result.has("items"));
@@ -142,18 +294,50 @@ class MailItemServiceTest {
         assertEquals(20, result.getInt("limit"));
     }
 
+    @Test
+    @DisplayName("getAllMailItemsAsJson: withTotal=false — без COUNT, limit+1 запись, hasMore по лишней записи")
+    void getAllMailItemsAsJson_withoutTotal_fetchesLimitPlusOne() throws JSONException {
+        stubEntity(entity1, "uuid-3", "a@t.com", "x@t.com", "Тема 3");
+        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2");
+        stubEntity(entity3, "uuid-1", "c@t.com", "z@t.com", "Тема 1");
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture()))
+                .thenReturn(new MailItemEntity[]{entity1, entity2, entity3});
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(null, 0, 2, 0, "desc", null, false, MailItemService.LIST_FIELDS));
+
+        assertEquals(3, queryCaptor.getValue().getLimit());
+        assertEquals(2, result.getJSONArray("items").length());
+        assertTrue(result.getBoolean("hasMore"));
+        assertFalse(result.has("total"));
+        verify(ao, never()).count(MailItemEntity.class);
+        verify(ao, never()).count(eq(MailItemEntity.class), any(Query.class));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: withTotal=false, последняя страница — hasMore=false")
+    void getAllMailItemsAsJson_withoutTotal_lastPage_hasMoreFalse() throws JSONException {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(null, 0, 2, 0, "desc", null, false, MailItemService.LIST_FIELDS));
+
+        assertFalse(result.getBoolean("hasMore"));
+        assertFalse(result.has("nextCursor"));
+    }
+
     // ===== getAllMailItemsAsJson — поиск =====
 
     @Test
     @DisplayName("getAllMailItemsAsJson: поиск по from без учёта регистра")
     void getAllMailItemsAsJson_searchByFrom_filtersCorrectly() throws JSONException {
-        stubEntity(entity1, "uuid-1", "alice@test.com", "x@t.com", "Тема", null);
-        // SQL-фильтрация: ao.count возвращает 1 (только alice совпала), ao.find возвращает entity1
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        stubEntity(entity1, "uuid-1", "alice@test.com", "x@t.com", "Тема");
+        // SQL-фильтрация: под фильтр подходит только alice, ao.find загружает её по ID
+        stubFilteredIds(entity1);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        String json = service.getAllMailItemsAsJson(new String[]{"ALICE"}, 0, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson(new String[]{"ALICE"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(1, result.getInt("total"));
@@ -163,13 +347,13 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: поиск по subject")
     void getAllMailItemsAsJson_searchBySubject_filtersCorrectly() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Отчёт Q1", null);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Отчёт Q1");
         // SQL-фильтрация возвращает только первую запись
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        stubFilteredIds(entity1);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        String json = service.getAllMailItemsAsJson(new String[]{"отчёт"}, 0, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson(new String[]{"отчёт"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(1, result.getInt("total"));
@@ -178,29 +362,60 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: поиск по body")
     void getAllMailItemsAsJson_searchByBody_filtersCorrectly() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема", "<p>Lorem ipsum dolor</p>");
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
         // SQL-фильтрация: только entity1 совпал по body
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        stubFilteredIds(entity1);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        String json = service.getAllMailItemsAsJson(new String[]{"lorem"}, 0, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson(new String[]{"lorem"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(1, result.getInt("total"));
         assertEquals("uuid-1", result.getJSONArray("items").getJSONObject(0).getString("id"));
     }
 
+    @Test
+    @DisplayName("getAllMailItemsAsJson: поиск по тегу присоединяет таблицу содержимого, без тегов — нет")
+    void getAllMailItemsAsJson_joinsContentOnlyForTagSearch() throws JSONException {
+        ArgumentCaptor<Query> pageCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), pageCaptor.capture())).thenReturn(new MailItemEntity[0]);
+
+        service.getAllMailItemsAsJson(null, 0, 10, 0, "desc", null, false, MailItemService.LIST_FIELDS);
+        service.getAllMailItemsAsJson(new String[]{"lorem"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
+
+        assertTrue(pageCaptor.getValue().getJoins().isEmpty());
+        Query filter = filteredIdsQuery();
+        assertTrue(filter.getJoins().containsKey(MailItemContentEntity.class));
+        assertTrue(filter.getWhereClause().contains("LOWER(c.\"BODY\") LIKE ?"));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: тело письма в списке берётся из таблицы содержимого")
+    void getAllMailItemsAsJson_bodyComesFromContent() throws JSONException {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getID()).thenReturn(7);
+        when(content1.getMailItemId()).thenReturn(7L);
+        when(content1.getBody()).thenReturn("<p>Тело</p>");
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{content1});
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(null, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS));
+
+        assertEquals("<p>Тело</p>", result.getJSONArray("items").getJSONObject(0).getString("body"));
+    }
+
     @Test
     @DisplayName("getAllMailItemsAsJson: два тега — AND-логика делегирована SQL WHERE")
     void getAllMailItemsAsJson_multipleTagsAndLogic() throws JSONException {
-        stubEntity(entity1, "uuid-1", "alice@example.com", "x@t.com", "Тема", "<p>Lorem ipsum</p>");
+        stubEntity(entity1, "uuid-1", "alice@example.com", "x@t.com", "Тема");
         // SQL WHERE с AND по двум тегам: возвращает только entity1
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        stubFilteredIds(entity1);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        String json = service.getAllMailItemsAsJson(new String[]{"example", "lorem"}, 0, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson(new String[]{"example", "lorem"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(1, result.getInt("total"));
@@ -210,10 +425,9 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: поиск без совпадений — возвращает пустые items")
     void getAllMailItemsAsJson_searchNoMatch_returnsEmpty() throws JSONException {
-        // SQL-фильтрация не нашла совпадений
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(0);
+        // SQL-фильтрация не нашла совпадений: ao.stream не отдаёт ни одного ID
 
-        String json = service.getAllMailItemsAsJson(new String[]{"zzznomatch"}, 0, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson(new String[]{"zzznomatch"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(0, result.getInt("total"));
@@ -223,13 +437,82 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: null-поля сущности не вызывают NPE при поиске")
     void getAllMailItemsAsJson_searchWithNullFields_noNpe() throws JSONException {
-        stubEntity(entity1, "uuid-1", null, null, null, null);
+        stubEntity(entity1, "uuid-1", null, null, null);
         // SQL обрабатывает null-поля на стороне базы; мок возвращает entity1
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        stubFilteredIds(entity1);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        assertDoesNotThrow(() -> service.getAllMailItemsAsJson(new String[]{"test"}, 0, 10, 0, "desc"));
+        assertDoesNotThrow(() -> service.getAllMailItemsAsJson(new String[]{"test"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: поиск с total — фильтр выполняется один раз, страница читается по ID без COUNT")
+    void getAllMailItemsAsJson_searchWithTotal_singleFilterPass() throws JSONException {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема 1");
+        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2");
+        stubEntity(entity3, "uuid-3", "c@t.com", "z@t.com", "Тема 3");
+        when(entity1.getID()).thenReturn(3);
+        when(entity2.getID()).thenReturn(5);
+        when(entity3.getID()).thenReturn(7);
+        stubFilteredIds(entity1, entity2, entity3);
+        ArgumentCaptor<Query> pageCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), pageCaptor.capture())).thenReturn(new MailItemEntity[]{entity2, entity3});
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(new String[]{"тема"}, 0, 2, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(3, result.getInt("total"));
+        assertTrue(result.getBoolean("hasMore"));
+        assertEquals("uuid-3", result.getJSONArray("items").getJSONObject(0).getString("id"));
+        assertEquals("uuid-2", result.getJSONArray("items").getJSONObject(1).getString("id"));
+        assertEquals("ID IN (?,?)", pageCaptor.getValue().getWhereClause().replace(" ", ""));
+        assertEquals(MailItemService.SINGLE_PASS_MAX_MATCHES + 1, filteredIdsQuery().getLimit());
+        verify(ao, never()).count(eq(MailItemEntity.class), any(Query.class));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: подходящих писем больше порога — страница из прочитанных ID, total отдельным COUNT")
+    @SuppressWarnings("unchecked")
+    void getAllMailItemsAsJson_tooManyMatches_pageFromScannedIdsAndCount() throws JSONException {
+        AtomicInteger nextId = new AtomicInteger(20000);
+        MailItemEntity row = mock(MailItemEntity.class);
+        when(row.getID()).thenAnswer(inv -> nextId.getAndDecrement());
+        doAnswer(inv -> {
+            EntityStreamCallback<MailItemEntity, Integer> callback = inv.getArgument(2);
+            for (int i = 0; i <= MailItemService.SINGLE_PASS_MAX_MATCHES; i++) callback.onRowRead(row);
+            return null;
+        }).when(ao).stream(eq(MailItemEntity.class), any(Query.class), any(EntityStreamCallback.class));
+        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(20000);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getID()).thenReturn(19999);
+        ArgumentCaptor<Query> pageCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), pageCaptor.capture())).thenReturn(new MailItemEntity[]{entity1});
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(new String[]{"тема"}, 1, 1, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(20000, result.getInt("total"));
+        assertTrue(result.getBoolean("hasMore"));
+        assertEquals("uuid-1", result.getJSONArray("items").getJSONObject(0).getString("id"));
+        assertEquals("m.ID DESC", filteredIdsQuery().getOrderClause());
+        assertArrayEquals(new Object[]{19999L}, pageCaptor.getValue().getWhereParams());
+        verify(ao, times(1)).count(eq(MailItemEntity.class), any(Query.class));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: страница дальше порога — COUNT и страничный запрос без прохода по ID")
+    void getAllMailItemsAsJson_deepOffset_skipsIdScan() throws JSONException {
+        int offset = MailItemService.SINGLE_PASS_MAX_MATCHES;
+        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(20000);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        ArgumentCaptor<Query> pageCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), pageCaptor.capture())).thenReturn(new MailItemEntity[]{entity1});
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(new String[]{"тема"}, offset, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(20000, result.getInt("total"));
+        assertTrue(pageCaptor.getValue().getWhereClause().contains("LIKE ?"));
+        assertEquals(offset, pageCaptor.getValue().getOffset());
+        verify(ao, never()).stream(eq(MailItemEntity.class), any(Query.class), any(EntityStreamCallback.class));
     }
 
     // ===== getAllMailItemsAsJson — пагинация =====
@@ -237,14 +520,14 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: offset срезает начало списка")
     void getAllMailItemsAsJson_withOffset_skipsItems() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема 1", null);
-        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2", null);
-        stubEntity(entity3, "uuid-3", "c@t.com", "z@t.com", "Тема 3", null);
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(3);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема 1");
+        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2");
+        stubEntity(entity3, "uuid-3", "c@t.com", "z@t.com", "Тема 3");
+        when(ao.count(MailItemEntity.class)).thenReturn(3);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity2, entity3});
 
-        String json = service.getAllMailItemsAsJson(null, 1, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson(null, 1, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(3, result.getInt("total"));
@@ -255,14 +538,14 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: limit ограничивает количество возвращаемых элементов")
     void getAllMailItemsAsJson_withLimit_returnsCorrectCount() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема 1", null);
-        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2", null);
-        stubEntity(entity3, "uuid-3", "c@t.com", "z@t.com", "Тема 3", null);
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(3);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема 1");
+        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2");
+        stubEntity(entity3, "uuid-3", "c@t.com", "z@t.com", "Тема 3");
+        when(ao.count(MailItemEntity.class)).thenReturn(3);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1, entity2});
 
-        String json = service.getAllMailItemsAsJson(null, 0, 2, 0, "desc");
+        String json = service.getAllMailItemsAsJson(null, 0, 2, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(3, result.getInt("total"));
@@ -274,11 +557,11 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: offset за пределами total — возвращает пустые items")
     void getAllMailItemsAsJson_offsetBeyondTotal_returnsEmptyItems() throws JSONException {
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[0]);
 
-        String json = service.getAllMailItemsAsJson(null, 100, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson(null, 100, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(1, result.getInt("total"));
@@ -288,13 +571,13 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: limit=0 — возвращает все записи")
     void getAllMailItemsAsJson_zeroLimit_returnsAll() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема 1", null);
-        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2", null);
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(2);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема 1");
+        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2");
+        when(ao.count(MailItemEntity.class)).thenReturn(2);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1, entity2});
 
-        String json = service.getAllMailItemsAsJson(null, 0, 0, 0, "desc");
+        String json = service.getAllMailItemsAsJson(null, 0, 0, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(2, result.getJSONArray("items").length());
@@ -306,15 +589,15 @@ class MailItemServiceTest {
     @DisplayName("getAllMailItemsAsJson: sinceId > 0 — возвращает только новые записи, maxId корректен")
     void getAllMailItemsAsJson_withSinceId_returnsNewItemsAndCorrectMaxId() throws JSONException {
         // entity2 имеет ID=5, entity3 — ID=7; sinceId=3 → оба попадают в ответ
-        stubEntity(entity2, "uuid-2", "b@test.com", "y@test.com", "Тема 2", null);
-        stubEntity(entity3, "uuid-3", "c@test.com", "z@test.com", "Тема 3", null);
+        stubEntity(entity2, "uuid-2", "b@test.com", "y@test.com", "Тема 2");
+        stubEntity(entity3, "uuid-3", "c@test.com", "z@test.com", "Тема 3");
         lenient().when(entity2.getID()).thenReturn(5);
         lenient().when(entity3.getID()).thenReturn(7);
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(2);
+        stubFilteredIds(entity2, entity3);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity2, entity3});
 
-        String json = service.getAllMailItemsAsJson(null, 0, 10, 3, "desc");
+        String json = service.getAllMailItemsAsJson(null, 0, 10, 3, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         // Только записи после sinceId=3
@@ -326,9 +609,7 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: sinceId > 0, нет новых записей — maxId равен sinceId")
     void getAllMailItemsAsJson_withSinceId_noNewItems_maxIdEqualsSinceId() throws JSONException {
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(0);
-
-        String json = service.getAllMailItemsAsJson(null, 0, 10, 42, "desc");
+        String json = service.getAllMailItemsAsJson(null, 0, 10, 42, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(0, result.getJSONArray("items").length());
@@ -339,13 +620,13 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: sinceId + теги — оба условия применяются одновременно")
     void getAllMailItemsAsJson_withSinceIdAndTags_combinesCorrectly() throws JSONException {
-        stubEntity(entity1, "uuid-1", "alice@test.com", "x@t.com", "Тема", null);
+        stubEntity(entity1, "uuid-1", "alice@test.com", "x@t.com", "Тема");
         lenient().when(entity1.getID()).thenReturn(10);
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        stubFilteredIds(entity1);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        String json = service.getAllMailItemsAsJson(new String[]{"alice"}, 0, 10, 5, "desc");
+        String json = service.getAllMailItemsAsJson(new String[]{"alice"}, 0, 10, 5, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         assertEquals(1, result.getJSONArray("items").length());
@@ -353,19 +634,400 @@ class MailItemServiceTest {
         assertEquals(1, result.getInt("total"));
     }
 
+    // ===== getAllMailItemsAsJson — индекс слов =====
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: режим по умолчанию — ID берутся из пересечения индекса слов, без LIKE по таблице")
+    void getAllMailItemsAsJson_tokenMode_intersectsIndex() throws JSONException {
+        stubTokenIndex(Map.of("alice", new long[]{3, 5}, "report", new long[]{5, 7}));
+        stubEntity(entity1, "uuid-5", "alice@t.com", "x@t.com", "Report");
+        when(entity1.getID()).thenReturn(5);
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture())).thenReturn(new MailItemEntity[]{entity1});
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(new String[]{"alice", "report"}, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(1, result.getInt("total"));
+        assertEquals("uuid-5", result.getJSONArray("items").getJSONObject(0).getString("id"));
+        assertEquals("ID IN (?)", queryCaptor.getValue().getWhereClause());
+        verify(ao, never()).count(eq(MailItemEntity.class), any(Query.class));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: индексный режим — страница вырезается из отсортированных ID с учётом offset и sortOrder")
+    void getAllMailItemsAsJson_tokenMode_pagesSortedIds() throws JSONException {
+        stubTokenIndex(Map.of("lorem", new long[]{7, 3, 5, 9}));
+        stubEntity(entity1, "uuid-5", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getID()).thenReturn(5);
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture())).thenReturn(new MailItemEntity[]{entity1});
+
+        // desc: 9, 7, 5, 3 → offset 2, limit 1 → 5
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(new String[]{"lorem"}, 2, 1, 0, "desc", null, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(4, result.getInt("total"));
+        assertArrayEquals(new Object[]{5L}, queryCaptor.getValue().getWhereParams());
+        assertTrue(result.has("nextCursor"));
+        assertTrue(result.has("prevCursor"));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: тег без слов из двух и более символов — откат на поиск подстрокой")
+    void getAllMailItemsAsJson_tokenMode_shortTagFallsBackToSubstring() throws JSONException {
+        service.getAllMailItemsAsJson(new String[]{"a"}, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
+
+        assertTrue(filteredIdsQuery().getWhereClause().contains("LIKE ?"));
+        verify(ao, never()).stream(eq(MailItemTokenEntity.class), any(Query.class), any());
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: слово короче трёх символов ищется в индексе целиком, а не как префикс")
+    void getAllMailItemsAsJson_tokenMode_shortWordMatchesExactly() throws JSONException {
+        stubTokenIndex(Map.of("qa", new long[]{3}, "qatar", new long[]{5}));
+        ArgumentCaptor<Query> tokenQuery = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(new String[]{"qa"}, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(1, result.getInt("total"));
+        verify(ao).stream(eq(MailItemTokenEntity.class), tokenQuery.capture(), any());
+        assertEquals("TOKEN = ?", tokenQuery.getValue().getWhereClause());
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: слово, которое встречается в индексе слишком часто, — откат на SQL-поиск")
+    @SuppressWarnings("unchecked")
+    void getAllMailItemsAsJson_tokenMode_tooFrequentWordFallsBackToSql() throws JSONException {
+        tokenIndex.markBackfilled();
+        MailItemTokenEntity row = mock(MailItemTokenEntity.class);
+        doAnswer(inv -> {
+            EntityStreamCallback<MailItemTokenEntity, Integer> callback = inv.getArgument(2);
+            for (int i = 0; i < ((Query) inv.getArgument(1)).getLimit(); i++) callback.onRowRead(row);
+            return null;
+        }).when(ao).stream(eq(MailItemTokenEntity.class), any(Query.class), any(EntityStreamCallback.class));
+
+        service.getAllMailItemsAsJson(new String[]{"jira"}, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
+
+        assertTrue(filteredIdsQuery().getWhereClause().contains("LIKE ?"));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: пока индекс слов заполняется фоновой задачей — SQL-поиск, индекс не читается")
+    void getAllMailItemsAsJson_tokenMode_indexNotBackfilled_usesSql() throws JSONException {
+        service.getAllMailItemsAsJson(new String[]{"alice"}, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
+
+        assertTrue(filteredIdsQuery().getWhereClause().contains("LIKE ?"));
+        verify(ao, never()).stream(eq(MailItemTokenEntity.class), any(Query.class), any());
+    }
+
+    @Test
+    @DisplayName("getMailItemsPageAsJson: индексный режим — курсор отсекает ID, лишняя запись определяет nextCursor")
+    void getMailItemsPageAsJson_tokenMode_appliesCursor() throws JSONException {
+        stubTokenIndex(Map.of("lorem", new long[]{3, 5, 7, 9, 11}));
+        stubEntity(entity1, "uuid-7", "a@t.com", "x@t.com", "Тема");
+        stubEntity(entity2, "uuid-5", "b@t.com", "y@t.com", "Тема");
+        stubEntity(entity3, "uuid-3", "c@t.com", "z@t.com", "Тема");
+        when(entity1.getID()).thenReturn(7);
+        when(entity2.getID()).thenReturn(5);
+        when(entity3.getID()).thenReturn(3);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity3, entity2, entity1});
+
+        JSONObject result = new JSONObject(service.getMailItemsPageAsJson(new String[]{"lorem"}, cursor("b:9"), 2, 0, "desc", null, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(5, result.getInt("total"));
+        assertEquals(2, result.getJSONArray("items").length());
+        assertEquals("uuid-7", result.getJSONArray("items").getJSONObject(0).getString("id"));
+        assertEquals("uuid-5", result.getJSONArray("items").getJSONObject(1).getString("id"));
+        assertTrue(result.has("nextCursor"));
+    }
+
+    @Test
+    @DisplayName("createMailItem: слова from, to, subject и текста тела записываются в индекс")
+    @SuppressWarnings("unchecked")
+    void createMailItem_indexesTokens() {
+        Email email = mock(Email.class);
+        when(email.getFrom()).thenReturn("alice@test.com");
+        when(email.getTo()).thenReturn("bob@test.com");
+        when(email.getSubject()).thenReturn("Отчёт");
+        when(email.getBody()).thenReturn("<p>Lorem <b>ipsum</b></p>");
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(entity1.getID()).thenReturn(7);
+        ArgumentCaptor<List<Map<String, Object>>> rowsCaptor = ArgumentCaptor.forClass(List.class);
+
+        service.createMailItem(email);
+
+        verify(ao).create(eq(MailItemTokenEntity.class), rowsCaptor.capture());
+        List<Object> tokens = rowsCaptor.getValue().stream().map(row -> row.get("TOKEN")).collect(Collectors.toList());
+        assertEquals(List.of("alice", "test", "com", "bob", "отчёт", "lorem", "ipsum"), tokens);
+        assertTrue(rowsCaptor.getValue().stream().allMatch(row -> Long.valueOf(7).equals(row.get("MAIL_ITEM_ID"))));
+    }
+
+    // ===== Нормализованные колонки поиска =====
+
+    @Test
+    @DisplayName("createMailItem: FROM_LC, TO_LC, SUBJECT_LC заполняются значениями в нижнем регистре")
+    void createMailItem_fillsSearchColumns() {
+        Email email = mock(Email.class);
+        when(email.getFrom()).thenReturn(" Alice@Test.COM ");
+        when(email.getTo()).thenReturn("Bob@Test.com");
+        when(email.getSubject()).thenReturn("Отчёт " + "x".repeat(300));
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+
+        service.createMailItem(email);
+
+        verify(entity1).setFromLc("alice@test.com");
+        verify(entity1).setToLc("bob@test.com");
+        // Значение обрезается до длины VARCHAR(255)
+        verify(entity1).setSubjectLc(("отчёт " + "x".repeat(300)).substring(0, 255));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: режим prefix — LIKE 'tag%' по колонкам *_LC без JOIN и без LOWER()")
+    void getAllMailItemsAsJson_prefixMode_usesSearchColumns() throws JSONException {
+        service.getAllMailItemsAsJson(new String[]{"Alice@"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_PREFIX, true, MailItemService.LIST_FIELDS);
+
+        Query query = filteredIdsQuery();
+        assertEquals("(m.FROM_LC LIKE ? OR m.TO_LC LIKE ? OR m.SUBJECT_LC LIKE ?)", query.getWhereClause());
+        assertArrayEquals(new Object[]{"alice@%", "alice@%", "alice@%"}, query.getWhereParams());
+        assertTrue(query.getJoins().isEmpty());
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: режим exact — сравнение на равенство по колонкам *_LC")
+    void getAllMailItemsAsJson_exactMode_usesEquality() throws JSONException {
+        service.getAllMailItemsAsJson(new String[]{"Bob@Test.com"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_EXACT, true, MailItemService.LIST_FIELDS);
+
+        Query query = filteredIdsQuery();
+        assertEquals("(m.FROM_LC = ? OR m.TO_LC = ? OR m.SUBJECT_LC = ?)", query.getWhereClause());
+        assertArrayEquals(new Object[]{"bob@test.com", "bob@test.com", "bob@test.com"}, query.getWhereParams());
+    }
+
+    // ===== getAllMailItemsAsJson — квалификаторы полей =====
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: режим prefix, тег to: — LIKE по одной колонке TO_LC без JOIN")
+    void getAllMailItemsAsJson_prefixMode_fieldTagUsesSingleColumn() throws JSONException {
+        service.getAllMailItemsAsJson(new String[]{"TO: Alice@"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_PREFIX, true, MailItemService.LIST_FIELDS);
+
+        Query query = filteredIdsQuery();
+        assertEquals("m.TO_LC LIKE ?", query.getWhereClause());
+        assertArrayEquals(new Object[]{"alice@%"}, query.getWhereParams());
+        assertTrue(query.getJoins().isEmpty());
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: режим по умолчанию, тег subject: — подстрока в теме без индекса слов и без JOIN")
+    void getAllMailItemsAsJson_tokenMode_fieldTagUsesSql() throws JSONException {
+        service.getAllMailItemsAsJson(new String[]{"subject:DEPLOY-123", "from:alice"}, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
+
+        Query query = filteredIdsQuery();
+        assertEquals("LOWER(m.\"SUBJECT\") LIKE ? AND LOWER(m.\"FROM\") LIKE ?", query.getWhereClause());
+        assertArrayEquals(new Object[]{"%deploy-123%", "%alice%"}, query.getWhereParams());
+        assertTrue(query.getJoins().isEmpty());
+        verify(ao, never()).stream(eq(MailItemTokenEntity.class), any(Query.class), any());
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: тег body: — ищет только в теле и присоединяет таблицу содержимого")
+    void getAllMailItemsAsJson_bodyFieldTag_searchesOnlyBody() throws JSONException {
+        service.getAllMailItemsAsJson(new String[]{"body:Ошибка"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_EXACT, true, MailItemService.LIST_FIELDS);
+
+        Query query = filteredIdsQuery();
+        assertEquals("(LOWER(c.BODY_TEXT) LIKE ? OR (c.BODY_TEXT IS NULL AND (LOWER(c.\"BODY\") LIKE ?)))", query.getWhereClause());
+        assertArrayEquals(new Object[]{"%ошибка%", "%ошибка%"}, query.getWhereParams());
+        assertFalse(query.getJoins().isEmpty());
+    }
+
+    // ===== Текст тела (BODY_TEXT) =====
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: до заполнения BODY_TEXT хеши подходящих общих тел подставляются одним ограниченным IN")
+    void getAllMailItemsAsJson_legacySharedBodies_boundedHashList() throws JSONException {
+        when(sharedBody1.getHash()).thenReturn("hash-1");
+        ArgumentCaptor<Query> bodyQuery = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemBodyEntity.class), bodyQuery.capture())).thenReturn(new MailItemBodyEntity[]{sharedBody1});
+
+        service.getAllMailItemsAsJson(new String[]{"lorem"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
+
+        assertEquals(MailItemBodyStore.SEARCH_MAX_HASHES, bodyQuery.getValue().getLimit());
+        Query query = filteredIdsQuery();
+        assertTrue(query.getWhereClause().endsWith(" OR c.BODY_HASH IN (?))))"), query.getWhereClause());
+        assertEquals("hash-1", query.getWhereParams()[query.getWhereParams().length - 1]);
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: после заполнения BODY_TEXT поиск по телу не смотрит HTML и общие тела")
+    void getAllMailItemsAsJson_bodyTextBackfilled_searchesTextOnly() throws JSONException {
+        service.markBodyTextBackfilled();
+
+        service.getAllMailItemsAsJson(new String[]{"div"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_SUBSTRING, true, MailItemService.LIST_FIELDS);
+
+        Query query = filteredIdsQuery();
+        assertEquals("(LOWER(m.\"FROM\") LIKE ? OR LOWER(m.\"TO\") LIKE ? OR LOWER(m.\"SUBJECT\") LIKE ? OR LOWER(c.BODY_TEXT) LIKE ?)", query.getWhereClause());
+        verify(ao, never()).find(eq(MailItemBodyEntity.class), any(Query.class));
+    }
+
+    // ===== backfillContent =====
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("backfillContent: тело и заголовки из старых колонок пишутся в MAIL_ITEM_CONTENT, старые колонки обнуляются")
+    void backfillContent_movesLegacyColumnsAndClearsThem() {
+        MailItemLegacyContentEntity legacy = mock(MailItemLegacyContentEntity.class);
+        when(legacy.getID()).thenReturn(7);
+        when(legacy.getBody()).thenReturn("<p>Старое тело</p>");
+        when(legacy.getRawHeaders()).thenReturn("From: a@t.com");
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemLegacyContentEntity.class), queryCaptor.capture())).thenReturn(new MailItemLegacyContentEntity[]{legacy});
+
+        assertEquals(7L, service.backfillContent(0, 200));
+
+        assertEquals("ID > ? AND (BODY IS NOT NULL OR RAW_HEADERS IS NOT NULL)", queryCaptor.getValue().getWhereClause());
+        ArgumentCaptor<List<Map<String, Object>>> rows = ArgumentCaptor.forClass(List.class);
+        verify(ao).create(eq(MailItemContentEntity.class), rows.capture());
+        assertEquals(7L, rows.getValue().get(0).get("MAIL_ITEM_ID"));
+        assertEquals("<p>Старое тело</p>", rows.getValue().get(0).get("BODY"));
+        assertEquals("Старое тело", rows.getValue().get(0).get("BODY_TEXT"));
+        assertEquals("From: a@t.com", rows.getValue().get(0).get("RAW_HEADERS"));
+        verify(legacy).setBody(null);
+        verify(legacy).setRawHeaders(null);
+        verify(legacy).save();
+    }
+
+    @Test
+    @DisplayName("backfillContent: письмо, у которого строка содержимого уже есть, только теряет старые колонки")
+    void backfillContent_existingContentRow_onlyClearsLegacyColumns() {
+        MailItemLegacyContentEntity legacy = mock(MailItemLegacyContentEntity.class);
+        when(legacy.getID()).thenReturn(7);
+        when(ao.find(eq(MailItemLegacyContentEntity.class), any(Query.class))).thenReturn(new MailItemLegacyContentEntity[]{legacy});
+        when(content1.getMailItemId()).thenReturn(7L);
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{content1});
+
+        service.backfillContent(0, 200);
+
+        verify(ao, never()).create(eq(MailItemContentEntity.class), any(List.class));
+        verify(legacy).setBody(null);
+        verify(legacy).save();
+    }
+
+    @Test
+    @DisplayName("backfillContent: неперенесённых писем нет — возвращает afterId без транзакции")
+    void backfillContent_nothingLeft_returnsAfterId() {
+        assertEquals(42L, service.backfillContent(42, 200));
+        verify(ao, never()).executeInTransaction(any());
+    }
+
+    @Test
+    @DisplayName("getMailItemById: до переноса содержимого письмо без строки MAIL_ITEM_CONTENT читается из старых колонок")
+    void getMailItemById_contentNotMoved_readsLegacyColumns() {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getID()).thenReturn(7);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        MailItemLegacyContentEntity legacy = mock(MailItemLegacyContentEntity.class);
+        when(legacy.getID()).thenReturn(7);
+        when(legacy.getBody()).thenReturn("<p>Старое тело</p>");
+        when(legacy.getRawHeaders()).thenReturn("From: a@t.com");
+        when(ao.find(eq(MailItemLegacyContentEntity.class), any(Query.class))).thenReturn(new MailItemLegacyContentEntity[]{legacy});
+
+        try (MockedStatic<ComponentAccessor> ca = mockStatic(ComponentAccessor.class)) {
+            stubComponentAccessor(ca);
+            MailItem item = service.getMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+            assertEquals("<p>Старое тело</p>", item.getBody());
+            assertEquals("From: a@t.com", item.getRawHeaders());
+        }
+    }
+
+    @Test
+    @DisplayName("getMailItemById: после переноса содержимого старые колонки не читаются")
+    void getMailItemById_contentMoved_skipsLegacyColumns() {
+        service.markContentBackfilled();
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+
+        try (MockedStatic<ComponentAccessor> ca = mockStatic(ComponentAccessor.class)) {
+            stubComponentAccessor(ca);
+            assertNull(service.getMailItemById("550e8400-e29b-41d4-a716-446655440001").getBody());
+        }
+        verify(ao, never()).find(eq(MailItemLegacyContentEntity.class), any(Query.class));
+    }
+
+    @Test
+    @DisplayName("backfillBodyText: текст извлекается из собственного или общего тела, тело без текста получает пустую строку")
+    void backfillBodyText_fillsTextFromInlineAndSharedBodies() {
+        MailItemContentEntity inline = mock(MailItemContentEntity.class);
+        when(inline.getID()).thenReturn(3);
+        when(inline.getBody()).thenReturn("<div style=\"x\">Привет</div>");
+        MailItemContentEntity empty = mock(MailItemContentEntity.class);
+        when(empty.getID()).thenReturn(4);
+        when(empty.getBody()).thenReturn("<br>");
+        when(content1.getID()).thenReturn(5);
+        when(content1.getBodyHash()).thenReturn("hash-1");
+        when(sharedBody1.getHash()).thenReturn("hash-1");
+        when(sharedBody1.getBody()).thenReturn("<p>Общее тело</p>");
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemContentEntity.class), queryCaptor.capture())).thenReturn(new MailItemContentEntity[]{inline, empty, content1});
+        when(ao.find(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(new MailItemBodyEntity[]{sharedBody1});
+
+        assertEquals(5L, service.backfillBodyText(2, 200));
+
+        assertTrue(queryCaptor.getValue().getWhereClause().contains("BODY_TEXT IS NULL"));
+        verify(inline).setBodyText("Привет");
+        verify(empty).setBodyText("");
+        verify(content1).setBodyText("Общее тело");
+        verify(content1).save();
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: квалификатор без значения — обычный тег по всем полям")
+    void getAllMailItemsAsJson_emptyFieldTag_treatedAsPlainTag() throws JSONException {
+        service.getAllMailItemsAsJson(new String[]{"from:"}, 0, 10, 0, "desc", MailItemService.SEARCH_MODE_PREFIX, true, MailItemService.LIST_FIELDS);
+
+        Query query = filteredIdsQuery();
+        assertEquals("(m.FROM_LC LIKE ? OR m.TO_LC LIKE ? OR m.SUBJECT_LC LIKE ?)", query.getWhereClause());
+        assertArrayEquals(new Object[]{"from:%", "from:%", "from:%"}, query.getWhereParams());
+    }
+
+    @Test
+    @DisplayName("backfillSearchColumns: заполняет колонки батча и возвращает ID последней записи")
+    void backfillSearchColumns_fillsBatchAndReturnsLastId() {
+        stubEntity(entity1, "uuid-4", "A@T.com", "X@T.com", "Тема");
+        when(entity1.getID()).thenReturn(4);
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture())).thenReturn(new MailItemEntity[]{entity1});
+
+        assertEquals(4L, service.backfillSearchColumns(0, 200));
+
+        verify(entity1).setFromLc("a@t.com");
+        verify(entity1).setToLc("x@t.com");
+        verify(entity1).setSubjectLc("тема");
+        verify(entity1).save();
+        assertEquals(200, queryCaptor.getValue().getLimit());
+    }
+
+    @Test
+    @DisplayName("backfillSearchColumns: незаполненных записей нет — возвращает исходный ID")
+    void backfillSearchColumns_nothingLeft_returnsAfterId() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+
+        assertEquals(10L, service.backfillSearchColumns(10, 200));
+    }
+
     // ===== getAllMailItemsAsJson — createdAt =====
 
     @Test
     @DisplayName("getAllMailItemsAsJson: поле createdAt присутствует в ответе для записей с меткой времени")
     void getAllMailItemsAsJson_includesCreatedAtInResponse() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема", null);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
         // Переопределяем stub: у этой записи проставлен createdAt
         when(entity1.getCreatedAt()).thenReturn(1716000000000L);
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        String json = service.getAllMailItemsAsJson(null, 0, 10, 0, "desc");
+        String json = service.getAllMailItemsAsJson(null, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         JSONObject result = new JSONObject(json);
         JSONObject item = result.getJSONArray("items").getJSONObject(0);
@@ -373,6 +1035,404 @@ class MailItemServiceTest {
         assertEquals(1716000000000L, item.getLong("createdAt"));
     }
 
+    // ===== getAllMailItemsAsJson — сводка без тела =====
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: без includeBody — элементы содержат preview, тела не читаются")
+    void getAllMailItemsAsJson_withoutBody_returnsPreviewOnly() throws JSONException {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getPreview()).thenReturn("Начало письма");
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+
+        String json = service.getAllMailItemsAsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS);
+
+        JSONObject item = new JSONObject(json).getJSONArray("items").getJSONObject(0);
+        assertEquals("Начало письма", item.getString("preview"));
+        assertFalse(item.has("body"), "Тело не должно попадать в сводку");
+        verify(ao, never()).find(eq(MailItemContentEntity.class), any(Query.class));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: у старых записей без превью оно вычисляется из тела")
+    void getAllMailItemsAsJson_legacyRowWithoutPreview_previewFromBody() throws JSONException {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getID()).thenReturn(1);
+        when(content1.getMailItemId()).thenReturn(1L);
+        when(content1.getBody()).thenReturn("<p>Старое <b>письмо</b></p>");
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{content1});
+
+        String json = service.getAllMailItemsAsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS);
+
+        JSONObject item = new JSONObject(json).getJSONArray("items").getJSONObject(0);
+        assertEquals("Старое письмо", item.getString("preview"));
+        assertFalse(item.has("body"));
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: fields ограничивает колонки запроса и поля ответа")
+    void getAllMailItemsAsJson_fields_projectsColumnsAndJson() throws JSONException {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture())).thenReturn(new MailItemEntity[]{entity1});
+
+        String json = service.getAllMailItemsAsJson(null, 0, 10, 0, "desc", null, true, Set.of("id", "subject"));
+
+        JSONObject item = new JSONObject(json).getJSONArray("items").getJSONObject(0);
+        assertEquals("uuid-1", item.getString("id"));
+        assertEquals("Тема", item.getString("subject"));
+        assertFalse(item.has("from"));
+        assertFalse(item.has("preview"));
+        List<String> columns = Arrays.stream(queryCaptor.getValue().getFields()).map(String::trim).collect(Collectors.toList());
+        assertEquals(List.of("ID", "UUID", "SUBJECT"), columns);
+        verify(ao, never()).find(eq(MailItemContentEntity.class), any(Query.class));
+    }
+
+    // ===== writeAllMailItemsJson — потоковая запись =====
+
+    @Test
+    @DisplayName("writeAllMailItemsJson: пишет страницу в поток, тела читаются порциями по 50 писем")
+    void writeAllMailItemsJson_largePage_streamsItemsAndLoadsBodiesInChunks() throws Exception {
+        MailItemEntity[] page = new MailItemEntity[60];
+        for (int i = 0; i < page.length; i++) {
+            page[i] = mock(MailItemEntity.class);
+            stubEntity(page[i], "uuid-" + i, "a@t.com", "x@t.com", "Тема " + i);
+            when(page[i].getID()).thenReturn(i + 1);
+        }
+        when(ao.count(MailItemEntity.class)).thenReturn(page.length);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(page);
+        StringWriter out = new StringWriter();
+
+        service.writeAllMailItemsJson(null, 0, 100, 0, "asc", null, true, MailItemService.LIST_FIELDS, out);
+
+        JSONObject result = new JSONObject(out.toString());
+        assertEquals(60, result.getJSONArray("items").length());
+        assertEquals("uuid-59", result.getJSONArray("items").getJSONObject(59).getString("id"));
+        assertEquals(60, result.getInt("total"));
+        assertEquals(60L, result.getLong("maxId"));
+        verify(ao, times(2)).find(eq(MailItemContentEntity.class), any(Query.class));
+    }
+
+    // ===== writeAllMailItemsJson — кэш ответов =====
+
+    @Test
+    @DisplayName("writeAllMailItemsJson: повторный запрос той же страницы отдаётся из кэша без обращения к базе")
+    void writeAllMailItemsJson_sameQuery_servedFromCache() throws Exception {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getPreview()).thenReturn("Начало письма");
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        StringWriter first = new StringWriter();
+        StringWriter second = new StringWriter();
+
+        service.writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, first);
+        service.writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, second);
+
+        assertEquals(first.toString(), second.toString());
+        verify(ao, times(1)).find(eq(MailItemEntity.class), any(Query.class));
+        assertEquals(1, service.getQueryCacheStats().getHits());
+        assertEquals(1, service.getQueryCacheStats().getMisses());
+    }
+
+    @Test
+    @DisplayName("writeAllMailItemsJson: после сохранения письма страница читается из базы заново")
+    void writeAllMailItemsJson_afterCreate_readsAgain() throws Exception {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getPreview()).thenReturn("Начало письма");
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        when(ao.create(MailItemEntity.class)).thenReturn(entity2);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+
+        service.writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, new StringWriter());
+        service.createMailItem(mock(Email.class));
+        StringWriter out = new StringWriter();
+        service.writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, out);
+
+        verify(ao, times(2)).find(eq(MailItemEntity.class), any(Query.class));
+        // Счётчик увеличен сохранением — ответ не взят из кэша
+        assertEquals(2, new JSONObject(out.toString()).getInt("total"));
+    }
+
+    @Test
+    @DisplayName("writeAllMailItemsJson: страницы с телами не кэшируются")
+    void writeAllMailItemsJson_withBody_notCached() throws Exception {
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+
+        service.writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS, new StringWriter());
+        service.writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS, new StringWriter());
+
+        verify(ao, times(2)).find(eq(MailItemEntity.class), any(Query.class));
+        assertEquals(0, service.getQueryCacheStats().getMisses());
+    }
+
+    // ===== awaitMailItemsAfter =====
+
+    @Test
+    @DisplayName("awaitMailItemsAfter: в базе уже есть письма новее — future завершено сразу")
+    void awaitMailItemsAfter_newerInDb_completesImmediately() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+
+        CompletableFuture<Boolean> arrival = service.awaitMailItemsAfter(5, 60_000);
+
+        assertTrue(arrival.isDone());
+        assertTrue(arrival.join());
+    }
+
+    @Test
+    @DisplayName("awaitMailItemsAfter: ожидание завершается при сохранении нового письма")
+    void awaitMailItemsAfter_createMailItem_wakesWaiter() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(entity1.getID()).thenReturn(6);
+
+        CompletableFuture<Boolean> arrival = service.awaitMailItemsAfter(5, 60_000);
+        assertFalse(arrival.isDone());
+        service.createMailItem(mock(Email.class));
+
+        assertTrue(arrival.join());
+    }
+
+    // ===== awaitMailItem =====
+
+    @Test
+    @DisplayName("awaitMailItem: подходящее письмо уже в базе — future завершено его UUID сразу")
+    void awaitMailItem_existingMatch_completesImmediately() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        when(entity1.getUuid()).thenReturn("uuid-1");
+
+        CompletableFuture<String> match = service.awaitMailItem(null, "Bob@Test.com", "Отчёт", 1000L, 60_000);
+
+        assertEquals("uuid-1", match.getNow("not done"));
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(ao).find(eq(MailItemEntity.class), query.capture());
+        assertEquals("(LOWER(m.\"TO\") LIKE ? OR LOWER(m.CC) LIKE ? OR LOWER(m.BCC) LIKE ?)"
+                + " AND LOWER(m.\"SUBJECT\") LIKE ? AND m.CREATED_AT >= ?", query.getValue().getWhereClause());
+        assertEquals(List.of("%bob@test.com%", "%bob@test.com%", "%bob@test.com%", "%отчёт%", 1000L),
+                Arrays.asList(query.getValue().getWhereParams()));
+    }
+
+    @Test
+    @DisplayName("awaitMailItem: завершается при сохранении подходящего письма, остальные пропускает")
+    void awaitMailItem_completesOnMatchingCreate() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        Email other = mock(Email.class);
+        when(other.getTo()).thenReturn("alice@test.com");
+        Email wanted = mock(Email.class);
+        when(wanted.getTo()).thenReturn("dev@test.com");
+        when(wanted.getCc()).thenReturn("Bob@Test.com");
+
+        CompletableFuture<String> match = service.awaitMailItem(null, "bob@test.com", null, 0, 60_000);
+        service.createMailItem(other);
+        assertFalse(match.isDone());
+        String uuid = service.createMailItem(wanted);
+
+        assertEquals(uuid, match.getNow("not done"));
+    }
+
+    @Test
+    @DisplayName("awaitMailItem: по таймауту future завершается null")
+    void awaitMailItem_timeout_completesWithNull() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+
+        assertNull(service.awaitMailItem("nobody@test.com", null, null, 0, 10).join());
+    }
+
+    // ===== findMailItems =====
+
+    @Test
+    @DisplayName("findMailItems: условия, порядок и лимит — один запрос сводок без чтения содержимого")
+    void findMailItems_buildsSingleSummaryQuery() {
+        stubEntity(entity1, "uuid-1", "jira@test.com", "user@test.com", "Задача создана");
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+
+        List<MailItem> result = service.findMailItems("Jira@", null, "задача", 1000L, 2000L, 5000, true);
+
+        assertEquals(1, result.size());
+        assertEquals("uuid-1", result.get(0).getId());
+        assertNull(result.get(0).getBody());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(ao).find(eq(MailItemEntity.class), query.capture());
+        assertEquals("LOWER(m.\"FROM\") LIKE ? AND LOWER(m.\"SUBJECT\") LIKE ? AND m.CREATED_AT >= ? AND m.CREATED_AT < ?",
+                query.getValue().getWhereClause());
+        assertEquals(List.of("%jira@%", "%задача%", 1000L, 2000L), Arrays.asList(query.getValue().getWhereParams()));
+        assertEquals("m.ID ASC", query.getValue().getOrderClause());
+        assertEquals(MailItemService.MAX_FIND_LIMIT, query.getValue().getLimit());
+        verify(ao, never()).find(eq(MailItemContentEntity.class), any(Query.class));
+    }
+
+    @Test
+    @DisplayName("findMailItems: без условий — последние письма без WHERE")
+    void findMailItems_noCriteria_noWhereClause() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+
+        assertTrue(service.findMailItems(null, " ", null, 0, 0, 10, false).isEmpty());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(ao).find(eq(MailItemEntity.class), query.capture());
+        assertNull(query.getValue().getWhereClause());
+        assertEquals("m.ID DESC", query.getValue().getOrderClause());
+    }
+
+    @Test
+    @DisplayName("findMailItems: неположительный limit — IllegalArgumentException")
+    void findMailItems_nonPositiveLimit_throws() {
+        assertThrows(IllegalArgumentException.class, () -> service.findMailItems(null, null, null, 0, 0, 0, false));
+        verifyNoInteractions(ao);
+    }
+
+    // ===== subscribe =====
+
+    @Test
+    @DisplayName("subscribe: createMailItem публикует событие CREATED со сводкой письма")
+    void subscribe_createMailItem_publishesCreated() {
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(entity1.getID()).thenReturn(6);
+        Email email = mock(Email.class);
+        when(email.getFrom()).thenReturn("alice@test.com");
+        when(email.getTo()).thenReturn("bob@test.com");
+        when(email.getSubject()).thenReturn("Отчёт");
+        List<MailItemEvent> events = new ArrayList<>();
+        service.subscribe(events::add);
+
+        String uuid = service.createMailItem(email);
+
+        assertEquals(1, events.size());
+        MailItemEvent event = events.get(0);
+        assertEquals(MailItemEvent.Type.CREATED, event.getType());
+        assertEquals(6, event.getSeq());
+        assertEquals(uuid, event.getId());
+        assertEquals("alice@test.com", event.getFrom());
+        assertEquals("bob@test.com", event.getTo());
+        assertEquals("Отчёт", event.getSubject());
+        assertTrue(event.getCreatedAt() > 0);
+    }
+
+    @Test
+    @DisplayName("subscribe: createMailItems публикует события батча в порядке входа после транзакции")
+    void subscribe_createMailItems_publishesBatchAfterTransaction() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenAnswer(inv -> {
+            Object[] uuids = ((Query) inv.getArgument(1)).getWhereParams();
+            MailItemEntity[] rows = new MailItemEntity[uuids.length];
+            for (int i = 0; i < uuids.length; i++) {
+                rows[i] = mock(MailItemEntity.class);
+                when(rows[i].getUuid()).thenReturn((String) uuids[i]);
+                when(rows[i].getID()).thenReturn(20 + i);
+            }
+            return rows;
+        });
+        List<MailItemEvent> events = new ArrayList<>();
+        service.subscribe(events::add);
+
+        List<String> uuids = service.createMailItems(List.of(mock(Email.class), mock(Email.class)));
+
+        assertEquals(uuids, events.stream().map(MailItemEvent::getId).collect(Collectors.toList()));
+        assertEquals(List.of(20L, 21L), events.stream().map(MailItemEvent::getSeq).collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("subscribe: deleteMailItemById публикует событие DELETED")
+    void subscribe_deleteMailItemById_publishesDeleted() {
+        when(entity1.getID()).thenReturn(9);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        List<MailItemEvent> events = new ArrayList<>();
+        service.subscribe(events::add);
+
+        service.deleteMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+        assertEquals(1, events.size());
+        assertEquals(MailItemEvent.Type.DELETED, events.get(0).getType());
+        assertEquals(9, events.get(0).getSeq());
+        assertEquals("550e8400-e29b-41d4-a716-446655440001", events.get(0).getId());
+    }
+
+    @Test
+    @DisplayName("subscribe: createMailItem и deleteMailItemById оповещают слушателей после завершения транзакции")
+    void subscribe_writes_publishAfterTransaction() {
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        List<String> steps = new ArrayList<>();
+        doAnswer(inv -> {
+            Object result = ((TransactionCallback<?>) inv.getArgument(0)).doInTransaction();
+            steps.add("commit");
+            return result;
+        }).when(ao).executeInTransaction(any());
+        service.subscribe(event -> steps.add(event.getType().name()));
+
+        service.createMailItem(mock(Email.class));
+        service.deleteMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+        assertEquals(List.of("commit", "CREATED", "commit", "DELETED"), steps);
+    }
+
+    @Test
+    @DisplayName("subscribe: ошибка слушателя не прерывает сохранение, после отписки события не приходят")
+    void subscribe_failingListenerAndUnsubscribe() {
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        List<MailItemEvent> events = new ArrayList<>();
+        service.subscribe(event -> { throw new IllegalStateException("listener failure"); });
+        Runnable unsubscribe = service.subscribe(events::add);
+
+        assertNotNull(service.createMailItem(mock(Email.class)));
+        unsubscribe.run();
+        service.createMailItem(mock(Email.class));
+
+        assertEquals(1, events.size());
+    }
+
+    // ===== exportMailItemsNdjson =====
+
+    @Test
+    @DisplayName("exportMailItemsNdjson: пишет по строке на письмо с телом и seq, начиная после afterId")
+    void exportMailItemsNdjson_writesOneLinePerMailItem() throws Exception {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема 1");
+        stubEntity(entity2, "uuid-2", "b@t.com", "y@t.com", "Тема 2");
+        when(entity1.getID()).thenReturn(11);
+        when(entity2.getID()).thenReturn(12);
+        when(content1.getMailItemId()).thenReturn(11L);
+        when(content1.getBody()).thenReturn("<p>Тело</p>");
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture())).thenReturn(new MailItemEntity[]{entity1, entity2});
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{content1});
+        StringWriter out = new StringWriter();
+
+        long exported = service.exportMailItemsNdjson(null, null, 0, 0, 10, out);
+
+        assertEquals(2, exported);
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        JSONObject first = new JSONObject(lines[0]);
+        assertEquals(11L, first.getLong("seq"));
+        assertEquals("uuid-1", first.getString("id"));
+        assertEquals("<p>Тело</p>", first.getString("body"));
+        assertEquals("uuid-2", new JSONObject(lines[1]).getString("id"));
+        // Неполный батч — последний, повторного запроса нет
+        assertEquals("m.ID > ?", queryCaptor.getValue().getWhereClause());
+        assertArrayEquals(new Object[]{10L}, queryCaptor.getValue().getWhereParams());
+    }
+
+    @Test
+    @DisplayName("exportMailItemsNdjson: фильтр по времени создания добавляется к условию")
+    void exportMailItemsNdjson_createdRange_addsCondition() throws Exception {
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture())).thenReturn(new MailItemEntity[0]);
+
+        long exported = service.exportMailItemsNdjson(null, null, 1000, 2000, 0, new StringWriter());
+
+        assertEquals(0, exported);
+        assertEquals("m.CREATED_AT >= ? AND m.CREATED_AT < ? AND m.ID > ?", queryCaptor.getValue().getWhereClause());
+        assertArrayEquals(new Object[]{1000L, 2000L, 0L}, queryCaptor.getValue().getWhereParams());
+    }
+
     // ===== getMailItemById =====
 
     @Test
@@ -389,6 +1449,200 @@ class MailItemServiceTest {
         verify(ao, never()).find(any(), any(Query.class));
     }
 
+    @Test
+    @DisplayName("getMailItemById: тело и сырые заголовки читаются из таблицы содержимого")
+    void getMailItemById_found_loadsContent() {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(entity1.getID()).thenReturn(7);
+        when(content1.getBody()).thenReturn("<p>Тело</p>");
+        when(content1.getRawHeaders()).thenReturn("From: a@t.com");
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{content1});
+
+        try (MockedStatic<ComponentAccessor> ca = mockStatic(ComponentAccessor.class)) {
+            stubComponentAccessor(ca);
+            MailItem item = service.getMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+            assertEquals("<p>Тело</p>", item.getBody());
+            assertEquals("From: a@t.com", item.getRawHeaders());
+        }
+    }
+
+    @Test
+    @DisplayName("getMailItemById: тело, вынесенное в MAIL_ITEM_BODY, читается по хешу")
+    void getMailItemById_sharedBody_loadsByHash() {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        when(content1.getBodyHash()).thenReturn("hash-1");
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{content1});
+        when(sharedBody1.getHash()).thenReturn("hash-1");
+        when(sharedBody1.getBody()).thenReturn("<p>Общее тело</p>");
+        when(ao.find(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(new MailItemBodyEntity[]{sharedBody1});
+
+        try (MockedStatic<ComponentAccessor> ca = mockStatic(ComponentAccessor.class)) {
+            stubComponentAccessor(ca);
+            MailItem item = service.getMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+            assertEquals("<p>Общее тело</p>", item.getBody());
+        }
+    }
+
+    @Test
+    @DisplayName("getMailItemById: повторное чтение того же письма не обращается к БД и возвращает новый экземпляр")
+    void getMailItemById_repeatedRead_servedFromCache() {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+
+        try (MockedStatic<ComponentAccessor> ca = mockStatic(ComponentAccessor.class)) {
+            stubComponentAccessor(ca);
+            MailItem first = service.getMailItemById("550e8400-e29b-41d4-a716-446655440001");
+            MailItem second = service.getMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+            assertNotSame(first, second);
+            assertEquals("Тема", second.getSubject());
+        }
+        verify(ao, times(1)).find(eq(MailItemEntity.class), any(Query.class));
+        assertEquals(1, service.getMailItemCacheStats().getHits());
+        assertEquals(1, service.getMailItemCacheStats().getMisses());
+    }
+
+    @Test
+    @DisplayName("getMailItemById: после deleteMailItemById письмо снова читается из БД")
+    void getMailItemById_afterDelete_invalidated() {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+                .thenReturn(new MailItemEntity[]{entity1}, new MailItemEntity[]{entity1}, new MailItemEntity[0]);
+
+        try (MockedStatic<ComponentAccessor> ca = mockStatic(ComponentAccessor.class)) {
+            stubComponentAccessor(ca);
+            assertNotNull(service.getMailItemById("550e8400-e29b-41d4-a716-446655440001"));
+            assertTrue(service.deleteMailItemById("550e8400-e29b-41d4-a716-446655440001"));
+
+            assertNull(service.getMailItemById("550e8400-e29b-41d4-a716-446655440001"));
+        }
+        assertEquals(0, service.getMailItemCacheStats().getSize());
+    }
+
+    // ===== Дедупликация тел =====
+
+    @Test
+    @DisplayName("createMailItem: большое тело сохраняется в MAIL_ITEM_BODY, строка содержимого хранит только хеш")
+    @SuppressWarnings("unchecked")
+    void createMailItem_largeBody_storedOnceByHash() {
+        String body = "<p>Шаблон уведомления Jira</p>".repeat(100);
+        Email email = mock(Email.class);
+        when(email.getBody()).thenReturn(body);
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+
+        service.createMailItem(email);
+
+        String hash = MailItemContentCodec.hash(body);
+        verify(content1).setBodyHash(hash);
+        verify(content1).setBody(null);
+        ArgumentCaptor<List<Map<String, Object>>> rows = ArgumentCaptor.forClass(List.class);
+        verify(ao).create(eq(MailItemBodyEntity.class), rows.capture());
+        assertEquals(1, rows.getValue().size());
+        assertEquals(hash, rows.getValue().get(0).get("HASH"));
+        assertEquals(body, rows.getValue().get(0).get("BODY"));
+    }
+
+    @Test
+    @DisplayName("createMailItem: тело с уже известным хешем повторно не сохраняется")
+    @SuppressWarnings("unchecked")
+    void createMailItem_knownBody_reusesExistingRow() {
+        String body = "<p>Шаблон уведомления Jira</p>".repeat(100);
+        Email email = mock(Email.class);
+        when(email.getBody()).thenReturn(body);
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(sharedBody1.getHash()).thenReturn(MailItemContentCodec.hash(body));
+        when(sharedBody1.getLastUsedAt()).thenReturn(System.currentTimeMillis());
+        when(ao.find(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(new MailItemBodyEntity[]{sharedBody1});
+
+        service.createMailItem(email);
+
+        verify(content1).setBodyHash(MailItemContentCodec.hash(body));
+        verify(ao, never()).create(eq(MailItemBodyEntity.class), any(List.class));
+        // Тело использовалось только что — LAST_USED_AT не переписывается на каждое письмо
+        verify(sharedBody1, never()).save();
+    }
+
+    @Test
+    @DisplayName("createMailItem: то же тело одновременно сохранил другой узел — отказ уникального HASH не прерывает запись")
+    @SuppressWarnings("unchecked")
+    void createMailItem_concurrentlyStoredBody_duplicateKeyIgnored() {
+        String body = "<p>Шаблон уведомления Jira</p>".repeat(100);
+        Email email = mock(Email.class);
+        when(email.getBody()).thenReturn(body);
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        doThrow(new RuntimeException("unique constraint U_MAIL_ITEM_BODY_HASH")).when(ao).create(eq(MailItemBodyEntity.class), any(List.class));
+        ArgumentCaptor<Query> recheck = ArgumentCaptor.forClass(Query.class);
+        when(ao.count(eq(MailItemBodyEntity.class), recheck.capture())).thenReturn(1);
+
+        assertDoesNotThrow(() -> service.createMailItem(email));
+
+        // Многострочный INSERT, затем повтор по одному телу
+        verify(ao, times(2)).create(eq(MailItemBodyEntity.class), any(List.class));
+        assertArrayEquals(new Object[]{MailItemContentCodec.hash(body)}, recheck.getValue().getWhereParams());
+        verify(content1).setBodyHash(MailItemContentCodec.hash(body));
+        verify(content1).save();
+    }
+
+    @Test
+    @DisplayName("createMailItem: отказ INSERT тела, которого нет в таблице, — ошибка не скрывается")
+    @SuppressWarnings("unchecked")
+    void createMailItem_bodyInsertFails_rethrows() {
+        Email email = mock(Email.class);
+        when(email.getBody()).thenReturn("<p>Шаблон уведомления Jira</p>".repeat(100));
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        doThrow(new RuntimeException("DB failure")).when(ao).create(eq(MailItemBodyEntity.class), any(List.class));
+        when(ao.count(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(0);
+
+        assertThrows(RuntimeException.class, () -> service.createMailItem(email));
+        verify(ao, never()).create(MailItemContentEntity.class);
+    }
+
+    @Test
+    @DisplayName("createMailItems: общие тела батча пишутся до его транзакции")
+    @SuppressWarnings("unchecked")
+    void createMailItems_sharedBodiesStoredBeforeTransaction() {
+        Email email = mock(Email.class);
+        when(email.getBody()).thenReturn("<p>Шаблон уведомления Jira</p>".repeat(100));
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenAnswer(inv -> {
+            MailItemEntity row = mock(MailItemEntity.class);
+            when(row.getUuid()).thenReturn((String) ((Query) inv.getArgument(1)).getWhereParams()[0]);
+            when(row.getID()).thenReturn(10);
+            return new MailItemEntity[]{row};
+        });
+
+        service.createMailItems(List.of(email));
+
+        InOrder order = inOrder(ao);
+        order.verify(ao).create(eq(MailItemBodyEntity.class), any(List.class));
+        order.verify(ao).executeInTransaction(any());
+    }
+
+    @Test
+    @DisplayName("getBodyHash: возвращает сохранённый хеш без чтения тела")
+    void getBodyHash_returnsStoredHash() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        when(content1.getBodyHash()).thenReturn("abc123");
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{content1});
+
+        assertEquals("abc123", service.getBodyHash("550e8400-e29b-41d4-a716-446655440001"));
+        verify(content1, never()).getBody();
+    }
+
+    @Test
+    @DisplayName("getBodyHash: письмо не найдено — IllegalArgumentException")
+    void getBodyHash_notFound_throwsIllegalArgument() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+
+        assertThrows(IllegalArgumentException.class, () -> service.getBodyHash("550e8400-e29b-41d4-a716-446655440001"));
+    }
+
     // ===== deleteMailItemById =====
 
     @Test
@@ -401,6 +1655,18 @@ class MailItemServiceTest {
         verify(ao).delete(entity1);
     }
 
+    @Test
+    @DisplayName("deleteMailItemById: вместе с письмом удаляется его строка содержимого")
+    void deleteMailItemById_found_deletesContent() {
+        when(entity1.getID()).thenReturn(7);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+                .thenReturn(new MailItemEntity[]{entity1});
+
+        service.deleteMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+        verify(ao).deleteWithSQL(MailItemContentEntity.class, "MAIL_ITEM_ID IN (?)", 7L);
+    }
+
     @Test
     @DisplayName("deleteMailItemById: несуществующий UUID — возвращает false без удаления")
     void deleteMailItemById_notFound_returnsFalse() {
@@ -425,23 +1691,98 @@ class MailItemServiceTest {
         verify(ao, never()).find(any(), any(Query.class));
     }
 
+    // ===== getChangeVersion =====
+
+    @Test
+    @DisplayName("getChangeVersion: увеличивается после createMailItem и deleteMailItemById")
+    void getChangeVersion_bumpedOnCreateAndDelete() {
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        long initial = service.getChangeVersion();
+
+        service.createMailItem(mock(Email.class));
+        long afterCreate = service.getChangeVersion();
+        service.deleteMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+        assertTrue(afterCreate > initial);
+        assertTrue(service.getChangeVersion() > afterCreate);
+    }
+
+    @Test
+    @DisplayName("getChangeVersion: не меняется, если письмо для удаления не найдено")
+    void getChangeVersion_unchangedWhenNothingDeleted() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+        long initial = service.getChangeVersion();
+
+        service.deleteMailItemById("550e8400-e29b-41d4-a716-446655440099");
+
+        assertEquals(initial, service.getChangeVersion());
+        verify(storeVersion, never()).bump();
+    }
+
+    // ===== getStoreVersion =====
+
+    @Test
+    @DisplayName("getStoreVersion: createMailItem и deleteMailItemById меняют общую версию внутри своих транзакций")
+    void getStoreVersion_bumpedInsideWriteTransactions() {
+        when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[]{entity1});
+        boolean[] inTransaction = {false};
+        doAnswer(inv -> {
+            inTransaction[0] = true;
+            try {
+                return ((TransactionCallback<?>) inv.getArgument(0)).doInTransaction();
+            } finally {
+                inTransaction[0] = false;
+            }
+        }).when(ao).executeInTransaction(any());
+        doAnswer(inv -> {
+            assertTrue(inTransaction[0], "версия меняется вне транзакции записи");
+            return null;
+        }).when(storeVersion).bump();
+
+        service.createMailItem(mock(Email.class));
+        service.deleteMailItemById("550e8400-e29b-41d4-a716-446655440001");
+
+        verify(storeVersion, times(2)).bump();
+    }
+
+    @Test
+    @DisplayName("getStoreVersion: новая версия хранилища (запись другого узла) сбрасывает кэш ответов этого узла")
+    void getStoreVersion_changed_bumpsChangeVersion() {
+        when(storeVersion.current()).thenReturn("a", "a", "b");
+
+        assertEquals("a", service.getStoreVersion());
+        long seen = service.getChangeVersion();
+        assertEquals("a", service.getStoreVersion());
+        assertEquals(seen, service.getChangeVersion());
+        assertEquals("b", service.getStoreVersion());
+
+        assertTrue(service.getChangeVersion() > seen);
+    }
+
     // ===== deleteAllMailItemsSafe =====
 
     @Test
-    @DisplayName("deleteAllMailItemsSafe: при наличии записей — удаляет батчами и возвращает true")
+    @DisplayName("deleteAllMailItemsSafe: при наличии записей — удаляет диапазонами ID через deleteWithSQL и возвращает true")
     void deleteAllMailItemsSafe_withItems_deletesAndReturnsTrue() {
-        // Первый батч возвращает две записи, второй — пустой (цикл завершён)
-        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        // Первый запрос — верхняя граница ID, второй — диапазон из двух записей, третий — пустой (цикл завершён)
+        when(entity1.getID()).thenReturn(3);
+        when(entity2.getID()).thenReturn(8);
         when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+                .thenReturn(new MailItemEntity[]{entity2})
                 .thenReturn(new MailItemEntity[]{entity1, entity2})
                 .thenReturn(new MailItemEntity[0]);
+        // lenient: deleteWithSQL вызывается и для других таблиц с иными аргументами
+        lenient().when(ao.deleteWithSQL(MailItemEntity.class, "ID >= ? AND ID <= ?", 3L, 8L)).thenReturn(2);
 
         assertTrue(service.deleteAllMailItemsSafe());
-        verify(ao).delete(entity1, entity2);
 
-        // Убеждаемся, что запрос использует limit(200) — защита от загрузки всей таблицы
-        verify(ao, atLeastOnce()).find(eq(MailItemEntity.class), queryCaptor.capture());
-        assertEquals(200, queryCaptor.getValue().getLimit());
+        verify(ao).deleteWithSQL(MailItemContentEntity.class, "MAIL_ITEM_ID >= ? AND MAIL_ITEM_ID <= ?", 3L, 8L);
+        verify(ao).deleteWithSQL(MailItemTokenEntity.class, "MAIL_ITEM_ID >= ? AND MAIL_ITEM_ID <= ?", 3L, 8L);
+        verify(ao, never()).delete(any(MailItemEntity.class));
     }
 
     @Test
@@ -452,6 +1793,104 @@ class MailItemServiceTest {
 
         assertFalse(service.deleteAllMailItemsSafe());
         verify(ao, never()).delete(any(MailItemEntity.class));
+        verify(ao, never()).executeInTransaction(any());
+    }
+
+    @Test
+    @DisplayName("deleteAllMailItems: каждый диапазон — отдельная транзакция, прогресс сообщается после каждого")
+    void deleteAllMailItems_reportsProgressPerChunk() {
+        when(entity1.getID()).thenReturn(1);
+        when(entity2.getID()).thenReturn(2);
+        when(entity3.getID()).thenReturn(3);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+                .thenReturn(new MailItemEntity[]{entity3})
+                .thenReturn(new MailItemEntity[]{entity1, entity2})
+                .thenReturn(new MailItemEntity[]{entity3})
+                .thenReturn(new MailItemEntity[0]);
+        lenient().when(ao.deleteWithSQL(eq(MailItemEntity.class), anyString(), any(), any())).thenReturn(2, 1);
+        List<Long> progress = new ArrayList<>();
+
+        assertEquals(3L, service.deleteAllMailItems(progress::add));
+
+        assertEquals(List.of(2L, 3L), progress);
+        verify(ao, times(2)).executeInTransaction(any());
+    }
+
+    @Test
+    @DisplayName("deleteAllMailItems: счётчик писем уменьшается после фиксации транзакции диапазона, а не внутри неё")
+    void deleteAllMailItems_adjustsCountAfterCommit() {
+        when(ao.count(MailItemEntity.class)).thenReturn(2);
+        assertEquals(2, service.countMailItems());
+        when(entity1.getID()).thenReturn(1);
+        when(entity2.getID()).thenReturn(2);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+                .thenReturn(new MailItemEntity[]{entity2})
+                .thenReturn(new MailItemEntity[]{entity1, entity2})
+                .thenReturn(new MailItemEntity[0]);
+        lenient().when(ao.deleteWithSQL(eq(MailItemEntity.class), anyString(), any(), any())).thenReturn(2);
+        // Транзакция диапазона фиксируется, только если колбэк завершился; внутри неё счётчик ещё прежний
+        doAnswer(inv -> {
+            Object rows = ((TransactionCallback<?>) inv.getArgument(0)).doInTransaction();
+            assertEquals(2, service.countMailItems());
+            return rows;
+        }).when(ao).executeInTransaction(any());
+
+        service.deleteAllMailItems(deleted -> {});
+
+        assertEquals(0, service.countMailItems());
+    }
+
+    @Test
+    @DisplayName("deleteAllMailItems: ход удаления доступен через getDeleteProgress во время и после удаления")
+    void deleteAllMailItems_exposesProgress() {
+        assertNull(service.getDeleteProgress());
+        when(entity1.getID()).thenReturn(1);
+        when(entity2.getID()).thenReturn(2);
+        when(entity3.getID()).thenReturn(3);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+                .thenReturn(new MailItemEntity[]{entity3})
+                .thenReturn(new MailItemEntity[]{entity1, entity2})
+                .thenReturn(new MailItemEntity[]{entity3})
+                .thenReturn(new MailItemEntity[0]);
+        lenient().when(ao.deleteWithSQL(eq(MailItemEntity.class), anyString(), any(), any())).thenReturn(2, 1);
+        List<MailItemDeleteProgress> seen = new ArrayList<>();
+
+        service.deleteAllMailItems(deleted -> seen.add(service.getDeleteProgress()));
+
+        assertEquals(MailItemDeleteProgress.State.RUNNING, seen.get(0).getState());
+        assertEquals(2L, seen.get(0).getDeleted());
+        assertEquals(2L, seen.get(0).getLastId());
+        assertEquals(3L, seen.get(0).getMaxId());
+        MailItemDeleteProgress done = service.getDeleteProgress();
+        assertEquals(MailItemDeleteProgress.State.DONE, done.getState());
+        assertEquals(3L, done.getDeleted());
+        assertTrue(done.getFinishedAt() >= done.getStartedAt());
+    }
+
+    @Test
+    @DisplayName("deleteAllMailItems: ошибка удаления отмечается в ходе удаления как failed")
+    void deleteAllMailItems_failure_marksProgressFailed() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenThrow(new RuntimeException("DB failure"));
+
+        assertThrows(RuntimeException.class, () -> service.deleteAllMailItems(deleted -> {}));
+
+        assertEquals(MailItemDeleteProgress.State.FAILED, service.getDeleteProgress().getState());
+    }
+
+    @Test
+    @DisplayName("deleteAllMailItems: письма новее зафиксированной в начале границы ID не удаляются")
+    void deleteAllMailItems_boundsRangeByMaxIdAtStart() {
+        when(entity1.getID()).thenReturn(42);
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture()))
+                .thenReturn(new MailItemEntity[]{entity1})
+                .thenReturn(new MailItemEntity[0]);
+
+        service.deleteAllMailItems(deleted -> {});
+
+        Query chunkQuery = queryCaptor.getAllValues().get(1);
+        assertEquals("ID > ? AND ID <= ?", chunkQuery.getWhereClause());
+        assertArrayEquals(new Object[]{0L, 42L}, chunkQuery.getWhereParams());
     }
 
     @Test
@@ -472,11 +1911,13 @@ class MailItemServiceTest {
     void loadTestData_creates5EntitiesAndSavesEach() {
         when(ao.count(MailItemEntity.class)).thenReturn(0);
         when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
 
         assertTrue(service.loadTestData());
 
         verify(ao, times(5)).create(MailItemEntity.class);
         verify(entity1, times(5)).save();
+        verify(content1, times(5)).save();
     }
 
     @Test
@@ -484,25 +1925,27 @@ class MailItemServiceTest {
     void loadTestData_numberingStartsFromCurrentCount() {
         when(ao.count(MailItemEntity.class)).thenReturn(3);
         when(ao.create(MailItemEntity.class)).thenReturn(entity1);
+        when(ao.create(MailItemContentEntity.class)).thenReturn(content1);
 
         service.loadTestData();
 
         verify(entity1).setSubject("Тестовое письмо #4");
     }
 
-    // ===== deleteAllMailItemsSafe — limit =====
+    // ===== deleteAllMailItemsSafe — размер диапазона =====
 
     @Test
-    @DisplayName("deleteAllMailItemsSafe: запрос к БД использует limit(200)")
-    void deleteAllMailItemsSafe_usesLimitOf200InBatchQuery() {
+    @DisplayName("deleteAllMailItemsSafe: диапазон удаления ограничен 500 записями")
+    void deleteAllMailItemsSafe_usesBoundedChunkQuery() {
+        when(entity1.getID()).thenReturn(10);
         ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
-        when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture()))
+                .thenReturn(new MailItemEntity[]{entity1})
                 .thenReturn(new MailItemEntity[0]);
 
         service.deleteAllMailItemsSafe();
 
-        verify(ao).find(eq(MailItemEntity.class), queryCaptor.capture());
-        assertEquals(200, queryCaptor.getValue().getLimit());
+        assertEquals(500, queryCaptor.getAllValues().get(1).getLimit());
     }
 
     // ===== getAllMailItemsAsJson — order =====
@@ -510,13 +1953,13 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: запрос к БД использует ORDER BY ID DESC")
     void getAllMailItemsAsJson_usesOrderByIdDesc() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема", null);
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
         ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
         when(ao.find(eq(MailItemEntity.class), queryCaptor.capture()))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        service.getAllMailItemsAsJson(null, 0, 10, 0, "desc");
+        service.getAllMailItemsAsJson(null, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS);
 
         String orderClause = queryCaptor.getValue().getOrderClause();
         assertNotNull(orderClause);
@@ -527,13 +1970,13 @@ class MailItemServiceTest {
     @Test
     @DisplayName("getAllMailItemsAsJson: sortOrder=asc — запрос к БД использует ORDER BY ID ASC")
     void getAllMailItemsAsJson_sortOrderAsc_usesAscOrder() throws JSONException {
-        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема", null);
-        when(ao.count(eq(MailItemEntity.class), any(Query.class))).thenReturn(1);
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
         ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
         when(ao.find(eq(MailItemEntity.class), queryCaptor.capture()))
                 .thenReturn(new MailItemEntity[]{entity1});
 
-        service.getAllMailItemsAsJson(null, 0, 10, 0, "asc");
+        service.getAllMailItemsAsJson(null, 0, 10, 0, "asc", null, true, MailItemService.LIST_FIELDS);
 
         String orderClause = queryCaptor.getValue().getOrderClause();
         assertNotNull(orderClause);
@@ -541,6 +1984,99 @@ class MailItemServiceTest {
                 "Expected ORDER BY ID ASC but got: " + orderClause);
     }
 
+    // ===== getMailItemsPageAsJson — keyset-пагинация =====
+
+    @Test
+    @DisplayName("getMailItemsPageAsJson: курсор «до ID» — WHERE ID < ?, ORDER BY ID DESC, limit+1 для проверки продолжения")
+    void getMailItemsPageAsJson_beforeCursor_usesSeekConditionInsteadOfOffset() throws JSONException {
+        stubEntity(entity1, "uuid-9", "a@t.com", "x@t.com", "Тема 9");
+        stubEntity(entity2, "uuid-8", "b@t.com", "y@t.com", "Тема 8");
+        stubEntity(entity3, "uuid-7", "c@t.com", "z@t.com", "Тема 7");
+        lenient().when(entity1.getID()).thenReturn(9);
+        lenient().when(entity2.getID()).thenReturn(8);
+        lenient().when(entity3.getID()).thenReturn(7);
+        when(ao.count(MailItemEntity.class)).thenReturn(20);
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture()))
+                .thenReturn(new MailItemEntity[]{entity1, entity2, entity3});
+
+        String json = service.getMailItemsPageAsJson(null, cursor("b:10"), 2, 0, "desc", null, true, MailItemService.LIST_FIELDS);
+
+        Query query = queryCaptor.getValue();
+        assertTrue(query.getWhereClause().contains("ID < ?"), "Ожидалось keyset-условие, было: " + query.getWhereClause());
+        assertTrue(query.getOrderClause().toUpperCase().contains("ID DESC"));
+        assertEquals(3, query.getLimit());
+        assertEquals(0, query.getOffset());
+
+        JSONObject result = new JSONObject(json);
+        assertEquals(2, result.getJSONArray("items").length());
+        assertEquals("uuid-9", result.getJSONArray("items").getJSONObject(0).getString("id"));
+        assertEquals(cursor("b:8"), result.getString("nextCursor"));
+        assertEquals(cursor("a:9"), result.getString("prevCursor"));
+    }
+
+    @Test
+    @DisplayName("getMailItemsPageAsJson: листание назад — выборка по возрастанию, страница разворачивается в порядок sortOrder")
+    void getMailItemsPageAsJson_afterCursorWithDescOrder_reversesPage() throws JSONException {
+        stubEntity(entity1, "uuid-11", "a@t.com", "x@t.com", "Тема 11");
+        stubEntity(entity2, "uuid-12", "b@t.com", "y@t.com", "Тема 12");
+        lenient().when(entity1.getID()).thenReturn(11);
+        lenient().when(entity2.getID()).thenReturn(12);
+        when(ao.count(MailItemEntity.class)).thenReturn(20);
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture()))
+                .thenReturn(new MailItemEntity[]{entity1, entity2});
+
+        String json = service.getMailItemsPageAsJson(null, cursor("a:10"), 2, 0, "desc", null, true, MailItemService.LIST_FIELDS);
+
+        assertTrue(queryCaptor.getValue().getOrderClause().toUpperCase().contains("ID ASC"));
+        JSONObject result = new JSONObject(json);
+        assertEquals("uuid-12", result.getJSONArray("items").getJSONObject(0).getString("id"));
+        assertEquals("uuid-11", result.getJSONArray("items").getJSONObject(1).getString("id"));
+        // Лишней записи нет — это первая страница, курсора назад быть не должно
+        assertFalse(result.has("prevCursor"));
+        assertEquals(cursor("b:11"), result.getString("nextCursor"));
+    }
+
+    @Test
+    @DisplayName("getMailItemsPageAsJson: последняя страница без курсора — nextCursor и prevCursor отсутствуют")
+    void getMailItemsPageAsJson_singlePage_noCursors() throws JSONException {
+        stubEntity(entity1, "uuid-1", "a@t.com", "x@t.com", "Тема");
+        lenient().when(entity1.getID()).thenReturn(1);
+        when(ao.count(MailItemEntity.class)).thenReturn(1);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+                .thenReturn(new MailItemEntity[]{entity1});
+
+        JSONObject result = new JSONObject(service.getMailItemsPageAsJson(null, null, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(1, result.getJSONArray("items").length());
+        assertFalse(result.has("nextCursor"));
+        assertFalse(result.has("prevCursor"));
+    }
+
+    @Test
+    @DisplayName("getMailItemsPageAsJson: повреждённый курсор — IllegalArgumentException без обращения к БД")
+    void getMailItemsPageAsJson_invalidCursor_throwsIllegalArgument() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.getMailItemsPageAsJson(null, "not-a-cursor!", 10, 0, "desc", null, true, MailItemService.LIST_FIELDS));
+        verifyNoInteractions(ao);
+    }
+
+    @Test
+    @DisplayName("getAllMailItemsAsJson: полная страница в offset-режиме содержит nextCursor для перехода в keyset-режим")
+    void getAllMailItemsAsJson_fullPage_containsNextCursor() throws JSONException {
+        stubEntity(entity1, "uuid-5", "a@t.com", "x@t.com", "Тема");
+        lenient().when(entity1.getID()).thenReturn(5);
+        when(ao.count(MailItemEntity.class)).thenReturn(3);
+        when(ao.find(eq(MailItemEntity.class), any(Query.class)))
+                .thenReturn(new MailItemEntity[]{entity1});
+
+        JSONObject result = new JSONObject(service.getAllMailItemsAsJson(null, 0, 1, 0, "desc", null, true, MailItemService.LIST_FIELDS));
+
+        assertEquals(cursor("b:5"), result.getString("nextCursor"));
+        assertFalse(result.has("prevCursor"));
+    }
+
     // ===== createMailItemFromJson =====
 
     @Test
@@ -612,17 +2148,64 @@ class MailItemServiceTest {
         ca.when(() -> ComponentAccessor.getComponentOfType(JiraApplicationContext.class)).thenReturn(ctx);
     }
 
-    // ===== Вспомогательный метод =====
+    // ===== Вспомогательные методы =====
+
+    /**
+     * Имитирует индекс слов: {@code ao.stream} по {@code MAIL_ITEM_TOKEN} отдаёт ID писем,
+     * чьё слово начинается с префикса из условия {@code TOKEN LIKE 'префикс%'} или равно слову из {@code TOKEN = ?}.
+     * Отдаёт не больше строк, чем {@code LIMIT} запроса. Индекс считается заполненным фоновой задачей.
+     */
+    @SuppressWarnings("unchecked")
+    private void stubTokenIndex(Map<String, long[]> index) {
+        tokenIndex.markBackfilled();
+        doAnswer(inv -> {
+            Query query = inv.getArgument(1);
+            String pattern = (String) query.getWhereParams()[0];
+            boolean prefix = pattern.endsWith("%");
+            String word = pattern.replace("%", "");
+            AtomicInteger left = new AtomicInteger(query.getLimit() < 0 ? Integer.MAX_VALUE : query.getLimit());
+            EntityStreamCallback<MailItemTokenEntity, Integer> callback = inv.getArgument(2);
+            index.forEach((token, ids) -> {
+                if (prefix ? !token.startsWith(word) : !token.equals(word)) return;
+                for (long id : ids) {
+                    if (left.getAndDecrement() <= 0) return;
+                    MailItemTokenEntity row = mock(MailItemTokenEntity.class);
+                    when(row.getMailItemId()).thenReturn(id);
+                    callback.onRowRead(row);
+                }
+            });
+            return null;
+        }).when(ao).stream(eq(MailItemTokenEntity.class), any(Query.class), any(EntityStreamCallback.class));
+    }
+
+    /** Отдаёт письма как ID, подходящие под SQL-фильтр: {@code ao.stream} по {@code MAIL_ITEM_TABLE}. */
+    private void stubFilteredIds(MailItemEntity... rows) {
+        doAnswer(inv -> {
+            EntityStreamCallback<MailItemEntity, Integer> callback = inv.getArgument(2);
+            for (MailItemEntity row : rows) callback.onRowRead(row);
+            return null;
+        }).when(ao).stream(eq(MailItemEntity.class), any(Query.class), any(EntityStreamCallback.class));
+    }
+
+    /** Запрос, которым сервис отобрал ID писем по SQL-фильтру. */
+    private Query filteredIdsQuery() {
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(ao).stream(eq(MailItemEntity.class), queryCaptor.capture(), any(EntityStreamCallback.class));
+        return queryCaptor.getValue();
+    }
+
+    /** Кодирует курсор так же, как сервис: base64url без паддинга. */
+    private static String cursor(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
 
-    private void stubEntity(MailItemEntity entity, String uuid, String from, String to,
-                            String subject, String body) {
+    private void stubEntity(MailItemEntity entity, String uuid, String from, String to, String subject) {
         lenient().when(entity.getUuid()).thenReturn(uuid);
         lenient().when(entity.getFrom()).thenReturn(from);
         lenient().when(entity.getTo()).thenReturn(to);
         lenient().when(entity.getCc()).thenReturn(null);
         lenient().when(entity.getBcc()).thenReturn(null);
         lenient().when(entity.getSubject()).thenReturn(subject);
-        lenient().when(entity.getBody()).thenReturn(body);
         lenient().when(entity.getAttachmentsName()).thenReturn(null);
         lenient().when(entity.getCreatedAt()).thenReturn(null);
     }
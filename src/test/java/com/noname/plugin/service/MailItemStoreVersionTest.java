@@ -0,0 +1,74 @@
+package com.noname.plugin.service;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.noname.plugin.ao.MailItemStateEntity;
+import net.java.ao.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MailItemStoreVersion — общая версия хранилища в MAIL_ITEM_STATE")
+class MailItemStoreVersionTest {
+
+    @Mock private ActiveObjects ao;
+    @Mock private MailItemStateEntity state;
+
+    private MailItemStoreVersion storeVersion;
+
+    @BeforeEach
+    void setUp() {
+        storeVersion = new MailItemStoreVersion(ao);
+    }
+
+    @Test
+    @DisplayName("current: возвращает версию из строки MAIL_ITEM_STATE")
+    void current_returnsStoredVersion() {
+        when(ao.find(eq(MailItemStateEntity.class), any(Query.class))).thenReturn(new MailItemStateEntity[]{state});
+        when(state.getVersion()).thenReturn("v1");
+
+        assertEquals("v1", storeVersion.current());
+    }
+
+    @Test
+    @DisplayName("current: без строки MAIL_ITEM_STATE — null")
+    void current_noRow_returnsNull() {
+        when(ao.find(eq(MailItemStateEntity.class), any(Query.class))).thenReturn(new MailItemStateEntity[0]);
+
+        assertNull(storeVersion.current());
+    }
+
+    @Test
+    @DisplayName("bump: каждый вызов записывает новое значение версии")
+    void bump_writesNewVersionEachTime() {
+        when(ao.find(eq(MailItemStateEntity.class), any(Query.class))).thenReturn(new MailItemStateEntity[]{state});
+
+        storeVersion.bump();
+        storeVersion.bump();
+
+        ArgumentCaptor<String> versions = ArgumentCaptor.forClass(String.class);
+        verify(state, times(2)).setVersion(versions.capture());
+        verify(state, times(2)).save();
+        assertNotEquals(versions.getAllValues().get(0), versions.getAllValues().get(1));
+    }
+
+    @Test
+    @DisplayName("bump: без строки MAIL_ITEM_STATE ничего не создаёт")
+    void bump_noRow_doesNothing() {
+        when(ao.find(eq(MailItemStateEntity.class), any(Query.class))).thenReturn(new MailItemStateEntity[0]);
+
+        storeVersion.bump();
+
+        verify(ao).find(eq(MailItemStateEntity.class), any(Query.class));
+        verifyNoMoreInteractions(ao);
+    }
+}
@@ -0,0 +1,144 @@
+package com.noname.plugin.service;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.noname.plugin.ao.MailItemBodyEntity;
+import com.noname.plugin.ao.MailItemContentEntity;
+import com.noname.plugin.ao.MailItemEntity;
+import com.noname.plugin.ao.MailItemTokenEntity;
+import net.java.ao.EntityStreamCallback;
+import net.java.ao.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MailItemTokenIndex — индекс слов MAIL_ITEM_TOKEN")
+class MailItemTokenIndexTest {
+
+    @Mock private ActiveObjects ao;
+    @Mock private MailItemEntity entity1;
+    @Mock private MailItemEntity entity2;
+    @Mock private MailItemContentEntity content1;
+
+    private MailItemTokenIndex tokenIndex;
+
+    @BeforeEach
+    void setUp() {
+        tokenIndex = new MailItemTokenIndex(ao, new MailItemBodyStore(ao));
+        // Общих тел по умолчанию нет
+        lenient().when(ao.find(eq(MailItemBodyEntity.class), any(Query.class))).thenReturn(new MailItemBodyEntity[0]);
+    }
+
+    // ===== index =====
+
+    @Test
+    @DisplayName("index: слова всех писем записываются одним пакетным INSERT")
+    @SuppressWarnings("unchecked")
+    void index_writesAllMailItemsInOneInsert() {
+        tokenIndex.index(Map.of(4L, Set.of("alice"), 6L, Set.of("bob")));
+
+        ArgumentCaptor<List<Map<String, Object>>> rows = ArgumentCaptor.forClass(List.class);
+        verify(ao).create(eq(MailItemTokenEntity.class), rows.capture());
+        assertEquals(2, rows.getValue().size());
+        assertTrue(rows.getValue().contains(Map.of("TOKEN", "alice", "MAIL_ITEM_ID", 4L)));
+        assertTrue(rows.getValue().contains(Map.of("TOKEN", "bob", "MAIL_ITEM_ID", 6L)));
+    }
+
+    @Test
+    @DisplayName("index: письма без слов — INSERT не выполняется")
+    void index_noTokens_skipsInsert() {
+        tokenIndex.index(Map.of(4L, Set.of()));
+
+        verifyNoInteractions(ao);
+    }
+
+    // ===== backfill =====
+
+    @Test
+    @DisplayName("backfill: индексирует письма батча по BODY_TEXT или телу, заменяет их прежние слова и помечает письма")
+    @SuppressWarnings("unchecked")
+    void backfill_indexesBatchAndMarksEntities() {
+        when(entity1.getID()).thenReturn(4);
+        when(entity1.getFrom()).thenReturn("alice@t.com");
+        when(entity2.getID()).thenReturn(6);
+        when(entity2.getSubject()).thenReturn("Тема");
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(ao.find(eq(MailItemEntity.class), queryCaptor.capture())).thenReturn(new MailItemEntity[]{entity1, entity2});
+        MailItemContentEntity withText = mock(MailItemContentEntity.class);
+        when(withText.getMailItemId()).thenReturn(4L);
+        when(withText.getBodyText()).thenReturn("готовый текст");
+        when(content1.getMailItemId()).thenReturn(6L);
+        when(content1.getBody()).thenReturn("<p>Разметка тела</p>");
+        when(ao.find(eq(MailItemContentEntity.class), any(Query.class))).thenReturn(new MailItemContentEntity[]{withText, content1});
+
+        assertEquals(6L, tokenIndex.backfill(0, 200));
+
+        assertTrue(queryCaptor.getValue().getWhereClause().contains("TOKENS_INDEXED IS NULL"));
+        verify(ao).deleteWithSQL(MailItemTokenEntity.class, "MAIL_ITEM_ID IN (?, ?)", 4L, 6L);
+        ArgumentCaptor<List<Map<String, Object>>> rowsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(ao).create(eq(MailItemTokenEntity.class), rowsCaptor.capture());
+        assertTrue(rowsCaptor.getValue().contains(Map.of("TOKEN", "alice", "MAIL_ITEM_ID", 4L)));
+        assertTrue(rowsCaptor.getValue().contains(Map.of("TOKEN", "готовый", "MAIL_ITEM_ID", 4L)));
+        assertTrue(rowsCaptor.getValue().contains(Map.of("TOKEN", "разметка", "MAIL_ITEM_ID", 6L)));
+        verify(entity1).setTokensIndexed(true);
+        verify(entity2).setTokensIndexed(true);
+        verify(entity2).save();
+    }
+
+    @Test
+    @DisplayName("backfill: непроиндексированных писем нет — возвращает afterId без записи")
+    void backfill_nothingLeft_returnsAfterId() {
+        when(ao.find(eq(MailItemEntity.class), any(Query.class))).thenReturn(new MailItemEntity[0]);
+
+        assertEquals(42L, tokenIndex.backfill(42, 200));
+        verify(ao, only()).find(eq(MailItemEntity.class), any(Query.class));
+    }
+
+    // ===== findMailItemIds =====
+
+    @Test
+    @DisplayName("findMailItemIds: пересекает письма всех слов; короткое слово сравнивается целиком")
+    @SuppressWarnings("unchecked")
+    void findMailItemIds_intersectsWords() {
+        doAnswer(inv -> {
+            Query query = inv.getArgument(1);
+            long[] ids = "TOKEN LIKE ?".equals(query.getWhereClause()) ? new long[]{3, 5, 5, 9} : new long[]{5, 7, 9};
+            EntityStreamCallback<MailItemTokenEntity, Integer> callback = inv.getArgument(2);
+            for (long id : ids) {
+                MailItemTokenEntity row = mock(MailItemTokenEntity.class);
+                when(row.getMailItemId()).thenReturn(id);
+                callback.onRowRead(row);
+            }
+            return null;
+        }).when(ao).stream(eq(MailItemTokenEntity.class), any(Query.class), any(EntityStreamCallback.class));
+
+        assertArrayEquals(new long[]{5, 9}, tokenIndex.findMailItemIds(List.of("qa", "lorem"), 0));
+    }
+
+    @Test
+    @DisplayName("findMailItemIds: слово встречается чаще лимита — null, запрос выполняется SQL-поиском")
+    @SuppressWarnings("unchecked")
+    void findMailItemIds_tooFrequentWord_returnsNull() {
+        MailItemTokenEntity row = mock(MailItemTokenEntity.class);
+        doAnswer(inv -> {
+            EntityStreamCallback<MailItemTokenEntity, Integer> callback = inv.getArgument(2);
+            for (int i = 0; i < ((Query) inv.getArgument(1)).getLimit(); i++) callback.onRowRead(row);
+            return null;
+        }).when(ao).stream(eq(MailItemTokenEntity.class), any(Query.class), any(EntityStreamCallback.class));
+
+        assertNull(tokenIndex.findMailItemIds(List.of("jira"), 0));
+    }
+}
@@ -0,0 +1,47 @@
+package com.noname.plugin.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("MailItemTokenizer — разбиение письма на слова для индекса поиска")
+class MailItemTokenizerTest {
+
+    @Test
+    @DisplayName("tokenize: адрес разбивается по @ и точкам, регистр приводится к нижнему")
+    void tokenize_emailAddress_splitsOnPunctuation() {
+        assertEquals(List.of("alice", "example", "com"), List.copyOf(MailItemTokenizer.tokenize("Alice@Example.COM")));
+    }
+
+    @Test
+    @DisplayName("tokenize: слова короче двух символов отбрасываются")
+    void tokenize_shortWords_skipped() {
+        assertEquals(Set.of("ok"), MailItemTokenizer.tokenize("a b ok ."));
+        assertTrue(MailItemTokenizer.tokenize("a").isEmpty());
+    }
+
+    @Test
+    @DisplayName("tokenize: кириллица и цифры считаются частью слова")
+    void tokenize_cyrillicAndDigits_kept() {
+        assertEquals(List.of("отчёт", "q1", "2024"), List.copyOf(MailItemTokenizer.tokenize("Отчёт Q1-2024")));
+    }
+
+    @Test
+    @DisplayName("tokenize: слово длиннее MAX_TOKEN_LENGTH обрезается")
+    void tokenize_longWord_truncated() {
+        String longWord = "x".repeat(MailItemTokenizer.MAX_TOKEN_LENGTH + 10);
+        Set<String> tokens = MailItemTokenizer.tokenize(longWord);
+        assertEquals(MailItemTokenizer.MAX_TOKEN_LENGTH, tokens.iterator().next().length());
+    }
+
+    @Test
+    @DisplayName("tokenizeMail: HTML-разметка тела не попадает в индекс")
+    void tokenizeMail_htmlBody_indexesTextOnly() {
+        Set<String> tokens = MailItemTokenizer.tokenizeMail(null, null, null, "<p class=\"lead\">Hello <b>world</b></p>");
+        assertEquals(Set.of("hello", "world"), tokens);
+    }
+}
@@ -0,0 +1,192 @@
+package com.noname.plugin.service;
+
+import com.atlassian.jira.mail.Email;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MailItemWriteBehindQueue — отложенная запись писем")
+class MailItemWriteBehindQueueTest {
+
+    @Mock private MailItemService mailItemService;
+
+    private MailItemWriteBehindQueue queue;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (queue != null) queue.destroy();
+    }
+
+    @Test
+    @DisplayName("add: режим выключен — письмо пишется синхронно через createMailItem")
+    void add_disabled_writesSynchronously() {
+        queue = new MailItemWriteBehindQueue(mailItemService, false, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK);
+        Email email = mock(Email.class);
+        when(mailItemService.createMailItem(email)).thenReturn("uuid-1");
+
+        assertEquals("uuid-1", queue.add(email));
+        verify(mailItemService, never()).createMailItems(anyMap());
+    }
+
+    @Test
+    @DisplayName("add + flush: UUID выдаётся сразу, письма записываются пакетно с теми же UUID")
+    @SuppressWarnings("unchecked")
+    void add_enabled_writesBatchWithAssignedUuids() {
+        queue = new MailItemWriteBehindQueue(mailItemService, true, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK);
+        queue.afterPropertiesSet();
+
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) uuids.add(queue.add(mock(Email.class)));
+        queue.flush();
+
+        ArgumentCaptor<Map<String, Email>> written = ArgumentCaptor.forClass(Map.class);
+        verify(mailItemService, atLeastOnce()).createMailItems(written.capture());
+        List<String> writtenUuids = new ArrayList<>();
+        written.getAllValues().forEach(batch -> writtenUuids.addAll(batch.keySet()));
+        assertEquals(uuids, writtenUuids);
+        assertEquals(0, queue.getPendingCount());
+        verify(mailItemService, never()).createMailItem(any(Email.class));
+    }
+
+    @Test
+    @DisplayName("add: политика DROP — при заполненной очереди письмо отбрасывается без блокировки и UUID не выдаётся")
+    void add_dropPolicy_queueFull_dropsMail() {
+        // Фоновый поток не запущен — очередь не разгружается
+        queue = new MailItemWriteBehindQueue(mailItemService, true, 1, MailItemWriteBehindQueue.OverflowPolicy.DROP);
+
+        assertNotNull(queue.add(mock(Email.class)));
+        assertNull(queue.add(mock(Email.class)));
+
+        assertEquals(1, queue.getPendingCount());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    @DisplayName("flush: фоновый поток умер — возвращает false, новые письма пишутся синхронно")
+    void flush_writerDied_returnsFalseAndWritesSynchronously() {
+        queue = new MailItemWriteBehindQueue(mailItemService, true, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK);
+        doThrow(new AssertionError("writer crash")).when(mailItemService).createMailItems(anyMap());
+        queue.afterPropertiesSet();
+        queue.add(mock(Email.class));
+
+        assertFalse(queue.flush(5_000));
+
+        Email email = mock(Email.class);
+        when(mailItemService.createMailItem(email)).thenReturn("uuid-sync");
+        assertEquals("uuid-sync", queue.add(email));
+    }
+
+    @Test
+    @DisplayName("flush: запись не успела за таймаут — возвращает false, не дожидаясь её")
+    void flush_slowWrite_timesOut() throws InterruptedException {
+        queue = new MailItemWriteBehindQueue(mailItemService, true, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            release.await();
+            return null;
+        }).when(mailItemService).createMailItems(anyMap());
+        queue.afterPropertiesSet();
+        queue.add(mock(Email.class));
+
+        assertFalse(queue.flush(50));
+
+        release.countDown();
+        assertTrue(queue.flush(5_000));
+    }
+
+    @Test
+    @DisplayName("flush: письмо не удалось записать даже по одному — возвращает false один раз")
+    void flush_writeFailed_returnsFalseOnce() {
+        queue = new MailItemWriteBehindQueue(mailItemService, true, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK);
+        doThrow(new RuntimeException("DB failure")).when(mailItemService).createMailItems(anyMap());
+        queue.afterPropertiesSet();
+        queue.add(mock(Email.class));
+
+        assertFalse(queue.flush(5_000));
+        assertEquals(1, queue.getFailedCount());
+        // О сбое уже сообщено — следующий flush без новых писем успешен
+        assertTrue(queue.flush(5_000));
+    }
+
+    @Test
+    @DisplayName("parseOverflowPolicy: регистр не важен, опечатка и пустое значение — BLOCK без исключения")
+    void parseOverflowPolicy_unknownValue_fallsBackToBlock() {
+        assertEquals(MailItemWriteBehindQueue.OverflowPolicy.DROP, MailItemWriteBehindQueue.parseOverflowPolicy(" Drop "));
+        assertEquals(MailItemWriteBehindQueue.OverflowPolicy.BLOCK, MailItemWriteBehindQueue.parseOverflowPolicy("dorp"));
+        assertEquals(MailItemWriteBehindQueue.OverflowPolicy.BLOCK, MailItemWriteBehindQueue.parseOverflowPolicy(null));
+    }
+
+    @Test
+    @DisplayName("destroy: дописывает оставшиеся в очереди письма при отключении плагина")
+    void destroy_flushesPendingMails() throws InterruptedException {
+        queue = new MailItemWriteBehindQueue(mailItemService, true, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK);
+        String uuid = queue.add(mock(Email.class));
+
+        queue.destroy();
+
+        verify(mailItemService).createMailItems(argThat((Map<String, Email> batch) -> batch.containsKey(uuid)));
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    @DisplayName("destroy: фоновый поток дописывает начатый батч без прерывания, письмо пишется один раз")
+    void destroy_writerInsideBatch_finishesWithoutInterrupt() throws Exception {
+        queue = new MailItemWriteBehindQueue(mailItemService, true, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            writing.countDown();
+            release.await();
+            return null;
+        }).when(mailItemService).createMailItems(anyMap());
+        queue.afterPropertiesSet();
+        queue.add(mock(Email.class));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        Thread stopper = new Thread(() -> {
+            try {
+                queue.destroy();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        stopper.start();
+        // destroy() ждёт завершения фонового потока
+        while (stopper.getState() != Thread.State.TIMED_WAITING) Thread.onSpinWait();
+        release.countDown();
+        stopper.join(5_000);
+
+        // Прерванный поток упал бы в повторную запись по одному — второй вызов
+        verify(mailItemService, times(1)).createMailItems(anyMap());
+        assertFalse(stopper.isAlive());
+    }
+
+    @Test
+    @DisplayName("Ошибка пакетной записи — письма дописываются по одному")
+    void batchFailure_retriesOneByOne() throws InterruptedException {
+        queue = new MailItemWriteBehindQueue(mailItemService, true, 10, MailItemWriteBehindQueue.OverflowPolicy.BLOCK);
+        lenient().doThrow(new RuntimeException("DB failure"))
+                .when(mailItemService).createMailItems(argThat((Map<String, Email> batch) -> batch.size() > 1));
+        queue.add(mock(Email.class));
+        queue.add(mock(Email.class));
+
+        queue.destroy();
+
+        verify(mailItemService, times(2)).createMailItems(argThat((Map<String, Email> batch) -> batch.size() == 1));
+    }
+}
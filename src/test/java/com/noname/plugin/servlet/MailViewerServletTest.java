@@ -1,6 +1,7 @@
 package com.noname.plugin.servlet;
 
 import com.noname.plugin.security.AuthorizationService;
+import com.noname.plugin.servlet.handler.MailItemEventStream;
 import com.noname.plugin.servlet.handler.MailItemRequestHandler;
 import com.noname.plugin.servlet.renderer.MailItemPageRenderer;
 import com.noname.plugin.servlet.util.TestDataInitializer;
@@ -23,6 +24,7 @@ import static org.mockito.Mockito.*;
 class MailViewerServletTest {
 
     @Mock private MailItemRequestHandler requestHandler;
+    @Mock private MailItemEventStream eventStream;
     @Mock private MailItemPageRenderer pageRenderer;
     @Mock private TestDataInitializer testDataInitializer;
     @Mock private AuthorizationService authorizationService;
@@ -33,7 +35,7 @@ class MailViewerServletTest {
 
     @BeforeEach
     void setUp() {
-        servlet = new MailViewerServlet(requestHandler, pageRenderer, testDataInitializer, authorizationService);
+        servlet = new MailViewerServlet(requestHandler, eventStream, pageRenderer, testDataInitializer, authorizationService);
     }
 
     // ===== doGet — redirect logic =====
@@ -49,7 +51,7 @@ class MailViewerServletTest {
         verifyNoInteractions(authorizationService, pageRenderer, requestHandler);
     }
 
-    // ===== doGet — CSS served without auth =====
+    // ===== doGet — static files served without auth =====
 
     @Test
     @DisplayName("doGet: CSS path is served without authorization check")
@@ -58,7 +60,18 @@ class MailViewerServletTest {
 
         servlet.doGet(req, resp);
 
-        verify(pageRenderer).serveCssFile(req, resp);
+        verify(pageRenderer).serveStaticFile(req, resp);
+        verifyNoInteractions(authorizationService);
+    }
+
+    @Test
+    @DisplayName("doGet: table script is served without authorization check")
+    void doGet_jsPath_servedWithoutAuth() throws IOException {
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/js/mail-table.js");
+
+        servlet.doGet(req, resp);
+
+        verify(pageRenderer).serveStaticFile(req, resp);
         verifyNoInteractions(authorizationService);
     }
 
@@ -115,6 +128,29 @@ class MailViewerServletTest {
         verify(requestHandler).handleDataRequest(req, resp);
     }
 
+    @Test
+    @DisplayName("doGet: /mail-items/data/wait delegates to requestHandler.handleWaitRequest")
+    void doGet_waitPath_delegatesToHandler() throws IOException {
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/data/wait");
+        when(authorizationService.isSystemAdmin()).thenReturn(true);
+
+        servlet.doGet(req, resp);
+
+        verify(requestHandler).handleWaitRequest(req, resp);
+    }
+
+    @Test
+    @DisplayName("doGet: /mail-items/events delegates to eventStream.handleSubscribeRequest")
+    void doGet_eventsPath_delegatesToEventStream() throws IOException {
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/events");
+        when(authorizationService.isSystemAdmin()).thenReturn(true);
+
+        servlet.doGet(req, resp);
+
+        verify(eventStream).handleSubscribeRequest(req, resp);
+        verifyNoInteractions(requestHandler);
+    }
+
     @Test
     @DisplayName("doGet: /mail-items/table renders table page")
     void doGet_tablePath_rendersTablePage() throws IOException {
@@ -126,6 +162,53 @@ class MailViewerServletTest {
         verify(pageRenderer).renderTablePage(req, resp);
     }
 
+    @Test
+    @DisplayName("doGet: /mail-items/{uuid} delegates to requestHandler.handleGetByIdRequest")
+    void doGet_uuidPath_delegatesToHandler() throws IOException {
+        String uuid = "123e4567-e89b-12d3-a456-426614174000";
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/" + uuid);
+        when(authorizationService.isSystemAdmin()).thenReturn(true);
+
+        servlet.doGet(req, resp);
+
+        verify(requestHandler).handleGetByIdRequest(uuid, resp);
+    }
+
+    @Test
+    @DisplayName("doGet: /mail-items/export.ndjson delegates to requestHandler.handleExportRequest")
+    void doGet_exportPath_delegatesToHandler() throws IOException {
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/export.ndjson");
+        when(authorizationService.isSystemAdmin()).thenReturn(true);
+
+        servlet.doGet(req, resp);
+
+        verify(requestHandler).handleExportRequest(req, resp);
+    }
+
+    @Test
+    @DisplayName("doGet: /mail-items/delete-all/status delegates to requestHandler.handleDeleteAllStatusRequest")
+    void doGet_deleteAllStatusPath_delegatesToHandler() throws IOException {
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/delete-all/status");
+        when(authorizationService.isSystemAdmin()).thenReturn(true);
+
+        servlet.doGet(req, resp);
+
+        verify(requestHandler).handleDeleteAllStatusRequest(resp);
+    }
+
+    @Test
+    @DisplayName("doGet: handler failure after the response is committed does not call sendError")
+    void doGet_failureAfterCommit_noSendError() throws IOException {
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/export.ndjson");
+        when(authorizationService.isSystemAdmin()).thenReturn(true);
+        doThrow(new IllegalStateException("connection lost")).when(requestHandler).handleExportRequest(req, resp);
+        when(resp.isCommitted()).thenReturn(true);
+
+        servlet.doGet(req, resp);
+
+        verify(resp, never()).sendError(anyInt(), anyString());
+    }
+
     @Test
     @DisplayName("doGet: unknown path returns 404")
     void doGet_unknownPath_returns404() throws IOException {
@@ -0,0 +1,232 @@
+package com.noname.plugin.servlet.handler;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.noname.plugin.service.MailItemEvent;
+import com.noname.plugin.service.MailItemService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static com.noname.plugin.constants.MailViewerConstants.EVENT_STREAM_CONTENT_TYPE;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MailItemEventStream — поток Server-Sent Events")
+class MailItemEventStreamTest {
+
+    @Mock private MailItemService mailItemService;
+    @Mock private HttpServletRequest req;
+    @Mock private HttpServletResponse resp;
+    @Mock private AsyncContext async;
+
+    private MailItemEventStream eventStream;
+
+    @BeforeEach
+    void setUp() {
+        // Очереди соединений пишутся сразу в вызывающем потоке
+        eventStream = new MailItemEventStream(mailItemService, MoreExecutors.newDirectExecutorService());
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventStream.destroy();
+    }
+
+    private StringWriter subscribe() throws IOException {
+        StringWriter body = new StringWriter();
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenReturn(async);
+        when(resp.getWriter()).thenReturn(new PrintWriter(body));
+        eventStream.handleSubscribeRequest(req, resp);
+        return body;
+    }
+
+    // ===== Подписка =====
+
+    @Test
+    @DisplayName("handleSubscribeRequest: переводит запрос в асинхронный режим и отдаёт text/event-stream")
+    void subscribe_startsAsyncStream() throws IOException {
+        StringWriter body = subscribe();
+
+        verify(async).setTimeout(0);
+        verify(async).addListener(any(AsyncListener.class));
+        verify(resp).setContentType(EVENT_STREAM_CONTENT_TYPE);
+        verify(resp).setHeader("Cache-Control", "no-cache");
+        assertEquals("retry: 5000\n\n", body.toString());
+        assertEquals(1, eventStream.getConnectionCount());
+    }
+
+    @Test
+    @DisplayName("handleSubscribeRequest: без поддержки async — 503 без удержания соединения")
+    void subscribe_asyncNotSupported_returns503() throws IOException {
+        when(req.isAsyncSupported()).thenReturn(false);
+
+        eventStream.handleSubscribeRequest(req, resp);
+
+        verify(resp).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+        verify(req, never()).startAsync();
+        assertEquals(0, eventStream.getConnectionCount());
+    }
+
+    @Test
+    @DisplayName("handleSubscribeRequest: сверх лимита соединений — 503")
+    void subscribe_tooManyConnections_returns503() throws IOException {
+        for (int i = 0; i < MailItemEventStream.MAX_CONNECTIONS; i++) subscribe();
+        clearInvocations(req, resp);
+
+        eventStream.handleSubscribeRequest(req, resp);
+
+        verify(resp).sendError(anyInt(), eq("Too many event stream connections"));
+        verify(req, never()).startAsync();
+    }
+
+    @Test
+    @DisplayName("handleSubscribeRequest: сбой startAsync возвращает занятое место")
+    void subscribe_startAsyncFails_releasesSlot() throws IOException {
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenThrow(new IllegalStateException("Async not allowed"));
+        for (int i = 0; i < MailItemEventStream.MAX_CONNECTIONS; i++) {
+            assertThrows(IllegalStateException.class, () -> eventStream.handleSubscribeRequest(req, resp));
+        }
+        reset(req);
+
+        subscribe();
+
+        assertEquals(1, eventStream.getConnectionCount());
+        verify(resp, never()).sendError(anyInt(), anyString());
+    }
+
+    @Test
+    @DisplayName("handleSubscribeRequest: место закрытого соединения освобождается один раз и снова доступно")
+    void subscribe_afterClose_slotReusedOnce() throws IOException {
+        for (int i = 0; i < MailItemEventStream.MAX_CONNECTIONS; i++) subscribe();
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(async, atLeastOnce()).addListener(listener.capture());
+        listener.getValue().onComplete(null);
+        listener.getValue().onComplete(null);
+
+        subscribe();
+        verify(resp, never()).sendError(anyInt(), anyString());
+        eventStream.handleSubscribeRequest(req, resp);
+
+        assertEquals(MailItemEventStream.MAX_CONNECTIONS, eventStream.getConnectionCount());
+        verify(resp).sendError(anyInt(), eq("Too many event stream connections"));
+    }
+
+    // ===== Рассылка =====
+
+    @Test
+    @DisplayName("broadcast: событие created уходит во все соединения строкой data с JSON-сводкой")
+    void broadcast_created_writesEventFrame() throws IOException {
+        StringWriter body = subscribe();
+
+        eventStream.broadcast(MailItemEvent.created(42, "uuid-42", "a@example.com", "b@example.com", null, null,
+                "Тема", "Начало", 1000L));
+
+        String frame = body.toString().substring("retry: 5000\n\n".length());
+        assertTrue(frame.startsWith("event: created\ndata: {"), frame);
+        assertTrue(frame.endsWith("}\n\n"), frame);
+        assertTrue(frame.contains("\"seq\":42"));
+        assertTrue(frame.contains("\"id\":\"uuid-42\""));
+        assertTrue(frame.contains("\"subject\":\"Тема\""));
+        assertTrue(frame.contains("\"preview\":\"Начало\""));
+        assertTrue(frame.contains("\"createdAt\":1000"));
+    }
+
+    @Test
+    @DisplayName("broadcast: событие deleted содержит только seq и id")
+    void broadcast_deleted_writesIdOnly() throws IOException {
+        StringWriter body = subscribe();
+
+        eventStream.broadcast(MailItemEvent.deleted(7, "uuid-7"));
+
+        String frame = body.toString().substring("retry: 5000\n\n".length());
+        assertTrue(frame.startsWith("event: deleted\ndata: {"), frame);
+        assertTrue(frame.contains("\"seq\":7"));
+        assertTrue(frame.contains("\"id\":\"uuid-7\""));
+        assertFalse(frame.contains("\"subject\""));
+    }
+
+    @Test
+    @DisplayName("heartbeat: оборванное соединение закрывается и удаляется")
+    void heartbeat_brokenConnection_isClosed() throws IOException {
+        AtomicBoolean disconnected = new AtomicBoolean();
+        Writer socket = new Writer() {
+            @Override
+            public void write(char[] buf, int off, int len) throws IOException {
+                if (disconnected.get()) throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenReturn(async);
+        when(resp.getWriter()).thenReturn(new PrintWriter(socket));
+        eventStream.handleSubscribeRequest(req, resp);
+        assertEquals(1, eventStream.getConnectionCount());
+        disconnected.set(true);
+
+        eventStream.heartbeat();
+
+        assertEquals(0, eventStream.getConnectionCount());
+        verify(async).complete();
+    }
+
+    @Test
+    @DisplayName("broadcast: клиент, не успевающий читать, отключается, не задерживая рассылку")
+    void broadcast_laggingConnection_isClosed() throws IOException {
+        // Пул записи занят: кадры копятся в очереди соединения
+        eventStream = new MailItemEventStream(mailItemService, mock(ExecutorService.class));
+        subscribe();
+
+        // Первый кадр очереди — retry
+        for (int i = 1; i < MailItemEventStream.MAX_PENDING_FRAMES; i++) eventStream.heartbeat();
+        assertEquals(1, eventStream.getConnectionCount());
+        eventStream.heartbeat();
+
+        assertEquals(0, eventStream.getConnectionCount());
+        verify(async).complete();
+    }
+
+    // ===== Жизненный цикл =====
+
+    @Test
+    @DisplayName("afterPropertiesSet/destroy: подписка на события сервиса и отписка")
+    @SuppressWarnings("unchecked")
+    void lifecycle_subscribesAndUnsubscribes() {
+        Runnable unsubscribe = mock(Runnable.class);
+        when(mailItemService.subscribe(any(Consumer.class))).thenReturn(unsubscribe);
+
+        eventStream.afterPropertiesSet();
+        eventStream.destroy();
+
+        verify(unsubscribe).run();
+    }
+}
@@ -1,5 +1,7 @@
 package com.noname.plugin.servlet.handler;
 
+import com.noname.plugin.model.MailItem;
+import com.noname.plugin.service.MailItemDeleteProgress;
 import com.noname.plugin.service.MailItemService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -9,12 +11,17 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -46,7 +53,7 @@ class MailItemRequestHandlerTest {
         when(req.getParameterValues("tag")).thenReturn(null);
         when(req.getParameter("offset")).thenReturn(null);
         when(req.getParameter("limit")).thenReturn(null);
-        when(mailItemService.getAllMailItemsAsJson(null, 0, 10, 0, "desc")).thenReturn(json);
+        writes(json).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
 
         handler.handleDataRequest(req, resp);
 
@@ -62,12 +69,12 @@ class MailItemRequestHandlerTest {
         when(req.getParameterValues("tag")).thenReturn(tags);
         when(req.getParameter("offset")).thenReturn("10");
         when(req.getParameter("limit")).thenReturn("5");
-        when(mailItemService.getAllMailItemsAsJson(tags, 10, 5, 0, "desc")).thenReturn(json);
+        writes(json).writeAllMailItemsJson(tags, 10, 5, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
 
         handler.handleDataRequest(req, resp);
 
         verify(resp).setStatus(HttpServletResponse.SC_OK);
-        verify(mailItemService).getAllMailItemsAsJson(tags, 10, 5, 0, "desc");
+        verify(mailItemService).writeAllMailItemsJson(tags, 10, 5, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
     }
 
     @Test
@@ -77,12 +84,12 @@ class MailItemRequestHandlerTest {
         when(req.getParameterValues("tag")).thenReturn(null);
         when(req.getParameter("offset")).thenReturn("-5");
         when(req.getParameter("limit")).thenReturn("abc");
-        when(mailItemService.getAllMailItemsAsJson(null, 0, 10, 0, "desc")).thenReturn(json);
+        writes(json).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
 
         handler.handleDataRequest(req, resp);
 
         verify(resp).setStatus(HttpServletResponse.SC_OK);
-        verify(mailItemService).getAllMailItemsAsJson(null, 0, 10, 0, "desc");
+        verify(mailItemService).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
     }
 
     @Test
@@ -93,11 +100,11 @@ class MailItemRequestHandlerTest {
         when(req.getParameter("offset")).thenReturn(null);
         when(req.getParameter("limit")).thenReturn(null);
         when(req.getParameter("sinceId")).thenReturn("42");
-        when(mailItemService.getAllMailItemsAsJson(null, 0, 10, 42, "desc")).thenReturn(json);
+        writes(json).writeAllMailItemsJson(null, 0, 10, 42, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
 
         handler.handleDataRequest(req, resp);
 
-        verify(mailItemService).getAllMailItemsAsJson(null, 0, 10, 42, "desc");
+        verify(mailItemService).writeAllMailItemsJson(null, 0, 10, 42, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
     }
 
     @Test
@@ -108,11 +115,11 @@ class MailItemRequestHandlerTest {
         when(req.getParameter("offset")).thenReturn(null);
         when(req.getParameter("limit")).thenReturn(null);
         when(req.getParameter("sinceId")).thenReturn("abc");
-        when(mailItemService.getAllMailItemsAsJson(null, 0, 10, 0, "desc")).thenReturn(json);
+        writes(json).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
 
         handler.handleDataRequest(req, resp);
 
-        verify(mailItemService).getAllMailItemsAsJson(null, 0, 10, 0, "desc");
+        verify(mailItemService).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
     }
 
     @Test
@@ -123,11 +130,11 @@ class MailItemRequestHandlerTest {
         when(req.getParameter("offset")).thenReturn(null);
         when(req.getParameter("limit")).thenReturn(null);
         when(req.getParameter("sinceId")).thenReturn("-5");
-        when(mailItemService.getAllMailItemsAsJson(null, 0, 10, 0, "desc")).thenReturn(json);
+        writes(json).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
 
         handler.handleDataRequest(req, resp);
 
-        verify(mailItemService).getAllMailItemsAsJson(null, 0, 10, 0, "desc");
+        verify(mailItemService).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
     }
 
     @Test
@@ -136,8 +143,8 @@ class MailItemRequestHandlerTest {
         when(req.getParameterValues("tag")).thenReturn(null);
         when(req.getParameter("offset")).thenReturn(null);
         when(req.getParameter("limit")).thenReturn(null);
-        when(mailItemService.getAllMailItemsAsJson(null, 0, 10, 0, "desc"))
-                .thenThrow(new com.atlassian.jira.util.json.JSONException("json error"));
+        doThrow(new com.atlassian.jira.util.json.JSONException("json error"))
+                .when(mailItemService).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
 
         handler.handleDataRequest(req, resp);
 
@@ -155,12 +162,11 @@ class MailItemRequestHandlerTest {
         when(req.getParameter("limit")).thenReturn(null);
         when(req.getParameter("sinceId")).thenReturn(null);
         when(req.getParameter("sortOrder")).thenReturn("asc");
-        when(mailItemService.getAllMailItemsAsJson(any(), anyInt(), anyInt(), anyLong(), eq("asc")))
-                .thenReturn(json);
+        writes(json).writeAllMailItemsJson(any(), anyInt(), anyInt(), anyLong(), eq("asc"), any(), anyBoolean(), any(), any());
 
         handler.handleDataRequest(req, resp);
 
-        verify(mailItemService).getAllMailItemsAsJson(any(), anyInt(), anyInt(), anyLong(), eq("asc"));
+        verify(mailItemService).writeAllMailItemsJson(any(), anyInt(), anyInt(), anyLong(), eq("asc"), any(), anyBoolean(), any(), any());
     }
 
     @Test
@@ -172,12 +178,11 @@ class MailItemRequestHandlerTest {
         when(req.getParameter("limit")).thenReturn(null);
         when(req.getParameter("sinceId")).thenReturn(null);
         when(req.getParameter("sortOrder")).thenReturn("INVALID");
-        when(mailItemService.getAllMailItemsAsJson(any(), anyInt(), anyInt(), anyLong(), eq("desc")))
-                .thenReturn(json);
+        writes(json).writeAllMailItemsJson(any(), anyInt(), anyInt(), anyLong(), eq("desc"), any(), anyBoolean(), any(), any());
 
         handler.handleDataRequest(req, resp);
 
-        verify(mailItemService).getAllMailItemsAsJson(any(), anyInt(), anyInt(), anyLong(), eq("desc"));
+        verify(mailItemService).writeAllMailItemsJson(any(), anyInt(), anyInt(), anyLong(), eq("desc"), any(), anyBoolean(), any(), any());
     }
 
     @Test
@@ -189,12 +194,301 @@ class MailItemRequestHandlerTest {
         when(req.getParameter("limit")).thenReturn(null);
         when(req.getParameter("sinceId")).thenReturn(null);
         when(req.getParameter("sortOrder")).thenReturn(null);
-        when(mailItemService.getAllMailItemsAsJson(any(), anyInt(), anyInt(), anyLong(), eq("desc")))
-                .thenReturn(json);
+        writes(json).writeAllMailItemsJson(any(), anyInt(), anyInt(), anyLong(), eq("desc"), any(), anyBoolean(), any(), any());
 
         handler.handleDataRequest(req, resp);
 
-        verify(mailItemService).getAllMailItemsAsJson(any(), anyInt(), anyInt(), anyLong(), eq("desc"));
+        verify(mailItemService).writeAllMailItemsJson(any(), anyInt(), anyInt(), anyLong(), eq("desc"), any(), anyBoolean(), any(), any());
+    }
+
+    // ===== handleDataRequest — cursor =====
+
+    @Test
+    @DisplayName("handleDataRequest: параметр cursor переключает на keyset-пагинацию, offset не используется")
+    void handleDataRequest_withCursor_usesKeysetPage() throws Exception {
+        String json = "{\"items\":[],\"total\":0,\"limit\":10,\"maxId\":0}";
+        when(req.getParameterValues("tag")).thenReturn(null);
+        stubParams(Map.of("offset", "30", "cursor", "YjoxMA"));
+        writes(json).writeMailItemsPageJson(null, "YjoxMA", 10, 0, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        verify(writer).write(json);
+        verify(mailItemService, never()).writeAllMailItemsJson(any(), anyInt(), anyInt(), anyLong(), any(), any(), anyBoolean(), any(), any());
+    }
+
+    @Test
+    @DisplayName("handleDataRequest: невалидный cursor возвращает 400")
+    void handleDataRequest_invalidCursor_returns400() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(null);
+        stubParams(Map.of("cursor", "garbage"));
+        doThrow(new IllegalArgumentException("Invalid cursor"))
+                .when(mailItemService).writeMailItemsPageJson(any(), eq("garbage"), anyInt(), anyLong(), any(), any(), anyBoolean(), any(), any());
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertResponseContains("Invalid cursor");
+    }
+
+    // ===== handleDataRequest — searchMode =====
+
+    @Test
+    @DisplayName("handleDataRequest: параметр searchMode передаётся в сервис без изменений")
+    void handleDataRequest_searchMode_passedToService() throws Exception {
+        String[] tags = {"alice"};
+        String json = "{\"items\":[],\"total\":0,\"offset\":0,\"limit\":10,\"maxId\":0}";
+        when(req.getParameterValues("tag")).thenReturn(tags);
+        stubParams(Map.of("searchMode", "substring"));
+        writes(json).writeAllMailItemsJson(tags, 0, 10, 0, "desc", "substring", true, MailItemService.SUMMARY_FIELDS, writer);
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        verify(mailItemService).writeAllMailItemsJson(tags, 0, 10, 0, "desc", "substring", true, MailItemService.SUMMARY_FIELDS, writer);
+    }
+
+    @Test
+    @DisplayName("handleDataRequest: withTotal=false передаётся в сервис")
+    void handleDataRequest_withTotalFalse_passedToService() throws Exception {
+        String json = "{\"items\":[],\"hasMore\":false,\"offset\":0,\"limit\":10,\"maxId\":0}";
+        when(req.getParameterValues("tag")).thenReturn(null);
+        stubParams(Map.of("withTotal", "false"));
+        writes(json).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, false, MailItemService.SUMMARY_FIELDS, writer);
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        verify(writer).write(json);
+    }
+
+    @Test
+    @DisplayName("handleDataRequest: includeBody=true передаётся в сервис")
+    void handleDataRequest_includeBodyTrue_passedToService() throws Exception {
+        String json = "{\"items\":[],\"total\":0,\"offset\":0,\"limit\":10,\"maxId\":0}";
+        when(req.getParameterValues("tag")).thenReturn(null);
+        stubParams(Map.of("includeBody", "true"));
+        writes(json).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, MailItemService.LIST_FIELDS, writer);
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        verify(writer).write(json);
+    }
+
+    // ===== handleDataRequest — fields =====
+
+    @Test
+    @DisplayName("handleDataRequest: fields передаётся в сервис набором полей")
+    void handleDataRequest_fields_passedToService() throws Exception {
+        String json = "{\"items\":[],\"total\":0,\"offset\":0,\"limit\":10,\"maxId\":0}";
+        when(req.getParameterValues("tag")).thenReturn(null);
+        stubParams(Map.of("fields", "id, subject,to"));
+        writes(json).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true, Set.of("id", "subject", "to"), writer);
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        verify(writer).write(json);
+    }
+
+    @Test
+    @DisplayName("handleDataRequest: неизвестное поле в fields — возвращает 400 без обращения к сервису")
+    void handleDataRequest_unknownField_returns400() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(null);
+        stubParams(Map.of("fields", "id,rawHeaders"));
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertResponseContains("Unknown field: rawHeaders");
+        verifyNoInteractions(mailItemService);
+    }
+
+    // ===== handleDataRequest — ETag =====
+
+    @Test
+    @DisplayName("handleDataRequest: ответ помечается ETag и Cache-Control: no-cache")
+    void handleDataRequest_setsETag() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(null);
+        when(mailItemService.getStoreVersion()).thenReturn("7");
+
+        handler.handleDataRequest(req, resp);
+
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(resp).setHeader(eq("ETag"), etag.capture());
+        assertTrue(etag.getValue().matches("\"7-[0-9a-f]{16}\""), etag.getValue());
+        verify(resp).setHeader("Cache-Control", "no-cache");
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+    }
+
+    @Test
+    @DisplayName("handleDataRequest: совпавший If-None-Match — 304 без чтения писем")
+    void handleDataRequest_matchingIfNoneMatch_returns304() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(new String[]{"lorem"});
+        when(mailItemService.getStoreVersion()).thenReturn("7");
+        String etag = firstETag();
+        when(req.getHeader("If-None-Match")).thenReturn("W/" + etag);
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        // Письма читал только первый запрос
+        verify(mailItemService, times(1)).writeAllMailItemsJson(any(), anyInt(), anyInt(), anyLong(), any(), any(),
+                anyBoolean(), any(), any());
+    }
+
+    @Test
+    @DisplayName("handleDataRequest: после изменения хранилища старый ETag не совпадает — письма читаются заново")
+    void handleDataRequest_staleIfNoneMatch_returns200() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(null);
+        when(mailItemService.getStoreVersion()).thenReturn("7", "8");
+        String etag = firstETag();
+        when(req.getHeader("If-None-Match")).thenReturn(etag);
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(mailItemService, times(2)).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true,
+                MailItemService.SUMMARY_FIELDS, writer);
+    }
+
+    @Test
+    @DisplayName("handleDataRequest: разные параметры при одной версии дают разные ETag")
+    void handleDataRequest_differentParams_differentETags() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(null);
+        when(mailItemService.getStoreVersion()).thenReturn("7");
+        stubParams(Map.of("offset", "0"));
+        String first = firstETag();
+        stubParams(Map.of("offset", "10"));
+
+        handler.handleDataRequest(req, resp);
+
+        ArgumentCaptor<String> etags = ArgumentCaptor.forClass(String.class);
+        verify(resp, times(2)).setHeader(eq("ETag"), etags.capture());
+        assertNotEquals(first, etags.getAllValues().get(1));
+    }
+
+    @Test
+    @DisplayName("handleDataRequest: без версии хранилища ETag не выдаётся и If-None-Match не даёт 304")
+    void handleDataRequest_noStoreVersion_noETag() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(null);
+        lenient().when(req.getHeader("If-None-Match")).thenReturn("*");
+
+        handler.handleDataRequest(req, resp);
+
+        verify(resp, never()).setHeader(eq("ETag"), any());
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        verify(mailItemService).writeAllMailItemsJson(null, 0, 10, 0, "desc", null, true,
+                MailItemService.SUMMARY_FIELDS, writer);
+    }
+
+    // ===== handleWaitRequest =====
+
+    @Test
+    @DisplayName("handleWaitRequest: новые письма уже есть — сразу отвечает страницей /data")
+    void handleWaitRequest_alreadyArrived_respondsWithData() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(null);
+        stubParams(Map.of("sinceId", "42", "timeout", "5000"));
+        when(mailItemService.awaitMailItemsAfter(42L, 5000L)).thenReturn(CompletableFuture.completedFuture(true));
+
+        handler.handleWaitRequest(req, resp);
+
+        verify(mailItemService).writeAllMailItemsJson(null, 0, 10, 42, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
+        verify(req, never()).startAsync();
+    }
+
+    @Test
+    @DisplayName("handleWaitRequest: после прихода письма If-None-Match не учитывается — всегда страница, не 304")
+    void handleWaitRequest_arrived_ignoresIfNoneMatch() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(null);
+        stubParams(Map.of("sinceId", "42", "timeout", "5000"));
+        lenient().when(req.getHeader("If-None-Match")).thenReturn("*");
+        when(mailItemService.awaitMailItemsAfter(42L, 5000L)).thenReturn(CompletableFuture.completedFuture(true));
+
+        handler.handleWaitRequest(req, resp);
+
+        verify(resp, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(mailItemService).writeAllMailItemsJson(null, 0, 10, 42, "desc", null, true, MailItemService.SUMMARY_FIELDS, writer);
+    }
+
+    @Test
+    @DisplayName("handleWaitRequest: асинхронный запрос отпускает поток и отвечает пустой страницей по таймауту")
+    void handleWaitRequest_async_respondsEmptyOnTimeout() throws Exception {
+        AsyncContext async = mock(AsyncContext.class);
+        CompletableFuture<Boolean> arrival = new CompletableFuture<>();
+        stubParams(Map.of("sinceId", "42"));
+        when(mailItemService.awaitMailItemsAfter(42L, 25_000L)).thenReturn(arrival);
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenReturn(async);
+        when(async.getRequest()).thenReturn(req);
+        when(async.getResponse()).thenReturn(resp);
+        doAnswer(inv -> {
+            inv.<Runnable>getArgument(0).run();
+            return null;
+        }).when(async).start(any());
+
+        handler.handleWaitRequest(req, resp);
+        verify(resp, never()).getWriter();
+
+        arrival.complete(false);
+
+        assertResponseContains("\"maxId\":42");
+        verify(async).complete();
+        verifyNoMoreInteractions(mailItemService);
+    }
+
+    // ===== handleExportRequest =====
+
+    @Test
+    @DisplayName("handleExportRequest: передаёт фильтры в сервис и отдаёт NDJSON")
+    void handleExportRequest_passesFiltersAndStreamsNdjson() throws Exception {
+        String[] tags = {"alice"};
+        when(req.getParameterValues("tag")).thenReturn(tags);
+        stubParams(Map.of("createdFrom", "1000", "createdTo", "2000", "afterId", "42", "searchMode", "prefix"));
+
+        handler.handleExportRequest(req, resp);
+
+        verify(resp).setContentType("application/x-ndjson; charset=UTF-8");
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        verify(mailItemService).exportMailItemsNdjson(tags, "prefix", 1000L, 2000L, 42L, writer);
+    }
+
+    @Test
+    @DisplayName("handleExportRequest: слишком много тегов — возвращает 400 без выгрузки")
+    void handleExportRequest_tooManyTags_returns400() throws Exception {
+        when(req.getParameterValues("tag")).thenReturn(new String[11]);
+
+        handler.handleExportRequest(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        verifyNoInteractions(mailItemService);
+    }
+
+    @Test
+    @DisplayName("handleExportRequest: сбой базы после отправки строк — поток завершается без смены статуса")
+    void handleExportRequest_failureAfterCommit_endsStream() throws Exception {
+        when(mailItemService.exportMailItemsNdjson(null, null, 0L, 0L, 0L, writer))
+                .thenThrow(new IllegalStateException("connection lost"));
+        when(resp.isCommitted()).thenReturn(true);
+
+        handler.handleExportRequest(req, resp);
+
+        verify(resp, never()).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        verify(resp, never()).reset();
+    }
+
+    @Test
+    @DisplayName("handleExportRequest: сбой базы до отправки строк — 500")
+    void handleExportRequest_failureBeforeCommit_returns500() throws Exception {
+        when(mailItemService.exportMailItemsNdjson(null, null, 0L, 0L, 0L, writer))
+                .thenThrow(new IllegalStateException("connection lost"));
+
+        handler.handleExportRequest(req, resp);
+
+        verify(resp).reset();
+        verify(resp).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
     }
 
     // ===== handleDeleteAllRequest =====
@@ -221,6 +515,36 @@ class MailItemRequestHandlerTest {
         assertResponseContains("No mail items to delete");
     }
 
+    // ===== handleDeleteAllStatusRequest =====
+
+    @Test
+    @DisplayName("handleDeleteAllStatusRequest: удаление не запускалось — state=idle")
+    void handleDeleteAllStatusRequest_notStarted_returnsIdle() throws IOException {
+        handler.handleDeleteAllStatusRequest(resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        assertResponseContains("\"state\":\"idle\"");
+    }
+
+    @Test
+    @DisplayName("handleDeleteAllStatusRequest: идущее удаление — state=running и число удалённых писем")
+    void handleDeleteAllStatusRequest_running_returnsProgress() throws IOException {
+        MailItemDeleteProgress progress = mock(MailItemDeleteProgress.class);
+        when(progress.getState()).thenReturn(MailItemDeleteProgress.State.RUNNING);
+        when(progress.getDeleted()).thenReturn(1500L);
+        when(progress.getLastId()).thenReturn(1500L);
+        when(progress.getMaxId()).thenReturn(4000L);
+        when(mailItemService.getDeleteProgress()).thenReturn(progress);
+
+        handler.handleDeleteAllStatusRequest(resp);
+
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(writer).write(body.capture());
+        assertTrue(body.getValue().contains("\"state\":\"running\""), body.getValue());
+        assertTrue(body.getValue().contains("\"deleted\":1500"), body.getValue());
+        assertTrue(body.getValue().contains("\"maxId\":4000"), body.getValue());
+    }
+
     // ===== handleCreateTestDataRequest =====
 
     @Test
@@ -371,6 +695,36 @@ class MailItemRequestHandlerTest {
         assertResponseContains("Mail item not found");
     }
 
+    // ===== handleGetByIdRequest =====
+
+    @Test
+    @DisplayName("handleGetByIdRequest: существующее письмо — возвращает 200 с телом и заголовками")
+    void handleGetByIdRequest_existing_returnsFullItem() throws IOException {
+        MailItem item = new MailItem("to@example.com");
+        item.setId("uuid-1");
+        item.setSubject("Тема");
+        item.setBody("Тело письма");
+        item.setRawHeaders("X-Header: 1");
+        when(mailItemService.getMailItemById("uuid-1")).thenReturn(item);
+
+        handler.handleGetByIdRequest("uuid-1", resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_OK);
+        assertResponseContains("\"body\":\"Тело письма\"");
+        assertResponseContains("\"rawHeaders\":\"X-Header: 1\"");
+    }
+
+    @Test
+    @DisplayName("handleGetByIdRequest: несуществующее письмо — возвращает 404")
+    void handleGetByIdRequest_notFound_returns404() throws IOException {
+        when(mailItemService.getMailItemById("no-such-uuid")).thenReturn(null);
+
+        handler.handleGetByIdRequest("no-such-uuid", resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_NOT_FOUND);
+        assertResponseContains("Mail item not found");
+    }
+
     // ===== handleForbiddenRequest / handleNotFoundRequest / handleInternalError =====
 
     @Test
@@ -404,6 +758,27 @@ class MailItemRequestHandlerTest {
 
     // ===== helper =====
 
+    /** Сервис пишет {@code json} в переданный ему поток ответа. */
+    private MailItemService writes(String json) {
+        return doAnswer(inv -> {
+            inv.<Writer>getArgument(8).write(json);
+            return null;
+        }).when(mailItemService);
+    }
+
+    /** Выполняет запрос без {@code If-None-Match} и возвращает выданный {@code ETag}. */
+    private String firstETag() throws IOException {
+        handler.handleDataRequest(req, resp);
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(resp).setHeader(eq("ETag"), etag.capture());
+        return etag.getValue();
+    }
+
+    /** Отдаёт параметры запроса из карты; отсутствующие параметры равны {@code null}, как у настоящего запроса. */
+    private void stubParams(Map<String, String> params) {
+        when(req.getParameter(anyString())).thenAnswer(inv -> params.get(inv.<String>getArgument(0)));
+    }
+
     private void assertResponseContains(String expected) {
         ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
         verify(writer).write(captor.capture());
@@ -0,0 +1,168 @@
+package com.noname.plugin.servlet.renderer;
+
+import com.atlassian.sal.api.ApplicationProperties;
+import com.atlassian.templaterenderer.TemplateRenderer;
+import com.atlassian.webresource.api.assembler.PageBuilderService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static com.noname.plugin.constants.MailViewerConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MailItemPageRenderer — раздача статических файлов")
+class MailItemPageRendererTest {
+
+    private static final String CSS_URI = "/jira/plugins/servlet/mail-items/css/mail-table.css";
+
+    @Mock private PageBuilderService pageBuilderService;
+    @Mock private ApplicationProperties applicationProperties;
+    @Mock private TemplateRenderer templateRenderer;
+    @Mock private HttpServletRequest req;
+    @Mock private HttpServletResponse resp;
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private MailItemPageRenderer renderer;
+
+    @BeforeEach
+    void setUp() {
+        renderer = new MailItemPageRenderer(pageBuilderService, applicationProperties, templateRenderer);
+    }
+
+    // ===== serveStaticFile =====
+
+    @Test
+    @DisplayName("serveStaticFile: отдаёт байты файла из classpath с ETag и Cache-Control: no-cache")
+    void serveStaticFile_css_servesBytesWithETag() throws IOException {
+        when(req.getRequestURI()).thenReturn(CSS_URI);
+        when(resp.getOutputStream()).thenReturn(outputStream());
+
+        renderer.serveStaticFile(req, resp);
+
+        assertArrayEquals(resource(CSS_TABLE_RESOURCE), body.toByteArray());
+        verify(resp).setContentType(CSS_CONTENT_TYPE);
+        verify(resp).setHeader("Cache-Control", "no-cache");
+        verify(resp, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertTrue(etag().matches("\"[0-9a-f]{16}\""));
+    }
+
+    @Test
+    @DisplayName("serveStaticFile: ссылка с текущей версией кэшируется на год")
+    void serveStaticFile_currentVersion_longLivedCache() throws IOException {
+        when(req.getRequestURI()).thenReturn(CSS_URI);
+        when(resp.getOutputStream()).thenReturn(outputStream());
+        renderer.serveStaticFile(req, resp);
+        String version = etag().replace("\"", "");
+        when(req.getParameter("v")).thenReturn(version);
+
+        renderer.serveStaticFile(req, resp);
+
+        verify(resp).setHeader("Cache-Control", "public, max-age=" + STATIC_MAX_AGE_SECONDS + ", immutable");
+    }
+
+    @Test
+    @DisplayName("serveStaticFile: совпавший If-None-Match — 304 без тела")
+    void serveStaticFile_matchingIfNoneMatch_returns304() throws IOException {
+        when(req.getRequestURI()).thenReturn(CSS_URI);
+        when(resp.getOutputStream()).thenReturn(outputStream());
+        renderer.serveStaticFile(req, resp);
+        when(req.getHeader("If-None-Match")).thenReturn(etag());
+
+        renderer.serveStaticFile(req, resp);
+
+        verify(resp).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(resp, times(1)).getOutputStream();
+    }
+
+    @Test
+    @DisplayName("serveStaticFile: Accept-Encoding: gzip — отдаёт сжатый вариант со своим ETag")
+    void serveStaticFile_acceptsGzip_servesCompressed() throws IOException {
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/js/mail-table.js");
+        when(req.getHeader("Accept-Encoding")).thenReturn("gzip, deflate, br");
+        when(resp.getOutputStream()).thenReturn(outputStream());
+
+        renderer.serveStaticFile(req, resp);
+
+        verify(resp).setHeader("Content-Encoding", "gzip");
+        verify(resp).setContentType(JS_CONTENT_TYPE);
+        assertTrue(etag().endsWith("-gzip\""));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+            assertArrayEquals(resource(JS_TABLE_RESOURCE), in.readAllBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("serveStaticFile: gzip;q=0 — отдаёт файл без сжатия")
+    void serveStaticFile_gzipRefused_servesPlain() throws IOException {
+        when(req.getRequestURI()).thenReturn(CSS_URI);
+        when(req.getHeader("Accept-Encoding")).thenReturn("gzip;q=0, identity");
+        when(resp.getOutputStream()).thenReturn(outputStream());
+
+        renderer.serveStaticFile(req, resp);
+
+        verify(resp, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertArrayEquals(resource(CSS_TABLE_RESOURCE), body.toByteArray());
+    }
+
+    @Test
+    @DisplayName("serveStaticFile: неизвестный файл — 404")
+    void serveStaticFile_unknownPath_returns404() throws IOException {
+        when(req.getRequestURI()).thenReturn("/jira/plugins/servlet/mail-items/css/other.css");
+
+        renderer.serveStaticFile(req, resp);
+
+        verify(resp).sendError(HttpServletResponse.SC_NOT_FOUND, STATIC_NOT_FOUND_MESSAGE);
+    }
+
+    // ===== helper =====
+
+    /** Последний {@code ETag}, выставленный ответу. */
+    private String etag() {
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(resp, atLeastOnce()).setHeader(eq("ETag"), captor.capture());
+        return captor.getValue();
+    }
+
+    private static byte[] resource(String path) throws IOException {
+        try (InputStream in = MailItemPageRendererTest.class.getClassLoader().getResourceAsStream(path)) {
+            assertNotNull(in, "Нет ресурса " + path);
+            return in.readAllBytes();
+        }
+    }
+
+    /** Поток ответа, собирающий записанные байты в {@link #body}. */
+    private ServletOutputStream outputStream() {
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+    }
+}